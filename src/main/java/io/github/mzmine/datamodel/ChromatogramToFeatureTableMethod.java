@@ -18,6 +18,10 @@ import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -34,13 +38,16 @@ import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.msdk.datamodel.rawdata.IsolationInfo;
 import io.github.msdk.util.ChromatogramUtil;
-import io.github.msdk.util.FeatureTableUtil;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * This class adds a list of chromatograms to a feature table.
  */
 public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable> {
 
+  /** Number of chromatograms converted by one job. */
+  private static final int CHUNK_SIZE = 256;
+
   private final @Nonnull List<Chromatogram> chromatograms;
   private final @Nonnull FeatureTable featureTable;
   private final @Nonnull Sample sample;
@@ -52,8 +59,19 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
       MSDKObjectBuilder.getFeatureTableColumn(ColumnName.GROUPID, null);
   Map<Double, Integer> srmGroups = new HashMap<Double, Integer>();
 
-  private boolean canceled = false;
-  private int processedChromatograms = 0, totalChromatograms = 0;
+  /** Reusable data point buffers, one per converting thread. */
+  private static final ThreadLocal<DataPointBuffers> dataPointBuffers =
+      ThreadLocal.withInitial(DataPointBuffers::new);
+
+  private static class DataPointBuffers {
+    float rtValues[] = new float[0];
+    float intensityValues[] = new float[0];
+  }
+
+  private final @Nonnull Executor rowExecutor;
+  private volatile boolean canceled = false;
+  private final @Nonnull AtomicInteger processedChromatograms = new AtomicInteger();
+  private int totalChromatograms = 0;
 
   /**
    * <p>
@@ -67,9 +85,28 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
    */
   public ChromatogramToFeatureTableMethod(@Nonnull List<Chromatogram> chromatograms,
       @Nonnull FeatureTable featureTable, @Nonnull Sample sample) {
+    this(chromatograms, featureTable, sample, Runnable::run);
+  }
+
+  /**
+   * <p>
+   * Constructor for ChromatogramToFeatureTableMethod. The rows of the chromatograms are created in
+   * chunks by the given executor and added to the feature table in the order of the
+   * chromatograms.
+   * </p>
+   *
+   * @param chromatograms a list of {@link io.github.msdk.datamodel.chromatograms.Chromatogram}
+   *        objects.
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param sample a {@link io.github.msdk.datamodel.featuretables.Sample} object.
+   * @param rowExecutor a {@link java.util.concurrent.Executor} creating the rows.
+   */
+  public ChromatogramToFeatureTableMethod(@Nonnull List<Chromatogram> chromatograms,
+      @Nonnull FeatureTable featureTable, @Nonnull Sample sample, @Nonnull Executor rowExecutor) {
     this.chromatograms = chromatograms;
     this.featureTable = featureTable;
     this.sample = sample;
+    this.rowExecutor = rowExecutor;
   }
 
   /** {@inheritDoc} */
@@ -92,79 +129,128 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
     int lastID = 0;
     List<FeatureTableRow> rows = featureTable.getRows();
     if (!rows.isEmpty()) {
-      lastID = featureTable.getRows().get(featureTable.getRows().size()).getId();
+      lastID = rows.get(rows.size() - 1).getId();
     }
 
-    // Loop through all chromatograms and add values to the feature table
-    FeatureTableColumn<Object> column;
-    for (Chromatogram chromatogram : chromatograms) {
-      lastID++;
-      FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(featureTable, lastID);
-      column = featureTable.getColumn(ColumnName.ID, null);
-      newRow.setData(column, lastID);
-
-      // Add the data to the feature table row
-      addDataToRow(newRow, chromatogram, tableColumns);
-
-      // Add Q3 column and data for SRM chromatograms
-      if (chromatogram.getChromatogramType() == ChromatogramType.MRM_SRM) {
-
-        // Get Q1 and Q3 values
-        List<IsolationInfo> isolations = chromatogram.getIsolations();
-        Double mzQ1 = isolations.get(0).getPrecursorMz();
-        Double mzQ3 = isolations.get(1).getPrecursorMz();
-
-        // m/z column
-        column = featureTable.getColumn(ColumnName.MZ, sample);
-        newRow.setData(column, mzQ1);
-
-        // SRM Q1 column
-        column = featureTable.getColumn(ColumnName.Q1, null);
-        if (column == null)
-          featureTable.addColumn(q1Column);
-        column = featureTable.getColumn(ColumnName.Q1, null);
-        newRow.setData(column, mzQ1);
-
-        // SRM Q3 column
-        column = featureTable.getColumn(ColumnName.Q3, null);
-        if (column == null)
-          featureTable.addColumn(q3Column);
-        column = featureTable.getColumn(ColumnName.Q3, null);
-        newRow.setData(column, mzQ3);
-
-        // Group ID column
-        column = featureTable.getColumn(ColumnName.GROUPID, null);
-        if (column == null)
-          featureTable.addColumn(groupIdColumn);
-        column = featureTable.getColumn(ColumnName.GROUPID, null);
-
-        // Group ID
-        Integer groupID = srmGroups.get(mzQ1);
-        if (groupID == null) {
-          srmGroups.put(mzQ1, processedChromatograms + 1);
-
-          // Assign the first row to the 0 ID
-          newRow.setData(column, 0);
-        } else {
-          newRow.setData(column, groupID);
+    // The group IDs of SRM chromatograms depend on the order of the chromatograms, so they are
+    // assigned and the SRM columns are added before the rows are created in parallel
+    final Integer groupIDs[] = assignSrmGroups();
+
+    // Create the rows in chunks of chromatograms
+    final FeatureTableRow newRows[] = new FeatureTableRow[chromatograms.size()];
+    final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+    for (int start = 0; start < chromatograms.size(); start += CHUNK_SIZE) {
+      final int chunkStart = start, chunkEnd = Math.min(start + CHUNK_SIZE, chromatograms.size());
+      final int firstID = lastID + 1;
+      jobs.add(CompletableFuture.runAsync(() -> {
+        for (int i = chunkStart; i < chunkEnd && !canceled; i++) {
+          newRows[i] = createRow(chromatograms.get(i), firstID + i, groupIDs[i], tableColumns);
+          processedChromatograms.incrementAndGet();
         }
-      }
+      }, rowExecutor));
+    }
+    try {
+      CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      cancel();
+      if (e.getCause() instanceof MSDKException)
+        throw (MSDKException) e.getCause();
+      throw new MSDKException(e.getCause());
+    }
 
-      // Add row to feature table
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    // Add the rows to the feature table in the order of the chromatograms
+    for (FeatureTableRow newRow : newRows)
       featureTable.addRow(newRow);
 
-      // Increase counter
-      processedChromatograms++;
+    // Re-calculate average row m/z and RT values of the new rows
+    FeatureTableUtil.recalculateAverages(featureTable,
+        featureTable.getRows().subList(rows.size(), rows.size() + newRows.length), rowExecutor);
+
+    return featureTable;
+  }
 
-      // Check if cancel is requested
-      if (canceled)
-        return null;
+  /**
+   * Assigns the group IDs of the SRM chromatograms and adds the SRM columns to the table if there
+   * is any SRM chromatogram. The first chromatogram of a group gets the group ID 0.
+   *
+   * @return the group ID of each chromatogram, null for chromatograms which are not SRM.
+   */
+  private @Nonnull Integer[] assignSrmGroups() {
+    final Integer groupIDs[] = new Integer[chromatograms.size()];
+    for (int i = 0; i < groupIDs.length; i++) {
+      final Chromatogram chromatogram = chromatograms.get(i);
+      if (chromatogram.getChromatogramType() != ChromatogramType.MRM_SRM)
+        continue;
+
+      // SRM columns
+      if (featureTable.getColumn(ColumnName.Q1, null) == null)
+        featureTable.addColumn(q1Column);
+      if (featureTable.getColumn(ColumnName.Q3, null) == null)
+        featureTable.addColumn(q3Column);
+      if (featureTable.getColumn(ColumnName.GROUPID, null) == null)
+        featureTable.addColumn(groupIdColumn);
+
+      // Group ID
+      Double mzQ1 = chromatogram.getIsolations().get(0).getPrecursorMz();
+      Integer groupID = srmGroups.get(mzQ1);
+      if (groupID == null) {
+        srmGroups.put(mzQ1, i + 1);
+
+        // Assign the first row to the 0 ID
+        groupIDs[i] = 0;
+      } else {
+        groupIDs[i] = groupID;
+      }
     }
+    return groupIDs;
+  }
 
-    // Re-calculate average row m/z and RT values
-    FeatureTableUtil.recalculateAverages(featureTable);
+  /**
+   * Creates the feature table row of a chromatogram. The row is not added to the table.
+   */
+  private @Nonnull FeatureTableRow createRow(@Nonnull Chromatogram chromatogram, int rowID,
+      @Nullable Integer groupID,
+      @Nonnull Map<ColumnName, FeatureTableColumn<Object>> tableColumns) {
+    // Rows created by a columnar table store the numeric values without boxing them
+    FeatureTableRow newRow = featureTable instanceof ColumnarFeatureTable
+        ? ((ColumnarFeatureTable) featureTable).createRow(rowID)
+        : MSDKObjectBuilder.getFeatureTableRow(featureTable, rowID);
+    FeatureTableColumn<Object> column = featureTable.getColumn(ColumnName.ID, null);
+    newRow.setData(column, rowID);
+
+    // Add the data to the feature table row
+    addDataToRow(newRow, chromatogram, tableColumns);
+
+    // Add Q1, Q3 and group ID data for SRM chromatograms
+    if (groupID != null) {
+
+      // Get Q1 and Q3 values
+      List<IsolationInfo> isolations = chromatogram.getIsolations();
+      Double mzQ1 = isolations.get(0).getPrecursorMz();
+      Double mzQ3 = isolations.get(1).getPrecursorMz();
+
+      // m/z column
+      column = featureTable.getColumn(ColumnName.MZ, sample);
+      newRow.setData(column, mzQ1);
+
+      // SRM Q1 column
+      column = featureTable.getColumn(ColumnName.Q1, null);
+      newRow.setData(column, mzQ1);
+
+      // SRM Q3 column
+      column = featureTable.getColumn(ColumnName.Q3, null);
+      newRow.setData(column, mzQ3);
+
+      // Group ID column
+      column = featureTable.getColumn(ColumnName.GROUPID, null);
+      newRow.setData(column, groupID);
+    }
 
-    return featureTable;
+    return newRow;
   }
 
   /**
@@ -187,22 +273,24 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
 
     }
 
-    // Data structures
-    float rtBuffer[];
-    float intensityBuffer[] = new float[10000];
-
-    // Load data
-    rtBuffer = chromatogram.getRetentionTimes();
-    intensityBuffer = chromatogram.getIntensityValues(intensityBuffer);
-    int numOfDataPoints = chromatogram.getNumberOfDataPoints();
+    // Load data into the buffers of this thread, they only grow if a chromatogram does not fit
+    final DataPointBuffers buffers = dataPointBuffers.get();
+    buffers.rtValues = chromatogram.getRetentionTimes(buffers.rtValues);
+    buffers.intensityValues = chromatogram.getIntensityValues(buffers.intensityValues);
+    final float rtBuffer[] = buffers.rtValues;
+    final float intensityBuffer[] = buffers.intensityValues;
+    final int numOfDataPoints = chromatogram.getNumberOfDataPoints();
 
     FeatureTableColumn<Object> column;
 
     if (chromatogram.getIonAnnotation() != null) {
       column = featureTable.getColumn(ColumnName.IONANNOTATION, null);
-      List<IonAnnotation> ionAnnotations = (List<IonAnnotation>) row.getData(column);
-      if (ionAnnotations == null)
-        ionAnnotations = new ArrayList<IonAnnotation>();
+      List<IonAnnotation> currentIonAnnotations = (List<IonAnnotation>) row.getData(column);
+
+      // The current list may be shared with another table, so it is not modified
+      List<IonAnnotation> ionAnnotations = new ArrayList<IonAnnotation>();
+      if (currentIonAnnotations != null)
+        ionAnnotations.addAll(currentIonAnnotations);
       ionAnnotations.add(chromatogram.getIonAnnotation());
       row.setData(column, ionAnnotations);
     }
@@ -213,42 +301,30 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
     Double mz = chromatogram.getMz();
     column = tableColumns.get(ColumnName.MZ);
     if (mz != null)
-      row.setData(column, mz);
+      setDouble(row, column, mz);
 
     Float rt = ChromatogramUtil.getRt(rtBuffer, intensityBuffer, numOfDataPoints);
     column = tableColumns.get(ColumnName.RT);
-    row.setData(column, rt);
-
-    Float rtStart = ChromatogramUtil.getRtStart(rtBuffer, numOfDataPoints);
-    column = tableColumns.get(ColumnName.RTSTART);
-    if (rtStart != null) {
-      double doubleVal = rtStart;
-      row.setData(column, doubleVal);
-    }
-
-    Float rtEnd = ChromatogramUtil.getRtEnd(rtBuffer, numOfDataPoints);
-    column = tableColumns.get(ColumnName.RTEND);
-    if (rtEnd != null) {
-      double doubleVal = rtEnd;
-      row.setData(column, doubleVal);
-    }
-
-    Float duration = ChromatogramUtil.getDuration(rtBuffer, numOfDataPoints);
-    column = tableColumns.get(ColumnName.DURATION);
-    if (duration != null) {
-      double doubleVal = duration;
-      row.setData(column, doubleVal);
+    setFloat(row, column, rt);
+
+    // Start, end and duration are read from the sorted RT values directly
+    if (numOfDataPoints > 0) {
+      final float rtStart = rtBuffer[0];
+      final float rtEnd = rtBuffer[numOfDataPoints - 1];
+      setDouble(row, tableColumns.get(ColumnName.RTSTART), rtStart);
+      setDouble(row, tableColumns.get(ColumnName.RTEND), rtEnd);
+      setDouble(row, tableColumns.get(ColumnName.DURATION), rtEnd - rtStart);
     }
 
     Double area = ChromatogramUtil.getArea(rtBuffer, intensityBuffer, numOfDataPoints);
     column = tableColumns.get(ColumnName.AREA);
     if (area != null)
-      row.setData(column, area);
+      setDouble(row, column, area);
 
     Float height = ChromatogramUtil.getMaxHeight(intensityBuffer, numOfDataPoints);
     column = tableColumns.get(ColumnName.HEIGHT);
     if (height != null)
-      row.setData(column, height);
+      setFloat(row, column, height);
 
     column = tableColumns.get(ColumnName.NUMBEROFDATAPOINTS);
     row.setData(column, numOfDataPoints);
@@ -256,25 +332,51 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
     Double fwhm = ChromatogramUtil.getFwhm(rtBuffer, intensityBuffer, numOfDataPoints);
     if (fwhm != null) {
       column = tableColumns.get(ColumnName.FWHM);
-      row.setData(column, fwhm);
+      setDouble(row, column, fwhm);
     }
 
     Double tailingFactor =
         ChromatogramUtil.getTailingFactor(rtBuffer, intensityBuffer, numOfDataPoints);
     if (tailingFactor != null) {
       column = tableColumns.get(ColumnName.TAILINGFACTOR);
-      row.setData(column, tailingFactor);
+      setDouble(row, column, tailingFactor);
     }
 
     Double asymmetryFactor =
         ChromatogramUtil.getAsymmetryFactor(rtBuffer, intensityBuffer, numOfDataPoints);
     if (asymmetryFactor != null) {
       column = tableColumns.get(ColumnName.ASYMMETRYFACTOR);
-      row.setData(column, asymmetryFactor);
+      setDouble(row, column, asymmetryFactor);
     }
 
   }
 
+  /**
+   * Stores a value in a Double column. Rows of a {@link ColumnarFeatureTable} keep the value
+   * unboxed.
+   */
+  @SuppressWarnings("unchecked")
+  private static void setDouble(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column,
+      double value) {
+    if (row instanceof ColumnarFeatureTableRow)
+      ((ColumnarFeatureTableRow) row).setDouble((FeatureTableColumn<Double>) column, value);
+    else
+      row.setData((FeatureTableColumn<Double>) column, value);
+  }
+
+  /**
+   * Stores a value in a Float column. Rows of a {@link ColumnarFeatureTable} keep the value
+   * unboxed.
+   */
+  @SuppressWarnings("unchecked")
+  private static void setFloat(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column,
+      float value) {
+    if (row instanceof ColumnarFeatureTableRow)
+      ((ColumnarFeatureTableRow) row).setFloat((FeatureTableColumn<Float>) column, value);
+    else
+      row.setData((FeatureTableColumn<Float>) column, value);
+  }
+
   private void addCommonColumns(@Nonnull FeatureTable featureTable) {
     // Common columns
     // Only add common columns if the feature table is empty
@@ -297,7 +399,9 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
 
   /**
    * <p>
-   * addSampleColumns.
+   * addSampleColumns. Missing columns are added to the feature table, checking for a column and
+   * adding it is done while holding the lock of the feature table, so the method can be called
+   * from several threads.
    * </p>
    *
    * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
@@ -324,13 +428,15 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
     sampleColumns.add(ColumnName.TAILINGFACTOR);
     sampleColumns.add(ColumnName.ASYMMETRYFACTOR);
 
-    for (ColumnName columnName : sampleColumns) {
-      FeatureTableColumn<Object> column = featureTable.getColumn(columnName, sample);
-      if (column == null) {
-        column = MSDKObjectBuilder.getFeatureTableColumn(columnName, sample);
-        featureTable.addColumn(column);
+    synchronized (featureTable) {
+      for (ColumnName columnName : sampleColumns) {
+        FeatureTableColumn<Object> column = featureTable.getColumn(columnName, sample);
+        if (column == null) {
+          column = MSDKObjectBuilder.getFeatureTableColumn(columnName, sample);
+          featureTable.addColumn(column);
+        }
+        tableColumns.put(columnName, column);
       }
-      tableColumns.put(columnName, column);
     }
 
     return tableColumns;
@@ -340,7 +446,8 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
   @Override
   @Nullable
   public Float getFinishedPercentage() {
-    return totalChromatograms == 0 ? null : (float) processedChromatograms / totalChromatograms;
+    return totalChromatograms == 0 ? null
+        : (float) processedChromatograms.get() / totalChromatograms;
   }
 
   /** {@inheritDoc} */
@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.BitSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+
+/**
+ * Storage of the values of a single feature table column, indexed by row slot. Values are kept in
+ * a contiguous array and a bitmap records which slots hold a value, so that missing values do not
+ * need a boxed null.
+ */
+public abstract class ColumnStorage {
+
+  protected static final int INITIAL_CAPACITY = 16;
+
+  private final @Nonnull BitSet present = new BitSet();
+
+  /**
+   * Creates the storage best suited for the data type of the given column. Double, Float and
+   * Integer columns are backed by primitive arrays, all other types by an Object array.
+   *
+   * @param column the column to create the storage for.
+   * @return a new, empty {@link ColumnStorage}.
+   */
+  public static @Nonnull ColumnStorage create(@Nonnull FeatureTableColumn<?> column) {
+    final Class<?> dataTypeClass = column.getDataTypeClass();
+    if (dataTypeClass == Double.class)
+      return new DoubleColumnStorage();
+    if (dataTypeClass == Float.class)
+      return new FloatColumnStorage();
+    if (dataTypeClass == Integer.class)
+      return new IntegerColumnStorage();
+    return new ObjectColumnStorage();
+  }
+
+  /**
+   * Returns true if the given slot holds a value.
+   *
+   * @param slot the row slot.
+   * @return true if a value is present.
+   */
+  public boolean isSet(int slot) {
+    return present.get(slot);
+  }
+
+  /**
+   * Returns the bitmap of slots holding a value. The bitmap is live and must not be modified.
+   *
+   * @return a {@link java.util.BitSet} object.
+   */
+  public @Nonnull BitSet getPresentSlots() {
+    return present;
+  }
+
+  /**
+   * Returns the value at the given slot, boxed, or null if no value is present.
+   *
+   * @param slot the row slot.
+   * @return the value or null.
+   */
+  public @Nullable Object get(int slot) {
+    if (!present.get(slot))
+      return null;
+    return getValue(slot);
+  }
+
+  /**
+   * Stores the given value at the given slot. A null value clears the slot.
+   *
+   * @param slot the row slot.
+   * @param value the value to store.
+   */
+  public void set(int slot, @Nullable Object value) {
+    if (value == null) {
+      clear(slot);
+      return;
+    }
+    ensureCapacity(slot + 1);
+    setValue(slot, value);
+    present.set(slot);
+  }
+
+  /**
+   * Removes the value at the given slot.
+   *
+   * @param slot the row slot.
+   */
+  public void clear(int slot) {
+    present.clear(slot);
+  }
+
+  protected static int grow(int currentLength, int minCapacity) {
+    int newLength = Math.max(currentLength, INITIAL_CAPACITY);
+    while (newLength < minCapacity)
+      newLength += newLength >> 1;
+    return newLength;
+  }
+
+  protected abstract void ensureCapacity(int minCapacity);
+
+  protected abstract @Nonnull Object getValue(int slot);
+
+  protected abstract void setValue(int slot, @Nonnull Object value);
+
+}
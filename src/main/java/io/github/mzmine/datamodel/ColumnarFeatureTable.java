@@ -0,0 +1,420 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+/**
+ * Column oriented implementation of the FeatureTable interface. Every column is stored in a
+ * {@link ColumnStorage} indexed by row slot, so numeric values are kept in primitive arrays instead
+ * of boxed objects in per-row maps. Rows are lightweight {@link ColumnarFeatureTableRow} views on
+ * these storages.
+ */
+public class ColumnarFeatureTable implements FeatureTable {
+
+  private @Nonnull String name;
+  private @Nonnull DataPointStore dataPointStore;
+  private final @Nonnull FeatureTableRowList featureTableRows;
+  private final @Nonnull ArrayList<FeatureTableColumn<?>> featureTableColumns;
+  private final @Nonnull FeatureTableColumnIndex columnIndex;
+  private final @Nonnull FeatureTableSpatialIndex spatialIndex =
+      new FeatureTableSpatialIndex(this::getRows);
+  private final @Nonnull FeatureTableViews views = new FeatureTableViews();
+  private final @Nonnull Map<FeatureTableColumn<?>, ColumnStorage> columnStorages;
+  private final @Nonnull Map<FeatureTableColumn<?>, Supplier<ColumnStorage>> storageLoaders;
+  private int nextSlot = 0;
+
+  public ColumnarFeatureTable(@Nonnull String name, @Nonnull DataPointStore dataPointStore) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkNotNull(dataPointStore);
+    this.name = name;
+    this.dataPointStore = dataPointStore;
+    featureTableRows = new FeatureTableRowList();
+    featureTableColumns = new ArrayList<FeatureTableColumn<?>>();
+    columnIndex = new FeatureTableColumnIndex();
+    columnStorages = new HashMap<FeatureTableColumn<?>, ColumnStorage>();
+    storageLoaders = new HashMap<FeatureTableColumn<?>, Supplier<ColumnStorage>>();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull String getName() {
+    return name;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setName(@Nonnull String name) {
+    Preconditions.checkNotNull(name);
+    this.name = name;
+  }
+
+  /**
+   * Creates a new row backed by this table's column storages. The row is not part of the table
+   * until it is passed to {@link #addRow(FeatureTableRow)}.
+   *
+   * @param rowId the ID of the new row.
+   * @return a new {@link ColumnarFeatureTableRow}.
+   */
+  public @Nonnull ColumnarFeatureTableRow createRow(int rowId) {
+    final int slot;
+    synchronized (columnStorages) {
+      slot = nextSlot++;
+    }
+    return new ColumnarFeatureTableRow(this, rowId, slot);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The returned list is an immutable snapshot. It is shared between callers until the rows of the
+   * table are modified, so it is cheap to call this method repeatedly.
+   */
+  @Override
+  public @Nonnull List<FeatureTableRow> getRows() {
+    return featureTableRows.snapshot();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Rows which were not created by {@link #createRow(int)} of this table are copied into the
+   * column storages, and the table keeps a new row view instead of the given object.
+   */
+  @Override
+  public void addRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    FeatureTableRow newRow = row;
+    if (row.getFeatureTable() != this || !(row instanceof ColumnarFeatureTableRow)) {
+      final ColumnarFeatureTableRow copy = createRow(row.getId());
+      for (FeatureTableColumn<?> column : row.getFeatureTable().getColumns()) {
+        Object data = row.getData(column);
+        if (data != null)
+          setData(copy, column, data);
+      }
+      newRow = copy;
+    }
+    featureTableRows.add(newRow);
+    spatialIndex.rowAdded(newRow);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    if (!featureTableRows.remove(row))
+      return;
+    spatialIndex.rowRemoved(row);
+    if (row instanceof ColumnarFeatureTableRow) {
+      views.rowDiscarding(row);
+      final int slot = ((ColumnarFeatureTableRow) row).getSlot();
+      synchronized (columnStorages) {
+        for (ColumnStorage storage : columnStorages.values())
+          storage.clear(slot);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+
+  @Override
+  public @Nonnull List<FeatureTableColumn<?>> getColumns() {
+    List<FeatureTableColumn<?>> featureTableColumnsCopy = ImmutableList.copyOf(featureTableColumns);
+    return featureTableColumnsCopy;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull String columnName,
+      Sample sample, Class<? extends DATATYPE> dtClass) {
+    synchronized (featureTableColumns) {
+      return (FeatureTableColumn<DATATYPE>) columnIndex.get(columnName, sample);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull ColumnName columnName,
+      Sample sample) {
+    FeatureTableColumn<?> column =
+        getColumn(columnName.getName(), sample, columnName.getDataTypeClass());
+    if (column != null) {
+      return (FeatureTableColumn<DATATYPE>) column;
+    }
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addColumn(@Nonnull FeatureTableColumn<?> col) {
+    Preconditions.checkNotNull(col);
+    synchronized (featureTableColumns) {
+      featureTableColumns.add(col);
+      columnIndex.add(col);
+    }
+  }
+
+  /**
+   * Adds a column whose values are not loaded yet. The storage of the column is requested from the
+   * given loader when the column is accessed for the first time. The loader must return a storage
+   * of the type created by {@link ColumnStorage#create(FeatureTableColumn)}, indexed by the slots
+   * of the rows of this table.
+   *
+   * @param col the column.
+   * @param loader supplier of the storage of the column.
+   */
+  public void addColumn(@Nonnull FeatureTableColumn<?> col,
+      @Nonnull Supplier<ColumnStorage> loader) {
+    Preconditions.checkNotNull(loader);
+    synchronized (columnStorages) {
+      storageLoaders.put(col, loader);
+    }
+    addColumn(col);
+  }
+
+  /**
+   * Loads all columns whose values have not been accessed yet, so the table does not need their
+   * loaders anymore.
+   */
+  public void loadColumns() {
+    final List<FeatureTableColumn<?>> columns;
+    synchronized (columnStorages) {
+      columns = new ArrayList<>(storageLoaders.keySet());
+    }
+    for (FeatureTableColumn<?> column : columns)
+      findColumnStorage(column);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeColumn(@Nonnull FeatureTableColumn<?> col) {
+    Preconditions.checkNotNull(col);
+    views.columnDiscarding(col);
+    synchronized (featureTableColumns) {
+      if (featureTableColumns.remove(col))
+        columnIndex.remove(col, featureTableColumns);
+    }
+    synchronized (columnStorages) {
+      columnStorages.remove(col);
+      storageLoaders.remove(col);
+    }
+  }
+
+  /**
+   * Returns the storage holding the values of the given column, or null if no value has been set
+   * for the column yet. Filters can use the storage to scan a column contiguously, using
+   * {@link ColumnarFeatureTableRow#getSlot()} as index. Values are written while holding the lock
+   * of the storage, so the storage must only be read while holding its lock as well.
+   *
+   * @param column the column.
+   * @return the {@link ColumnStorage} of the column or null.
+   */
+  public @Nullable ColumnStorage getColumnStorage(@Nonnull FeatureTableColumn<?> column) {
+    return findColumnStorage(column);
+  }
+
+  /** {@inheritDoc} */
+
+  @Override
+  public @Nonnull List<Sample> getSamples() {
+    synchronized (featureTableColumns) {
+      return columnIndex.getSamples();
+    }
+  }
+
+  /**
+   * Returns the columns with the given name for all samples of this table, in the order of
+   * {@link #getSamples()}. The entry is null for samples which have no such column.
+   *
+   * @param columnName the {@link ColumnName} of the columns.
+   * @return a list with one column per sample.
+   */
+  public @Nonnull <DATATYPE> List<FeatureTableColumn<DATATYPE>> getColumns(
+      @Nonnull ColumnName columnName) {
+    synchronized (featureTableColumns) {
+      List<?> columns = columnIndex.getColumns(columnName.getName());
+      return (List<FeatureTableColumn<DATATYPE>>) columns;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void dispose() {
+    dataPointStore.dispose();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The rows are looked up in an m/z and RT index, which is built on first use and keeps track of
+   * rows which are added, removed or change their m/z or RT values afterwards. The result is in
+   * table order.
+   */
+  @Override
+  public List<FeatureTableRow> getRowsInsideRange(Range<Float> rtRange, Range<Double> mzRange) {
+    return spatialIndex.getRowsInsideRange(rtRange, mzRange);
+  }
+
+  /**
+   * Returns up to k rows closest to the given m/z and RT values, nearest first. The m/z and RT
+   * differences are divided by the given scales, for example the m/z and RT tolerances, before
+   * computing the euclidean distance. Rows without m/z or RT value are ignored.
+   *
+   * @param mz the m/z value.
+   * @param rt the retention time.
+   * @param k the maximum number of rows to return.
+   * @param mzScale the scale of m/z differences.
+   * @param rtScale the scale of RT differences.
+   * @return a list of {@link FeatureTableRow}s.
+   */
+  public @Nonnull List<FeatureTableRow> getNearestRows(double mz, float rt, int k, double mzScale,
+      float rtScale) {
+    return spatialIndex.getNearestRows(mz, rt, k, mzScale, rtScale);
+  }
+
+  /**
+   * Returns the views of this table, which keep their values when the values of this table change.
+   */
+  @Nonnull
+  FeatureTableViews getViews() {
+    return views;
+  }
+
+  /**
+   * Called when a row value of this table has been changed, to update the m/z and RT index if
+   * needed.
+   */
+  void rowValueChanged(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column) {
+    spatialIndex.rowValueChanged(row, column);
+  }
+
+  @Nullable
+  <DATATYPE> DATATYPE getData(int slot, @Nonnull FeatureTableColumn<? extends DATATYPE> column) {
+    final ColumnStorage storage = getColumnStorage(column);
+    if (storage == null)
+      return null;
+    // Writers may grow the arrays of the storage concurrently
+    synchronized (storage) {
+      return column.getDataTypeClass().cast(storage.get(slot));
+    }
+  }
+
+  void setData(@Nonnull ColumnarFeatureTableRow row, @Nonnull FeatureTableColumn<?> column,
+      @Nonnull Object data) {
+    views.valueChanging(row, column);
+    final ColumnStorage storage = getOrCreateColumnStorage(column);
+    synchronized (storage) {
+      storage.set(row.getSlot(), data);
+    }
+    rowValueChanged(row, column);
+  }
+
+  void setDouble(@Nonnull ColumnarFeatureTableRow row, @Nonnull FeatureTableColumn<Double> column,
+      double value) {
+    views.valueChanging(row, column);
+    final DoubleColumnStorage storage = (DoubleColumnStorage) getOrCreateColumnStorage(column);
+    synchronized (storage) {
+      storage.setDouble(row.getSlot(), value);
+    }
+    rowValueChanged(row, column);
+  }
+
+  void setFloat(@Nonnull ColumnarFeatureTableRow row, @Nonnull FeatureTableColumn<Float> column,
+      float value) {
+    views.valueChanging(row, column);
+    final FloatColumnStorage storage = (FloatColumnStorage) getOrCreateColumnStorage(column);
+    synchronized (storage) {
+      storage.setFloat(row.getSlot(), value);
+    }
+    rowValueChanged(row, column);
+  }
+
+  private @Nonnull ColumnStorage getOrCreateColumnStorage(@Nonnull FeatureTableColumn<?> column) {
+    while (true) {
+      final ColumnStorage storage = findColumnStorage(column);
+      if (storage != null)
+        return storage;
+      synchronized (columnStorages) {
+        // Unless a loader was added in the meantime, start an empty storage
+        if (!storageLoaders.containsKey(column))
+          return columnStorages.computeIfAbsent(column, ColumnStorage::create);
+      }
+    }
+  }
+
+  /**
+   * Returns the storage of the given column, loading it first if the column was added with a
+   * loader. The loader runs without holding the lock of columnStorages, so loading one column does
+   * not block the access to the other columns. The loader is only removed once it has returned, so
+   * a failed load is retried on the next access. A failed load is ignored if another thread has
+   * loaded the column in the meantime.
+   */
+  private @Nullable ColumnStorage findColumnStorage(@Nonnull FeatureTableColumn<?> column) {
+    while (true) {
+      final Supplier<ColumnStorage> loader;
+      synchronized (columnStorages) {
+        final ColumnStorage storage = columnStorages.get(column);
+        if (storage != null)
+          return storage;
+        loader = storageLoaders.get(column);
+        if (loader == null)
+          return null;
+      }
+
+      final ColumnStorage loadedStorage;
+      try {
+        loadedStorage = loader.get();
+      } catch (RuntimeException e) {
+        // The load failed, but another thread may have loaded the column in the meantime
+        synchronized (columnStorages) {
+          final ColumnStorage storage = columnStorages.get(column);
+          if (storage != null)
+            return storage;
+        }
+        throw e;
+      }
+
+      synchronized (columnStorages) {
+        // Another thread may have loaded the column first, or the column was removed or replaced
+        // during the load
+        final ColumnStorage storage = columnStorages.get(column);
+        if (storage != null)
+          return storage;
+        if (storageLoaders.get(column) == loader) {
+          storageLoaders.remove(column);
+          columnStorages.put(column, loadedStorage);
+          return loadedStorage;
+        }
+      }
+    }
+  }
+
+}
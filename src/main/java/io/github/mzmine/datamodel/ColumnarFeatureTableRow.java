@@ -0,0 +1,137 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+
+/**
+ * Implementation of FeatureTableRow used by {@link ColumnarFeatureTable}. The row holds no data
+ * itself, it only refers to a slot in the column storages of its table.
+ */
+public class ColumnarFeatureTableRow implements FeatureTableRow {
+
+  private final int rowId;
+  private final int slot;
+  private final @Nonnull ColumnarFeatureTable featureTable;
+
+  ColumnarFeatureTableRow(@Nonnull ColumnarFeatureTable featureTable, int rowId, int slot) {
+    Preconditions.checkNotNull(featureTable);
+    this.featureTable = featureTable;
+    this.rowId = rowId;
+    this.slot = slot;
+  }
+
+  /**
+   * Returns the index of this row in the column storages of its table.
+   *
+   * @return the slot of the row.
+   */
+  public int getSlot() {
+    return slot;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull FeatureTable getFeatureTable() {
+    return featureTable;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull Integer getId() {
+    return rowId;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Double getMz() {
+    return getData(MSDKObjectBuilder.getMzFeatureTableColumn());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getRT() {
+    return getData(MSDKObjectBuilder.getRetentionTimeFeatureTableColumn());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> void setData(FeatureTableColumn<? extends DATATYPE> column,
+      @Nonnull DATATYPE data) {
+    Preconditions.checkNotNull(column);
+    Preconditions.checkNotNull(data);
+    featureTable.setData(this, column, data);
+  }
+
+  /**
+   * Stores a primitive value in a Double column, without boxing it.
+   *
+   * @param column a {@link io.github.msdk.datamodel.featuretables.FeatureTableColumn} of type
+   *        Double.
+   * @param value the value to store.
+   */
+  public void setDouble(@Nonnull FeatureTableColumn<Double> column, double value) {
+    Preconditions.checkNotNull(column);
+    Preconditions.checkArgument(column.getDataTypeClass() == Double.class);
+    featureTable.setDouble(this, column, value);
+  }
+
+  /**
+   * Stores a primitive value in a Float column, without boxing it.
+   *
+   * @param column a {@link io.github.msdk.datamodel.featuretables.FeatureTableColumn} of type
+   *        Float.
+   * @param value the value to store.
+   */
+  public void setFloat(@Nonnull FeatureTableColumn<Float> column, float value) {
+    Preconditions.checkNotNull(column);
+    Preconditions.checkArgument(column.getDataTypeClass() == Float.class);
+    featureTable.setFloat(this, column, value);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> DATATYPE getData(@Nonnull FeatureTableColumn<? extends DATATYPE> column) {
+    Preconditions.checkNotNull(column);
+    return featureTable.getData(slot, column);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> void copyData(FeatureTableColumn<? extends DATATYPE> sourceColumn,
+      FeatureTableRow targetRow, FeatureTableColumn<? extends DATATYPE> targetColumn,
+      FeatureTableDataConverter<DATATYPE> featureTableDataConverter) {
+    featureTableDataConverter.apply(this, sourceColumn, targetRow, targetColumn);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    List<FeatureTableColumn<?>> columns = featureTable.getColumns();
+    List<String> contents = new ArrayList<String>();
+    for (FeatureTableColumn<?> column : columns) {
+      contents.add(column.getName() + "=" + getData(column));
+    }
+
+    return contents.toString();
+  }
+}
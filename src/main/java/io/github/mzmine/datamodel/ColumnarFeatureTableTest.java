@@ -0,0 +1,155 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+public class ColumnarFeatureTableTest {
+
+  @Test
+  public void testColumnStorage() {
+
+    // Create the data structures
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    Sample sample = new SimpleSample("sample");
+
+    FeatureTableColumn<Double> areaColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample);
+    FeatureTableColumn<Float> heightColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.HEIGHT.getName(), Float.class, sample);
+    FeatureTableColumn<String> textColumn =
+        new SimpleFeatureTableColumn<>("Comment", String.class, null);
+    featureTable.addColumn(areaColumn);
+    featureTable.addColumn(heightColumn);
+    featureTable.addColumn(textColumn);
+
+    // Verify column index
+    Assert.assertSame(areaColumn, featureTable.getColumn(ColumnName.AREA, sample));
+    Assert.assertNull(featureTable.getColumn(ColumnName.AREA, null));
+    Assert.assertEquals(1, featureTable.getSamples().size());
+    Assert.assertSame(heightColumn, featureTable.getColumns(ColumnName.HEIGHT).get(0));
+
+    // Add rows, leaving the height of every second row empty
+    for (int i = 1; i <= 100; i++) {
+      FeatureTableRow row = featureTable.createRow(i);
+      row.setData(areaColumn, i * 10.0);
+      if (i % 2 == 0)
+        row.setData(heightColumn, (float) i);
+      row.setData(textColumn, "Row " + i);
+      featureTable.addRow(row);
+    }
+
+    // Verify data
+    Assert.assertEquals(100, featureTable.getRows().size());
+    FeatureTableRow row = featureTable.getRows().get(4);
+    Assert.assertEquals(5, (int) row.getId());
+    Assert.assertEquals(50.0, row.getData(areaColumn), 0.0001);
+    Assert.assertNull(row.getData(heightColumn));
+    Assert.assertEquals("Row 5", row.getData(textColumn));
+
+    // Verify primitive storage
+    ColumnStorage storage = featureTable.getColumnStorage(heightColumn);
+    Assert.assertTrue(storage instanceof FloatColumnStorage);
+    Assert.assertEquals(50, storage.getPresentSlots().cardinality());
+
+    // Remove a row and verify that its cells are cleared
+    featureTable.removeRow(row);
+    Assert.assertEquals(99, featureTable.getRows().size());
+    Assert.assertNull(row.getData(areaColumn));
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testFailedLoadIsRetried() {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    Sample sample = new SimpleSample("sample");
+    FeatureTableColumn<Double> areaColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample);
+    FeatureTableRow row = featureTable.createRow(1);
+    featureTable.addRow(row);
+
+    // The first load fails, as if the project file could not be read
+    final AtomicInteger loads = new AtomicInteger();
+    featureTable.addColumn(areaColumn, () -> {
+      if (loads.incrementAndGet() == 1)
+        throw new IllegalStateException("Cannot read column");
+      DoubleColumnStorage storage = (DoubleColumnStorage) ColumnStorage.create(areaColumn);
+      storage.setDouble(((ColumnarFeatureTableRow) row).getSlot(), 42.0);
+      return storage;
+    });
+
+    try {
+      featureTable.getColumnStorage(areaColumn);
+      Assert.fail("The failed load was not reported");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    // The loader is kept and the values are available on the next access
+    Assert.assertEquals(42.0, row.getData(areaColumn), 0.0001);
+    Assert.assertEquals(2, loads.get());
+    Assert.assertNotNull(featureTable.getColumnStorage(areaColumn));
+    Assert.assertEquals(2, loads.get());
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testReadWhileStorageGrows() {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    FeatureTableColumn<Double> mzColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.MZ.getName(), Double.class, null);
+    featureTable.addColumn(mzColumn);
+    final List<FeatureTableRow> rows = new ArrayList<>();
+    for (int i = 1; i <= 20000; i++) {
+      FeatureTableRow row = featureTable.createRow(i);
+      featureTable.addRow(row);
+      rows.add(row);
+    }
+
+    // Values are set in slot order, so the storage keeps growing while it is read
+    CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+      for (int i = 0; i < rows.size(); i++)
+        rows.get(i).setData(mzColumn, 100.0 + i);
+    });
+    while (!writer.isDone()) {
+      for (int i = rows.size() - 1; i >= 0; i -= 7) {
+        Double mz = rows.get(i).getData(mzColumn);
+        if (mz != null)
+          Assert.assertEquals(100.0 + i, mz, 0.0001);
+      }
+    }
+    writer.join();
+    Assert.assertEquals(100.0, rows.get(0).getData(mzColumn), 0.0001);
+
+    featureTable.dispose();
+  }
+
+}
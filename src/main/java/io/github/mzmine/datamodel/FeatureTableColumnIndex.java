@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+/**
+ * Index of the columns of a feature table by (name, sample), together with the samples in the
+ * order of their first column. The index is not thread safe, the owning table must synchronize
+ * access. Renaming a column after it has been added to the table is not reflected in the index.
+ */
+class FeatureTableColumnIndex {
+
+  private final @Nonnull Map<ColumnKey, FeatureTableColumn<?>> columnsByKey = new HashMap<>();
+  private final @Nonnull Map<Sample, Integer> sampleColumnCounts = new HashMap<>();
+  private final @Nonnull List<Sample> samples = new ArrayList<>();
+  private @Nullable List<Sample> samplesCopy = ImmutableList.of();
+
+  /**
+   * Adds a column to the index. If a column with the same name and sample is already indexed, the
+   * first one is kept, as in a linear search over the column list.
+   */
+  void add(@Nonnull FeatureTableColumn<?> column) {
+    columnsByKey.putIfAbsent(new ColumnKey(column), column);
+
+    final Sample sample = column.getSample();
+    if (sample != null) {
+      Integer count = sampleColumnCounts.get(sample);
+      if (count == null) {
+        samples.add(sample);
+        samplesCopy = null;
+        count = 0;
+      }
+      sampleColumnCounts.put(sample, count + 1);
+    }
+  }
+
+  /**
+   * Removes a column from the index. If another column with the same name and sample remains in
+   * the table, it takes the place of the removed column.
+   *
+   * @param column the removed column.
+   * @param remainingColumns the columns of the table after the removal.
+   */
+  void remove(@Nonnull FeatureTableColumn<?> column,
+      @Nonnull List<FeatureTableColumn<?>> remainingColumns) {
+    final ColumnKey key = new ColumnKey(column);
+    if (columnsByKey.get(key) == column) {
+      columnsByKey.remove(key);
+      for (FeatureTableColumn<?> remaining : remainingColumns) {
+        if (key.equals(new ColumnKey(remaining))) {
+          columnsByKey.put(key, remaining);
+          break;
+        }
+      }
+    }
+
+    final Sample sample = column.getSample();
+    if (sample != null) {
+      Integer count = sampleColumnCounts.get(sample);
+      if (count == null)
+        return;
+      if (count <= 1) {
+        sampleColumnCounts.remove(sample);
+        samples.remove(sample);
+        samplesCopy = null;
+      } else {
+        sampleColumnCounts.put(sample, count - 1);
+      }
+    }
+  }
+
+  @Nullable
+  FeatureTableColumn<?> get(@Nonnull String columnName, @Nullable Sample sample) {
+    return columnsByKey.get(new ColumnKey(columnName, sample));
+  }
+
+  /**
+   * Returns the samples of the table, in the order in which their first column was added.
+   */
+  @Nonnull
+  List<Sample> getSamples() {
+    if (samplesCopy == null)
+      samplesCopy = ImmutableList.copyOf(samples);
+    return samplesCopy;
+  }
+
+  /**
+   * Returns the column with the given name for each sample, in the order of
+   * {@link #getSamples()}. The entry is null for samples which have no such column.
+   */
+  @Nonnull
+  List<FeatureTableColumn<?>> getColumns(@Nonnull String columnName) {
+    final List<Sample> currentSamples = getSamples();
+    final List<FeatureTableColumn<?>> columns = new ArrayList<>(currentSamples.size());
+    for (Sample sample : currentSamples)
+      columns.add(get(columnName, sample));
+    return Collections.unmodifiableList(columns);
+  }
+
+  private static final class ColumnKey {
+
+    private final @Nonnull String name;
+    private final @Nullable Sample sample;
+
+    ColumnKey(@Nonnull FeatureTableColumn<?> column) {
+      this(column.getName(), column.getSample());
+    }
+
+    ColumnKey(@Nonnull String name, @Nullable Sample sample) {
+      this.name = name;
+      this.sample = sample;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof ColumnKey))
+        return false;
+      ColumnKey other = (ColumnKey) obj;
+      return name.equals(other.name) && Objects.equals(sample, other.sample);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * name.hashCode() + Objects.hashCode(sample);
+    }
+
+  }
+
+}
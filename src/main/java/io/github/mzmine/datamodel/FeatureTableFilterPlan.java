@@ -0,0 +1,363 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+/**
+ * Set of numeric conditions on the columns of a feature table, evaluated column by column instead
+ * of row by row. Each condition reads one column into a primitive array for the rows which are
+ * still kept, and then clears the rows which do not fulfill it, so rows dropped by a condition are
+ * never read again. Rows of a {@link ColumnarFeatureTable} are read directly from the column
+ * storages, other tables are read through {@link FeatureTableRow#getData(FeatureTableColumn)}.
+ *
+ * The result of an evaluation is a {@link BitSet} of the indexes of the kept rows in the given row
+ * list, which can be used to create a {@link FilteredFeatureTable}.
+ */
+public class FeatureTableFilterPlan {
+
+  private final @Nonnull List<Condition> featureConditions = new ArrayList<>();
+  private final @Nonnull List<Condition> rowConditions = new ArrayList<>();
+  private int minFeatureCount = 0;
+
+  /**
+   * Adds a condition on a feature column. The feature of a sample is kept if its value is inside
+   * the given range or if it has no value.
+   *
+   * @param columnName the name of the feature columns.
+   * @param range the range of accepted values.
+   * @return this plan.
+   */
+  public @Nonnull FeatureTableFilterPlan addFeatureRange(@Nonnull ColumnName columnName,
+      @Nonnull Range<? extends Number> range) {
+    Preconditions.checkNotNull(columnName);
+    featureConditions.add(new Condition(columnName, null, new NumberRange(range), true, false));
+    return this;
+  }
+
+  /**
+   * Adds a condition on a feature column. The feature of a sample is only kept if it has a value
+   * in the column.
+   *
+   * @param columnName the name of the feature columns.
+   * @return this plan.
+   */
+  public @Nonnull FeatureTableFilterPlan requireFeatureValue(@Nonnull ColumnName columnName) {
+    Preconditions.checkNotNull(columnName);
+    featureConditions.add(new Condition(columnName, null, null, false, false));
+    return this;
+  }
+
+  /**
+   * Adds a condition on a column which is common to all samples.
+   *
+   * @param column the column, for example the row m/z column.
+   * @param range the range of accepted values.
+   * @param keepMissing true to keep the rows which have no value in the column.
+   * @return this plan.
+   */
+  public @Nonnull FeatureTableFilterPlan addRowRange(@Nonnull FeatureTableColumn<?> column,
+      @Nonnull Range<? extends Number> range, boolean keepMissing) {
+    Preconditions.checkNotNull(column);
+    rowConditions.add(new Condition(null, column, new NumberRange(range), keepMissing, false));
+    return this;
+  }
+
+  /**
+   * Adds a condition on the average of a feature column over all samples. Samples without value
+   * are not part of the average, rows without any value are dropped.
+   *
+   * @param columnName the name of the feature columns.
+   * @param range the range of accepted average values.
+   * @return this plan.
+   */
+  public @Nonnull FeatureTableFilterPlan addAverageFeatureRange(@Nonnull ColumnName columnName,
+      @Nonnull Range<? extends Number> range) {
+    Preconditions.checkNotNull(columnName);
+    rowConditions.add(new Condition(columnName, null, new NumberRange(range), false, true));
+    return this;
+  }
+
+  /**
+   * Sets the minimum number of samples in which a row must have a feature. A sample has a feature
+   * if the row has a m/z, area or height value for the sample.
+   *
+   * @param minFeatureCount the minimum number of features.
+   * @return this plan.
+   */
+  public @Nonnull FeatureTableFilterPlan setMinFeatureCount(int minFeatureCount) {
+    this.minFeatureCount = minFeatureCount;
+    return this;
+  }
+
+  /**
+   * Evaluates the feature conditions for one sample.
+   *
+   * @param featureTable the table the rows belong to.
+   * @param rows the rows to check.
+   * @param sample the sample to check.
+   * @return the indexes of the rows whose feature is kept for the sample.
+   */
+  public @Nonnull BitSet evaluateFeatures(@Nonnull FeatureTable featureTable,
+      @Nonnull List<FeatureTableRow> rows, @Nonnull Sample sample) {
+    final BitSet keep = new BitSet(rows.size());
+    keep.set(0, rows.size());
+    final double values[] = new double[rows.size()];
+    final int slots[] = getSlots(featureTable, rows);
+
+    for (Condition condition : featureConditions) {
+      FeatureTableColumn<?> column = featureTable.getColumn(condition.columnName, sample);
+      if (column == null) {
+        if (!condition.keepMissing)
+          keep.clear();
+        continue;
+      }
+      final BitSet present = readColumn(featureTable, rows, slots, column, keep, values);
+      condition.apply(keep, present, values);
+      if (keep.isEmpty())
+        break;
+    }
+    return keep;
+  }
+
+  /**
+   * Evaluates the row conditions.
+   *
+   * @param featureTable the table the rows belong to.
+   * @param rows the rows to check.
+   * @return the indexes of the kept rows.
+   */
+  public @Nonnull BitSet evaluateRows(@Nonnull FeatureTable featureTable,
+      @Nonnull List<FeatureTableRow> rows) {
+    final BitSet keep = new BitSet(rows.size());
+    keep.set(0, rows.size());
+    final double values[] = new double[rows.size()];
+    final int slots[] = getSlots(featureTable, rows);
+    final List<Sample> samples = featureTable.getSamples();
+
+    for (Condition condition : rowConditions) {
+      if (!condition.average) {
+        final BitSet present =
+            readColumn(featureTable, rows, slots, condition.column, keep, values);
+        condition.apply(keep, present, values);
+        continue;
+      }
+
+      // Sum up the values of all samples, then check the average
+      final double sums[] = new double[rows.size()];
+      final int counts[] = new int[rows.size()];
+      for (Sample sample : samples) {
+        FeatureTableColumn<?> column = featureTable.getColumn(condition.columnName, sample);
+        if (column == null)
+          continue;
+        final BitSet present = readColumn(featureTable, rows, slots, column, keep, values);
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+          sums[i] += values[i];
+          counts[i]++;
+        }
+      }
+      final BitSet present = new BitSet(rows.size());
+      for (int i = keep.nextSetBit(0); i >= 0; i = keep.nextSetBit(i + 1)) {
+        if (counts[i] > 0) {
+          values[i] = sums[i] / counts[i];
+          present.set(i);
+        }
+      }
+      condition.apply(keep, present, values);
+    }
+
+    // Count the samples with a feature in each row
+    if (minFeatureCount > 0 && !keep.isEmpty()) {
+      final int counts[] = new int[rows.size()];
+      for (Sample sample : samples) {
+        final BitSet hasFeature = new BitSet(rows.size());
+        for (ColumnName columnName : new ColumnName[] {ColumnName.MZ, ColumnName.AREA,
+            ColumnName.HEIGHT}) {
+          FeatureTableColumn<?> column = featureTable.getColumn(columnName, sample);
+          if (column == null)
+            continue;
+          final BitSet candidates = (BitSet) keep.clone();
+          candidates.andNot(hasFeature);
+          hasFeature.or(readColumn(featureTable, rows, slots, column, candidates, null));
+        }
+        for (int i = hasFeature.nextSetBit(0); i >= 0; i = hasFeature.nextSetBit(i + 1))
+          counts[i]++;
+      }
+      for (int i = keep.nextSetBit(0); i >= 0; i = keep.nextSetBit(i + 1)) {
+        if (counts[i] < minFeatureCount)
+          keep.clear(i);
+      }
+    }
+
+    return keep;
+  }
+
+  /**
+   * Returns the storage slots of the rows if all rows belong to the given columnar table, or null
+   * if the rows have to be read one by one.
+   */
+  private static @Nullable int[] getSlots(@Nonnull FeatureTable featureTable,
+      @Nonnull List<FeatureTableRow> rows) {
+    if (!(featureTable instanceof ColumnarFeatureTable))
+      return null;
+    final int slots[] = new int[rows.size()];
+    for (int i = 0; i < slots.length; i++) {
+      final FeatureTableRow row = rows.get(i);
+      if (!(row instanceof ColumnarFeatureTableRow) || row.getFeatureTable() != featureTable)
+        return null;
+      slots[i] = ((ColumnarFeatureTableRow) row).getSlot();
+    }
+    return slots;
+  }
+
+  /**
+   * Reads the values of the column for the candidate rows.
+   *
+   * @param values the array to store the values in, at the row index. If null, only the presence
+   *        of the values is checked.
+   * @return the indexes of the candidate rows which have a value.
+   */
+  private static @Nonnull BitSet readColumn(@Nonnull FeatureTable featureTable,
+      @Nonnull List<FeatureTableRow> rows, @Nullable int slots[],
+      @Nonnull FeatureTableColumn<?> column, @Nonnull BitSet candidates,
+      @Nullable double values[]) {
+    final BitSet present = new BitSet(rows.size());
+
+    if (slots != null) {
+      final ColumnStorage storage = ((ColumnarFeatureTable) featureTable).getColumnStorage(column);
+      if (storage == null)
+        return present;
+      synchronized (storage) {
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+          final int slot = slots[i];
+          if (!storage.isSet(slot))
+            continue;
+          present.set(i);
+          if (values == null)
+            continue;
+          if (storage instanceof DoubleColumnStorage)
+            values[i] = ((DoubleColumnStorage) storage).getDouble(slot);
+          else if (storage instanceof FloatColumnStorage)
+            values[i] = ((FloatColumnStorage) storage).getFloat(slot);
+          else if (storage instanceof IntegerColumnStorage)
+            values[i] = ((IntegerColumnStorage) storage).getInt(slot);
+          else
+            values[i] = ((Number) storage.get(slot)).doubleValue();
+        }
+      }
+      return present;
+    }
+
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      final Object value = rows.get(i).getData(column);
+      if (value == null)
+        continue;
+      present.set(i);
+      if (values != null)
+        values[i] = ((Number) value).doubleValue();
+    }
+    return present;
+  }
+
+  /**
+   * Range with primitive bounds. Values are compared with
+   * {@link Double#compare(double, double)} to give the same result as
+   * {@link Range#contains(Comparable)}.
+   */
+  private static class NumberRange {
+
+    private final double lower, upper;
+    private final boolean lowerClosed, upperClosed;
+
+    NumberRange(@Nonnull Range<? extends Number> range) {
+      Preconditions.checkNotNull(range);
+      if (range.hasLowerBound()) {
+        lower = range.lowerEndpoint().doubleValue();
+        lowerClosed = range.lowerBoundType() == BoundType.CLOSED;
+      } else {
+        lower = Double.NEGATIVE_INFINITY;
+        lowerClosed = true;
+      }
+      if (range.hasUpperBound()) {
+        upper = range.upperEndpoint().doubleValue();
+        upperClosed = range.upperBoundType() == BoundType.CLOSED;
+      } else {
+        // NaN compares greater than any other value, also positive infinity
+        upper = Double.NaN;
+        upperClosed = true;
+      }
+    }
+
+    boolean contains(double value) {
+      final int lowerCompare = Double.compare(value, lower);
+      if (lowerClosed ? lowerCompare < 0 : lowerCompare <= 0)
+        return false;
+      final int upperCompare = Double.compare(value, upper);
+      return upperClosed ? upperCompare <= 0 : upperCompare < 0;
+    }
+  }
+
+  /**
+   * Single condition of the plan, either on the feature columns with the given name, on a common
+   * column or on the average of the feature columns.
+   */
+  private static class Condition {
+
+    private final @Nullable ColumnName columnName;
+    private final @Nullable FeatureTableColumn<?> column;
+    private final @Nullable NumberRange range;
+    private final boolean keepMissing;
+    private final boolean average;
+
+    Condition(@Nullable ColumnName columnName, @Nullable FeatureTableColumn<?> column,
+        @Nullable NumberRange range, boolean keepMissing, boolean average) {
+      this.columnName = columnName;
+      this.column = column;
+      this.range = range;
+      this.keepMissing = keepMissing;
+      this.average = average;
+    }
+
+    /**
+     * Clears the kept rows which do not fulfill this condition.
+     */
+    void apply(@Nonnull BitSet keep, @Nonnull BitSet present, @Nonnull double values[]) {
+      for (int i = keep.nextSetBit(0); i >= 0; i = keep.nextSetBit(i + 1)) {
+        final boolean fulfilled;
+        if (!present.get(i))
+          fulfilled = keepMissing;
+        else
+          fulfilled = range == null || range.contains(values[i]);
+        if (!fulfilled)
+          keep.clear(i);
+      }
+    }
+  }
+
+}
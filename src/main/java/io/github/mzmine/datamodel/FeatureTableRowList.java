@@ -0,0 +1,75 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableList;
+
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+
+/**
+ * Thread safe list of the rows of a feature table. Readers get an immutable snapshot which is
+ * built once and shared until the next modification, so repeated calls do not copy the rows and
+ * iterating a snapshot is never affected by concurrent writers.
+ */
+class FeatureTableRowList {
+
+  private final @Nonnull ArrayList<FeatureTableRow> rows = new ArrayList<>();
+  private volatile ImmutableList<FeatureTableRow> snapshot = ImmutableList.of();
+  private volatile long version = 0;
+
+  synchronized void add(@Nonnull FeatureTableRow row) {
+    rows.add(row);
+    modified();
+  }
+
+  synchronized boolean remove(@Nonnull FeatureTableRow row) {
+    if (!rows.remove(row))
+      return false;
+    modified();
+    return true;
+  }
+
+  /**
+   * Returns an immutable snapshot of the rows. The same instance is returned until the list is
+   * modified.
+   */
+  @Nonnull
+  ImmutableList<FeatureTableRow> snapshot() {
+    ImmutableList<FeatureTableRow> current = snapshot;
+    if (current != null)
+      return current;
+    synchronized (this) {
+      if (snapshot == null)
+        snapshot = ImmutableList.copyOf(rows);
+      return snapshot;
+    }
+  }
+
+  /**
+   * Returns a number which is incremented on every modification of the list.
+   */
+  long getVersion() {
+    return version;
+  }
+
+  private void modified() {
+    snapshot = null;
+    version++;
+  }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.mzmine.util.MzRtIndex;
+
+/**
+ * Index of the rows of one feature table by their m/z and RT values, built on first use.
+ *
+ * The rows are indexed in an {@link MzRtIndex}, which groups them into RT buckets and sorts them by
+ * m/z inside each bucket. Rows which are added or whose m/z or RT value changes after the index
+ * was built are kept in a small list of changed rows, which every query scans with the current
+ * values of the rows, and removed rows are skipped. The index is only rebuilt when the changed and
+ * removed rows exceed a fraction of the indexed rows. Rows without m/z or RT value are not
+ * returned. Queries and updates are serialized on the index.
+ */
+class FeatureTableSpatialIndex {
+
+  // Changes which are tolerated before the index is rebuilt, in addition to 1/8 of the rows
+  private static final int MIN_PENDING_CHANGES = 32;
+
+  private final @Nonnull Supplier<List<FeatureTableRow>> tableRows;
+
+  // The indexed rows in table order, null until the index is built
+  private volatile @Nullable List<FeatureTableRow> baseRows;
+  private @Nullable MzRtIndex baseIndex;
+  private @Nullable Map<FeatureTableRow, Integer> basePositions;
+
+  // Rows added or changed since the index was built, with their position in table order, and base
+  // rows which have been removed
+  private final @Nonnull Map<FeatureTableRow, Integer> changedRows = new IdentityHashMap<>();
+  private final @Nonnull Set<FeatureTableRow> removedRows =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+  private int nextPosition;
+
+  /**
+   * @param tableRows supplier of the current rows of the table, in table order.
+   */
+  FeatureTableSpatialIndex(@Nonnull Supplier<List<FeatureTableRow>> tableRows) {
+    this.tableRows = tableRows;
+  }
+
+  /**
+   * Called after a row has been added to the table.
+   */
+  void rowAdded(@Nonnull FeatureTableRow row) {
+    if (baseRows == null)
+      return;
+    synchronized (this) {
+      if (baseRows == null)
+        return;
+      removedRows.remove(row);
+      changedRows.put(row, nextPosition++);
+    }
+  }
+
+  /**
+   * Called after a row has been removed from the table.
+   */
+  void rowRemoved(@Nonnull FeatureTableRow row) {
+    if (baseRows == null)
+      return;
+    synchronized (this) {
+      if (baseRows == null)
+        return;
+      changedRows.remove(row);
+      if (getBasePosition(row) != null)
+        removedRows.add(row);
+    }
+  }
+
+  /**
+   * Called after a value of a row has been changed. Rows which are not part of the table yet, for
+   * example rows which are being filled before they are added, are ignored.
+   */
+  void rowValueChanged(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column) {
+    if (baseRows == null)
+      return;
+    if (!column.equals(MSDKObjectBuilder.getMzFeatureTableColumn())
+        && !column.equals(MSDKObjectBuilder.getRetentionTimeFeatureTableColumn()))
+      return;
+    synchronized (this) {
+      if (baseRows == null || changedRows.containsKey(row) || removedRows.contains(row))
+        return;
+      final Integer position = getBasePosition(row);
+      if (position != null)
+        changedRows.put(row, position);
+    }
+  }
+
+  /**
+   * Returns the rows inside the given ranges, in table order.
+   */
+  @Nonnull
+  synchronized List<FeatureTableRow> getRowsInsideRange(@Nonnull Range<Float> rtRange,
+      @Nonnull Range<Double> mzRange) {
+    Preconditions.checkNotNull(rtRange);
+    Preconditions.checkNotNull(mzRange);
+    final List<FeatureTableRow> base = update();
+    final double mzMin =
+        mzRange.hasLowerBound() ? mzRange.lowerEndpoint() : Double.NEGATIVE_INFINITY;
+    final double mzMax =
+        mzRange.hasUpperBound() ? mzRange.upperEndpoint() : Double.POSITIVE_INFINITY;
+    final float rtMin = rtRange.hasLowerBound() ? rtRange.lowerEndpoint() : Float.NEGATIVE_INFINITY;
+    final float rtMax = rtRange.hasUpperBound() ? rtRange.upperEndpoint() : Float.POSITIVE_INFINITY;
+
+    // Matches as {position, row} pairs, the index values are checked against the open bounds of
+    // the ranges
+    final List<Object[]> matches = new ArrayList<>();
+    for (int position : baseIndex.getPointsInside(mzMin, mzMax, rtMin, rtMax)) {
+      final FeatureTableRow row = base.get(position);
+      if (isPending(row))
+        continue;
+      if (mzRange.contains(row.getMz()) && rtRange.contains(row.getRT()))
+        matches.add(new Object[] {position, row});
+    }
+    for (Map.Entry<FeatureTableRow, Integer> entry : changedRows.entrySet()) {
+      final FeatureTableRow row = entry.getKey();
+      final Double mz = row.getMz();
+      final Float rt = row.getRT();
+      if (mz != null && rt != null && mzRange.contains(mz) && rtRange.contains(rt))
+        matches.add(new Object[] {entry.getValue(), row});
+    }
+
+    matches.sort((m1, m2) -> Integer.compare((Integer) m1[0], (Integer) m2[0]));
+    final List<FeatureTableRow> result = new ArrayList<>(matches.size());
+    for (Object match[] : matches)
+      result.add((FeatureTableRow) match[1]);
+    return result;
+  }
+
+  /**
+   * Returns up to k rows closest to the given m/z and RT, nearest first. The distance is the
+   * euclidean distance after dividing the m/z and RT differences by the given scales. Rows at the
+   * same distance are returned in table order.
+   */
+  @Nonnull
+  synchronized List<FeatureTableRow> getNearestRows(double mz, float rt, int k, double mzScale,
+      float rtScale) {
+    Preconditions.checkArgument(k >= 0);
+    Preconditions.checkArgument(mzScale > 0 && rtScale > 0);
+    final List<FeatureTableRow> base = update();
+
+    // Candidates as {distance, position, row} triples
+    final List<Object[]> candidates = new ArrayList<>();
+    for (int position : baseIndex.getNearestPoints(mz, rt, k, mzScale, rtScale,
+        p -> isPending(base.get(p)))) {
+      final FeatureTableRow row = base.get(position);
+      candidates.add(new Object[] {distance(row, mz, rt, mzScale, rtScale), position, row});
+    }
+    for (Map.Entry<FeatureTableRow, Integer> entry : changedRows.entrySet()) {
+      final double distance = distance(entry.getKey(), mz, rt, mzScale, rtScale);
+      if (!Double.isNaN(distance))
+        candidates.add(new Object[] {distance, entry.getValue(), entry.getKey()});
+    }
+
+    candidates.sort((c1, c2) -> {
+      final int cmp = Double.compare((Double) c1[0], (Double) c2[0]);
+      return cmp != 0 ? cmp : Integer.compare((Integer) c1[1], (Integer) c2[1]);
+    });
+    final List<FeatureTableRow> result = new ArrayList<>(Math.min(k, candidates.size()));
+    for (int i = 0; i < candidates.size() && i < k; i++)
+      result.add((FeatureTableRow) candidates.get(i)[2]);
+    return result;
+  }
+
+  /**
+   * Builds the index on first use, or rebuilds it if too many rows changed since it was built.
+   * Returns the indexed rows.
+   */
+  private @Nonnull List<FeatureTableRow> update() {
+    List<FeatureTableRow> base = baseRows;
+    if (base != null
+        && changedRows.size() + removedRows.size() <= MIN_PENDING_CHANGES + base.size() / 8)
+      return base;
+
+    // Read the row values once, they are looked up in the row data
+    base = tableRows.get();
+    final int rowCount = base.size();
+    final double mzValues[] = new double[rowCount];
+    final float rtValues[] = new float[rowCount];
+    float minRt = Float.POSITIVE_INFINITY, maxRt = Float.NEGATIVE_INFINITY;
+    int indexed = 0;
+    for (int i = 0; i < rowCount; i++) {
+      final FeatureTableRow row = base.get(i);
+      final Double mz = row.getMz();
+      final Float rt = row.getRT();
+      mzValues[i] = mz == null ? Double.NaN : mz;
+      rtValues[i] = rt == null ? Float.NaN : rt;
+      if (mz != null && rt != null && !mz.isNaN() && !rt.isNaN()) {
+        minRt = Math.min(minRt, rt);
+        maxRt = Math.max(maxRt, rt);
+        indexed++;
+      }
+    }
+
+    // About sqrt(n) buckets of sqrt(n) rows each, for evenly distributed retention times
+    final float bucketWidth = indexed > 1 ? (maxRt - minRt) / (float) Math.sqrt(indexed) : 0f;
+    baseIndex = new MzRtIndex(mzValues, rtValues, bucketWidth);
+    basePositions = null;
+    changedRows.clear();
+    removedRows.clear();
+    nextPosition = rowCount;
+    baseRows = base;
+    return base;
+  }
+
+  /**
+   * Returns true if the given base row has been changed or removed since the index was built.
+   */
+  private boolean isPending(@Nonnull FeatureTableRow row) {
+    return !changedRows.isEmpty() && changedRows.containsKey(row)
+        || !removedRows.isEmpty() && removedRows.contains(row);
+  }
+
+  /**
+   * Returns the table position of the given row when the index was built, or null if the row was
+   * not indexed. The lookup map is only built once a row is changed.
+   */
+  private @Nullable Integer getBasePosition(@Nonnull FeatureTableRow row) {
+    if (basePositions == null) {
+      final List<FeatureTableRow> base = baseRows;
+      basePositions = new IdentityHashMap<>(base.size());
+      for (int i = 0; i < base.size(); i++)
+        basePositions.put(base.get(i), i);
+    }
+    return basePositions.get(row);
+  }
+
+  private static double distance(@Nonnull FeatureTableRow row, double mz, float rt,
+      double mzScale, float rtScale) {
+    final Double rowMz = row.getMz();
+    final Float rowRt = row.getRT();
+    if (rowMz == null || rowRt == null)
+      return Double.NaN;
+    final double mzDist = (rowMz - mz) / mzScale;
+    final double rtDist = (rowRt - rt) / rtScale;
+    return mzDist * mzDist + rtDist * rtDist;
+  }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+
+public class FeatureTableSpatialIndexTest {
+
+  private final FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+  private final FeatureTableColumn<Float> rtColumn =
+      MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+
+  @Test
+  public void testRowsInsideRange() {
+    final Random random = new Random(1);
+    final ColumnarFeatureTable featureTable = createTable(random, 2000);
+
+    checkRanges(featureTable, random);
+
+    // Open and unbounded ranges
+    final List<FeatureTableRow> rows = featureTable.getRows();
+    final double mz = rows.get(7).getMz();
+    final float rt = rows.get(7).getRT();
+    Assert.assertEquals(expectedRows(featureTable, Range.openClosed(rt, rt + 5f), Range.all()),
+        featureTable.getRowsInsideRange(Range.openClosed(rt, rt + 5f), Range.all()));
+    Assert.assertEquals(expectedRows(featureTable, Range.all(), Range.greaterThan(mz)),
+        featureTable.getRowsInsideRange(Range.all(), Range.greaterThan(mz)));
+    Assert.assertFalse(featureTable.getRowsInsideRange(Range.all(), Range.openClosed(mz, mz + 1.0))
+        .contains(rows.get(7)));
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testNearestRows() {
+    final Random random = new Random(2);
+    final ColumnarFeatureTable featureTable = createTable(random, 2000);
+
+    checkNearest(featureTable, random);
+
+    // Rows at the same distance are returned in table order
+    final FeatureTableRow row1 = addRow(featureTable, 5000, 250.0, 1000f);
+    final FeatureTableRow row2 = addRow(featureTable, 5001, 250.0, 1000f);
+    Assert.assertEquals(row1, featureTable.getNearestRows(250.0, 1000f, 2, 1.0, 1f).get(0));
+    Assert.assertEquals(row2, featureTable.getNearestRows(250.0, 1000f, 2, 1.0, 1f).get(1));
+    Assert.assertTrue(featureTable.getNearestRows(250.0, 1000f, 0, 1.0, 1f).isEmpty());
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testQueriesAfterWrites() {
+    final Random random = new Random(3);
+    final ColumnarFeatureTable featureTable = createTable(random, 2000);
+
+    // Build the index, then change a few rows, so the changes are tracked without a rebuild
+    checkRanges(featureTable, random);
+    List<FeatureTableRow> rows = featureTable.getRows();
+    for (int i = 0; i < 20; i++) {
+      final ColumnarFeatureTableRow row = (ColumnarFeatureTableRow) rows.get(i * 50);
+      row.setDouble(mzColumn, 100.0 + 900.0 * random.nextDouble());
+      row.setFloat(rtColumn, 3600f * random.nextFloat());
+    }
+    featureTable.removeRow(rows.get(3));
+    featureTable.removeRow(rows.get(1500));
+    addRow(featureTable, 3000, 500.0, 1800f);
+    final ColumnarFeatureTableRow rowWithoutRt = featureTable.createRow(3001);
+    rowWithoutRt.setData(mzColumn, 500.0);
+    featureTable.addRow(rowWithoutRt);
+    checkRanges(featureTable, random);
+    checkNearest(featureTable, random);
+
+    // A row moved to the query point is found, its old position is not
+    final FeatureTableRow movedRow = featureTable.getRows().get(10);
+    final double oldMz = movedRow.getMz();
+    final float oldRt = movedRow.getRT();
+    movedRow.setData(mzColumn, 2000.0);
+    movedRow.setData(rtColumn, 10f);
+    Assert.assertEquals(movedRow, featureTable.getNearestRows(2000.0, 10f, 1, 0.01, 1f).get(0));
+    Assert.assertFalse(
+        featureTable.getRowsInsideRange(Range.singleton(oldRt), Range.singleton(oldMz))
+            .contains(movedRow));
+
+    // Enough changes to rebuild the index
+    rows = featureTable.getRows();
+    for (int i = 0; i < rows.size(); i += 3)
+      rows.get(i).setData(rtColumn, rows.get(i).getRT() + 1f);
+    for (int i = 0; i < 100; i++)
+      addRow(featureTable, 4000 + i, 100.0 + 900.0 * random.nextDouble(),
+          3600f * random.nextFloat());
+    checkRanges(featureTable, random);
+    checkNearest(featureTable, random);
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testSimpleFeatureTable() {
+    final Random random = new Random(4);
+    final FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable("simple",
+        DataPointStoreFactory.getMemoryDataStore());
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    for (int i = 0; i < 500; i++) {
+      final FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, i);
+      row.setData(mzColumn, 100.0 + 900.0 * random.nextDouble());
+      row.setData(rtColumn, 3600f * random.nextFloat());
+      featureTable.addRow(row);
+    }
+
+    checkRanges(featureTable, random);
+    final List<FeatureTableRow> rows = featureTable.getRows();
+    rows.get(42).setData(mzColumn, 1500.0);
+    featureTable.removeRow(rows.get(43));
+    checkRanges(featureTable, random);
+    Assert.assertEquals(rows.get(42),
+        featureTable.getRowsInsideRange(Range.all(), Range.atLeast(1500.0)).get(0));
+
+    featureTable.dispose();
+  }
+
+  private ColumnarFeatureTable createTable(Random random, int rowCount) {
+    final ColumnarFeatureTable featureTable =
+        new ColumnarFeatureTable("table", DataPointStoreFactory.getMemoryDataStore());
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    for (int i = 0; i < rowCount; i++)
+      addRow(featureTable, i, 100.0 + 900.0 * random.nextDouble(), 3600f * random.nextFloat());
+    return featureTable;
+  }
+
+  private FeatureTableRow addRow(ColumnarFeatureTable featureTable, int id, double mz,
+      float rt) {
+    final ColumnarFeatureTableRow row = featureTable.createRow(id);
+    row.setDouble(mzColumn, mz);
+    row.setFloat(rtColumn, rt);
+    featureTable.addRow(row);
+    return row;
+  }
+
+  private void checkRanges(FeatureTable featureTable, Random random) {
+    for (int i = 0; i < 50; i++) {
+      final double mz = 100.0 + 900.0 * random.nextDouble();
+      final float rt = 3600f * random.nextFloat();
+      final Range<Double> mzRange = Range.closed(mz, mz + 50.0 * random.nextDouble());
+      final Range<Float> rtRange = Range.closed(rt, rt + 600f * random.nextFloat());
+      Assert.assertEquals(expectedRows(featureTable, rtRange, mzRange),
+          featureTable.getRowsInsideRange(rtRange, mzRange));
+    }
+  }
+
+  private void checkNearest(ColumnarFeatureTable featureTable, Random random) {
+    for (int i = 0; i < 50; i++) {
+      final double mz = 100.0 + 900.0 * random.nextDouble();
+      final float rt = 3600f * random.nextFloat();
+      final int k = 1 + random.nextInt(20);
+      Assert.assertEquals(expectedNearest(featureTable, mz, rt, k, 0.01, 30f),
+          featureTable.getNearestRows(mz, rt, k, 0.01, 30f));
+    }
+  }
+
+  private List<FeatureTableRow> expectedRows(FeatureTable featureTable, Range<Float> rtRange,
+      Range<Double> mzRange) {
+    final List<FeatureTableRow> result = new ArrayList<>();
+    for (FeatureTableRow row : featureTable.getRows()) {
+      if (row.getMz() != null && row.getRT() != null && mzRange.contains(row.getMz())
+          && rtRange.contains(row.getRT()))
+        result.add(row);
+    }
+    return result;
+  }
+
+  private List<FeatureTableRow> expectedNearest(FeatureTable featureTable, double mz, float rt,
+      int k, double mzScale, float rtScale) {
+    final List<FeatureTableRow> result = new ArrayList<>();
+    for (FeatureTableRow row : featureTable.getRows()) {
+      if (row.getMz() != null && row.getRT() != null)
+        result.add(row);
+    }
+    result.sort(Comparator.comparingDouble(row -> {
+      final double mzDist = (row.getMz() - mz) / mzScale;
+      final double rtDist = (row.getRT() - rt) / rtScale;
+      return mzDist * mzDist + rtDist * rtDist;
+    }));
+    return result.subList(0, Math.min(k, result.size()));
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+
+/**
+ * The {@link FilteredFeatureTable} views of one feature table. The table calls them before one of
+ * its values changes or its values are discarded, so each view can keep a copy of the values it
+ * shows. The views are only weakly referenced, views which are no longer used are dropped.
+ */
+class FeatureTableViews {
+
+  private final @Nonnull List<WeakReference<FilteredFeatureTable>> views = new ArrayList<>();
+  private volatile boolean empty = true;
+
+  /**
+   * Returns the views of the given table, or null if the table does not support views which
+   * follow its changes.
+   */
+  static @Nullable FeatureTableViews of(@Nonnull FeatureTable featureTable) {
+    if (featureTable instanceof SimpleFeatureTable)
+      return ((SimpleFeatureTable) featureTable).getViews();
+    if (featureTable instanceof ColumnarFeatureTable)
+      return ((ColumnarFeatureTable) featureTable).getViews();
+    if (featureTable instanceof FilteredFeatureTable)
+      return ((FilteredFeatureTable) featureTable).getViews();
+    return null;
+  }
+
+  synchronized void add(@Nonnull FilteredFeatureTable view) {
+    views.add(new WeakReference<>(view));
+    empty = false;
+  }
+
+  /**
+   * Called before the value of the given column of the given row changes.
+   */
+  void valueChanging(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column) {
+    if (empty)
+      return;
+    for (FilteredFeatureTable view : getViews())
+      view.parentValueChanging(row, column);
+  }
+
+  /**
+   * Called before all values of the given row are discarded.
+   */
+  void rowDiscarding(@Nonnull FeatureTableRow row) {
+    if (empty)
+      return;
+    for (FilteredFeatureTable view : getViews())
+      view.parentRowDiscarding(row);
+  }
+
+  /**
+   * Called before all values of the given column are discarded.
+   */
+  void columnDiscarding(@Nonnull FeatureTableColumn<?> column) {
+    if (empty)
+      return;
+    for (FilteredFeatureTable view : getViews())
+      view.parentColumnDiscarding(column);
+  }
+
+  private synchronized @Nonnull List<FilteredFeatureTable> getViews() {
+    final List<FilteredFeatureTable> liveViews = new ArrayList<>(views.size());
+    for (Iterator<WeakReference<FilteredFeatureTable>> i = views.iterator(); i.hasNext();) {
+      final FilteredFeatureTable view = i.next().get();
+      if (view == null)
+        i.remove();
+      else
+        liveViews.add(view);
+    }
+    empty = views.isEmpty();
+    return liveViews;
+  }
+
+}
@@ -0,0 +1,417 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+/**
+ * Filtered view of a parent feature table. The view does not copy the data of the parent, it only
+ * keeps a mask of the parent rows which are part of the view and, optionally, a mask per sample of
+ * the rows whose feature values are kept. Feature values of a sample are hidden in the rows which
+ * are not set in the mask of the sample.
+ *
+ * Values set on the rows of the view are stored in the view and hide the values of the parent
+ * row, rows and columns added to the view are only part of the view.
+ *
+ * The view does not follow changes of the parent table. It contains the parent rows which were
+ * passed to the constructor, and the parent table tells the view before one of its values changes
+ * or is discarded, so the view can first keep a copy of the value it shows. Only the values which
+ * are changed in the parent are copied. If the parent is not a table of this package, it cannot
+ * tell the view about its changes, so the view copies all values when it is created. Use
+ * {@link #materialize(String, DataPointStore)} to create an independent copy of the view, so the
+ * parent table can be released.
+ */
+public class FilteredFeatureTable implements FeatureTable {
+
+  private @Nonnull String name;
+  private @Nonnull DataPointStore dataPointStore;
+  private final @Nonnull FeatureTable parentTable;
+  private final @Nonnull FeatureTableRowList featureTableRows;
+  private final @Nonnull ArrayList<FeatureTableColumn<?>> featureTableColumns;
+  private final @Nonnull FeatureTableColumnIndex columnIndex;
+  private final @Nonnull Map<Sample, BitSet> featureMasks;
+  private @Nullable Map<FeatureTableRow, FilteredFeatureTableRow> rowsByParentRow;
+  private final @Nonnull FeatureTableSpatialIndex spatialIndex =
+      new FeatureTableSpatialIndex(this::getRows);
+  private final @Nonnull FeatureTableViews views = new FeatureTableViews();
+
+  /**
+   * Creates a new view of the given rows of the parent table. The bits of the masks are indexes
+   * into the given row list.
+   *
+   * @param name the name of the view.
+   * @param dataPointStore the data store of the view, it is disposed together with the view.
+   * @param parentTable the table holding the data.
+   * @param parentRows rows of the parent table, usually the result of
+   *        {@link FeatureTable#getRows()}.
+   * @param rowMask the rows which are part of the view.
+   * @param featureMasks for each sample, the rows whose feature values are kept. If null or if a
+   *        sample has no mask, all feature values of the sample are kept.
+   */
+  public FilteredFeatureTable(@Nonnull String name, @Nonnull DataPointStore dataPointStore,
+      @Nonnull FeatureTable parentTable, @Nonnull List<FeatureTableRow> parentRows,
+      @Nonnull BitSet rowMask, @Nullable Map<Sample, BitSet> featureMasks) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkNotNull(dataPointStore);
+    Preconditions.checkNotNull(parentTable);
+    Preconditions.checkNotNull(parentRows);
+    Preconditions.checkNotNull(rowMask);
+    this.name = name;
+    this.dataPointStore = dataPointStore;
+    this.parentTable = parentTable;
+    this.featureMasks =
+        featureMasks == null ? new HashMap<Sample, BitSet>() : new HashMap<>(featureMasks);
+
+    featureTableColumns = new ArrayList<FeatureTableColumn<?>>();
+    columnIndex = new FeatureTableColumnIndex();
+    for (FeatureTableColumn<?> column : parentTable.getColumns())
+      addColumn(column);
+
+    featureTableRows = new FeatureTableRowList();
+    for (int i = rowMask.nextSetBit(0); i >= 0 && i < parentRows.size(); i =
+        rowMask.nextSetBit(i + 1))
+      featureTableRows.add(new FilteredFeatureTableRow(this, parentRows.get(i), i));
+
+    // Keep the values shown by the view when the parent table changes
+    final FeatureTableViews parentViews = FeatureTableViews.of(parentTable);
+    if (parentViews != null) {
+      parentViews.add(this);
+    } else {
+      for (FeatureTableRow row : featureTableRows.snapshot())
+        preserveValues((FilteredFeatureTableRow) row);
+    }
+  }
+
+  /**
+   * Creates a new view of all rows of the parent table.
+   *
+   * @param name the name of the view.
+   * @param dataPointStore the data store of the view, it is disposed together with the view.
+   * @param parentTable the table holding the data.
+   */
+  public FilteredFeatureTable(@Nonnull String name, @Nonnull DataPointStore dataPointStore,
+      @Nonnull FeatureTable parentTable) {
+    this(name, dataPointStore, parentTable, parentTable.getRows(), allRows(parentTable), null);
+  }
+
+  private static @Nonnull BitSet allRows(@Nonnull FeatureTable parentTable) {
+    final BitSet rowMask = new BitSet();
+    rowMask.set(0, parentTable.getRows().size());
+    return rowMask;
+  }
+
+  /**
+   * Returns the table holding the data of this view.
+   *
+   * @return the parent {@link FeatureTable}.
+   */
+  public @Nonnull FeatureTable getParentTable() {
+    return parentTable;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull String getName() {
+    return name;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setName(@Nonnull String name) {
+    Preconditions.checkNotNull(name);
+    this.name = name;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The returned list is an immutable snapshot. It is shared between callers until the rows of the
+   * view are modified, so it is cheap to call this method repeatedly.
+   */
+  @Override
+  public @Nonnull List<FeatureTableRow> getRows() {
+    return featureTableRows.snapshot();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The row must have been created for this view, for example by
+   * {@link MSDKObjectBuilder#getFeatureTableRow(FeatureTable, int)}. It is stored in the view only.
+   */
+  @Override
+  public void addRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    Preconditions.checkArgument(row.getFeatureTable() == this,
+        "Only rows created for this view can be added to a filtered feature table");
+    featureTableRows.add(row);
+    spatialIndex.rowAdded(row);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    if (featureTableRows.remove(row))
+      spatialIndex.rowRemoved(row);
+  }
+
+  /** {@inheritDoc} */
+
+  @Override
+  public @Nonnull List<FeatureTableColumn<?>> getColumns() {
+    synchronized (featureTableColumns) {
+      return ImmutableList.copyOf(featureTableColumns);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @SuppressWarnings("unchecked")
+  public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull String columnName,
+      Sample sample, Class<? extends DATATYPE> dtClass) {
+    synchronized (featureTableColumns) {
+      return (FeatureTableColumn<DATATYPE>) columnIndex.get(columnName, sample);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @SuppressWarnings("unchecked")
+  public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull ColumnName columnName,
+      Sample sample) {
+    FeatureTableColumn<?> column =
+        getColumn(columnName.getName(), sample, columnName.getDataTypeClass());
+    return (FeatureTableColumn<DATATYPE>) column;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addColumn(@Nonnull FeatureTableColumn<?> col) {
+    Preconditions.checkNotNull(col);
+    synchronized (featureTableColumns) {
+      featureTableColumns.add(col);
+      columnIndex.add(col);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeColumn(@Nonnull FeatureTableColumn<?> col) {
+    Preconditions.checkNotNull(col);
+    synchronized (featureTableColumns) {
+      if (featureTableColumns.remove(col))
+        columnIndex.remove(col, featureTableColumns);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull List<Sample> getSamples() {
+    synchronized (featureTableColumns) {
+      return columnIndex.getSamples();
+    }
+  }
+
+  /**
+   * Returns the columns with the given name for all samples of this view, in the order of
+   * {@link #getSamples()}. The entry is null for samples which have no such column.
+   *
+   * @param columnName the {@link ColumnName} of the columns.
+   * @return a list with one column per sample.
+   */
+  @SuppressWarnings("unchecked")
+  public @Nonnull <DATATYPE> List<FeatureTableColumn<DATATYPE>> getColumns(
+      @Nonnull ColumnName columnName) {
+    synchronized (featureTableColumns) {
+      List<?> columns = columnIndex.getColumns(columnName.getName());
+      return (List<FeatureTableColumn<DATATYPE>>) columns;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Only the data store of the view is disposed, the parent table is not affected.
+   */
+  @Override
+  public void dispose() {
+    dataPointStore.dispose();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The rows are looked up in an m/z and RT index, which is built on first use and keeps track of
+   * rows which are added, removed or change their m/z or RT values afterwards. The result is in
+   * table order.
+   */
+  @Override
+  public List<FeatureTableRow> getRowsInsideRange(Range<Float> rtRange, Range<Double> mzRange) {
+    return spatialIndex.getRowsInsideRange(rtRange, mzRange);
+  }
+
+  /**
+   * Returns up to k rows closest to the given m/z and RT values, nearest first. The m/z and RT
+   * differences are divided by the given scales, for example the m/z and RT tolerances, before
+   * computing the euclidean distance. Rows without m/z or RT value are ignored.
+   *
+   * @param mz the m/z value.
+   * @param rt the retention time.
+   * @param k the maximum number of rows to return.
+   * @param mzScale the scale of m/z differences.
+   * @param rtScale the scale of RT differences.
+   * @return a list of {@link FeatureTableRow}s.
+   */
+  public @Nonnull List<FeatureTableRow> getNearestRows(double mz, float rt, int k, double mzScale,
+      float rtScale) {
+    return spatialIndex.getNearestRows(mz, rt, k, mzScale, rtScale);
+  }
+
+  /**
+   * Creates an independent feature table holding the rows, columns and values of this view. The
+   * new table does not reference the parent table.
+   *
+   * @param name the name of the new table.
+   * @param dataPointStore the data store of the new table.
+   * @return a new {@link FeatureTable}.
+   */
+  public @Nonnull FeatureTable materialize(@Nonnull String name,
+      @Nonnull DataPointStore dataPointStore) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkNotNull(dataPointStore);
+
+    final FeatureTable newFeatureTable = MSDKObjectBuilder.getFeatureTable(name, dataPointStore);
+    final List<FeatureTableColumn<?>> columns = getColumns();
+    for (FeatureTableColumn<?> column : columns)
+      newFeatureTable.addColumn(column);
+
+    for (FeatureTableRow row : getRows()) {
+      final FeatureTableRow newRow =
+          MSDKObjectBuilder.getFeatureTableRow(newFeatureTable, row.getId());
+      for (FeatureTableColumn<?> column : columns) {
+        final Object data = row.getData(column);
+        if (data != null)
+          newRow.setData(column, data);
+      }
+      newFeatureTable.addRow(newRow);
+    }
+
+    return newFeatureTable;
+  }
+
+  /**
+   * Returns true if the feature value of the given sample is kept for the parent row with the
+   * given index.
+   */
+  boolean isFeatureKept(@Nonnull Sample sample, int parentRowIndex) {
+    final BitSet mask = featureMasks.get(sample);
+    return mask == null || mask.get(parentRowIndex);
+  }
+
+  /**
+   * Called by the parent table before the value of the given column of the given parent row
+   * changes.
+   */
+  void parentValueChanging(@Nonnull FeatureTableRow parentRow,
+      @Nonnull FeatureTableColumn<?> column) {
+    final FilteredFeatureTableRow row = getRowByParentRow(parentRow);
+    if (row != null)
+      row.preserveValue(column);
+  }
+
+  /**
+   * Called by the parent table before all values of the given parent row are discarded.
+   */
+  void parentRowDiscarding(@Nonnull FeatureTableRow parentRow) {
+    final FilteredFeatureTableRow row = getRowByParentRow(parentRow);
+    if (row != null)
+      preserveValues(row);
+  }
+
+  /**
+   * Called by the parent table before all values of the given column are discarded.
+   */
+  void parentColumnDiscarding(@Nonnull FeatureTableColumn<?> column) {
+    for (FeatureTableRow row : featureTableRows.snapshot()) {
+      if (row instanceof FilteredFeatureTableRow)
+        ((FilteredFeatureTableRow) row).preserveValue(column);
+    }
+  }
+
+  private void preserveValues(@Nonnull FilteredFeatureTableRow row) {
+    for (FeatureTableColumn<?> column : getColumns())
+      row.preserveValue(column);
+  }
+
+  /**
+   * Returns the row of this view showing the given parent row, or null. The lookup map is built
+   * when the parent table is changed for the first time.
+   */
+  private synchronized @Nullable FilteredFeatureTableRow getRowByParentRow(
+      @Nonnull FeatureTableRow parentRow) {
+    if (rowsByParentRow == null) {
+      rowsByParentRow = new IdentityHashMap<>();
+      for (FeatureTableRow row : featureTableRows.snapshot()) {
+        if (row instanceof FilteredFeatureTableRow)
+          rowsByParentRow.put(((FilteredFeatureTableRow) row).getParentRow(),
+              (FilteredFeatureTableRow) row);
+      }
+    }
+    return rowsByParentRow.get(parentRow);
+  }
+
+  /**
+   * Returns the views of this view, which keep their values when the values of this view change.
+   */
+  @Nonnull
+  FeatureTableViews getViews() {
+    return views;
+  }
+
+  /**
+   * Called before a row value of this view is changed.
+   */
+  void rowValueChanging(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column) {
+    views.valueChanging(row, column);
+  }
+
+  /**
+   * Called when a row value of this view has been changed, to update the m/z and RT index if
+   * needed.
+   */
+  void rowValueChanged(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column) {
+    spatialIndex.rowValueChanged(row, column);
+  }
+
+}
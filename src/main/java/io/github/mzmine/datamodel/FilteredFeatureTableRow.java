@@ -0,0 +1,152 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+/**
+ * Implementation of FeatureTableRow used by {@link FilteredFeatureTable}. Values are read from
+ * the parent row, unless they were set on this row or the feature of their sample was filtered
+ * out.
+ */
+public class FilteredFeatureTableRow implements FeatureTableRow {
+
+  private final @Nonnull FilteredFeatureTable featureTable;
+  private final @Nonnull FeatureTableRow parentRow;
+  private final int parentRowIndex;
+  private @Nullable Map<FeatureTableColumn<?>, Object> modifiedData;
+
+  FilteredFeatureTableRow(@Nonnull FilteredFeatureTable featureTable,
+      @Nonnull FeatureTableRow parentRow, int parentRowIndex) {
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkNotNull(parentRow);
+    this.featureTable = featureTable;
+    this.parentRow = parentRow;
+    this.parentRowIndex = parentRowIndex;
+  }
+
+  /**
+   * Returns the row of the parent table holding the data of this row.
+   *
+   * @return the parent {@link FeatureTableRow}.
+   */
+  public @Nonnull FeatureTableRow getParentRow() {
+    return parentRow;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull FeatureTable getFeatureTable() {
+    return featureTable;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull Integer getId() {
+    return parentRow.getId();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Double getMz() {
+    return getData(MSDKObjectBuilder.getMzFeatureTableColumn());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getRT() {
+    return getData(MSDKObjectBuilder.getRetentionTimeFeatureTableColumn());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> void setData(FeatureTableColumn<? extends DATATYPE> column,
+      @Nonnull DATATYPE data) {
+    Preconditions.checkNotNull(column);
+    Preconditions.checkNotNull(data);
+    featureTable.rowValueChanging(this, column);
+    synchronized (this) {
+      if (modifiedData == null)
+        modifiedData = new HashMap<>();
+      modifiedData.put(column, data);
+    }
+    featureTable.rowValueChanged(this, column);
+  }
+
+  /**
+   * Keeps the current value of the given column in this row, so it does not change when the parent
+   * row changes. Nothing happens if a value was already set on this row.
+   */
+  void preserveValue(@Nonnull FeatureTableColumn<?> column) {
+    synchronized (this) {
+      if (modifiedData != null && modifiedData.containsKey(column))
+        return;
+    }
+    final Object data = getData(column);
+    synchronized (this) {
+      if (modifiedData == null)
+        modifiedData = new HashMap<>();
+      if (!modifiedData.containsKey(column))
+        modifiedData.put(column, data);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> DATATYPE getData(@Nonnull FeatureTableColumn<? extends DATATYPE> column) {
+    Preconditions.checkNotNull(column);
+    synchronized (this) {
+      if (modifiedData != null && modifiedData.containsKey(column))
+        return column.getDataTypeClass().cast(modifiedData.get(column));
+    }
+    final Sample sample = column.getSample();
+    if (sample != null && !featureTable.isFeatureKept(sample, parentRowIndex))
+      return null;
+    return parentRow.getData(column);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> void copyData(FeatureTableColumn<? extends DATATYPE> sourceColumn,
+      FeatureTableRow targetRow, FeatureTableColumn<? extends DATATYPE> targetColumn,
+      FeatureTableDataConverter<DATATYPE> featureTableDataConverter) {
+    featureTableDataConverter.apply(this, sourceColumn, targetRow, targetColumn);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    List<FeatureTableColumn<?>> columns = featureTable.getColumns();
+    List<String> contents = new ArrayList<String>();
+    for (FeatureTableColumn<?> column : columns) {
+      contents.add(column.getName() + "=" + getData(column));
+    }
+
+    return contents.toString();
+  }
+}
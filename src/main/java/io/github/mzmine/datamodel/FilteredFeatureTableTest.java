@@ -0,0 +1,169 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+
+package io.github.mzmine.datamodel;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+public class FilteredFeatureTableTest {
+
+  @Test
+  public void testFilterPlan() {
+
+    // Create the data structures
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    Sample sample = new SimpleSample("sample");
+
+    FeatureTableColumn<Double> mzColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.MZ.getName(), Double.class, sample);
+    FeatureTableColumn<Double> areaColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample);
+    FeatureTableColumn<Float> heightColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.HEIGHT.getName(), Float.class, sample);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(areaColumn);
+    featureTable.addColumn(heightColumn);
+
+    // Add rows, leaving the height of every second row empty
+    for (int i = 1; i <= 100; i++) {
+      FeatureTableRow row = featureTable.createRow(i);
+      row.setData(mzColumn, 100.0 + i);
+      row.setData(areaColumn, i * 10.0);
+      if (i % 2 == 0)
+        row.setData(heightColumn, (float) i);
+      featureTable.addRow(row);
+    }
+    List<FeatureTableRow> rows = featureTable.getRows();
+
+    // Rows without height pass the height filter
+    FeatureTableFilterPlan plan = new FeatureTableFilterPlan()
+        .addFeatureRange(ColumnName.AREA, Range.closed(100.0, 500.0))
+        .addFeatureRange(ColumnName.HEIGHT, Range.closedOpen(20.0, 50.0))
+        .requireFeatureValue(ColumnName.MZ);
+    BitSet keep = plan.evaluateFeatures(featureTable, rows, sample);
+    Assert.assertEquals(35, keep.cardinality());
+    Assert.assertFalse(keep.get(9));
+    Assert.assertFalse(keep.get(17));
+    Assert.assertTrue(keep.get(20));
+
+    // Verify the filtered view
+    FilteredFeatureTable filteredTable = new FilteredFeatureTable("filtered", dataStore,
+        featureTable, rows, keep, Collections.singletonMap(sample, keep));
+    Assert.assertEquals(35, filteredTable.getRows().size());
+    FeatureTableRow row = filteredTable.getRows().get(0);
+    Assert.assertEquals(11, (int) row.getId());
+    Assert.assertEquals(110.0, row.getData(areaColumn), 0.0001);
+
+    // Values set on the view do not modify the parent table
+    row.setData(areaColumn, 1.0);
+    Assert.assertEquals(1.0, row.getData(areaColumn), 0.0001);
+    Assert.assertEquals(110.0, rows.get(10).getData(areaColumn), 0.0001);
+
+    // Rows added to the view are not added to the parent table
+    FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(filteredTable, 101);
+    newRow.setData(areaColumn, 2.0);
+    filteredTable.addRow(newRow);
+    Assert.assertEquals(36, filteredTable.getRows().size());
+    Assert.assertEquals(100, featureTable.getRows().size());
+
+    // Verify the materialized table
+    FeatureTable materializedTable = filteredTable.materialize("materialized", dataStore);
+    Assert.assertEquals(36, materializedTable.getRows().size());
+    Assert.assertEquals(1.0, materializedTable.getRows().get(0).getData(areaColumn), 0.0001);
+    Assert.assertNull(materializedTable.getRows().get(1).getData(heightColumn));
+    Assert.assertEquals(101, (int) materializedTable.getRows().get(35).getId());
+
+    // The materialized table does not change with the parent table
+    for (FeatureTableRow parentRow : rows)
+      parentRow.setData(heightColumn, 99f);
+    Assert.assertNull(materializedTable.getRows().get(1).getData(heightColumn));
+
+    // Only the data store of the view is disposed
+    filteredTable.dispose();
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testParentChanges() {
+
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    Sample sample = new SimpleSample("sample");
+    FeatureTableColumn<Double> areaColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample);
+    FeatureTableColumn<Float> heightColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.HEIGHT.getName(), Float.class, sample);
+    featureTable.addColumn(areaColumn);
+    featureTable.addColumn(heightColumn);
+    for (int i = 1; i <= 10; i++) {
+      ColumnarFeatureTableRow row = featureTable.createRow(i);
+      row.setDouble(areaColumn, i * 10.0);
+      featureTable.addRow(row);
+    }
+    List<FeatureTableRow> rows = featureTable.getRows();
+
+    // Hide the feature values of the first row
+    BitSet allRows = new BitSet();
+    allRows.set(0, 10);
+    BitSet keep = new BitSet();
+    keep.set(1, 10);
+    FilteredFeatureTable view = new FilteredFeatureTable("view", dataStore, featureTable, rows,
+        allRows, Collections.singletonMap(sample, keep));
+    view.getRows().get(1).setData(areaColumn, 1.0);
+    FilteredFeatureTable viewOfView = new FilteredFeatureTable("view of view", dataStore, view);
+
+    // Values changed or added in the parent are not visible in the views
+    for (FeatureTableRow row : rows) {
+      ((ColumnarFeatureTableRow) row).setDouble(areaColumn, 99.0);
+      row.setData(heightColumn, 99f);
+    }
+    Assert.assertNull(view.getRows().get(0).getData(areaColumn));
+    Assert.assertNull(view.getRows().get(0).getData(heightColumn));
+    Assert.assertEquals(1.0, view.getRows().get(1).getData(areaColumn), 0.0001);
+    Assert.assertEquals(30.0, view.getRows().get(2).getData(areaColumn), 0.0001);
+    Assert.assertNull(view.getRows().get(2).getData(heightColumn));
+
+    // Values changed in a view are not visible in the views of the view
+    view.getRows().get(2).setData(areaColumn, 2.0);
+    Assert.assertEquals(2.0, view.getRows().get(2).getData(areaColumn), 0.0001);
+    Assert.assertEquals(30.0, viewOfView.getRows().get(2).getData(areaColumn), 0.0001);
+
+    // Removed rows and columns keep their values in the views
+    featureTable.removeRow(rows.get(3));
+    featureTable.removeColumn(areaColumn);
+    Assert.assertEquals(10, view.getRows().size());
+    Assert.assertEquals(40.0, view.getRows().get(3).getData(areaColumn), 0.0001);
+    Assert.assertEquals(50.0, viewOfView.getRows().get(4).getData(areaColumn), 0.0001);
+
+    viewOfView.dispose();
+    view.dispose();
+    featureTable.dispose();
+  }
+
+}
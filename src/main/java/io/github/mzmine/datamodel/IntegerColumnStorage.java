@@ -0,0 +1,79 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link ColumnStorage} for Integer values, backed by a primitive int array.
+ */
+public class IntegerColumnStorage extends ColumnStorage {
+
+  private @Nonnull int[] values = new int[0];
+
+  /**
+   * Returns the primitive value at the given slot. The result is undefined if
+   * {@link #isSet(int)} returns false for the slot.
+   *
+   * @param slot the row slot.
+   * @return the value.
+   */
+  public int getInt(int slot) {
+    return values[slot];
+  }
+
+  /**
+   * Stores the given primitive value at the given slot.
+   *
+   * @param slot the row slot.
+   * @param value the value to store.
+   */
+  public void setInt(int slot, int value) {
+    ensureCapacity(slot + 1);
+    values[slot] = value;
+    getPresentSlots().set(slot);
+  }
+
+  /**
+   * Returns the backing array. Only slots marked in {@link #getPresentSlots()} hold a value, and
+   * the array may be longer than the number of rows.
+   *
+   * @return the backing array.
+   */
+  public @Nonnull int[] getValues() {
+    return values;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void ensureCapacity(int minCapacity) {
+    if (values.length < minCapacity)
+      values = Arrays.copyOf(values, grow(values.length, minCapacity));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected @Nonnull Object getValue(int slot) {
+    return values[slot];
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void setValue(int slot, @Nonnull Object value) {
+    values[slot] = ((Integer) value).intValue();
+  }
+
+}
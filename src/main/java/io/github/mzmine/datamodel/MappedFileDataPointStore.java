@@ -0,0 +1,313 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+
+/**
+ * DataPointStore backed by a memory-mapped temporary file. The data are appended to large mapped
+ * regions, so storing and loading is a memory copy and the operating system pages the data in and
+ * out as needed, instead of a file read or write for every array.
+ *
+ * The first region of a store created for a source file is about as large as that file, and every
+ * following region doubles in size up to the region size, so small files do not reserve a full
+ * region. Objects which are not arrays of numbers are stored in serialized form.
+ */
+public class MappedFileDataPointStore implements DataPointStore {
+
+  /**
+   * Size of a mapped region of the file. Larger arrays get a region of their own.
+   */
+  public static final int DEFAULT_REGION_SIZE = 256 * 1024 * 1024;
+
+  /**
+   * Smallest size of the first region of a store created for a source file.
+   */
+  public static final int MIN_REGION_SIZE = 1024 * 1024;
+
+  private static final byte DOUBLE_ARRAY = 1, FLOAT_ARRAY = 2, INT_ARRAY = 3, SERIALIZED = 4;
+
+  private static class Entry {
+    private final int region, offset, size, length;
+    private final byte type;
+
+    private Entry(int region, int offset, int size, int length, byte type) {
+      this.region = region;
+      this.offset = offset;
+      this.size = size;
+      this.length = length;
+      this.type = type;
+    }
+  }
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final int regionSize;
+  private int nextRegionSize;
+  private File tmpFile;
+  private RandomAccessFile tmpFileAccess;
+  private FileChannel channel;
+  private FileLock lock;
+  private final List<MappedByteBuffer> regions = new ArrayList<>();
+  private final List<Entry> entries = new ArrayList<>();
+  private long fileSize = 0;
+  private int regionPosition = 0;
+
+  public MappedFileDataPointStore() throws IOException {
+    this(DEFAULT_REGION_SIZE);
+  }
+
+  /**
+   * Creates a store for the data of the given source file, with a first region of about the size
+   * of that file.
+   */
+  public MappedFileDataPointStore(@Nonnull File sourceFile) throws IOException {
+    this(DEFAULT_REGION_SIZE, sourceFile.length());
+  }
+
+  public MappedFileDataPointStore(int regionSize) throws IOException {
+    this(regionSize, regionSize);
+  }
+
+  private MappedFileDataPointStore(int regionSize, long firstRegionSize) throws IOException {
+    Preconditions.checkArgument(regionSize > 0);
+    this.regionSize = regionSize;
+    this.nextRegionSize =
+        (int) Math.min(regionSize, Math.max(Math.min(MIN_REGION_SIZE, regionSize), firstRegionSize));
+
+    // The name matches the mask of the temporary file cleanup, the lock protects the file from it
+    tmpFile = File.createTempFile("mzmine", ".scans");
+    tmpFileAccess = new RandomAccessFile(tmpFile, "rw");
+    channel = tmpFileAccess.getChannel();
+    lock = channel.lock();
+    tmpFile.deleteOnExit();
+    logger.debug("Created temporary file " + tmpFile);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized @Nonnull Object storeData(@Nonnull Object data, @Nonnull Integer size) {
+    Preconditions.checkNotNull(data);
+    Preconditions.checkNotNull(size);
+    checkNotDisposed();
+
+    final byte type;
+    final int length;
+    byte serialized[] = null;
+    if (data instanceof double[]) {
+      type = DOUBLE_ARRAY;
+      length = size * Double.BYTES;
+    } else if (data instanceof float[]) {
+      type = FLOAT_ARRAY;
+      length = size * Float.BYTES;
+    } else if (data instanceof int[]) {
+      type = INT_ARRAY;
+      length = size * Integer.BYTES;
+    } else {
+      type = SERIALIZED;
+      serialized = serialize(data);
+      length = serialized.length;
+    }
+
+    final ByteBuffer target = allocate(length);
+    final int offset = target.position();
+    switch (type) {
+      case DOUBLE_ARRAY:
+        target.asDoubleBuffer().put((double[]) data, 0, size);
+        break;
+      case FLOAT_ARRAY:
+        target.asFloatBuffer().put((float[]) data, 0, size);
+        break;
+      case INT_ARRAY:
+        target.asIntBuffer().put((int[]) data, 0, size);
+        break;
+      default:
+        target.put(serialized);
+    }
+
+    entries.add(new Entry(regions.size() - 1, offset, size, length, type));
+    return entries.size() - 1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void loadData(@Nonnull Object id, @Nonnull Object data) {
+    Preconditions.checkNotNull(data);
+    final Entry entry = getEntry(id);
+    final ByteBuffer source = getView(entry);
+    switch (entry.type) {
+      case DOUBLE_ARRAY:
+        Preconditions.checkArgument(data instanceof double[], "Stored data is a double array");
+        source.asDoubleBuffer().get((double[]) data, 0, entry.size);
+        break;
+      case FLOAT_ARRAY:
+        Preconditions.checkArgument(data instanceof float[], "Stored data is a float array");
+        source.asFloatBuffer().get((float[]) data, 0, entry.size);
+        break;
+      case INT_ARRAY:
+        Preconditions.checkArgument(data instanceof int[], "Stored data is an integer array");
+        source.asIntBuffer().get((int[]) data, 0, entry.size);
+        break;
+      default:
+        throw new IllegalArgumentException("Stored data is not an array, use loadObject()");
+    }
+  }
+
+  /**
+   * Returns a copy of a stored object which is not an array of numbers.
+   *
+   * @param id the storage ID returned by {@link #storeData(Object, Integer)}.
+   * @return the deserialized object.
+   */
+  public @Nonnull Object loadObject(@Nonnull Object id) {
+    final Entry entry = getEntry(id);
+    Preconditions.checkArgument(entry.type == SERIALIZED, "Stored data is an array");
+    final byte serialized[] = new byte[entry.length];
+    getView(entry).get(serialized);
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+      return in.readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      throw new IllegalStateException("Could not read stored object", e);
+    }
+  }
+
+  /**
+   * Returns the number of values of a stored array.
+   */
+  public int getSize(@Nonnull Object id) {
+    return getEntry(id).size;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void removeData(@Nonnull Object id) {
+    // The space is not reused, it is released when the store is disposed
+    getEntry(id);
+    entries.set((Integer) id, null);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void dispose() {
+    if (tmpFile == null)
+      return;
+
+    // The mapped regions are unmapped when they are garbage collected
+    regions.clear();
+    entries.clear();
+    try {
+      lock.release();
+      tmpFileAccess.close();
+    } catch (IOException e) {
+      logger.warn("Could not close temporary file " + tmpFile, e);
+    }
+    if (!tmpFile.delete())
+      logger.debug("Temporary file " + tmpFile + " will be removed on exit");
+    tmpFile = null;
+  }
+
+  /**
+   * Returns a buffer positioned at a free space of the given length, mapping a new region if the
+   * current one is full. Must be called while holding the lock.
+   */
+  private @Nonnull ByteBuffer allocate(int length) {
+    if (regions.isEmpty() || regionPosition + length > regions.get(regions.size() - 1).capacity()) {
+      final int newRegionSize = Math.max(nextRegionSize, length);
+      try {
+        final MappedByteBuffer region =
+            channel.map(FileChannel.MapMode.READ_WRITE, fileSize, newRegionSize);
+        region.order(ByteOrder.nativeOrder());
+        regions.add(region);
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not map temporary file " + tmpFile, e);
+      }
+      fileSize += newRegionSize;
+      regionPosition = 0;
+      nextRegionSize = (int) Math.min(regionSize, 2L * nextRegionSize);
+    }
+
+    final ByteBuffer target = regions.get(regions.size() - 1).duplicate();
+    target.order(ByteOrder.nativeOrder());
+    target.position(regionPosition);
+
+    // Keep the values of each array aligned to 8 bytes
+    regionPosition += (length + 7) & ~7;
+    return target;
+  }
+
+  private synchronized @Nonnull Entry getEntry(@Nonnull Object id) {
+    Preconditions.checkNotNull(id);
+    checkNotDisposed();
+    Preconditions.checkArgument(id instanceof Integer, "Invalid storage ID");
+    final int index = (Integer) id;
+    Preconditions.checkArgument(index >= 0 && index < entries.size(), "Invalid storage ID");
+    final Entry entry = entries.get(index);
+    Preconditions.checkArgument(entry != null, "The data has been removed");
+    return entry;
+  }
+
+  /**
+   * Returns a read-only buffer of the bytes of the given entry. The buffer is private to the
+   * caller, so it can be read without holding the lock.
+   */
+  private @Nonnull ByteBuffer getView(@Nonnull Entry entry) {
+    final MappedByteBuffer region;
+    synchronized (this) {
+      checkNotDisposed();
+      region = regions.get(entry.region);
+    }
+    final ByteBuffer view = region.asReadOnlyBuffer();
+    view.position(entry.offset);
+    view.limit(entry.offset + entry.length);
+    return view.slice().order(ByteOrder.nativeOrder());
+  }
+
+  private void checkNotDisposed() {
+    if (tmpFile == null)
+      throw new IllegalStateException("This data store has been disposed");
+  }
+
+  private static @Nonnull byte[] serialize(@Nonnull Object data) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(data);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Cannot store object of " + data.getClass(), e);
+    }
+    return bytes.toByteArray();
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedFileDataPointStoreTest {
+
+  @Test
+  public void testStoreAndLoad() throws Exception {
+
+    // Use small regions so the data is spread over several of them
+    MappedFileDataPointStore store = new MappedFileDataPointStore(4096);
+
+    double mzValues[] = new double[1000];
+    float intensityValues[] = new float[1000];
+    for (int i = 0; i < 1000; i++) {
+      mzValues[i] = 100.0 + i * 0.01;
+      intensityValues[i] = i * 2f;
+    }
+
+    Object mzId = store.storeData(mzValues, 1000);
+    Object intensityId = store.storeData(intensityValues, 500);
+    Object textId = store.storeData("Scan 1", 1);
+
+    // Copying load
+    double loadedMz[] = new double[1000];
+    store.loadData(mzId, loadedMz);
+    Assert.assertArrayEquals(mzValues, loadedMz, 0.0);
+    float loadedIntensities[] = new float[500];
+    store.loadData(intensityId, loadedIntensities);
+    Assert.assertEquals(998f, loadedIntensities[499], 0f);
+
+    Assert.assertEquals(500, store.getSize(intensityId));
+    Assert.assertEquals("Scan 1", store.loadObject(textId));
+
+    store.removeData(mzId);
+    try {
+      store.loadData(mzId, loadedMz);
+      Assert.fail("Removed data must not be loaded");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+
+    store.dispose();
+  }
+
+  @Test
+  public void testStoreForSourceFile() throws Exception {
+
+    // The first region is sized from the small source file, the data needs several regions
+    File sourceFile = File.createTempFile("mzmine", ".test");
+    sourceFile.deleteOnExit();
+    Files.write(sourceFile.toPath(), new byte[1000]);
+    MappedFileDataPointStore store = new MappedFileDataPointStore(sourceFile);
+
+    Object ids[] = new Object[100];
+    for (int i = 0; i < ids.length; i++) {
+      double values[] = new double[10000];
+      values[9999] = i;
+      ids[i] = store.storeData(values, 10000);
+    }
+    double loaded[] = new double[10000];
+    for (int i = 0; i < ids.length; i++) {
+      store.loadData(ids[i], loaded);
+      Assert.assertEquals(i, loaded[9999], 0.0);
+    }
+
+    store.dispose();
+    Assert.assertTrue(sourceFile.delete());
+  }
+
+}
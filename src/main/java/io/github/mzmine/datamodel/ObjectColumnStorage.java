@@ -0,0 +1,54 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link ColumnStorage} for values of any type, backed by an Object array.
+ */
+public class ObjectColumnStorage extends ColumnStorage {
+
+  private @Nonnull Object[] values = new Object[0];
+
+  /** {@inheritDoc} */
+  @Override
+  public void clear(int slot) {
+    super.clear(slot);
+    if (slot < values.length)
+      values[slot] = null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void ensureCapacity(int minCapacity) {
+    if (values.length < minCapacity)
+      values = Arrays.copyOf(values, grow(values.length, minCapacity));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected @Nonnull Object getValue(int slot) {
+    return values[slot];
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void setValue(int slot, @Nonnull Object value) {
+    values[slot] = value;
+  }
+
+}
@@ -35,16 +35,21 @@ public class SimpleFeatureTable implements FeatureTable {
 
   private @Nonnull String name;
   private @Nonnull DataPointStore dataPointStore;
-  private final @Nonnull ArrayList<FeatureTableRow> featureTableRows;
+  private final @Nonnull FeatureTableRowList featureTableRows;
   private final @Nonnull ArrayList<FeatureTableColumn<?>> featureTableColumns;
+  private final @Nonnull FeatureTableColumnIndex columnIndex;
+  private final @Nonnull FeatureTableSpatialIndex spatialIndex =
+      new FeatureTableSpatialIndex(this::getRows);
+  private final @Nonnull FeatureTableViews views = new FeatureTableViews();
 
   SimpleFeatureTable(@Nonnull String name, @Nonnull DataPointStore dataPointStore) {
     Preconditions.checkNotNull(name);
     Preconditions.checkNotNull(dataPointStore);
     this.name = name;
     this.dataPointStore = dataPointStore;
-    featureTableRows = new ArrayList<FeatureTableRow>();
+    featureTableRows = new FeatureTableRowList();
     featureTableColumns = new ArrayList<FeatureTableColumn<?>>();
+    columnIndex = new FeatureTableColumnIndex();
   }
 
   /** {@inheritDoc} */
@@ -60,30 +65,31 @@ public class SimpleFeatureTable implements FeatureTable {
     this.name = name;
   }
 
-  /** {@inheritDoc} */
-
+  /**
+   * {@inheritDoc}
+   *
+   * The returned list is an immutable snapshot. It is shared between callers until the rows of the
+   * table are modified, so it is cheap to call this method repeatedly.
+   */
   @Override
   public @Nonnull List<FeatureTableRow> getRows() {
-    List<FeatureTableRow> featureTableRowCopy = ImmutableList.copyOf(featureTableRows);
-    return featureTableRowCopy;
+    return featureTableRows.snapshot();
   }
 
   /** {@inheritDoc} */
   @Override
   public void addRow(@Nonnull FeatureTableRow row) {
     Preconditions.checkNotNull(row);
-    synchronized (featureTableRows) {
-      featureTableRows.add(row);
-    }
+    featureTableRows.add(row);
+    spatialIndex.rowAdded(row);
   }
 
   /** {@inheritDoc} */
   @Override
   public void removeRow(@Nonnull FeatureTableRow row) {
     Preconditions.checkNotNull(row);
-    synchronized (featureTableRows) {
-      featureTableRows.remove(row);
-    }
+    if (featureTableRows.remove(row))
+      spatialIndex.rowRemoved(row);
   }
 
   /** {@inheritDoc} */
@@ -98,20 +104,9 @@ public class SimpleFeatureTable implements FeatureTable {
   @Override
   public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull String columnName,
       Sample sample, Class<? extends DATATYPE> dtClass) {
-    for (FeatureTableColumn<?> column : featureTableColumns) {
-      if (column.getName().equals(columnName)) {
-
-        if (column.getSample() == null) {
-          if (sample == null)
-            return (FeatureTableColumn<DATATYPE>) column;
-        } else if (column.getSample().equals(sample)) {
-          return (FeatureTableColumn<DATATYPE>) column;
-        }
-
-      }
-
+    synchronized (featureTableColumns) {
+      return (FeatureTableColumn<DATATYPE>) columnIndex.get(columnName, sample);
     }
-    return null;
   }
 
   /** {@inheritDoc} */
@@ -132,6 +127,7 @@ public class SimpleFeatureTable implements FeatureTable {
     Preconditions.checkNotNull(col);
     synchronized (featureTableColumns) {
       featureTableColumns.add(col);
+      columnIndex.add(col);
     }
   }
 
@@ -140,7 +136,8 @@ public class SimpleFeatureTable implements FeatureTable {
   public void removeColumn(@Nonnull FeatureTableColumn<?> col) {
     Preconditions.checkNotNull(col);
     synchronized (featureTableColumns) {
-      featureTableColumns.remove(col);
+      if (featureTableColumns.remove(col))
+        columnIndex.remove(col, featureTableColumns);
     }
   }
 
@@ -148,15 +145,24 @@ public class SimpleFeatureTable implements FeatureTable {
 
   @Override
   public @Nonnull List<Sample> getSamples() {
-    ArrayList<Sample> sampleList = new ArrayList<Sample>();
     synchronized (featureTableColumns) {
-      for (FeatureTableColumn<?> col : featureTableColumns) {
-        Sample s = col.getSample();
-        if (s != null && !sampleList.contains(s))
-          sampleList.add(s);
-      }
+      return columnIndex.getSamples();
+    }
+  }
+
+  /**
+   * Returns the columns with the given name for all samples of this table, in the order of
+   * {@link #getSamples()}. The entry is null for samples which have no such column.
+   *
+   * @param columnName the {@link ColumnName} of the columns.
+   * @return a list with one column per sample.
+   */
+  public @Nonnull <DATATYPE> List<FeatureTableColumn<DATATYPE>> getColumns(
+      @Nonnull ColumnName columnName) {
+    synchronized (featureTableColumns) {
+      List<?> columns = columnIndex.getColumns(columnName.getName());
+      return (List<FeatureTableColumn<DATATYPE>>) columns;
     }
-    return ImmutableList.copyOf(sampleList);
   }
 
   /** {@inheritDoc} */
@@ -165,17 +171,56 @@ public class SimpleFeatureTable implements FeatureTable {
     dataPointStore.dispose();
   }
 
-  /** {@inheritDoc} */
+  /**
+   * {@inheritDoc}
+   *
+   * The rows are looked up in an m/z and RT index, which is built on first use and keeps track of
+   * rows which are added, removed or change their m/z or RT values afterwards. The result is in
+   * table order.
+   */
   @Override
   public List<FeatureTableRow> getRowsInsideRange(Range<Float> rtRange, Range<Double> mzRange) {
-    List<FeatureTableRow> result = new ArrayList<FeatureTableRow>();
-    for (FeatureTableRow row : featureTableRows) {
-      Float rowRT = row.getRT();
-      if ((rowRT != null) && rtRange.contains(rowRT)
-          && mzRange.contains(row.getMz()))
-        result.add(row);
-    }
-    return result;
+    return spatialIndex.getRowsInsideRange(rtRange, mzRange);
+  }
+
+  /**
+   * Returns up to k rows closest to the given m/z and RT values, nearest first. The m/z and RT
+   * differences are divided by the given scales, for example the m/z and RT tolerances, before
+   * computing the euclidean distance. Rows without m/z or RT value are ignored.
+   *
+   * @param mz the m/z value.
+   * @param rt the retention time.
+   * @param k the maximum number of rows to return.
+   * @param mzScale the scale of m/z differences.
+   * @param rtScale the scale of RT differences.
+   * @return a list of {@link FeatureTableRow}s.
+   */
+  public @Nonnull List<FeatureTableRow> getNearestRows(double mz, float rt, int k, double mzScale,
+      float rtScale) {
+    return spatialIndex.getNearestRows(mz, rt, k, mzScale, rtScale);
+  }
+
+  /**
+   * Returns the views of this table, which keep their values when the values of this table change.
+   */
+  @Nonnull
+  FeatureTableViews getViews() {
+    return views;
+  }
+
+  /**
+   * Called before a row value of this table is changed.
+   */
+  void rowValueChanging(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column) {
+    views.valueChanging(row, column);
+  }
+
+  /**
+   * Called when a row value of this table has been changed, to update the m/z and RT index if
+   * needed.
+   */
+  void rowValueChanged(@Nonnull FeatureTableRow row, @Nonnull FeatureTableColumn<?> column) {
+    spatialIndex.rowValueChanged(row, column);
   }
 
 }
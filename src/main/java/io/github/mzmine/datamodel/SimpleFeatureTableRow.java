@@ -71,7 +71,15 @@ public class SimpleFeatureTableRow implements FeatureTableRow {
       @Nonnull DATATYPE data) {
     Preconditions.checkNotNull(column);
     Preconditions.checkNotNull(data);
+    if (featureTable instanceof SimpleFeatureTable)
+      ((SimpleFeatureTable) featureTable).rowValueChanging(this, column);
+    else if (featureTable instanceof FilteredFeatureTable)
+      ((FilteredFeatureTable) featureTable).rowValueChanging(this, column);
     rowData.put(column, data);
+    if (featureTable instanceof SimpleFeatureTable)
+      ((SimpleFeatureTable) featureTable).rowValueChanged(this, column);
+    else if (featureTable instanceof FilteredFeatureTable)
+      ((FilteredFeatureTable) featureTable).rowValueChanged(this, column);
   }
 
   /** {@inheritDoc} */
@@ -18,6 +18,7 @@
 
 package io.github.mzmine.gui;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -37,8 +38,12 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.main.NewVersionCheck;
 import io.github.mzmine.main.NewVersionCheck.CheckType;
 import io.github.mzmine.modules.MZmineRunnableModule;
+import io.github.mzmine.modules.io.project.ProjectSaveModule;
+import io.github.mzmine.modules.io.project.ProjectSaveParameters;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.project.MZmineGUIProject;
+import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.project.ProjectJournal;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
@@ -59,17 +64,22 @@ import javafx.stage.Stage;
  */
 public final class MZmineGUI extends Application {
 
-  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+  private static final Logger logger = LoggerFactory.getLogger(MZmineGUI.class);
 
-  private static final Image mzMineIcon = new Image("file:icon/mzmine-icon.png");
+  private static final String mzMineIconFile = "file:icon/mzmine-icon.png";
   private static final String mzMineFXML = "file:conf/MainWindow.fxml";
 
+  // Loaded when the GUI starts, creating an image needs the JavaFX toolkit
+  private static Image mzMineIcon;
+
   private static MainWindowController mainWindowController;
 
   private static Scene rootScene;
 
   public void start(Stage stage) {
 
+    mzMineIcon = new Image(mzMineIconFile);
+
     try {
       // Load the main window
       URL mainFXML = new URL(mzMineFXML);
@@ -101,6 +111,17 @@ public final class MZmineGUI extends Application {
     MZmineGUIProject project = new MZmineGUIProject();
     MZmineGUI.activateProject(project);
 
+    // Autosave the project, recovering the project of a previous session which did not shut down
+    // cleanly
+    try {
+      ProjectJournal journal = ProjectJournal.open(ProjectJournal.AUTOSAVE_DIR);
+      project.setJournal(journal);
+      if (!journal.isEmpty())
+        journal.replay(project);
+    } catch (IOException e) {
+      logger.warn("Project autosave is disabled: " + e);
+    }
+
     stage.show();
 
     // Check for new version of MZmine
@@ -121,11 +142,33 @@ public final class MZmineGUI extends Application {
     Optional<ButtonType> result = alert.showAndWait();
 
     if ((result.isPresent()) && (result.get() == ButtonType.OK)) {
+      // Nothing to recover after a confirmed exit
+      ProjectJournal journal = MZmineCore.getCurrentProject().getJournal();
+      if (journal != null) {
+        MZmineCore.getCurrentProject().setJournal(null);
+        journal.discard();
+      }
       Platform.exit();
       System.exit(0);
     }
   }
 
+  /**
+   * Saves the current project to the file it was opened from or last saved to. Asks for a file if
+   * the project has not been saved yet.
+   */
+  public static void saveProject() {
+    final File projectFile = MZmineCore.getCurrentProject().getProjectFile();
+    if (projectFile == null) {
+      setupAndRunModule(ProjectSaveModule.class);
+      return;
+    }
+    final ParameterSet parameters =
+        MZmineCore.getConfiguration().getModuleParameters(ProjectSaveModule.class).clone();
+    parameters.getParameter(ProjectSaveParameters.projectFile).setValue(projectFile);
+    MZmineCore.runMZmineModule(ProjectSaveModule.class, parameters);
+  }
+
   public static void closeProject() {
     Alert alert = new Alert(AlertType.CONFIRMATION);
     Stage stage = (Stage) alert.getDialogPane().getScene().getWindow();
@@ -138,12 +181,23 @@ public final class MZmineGUI extends Application {
 
     if ((result.isPresent()) && (result.get() == ButtonType.OK)) {
       MZmineGUIProject newProject = new MZmineGUIProject();
+      MZmineProject oldProject = MZmineCore.getCurrentProject();
+      ProjectJournal journal = oldProject.getJournal();
+      if (journal != null) {
+        oldProject.setJournal(null);
+        journal.clear();
+        newProject.setJournal(journal);
+      }
       activateProject(newProject);
       setStatusBarMessage("");
     }
   }
 
   public static void displayMessage(String msg) {
+    if (mainWindowController == null) {
+      logger.warn(msg);
+      return;
+    }
     Platform.runLater(() -> {
       Dialog<ButtonType> dialog = new Dialog<>();
       Stage stage = (Stage) dialog.getDialogPane().getScene().getWindow();
@@ -156,6 +210,8 @@ public final class MZmineGUI extends Application {
   }
 
   public static void setStatusBarMessage(String message) {
+    if (mainWindowController == null)
+      return;
     Platform.runLater(() -> {
       StatusBar statusBar = mainWindowController.getStatusBar();
       statusBar.setText(message);
@@ -197,6 +253,8 @@ public final class MZmineGUI extends Application {
   public static @Nonnull List<RawDataFile> getSelectedRawDataFiles() {
 
     final ArrayList<RawDataFile> list = new ArrayList<>();
+    if (mainWindowController == null)
+      return list;
     final TreeView<Object> rawDataTree = mainWindowController.getRawDataTree();
     for (TreeItem<Object> item : rawDataTree.getSelectionModel().getSelectedItems()) {
       if (!(item.getValue() instanceof RawDataFile))
@@ -212,6 +270,8 @@ public final class MZmineGUI extends Application {
   public static @Nonnull List<FeatureTable> getSelectedFeatureTables() {
 
     final ArrayList<FeatureTable> list = new ArrayList<>();
+    if (mainWindowController == null)
+      return list;
     final TreeView<Object> featureTableTree = mainWindowController.getFeatureTree();
     for (TreeItem<Object> item : featureTableTree.getSelectionModel().getSelectedItems()) {
       if (!(item.getValue() instanceof FeatureTable))
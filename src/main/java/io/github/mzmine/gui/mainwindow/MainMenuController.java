@@ -44,6 +44,10 @@ public class MainMenuController {
 
   private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+  public void saveProject(ActionEvent event) {
+    MZmineGUI.saveProject();
+  }
+
   public void closeProject(ActionEvent event) {
     MZmineGUI.closeProject();
   }
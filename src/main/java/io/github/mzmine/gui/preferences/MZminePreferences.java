@@ -122,11 +122,7 @@ public class MZminePreferences extends ParameterSet {
     NumOfThreadsValue numOfThreadsValue = getParameter(numOfThreads).getValue();
     if (numOfThreadsValue != null) {
       int threadPoolSize = numOfThreadsValue.getNumberOfThreads();
-      int currentThreadPoolSize = MZmineCore.getTaskExecutor().getCorePoolSize();
-      if (threadPoolSize != currentThreadPoolSize) {
-        logger.debug("Setting the thread pool size to " + threadPoolSize);
-        MZmineCore.getTaskExecutor().setCorePoolSize(threadPoolSize);
-      }
+      MZmineCore.getTaskExecutor().setNumberOfThreads(threadPoolSize);
     }
 
   }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.main;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.MZmineProcessingStepImpl;
+import io.github.mzmine.modules.batchmode.BatchPipeline;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.project.ProjectJournal;
+import io.github.mzmine.taskcontrol.MZmineTask;
+import io.github.mzmine.taskcontrol.TaskGraph;
+
+/**
+ * Runs a batch of processing steps without the graphical user interface. The JavaFX toolkit is
+ * never initialized, the tasks are run through {@link MZmineTask#execute()}. The steps are run as a
+ * {@link BatchPipeline}: each step processes the data created by the previous step, and the inputs
+ * of the first step are processed in parallel lanes, so a file is processed further while the
+ * next ones are still being imported. If a step fails, the following steps of the same data are
+ * skipped.
+ * 
+ * The project is autosaved while the batch runs. If the batch does not finish, e.g. because the
+ * process is killed, the next start of MZmine recovers the data created so far.
+ * 
+ * The batch file contains one batchstep element per step, with the module class in the method
+ * attribute and the parameters in the format of {@link ParameterSet#saveValuesToXML}.
+ */
+final class HeadlessBatchRunner {
+
+  static final int EXIT_SUCCESS = 0;
+  static final int EXIT_INVALID_BATCH = 1;
+  static final int EXIT_STEP_FAILED = 2;
+
+  private static final String batchStepElement = "batchstep";
+  private static final String methodAttribute = "method";
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull File batchFile;
+
+  HeadlessBatchRunner(@Nonnull File batchFile) {
+    this.batchFile = batchFile;
+  }
+
+  /**
+   * Runs the batch.
+   *
+   * @return the exit code of the process.
+   */
+  int run() {
+
+    MZmineCore.setHeadless(true);
+
+    // Load the modules and the configuration in this thread, the batch needs them
+    new MZmineModuleStarter().run();
+
+    final NodeList steps;
+    try {
+      Document batchDocument =
+          DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(batchFile);
+      steps = batchDocument.getDocumentElement().getElementsByTagName(batchStepElement);
+    } catch (Exception e) {
+      logger.error("Could not read batch file " + batchFile + ": " + e);
+      return EXIT_INVALID_BATCH;
+    }
+
+    if (steps.getLength() == 0) {
+      logger.error("Batch file " + batchFile + " does not contain any steps");
+      return EXIT_INVALID_BATCH;
+    }
+
+    final BatchPipeline pipeline = new BatchPipeline(MZmineCore.getCurrentProject());
+    for (int i = 0; i < steps.getLength(); i++) {
+      final Element stepElement = (Element) steps.item(i);
+      final String moduleClassName = stepElement.getAttribute(methodAttribute);
+
+      final Class<? extends MZmineProcessingModule> moduleClass;
+      try {
+        moduleClass = Class.forName(moduleClassName).asSubclass(MZmineProcessingModule.class);
+      } catch (ClassNotFoundException | ClassCastException e) {
+        logger.error("Batch step " + moduleClassName + " is not a processing module");
+        return EXIT_INVALID_BATCH;
+      }
+
+      final MZmineProcessingModule module = MZmineCore.getModuleInstance(moduleClass);
+      if (module == null) {
+        logger.error("Module " + moduleClassName + " is not loaded, check conf/Modules.xml");
+        return EXIT_INVALID_BATCH;
+      }
+
+      final ParameterSet parameters =
+          MZmineCore.getConfiguration().getModuleParameters(moduleClass).clone();
+      parameters.loadValuesFromXML(stepElement);
+      pipeline.addStep(new MZmineProcessingStepImpl<>(module, parameters));
+    }
+
+    final ProjectJournal journal = openJournal(MZmineCore.getCurrentProject());
+
+    // Wait until all steps are done for all inputs
+    final TaskGraph graph = pipeline.start();
+    try {
+      if (!graph.awaitCompletion()) {
+        for (TaskGraph.Node node : graph.getNodes()) {
+          if (node.getStatus() == TaskGraph.NodeStatus.FAILED)
+            logger.error("Batch step " + node.getStage().getName() + " failed in lane "
+                + node.getLane());
+        }
+        return EXIT_STEP_FAILED;
+      }
+    } catch (InterruptedException e) {
+      logger.error("Batch interrupted");
+      graph.cancel();
+      return EXIT_STEP_FAILED;
+    }
+
+    // Nothing to recover after a finished batch
+    if (journal != null) {
+      MZmineCore.getCurrentProject().setJournal(null);
+      journal.discard();
+    }
+
+    logger.info("Batch finished");
+    return EXIT_SUCCESS;
+  }
+
+  /**
+   * Opens the autosave journal for the given project. Returns null if autosave is not possible, or
+   * if the journal holds a project of a previous session, which is left for MZmine to recover.
+   */
+  private @Nullable ProjectJournal openJournal(@Nonnull MZmineProject project) {
+    final ProjectJournal journal;
+    try {
+      journal = ProjectJournal.open(ProjectJournal.AUTOSAVE_DIR);
+    } catch (IOException e) {
+      logger.warn("Project autosave is disabled: " + e);
+      return null;
+    }
+    if (!journal.isEmpty()) {
+      logger.warn("Project autosave is disabled, " + ProjectJournal.AUTOSAVE_DIR
+          + " holds a project of a previous session which was not recovered yet");
+      journal.close();
+      return null;
+    }
+    project.setJournal(journal);
+    return journal;
+  }
+
+}
@@ -23,17 +23,23 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import io.github.mzmine.gui.MZmineGUI;
 import io.github.mzmine.gui.mainwindow.MainWindowController;
+import io.github.mzmine.gui.preferences.MZminePreferences;
 import io.github.mzmine.modules.MZmineModule;
 import io.github.mzmine.modules.MZmineRunnableModule;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.project.MZmineProject;
 import io.github.mzmine.project.auditlog.AuditLogEntry;
+import io.github.mzmine.taskcontrol.MZmineTask;
+import io.github.mzmine.taskcontrol.TaskCompletionHandler;
+import io.github.mzmine.taskcontrol.TaskExecutor;
+import io.github.mzmine.taskcontrol.TaskType;
+import javafx.application.Platform;
 import javafx.concurrent.Task;
 
 /**
@@ -43,11 +49,14 @@ public final class MZmineCore {
 
   private static final @Nonnull MZmineConfiguration configuration = new MZmineConfiguration();
 
-  private static final @Nonnull ScheduledThreadPoolExecutor taskExecutor =
-      new ScheduledThreadPoolExecutor(2);
+  private static final @Nonnull TaskExecutor taskExecutor = new TaskExecutor(configuration
+      .getPreferences().getParameter(MZminePreferences.numOfThreads).getValue()
+      .getNumberOfThreads());
 
   private static @Nonnull MZmineProject currentProject = new MZmineProject();
 
+  private static volatile boolean headless = false;
+
   public static @Nonnull MZmineConfiguration getConfiguration() {
     return configuration;
   }
@@ -72,6 +81,18 @@ public final class MZmineCore {
     }
   }
 
+  /**
+   * Returns true if MZmine runs without the graphical user interface. In that case the JavaFX
+   * toolkit is never initialized.
+   */
+  public static boolean isHeadless() {
+    return headless;
+  }
+
+  static void setHeadless(boolean headless) {
+    MZmineCore.headless = headless;
+  }
+
   public static @Nonnull MZmineProject getCurrentProject() {
     return currentProject;
   }
@@ -81,17 +102,31 @@ public final class MZmineCore {
   }
 
   public static void submitTasks(@Nonnull Collection<Task<?>> tasks) {
-
     for (Task<?> task : tasks) {
-      MainWindowController mwc = MZmineGUI.getMainWindowController();
-      if (mwc != null) {
+      submitTask(task, null);
+    }
+  }
+
+  /**
+   * Submits a single task. The completion handler is called in the worker thread once the task is
+   * done, which allows chaining tasks without going through the JavaFX application thread.
+   */
+  public static void submitTask(@Nonnull Task<?> task,
+      @Nullable TaskCompletionHandler completionHandler) {
+    MainWindowController mwc = MZmineGUI.getMainWindowController();
+    if (mwc != null) {
+      if (Platform.isFxApplicationThread())
         mwc.getTaskTable().getTasks().add(task);
-      }
-      taskExecutor.execute(task);
+      else
+        Platform.runLater(() -> mwc.getTaskTable().getTasks().add(task));
     }
+    TaskType taskType = TaskType.CPU;
+    if (task instanceof MZmineTask)
+      taskType = ((MZmineTask) task).getTaskType();
+    taskExecutor.execute(task, taskType, completionHandler);
   }
 
-  public static @Nonnull ScheduledThreadPoolExecutor getTaskExecutor() {
+  public static @Nonnull TaskExecutor getTaskExecutor() {
     return taskExecutor;
   }
 
@@ -102,6 +137,18 @@ public final class MZmineCore {
 
   public static void runMZmineModule(@Nonnull Class<? extends MZmineRunnableModule> moduleClass,
       @Nonnull ParameterSet parameters) {
+    runMZmineModule(moduleClass, parameters, null);
+  }
+
+  /**
+   * Runs the given module and submits its tasks.
+   *
+   * @param completionHandler called for each task once it is done, or null.
+   * @return the tasks created by the module.
+   */
+  public static @Nonnull List<Task<?>> runMZmineModule(
+      @Nonnull Class<? extends MZmineRunnableModule> moduleClass, @Nonnull ParameterSet parameters,
+      @Nullable TaskCompletionHandler completionHandler) {
 
     MZmineRunnableModule module = (MZmineRunnableModule) getModuleInstance(moduleClass);
 
@@ -115,12 +162,14 @@ public final class MZmineCore {
     // Run the module
     final List<Task<?>> newTasks = new ArrayList<>();
     module.runModule(currentProject, parameters, newTasks);
-    submitTasks(newTasks);
+    for (Task<?> task : newTasks)
+      submitTask(task, completionHandler);
 
     // Log module run in audit log
     AuditLogEntry auditLogEntry = new AuditLogEntry(module, parameters, newTasks);
     currentProject.logProcessingStep(auditLogEntry);
 
+    return newTasks;
   }
 
 }
@@ -18,6 +18,7 @@
 
 package io.github.mzmine.main;
 
+import java.io.File;
 import java.nio.file.Paths;
 import java.util.Locale;
 
@@ -69,6 +70,19 @@ public final class MZmineMain {
     Thread shutDownThread = new Thread(shutDownHook);
     Runtime.getRuntime().addShutdownHook(shutDownThread);
 
+    /*
+     * Run a batch without starting the GUI
+     */
+    if (args.length > 0 && args[0].equals("-batch")) {
+      if (args.length != 2) {
+        logger.error("Usage: MZmineMain -batch <batch file>");
+        System.exit(HeadlessBatchRunner.EXIT_INVALID_BATCH);
+      }
+      logger.info("Running batch " + args[1] + " in headless mode");
+      HeadlessBatchRunner batchRunner = new HeadlessBatchRunner(new File(args[1]));
+      System.exit(batchRunner.run());
+    }
+
     /*
      * Load modules on a new thread after the GUI has started
      */
@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import io.github.msdk.datamodel.FeatureTable;
 import io.github.msdk.datamodel.RawDataFile;
 import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.project.ProjectJournal;
 
 /**
  * Shutdown hook - invoked on JRE shutdown. This method saves current configuration to XML and
@@ -61,6 +62,10 @@ class ShutDownHook implements Runnable {
     // Remove all temporary files
     MZmineProject currentProject = MZmineCore.getCurrentProject();
     if (currentProject != null) {
+      // Keep the journal unless the exit was confirmed, the JVM may be terminated by a signal
+      ProjectJournal journal = currentProject.getJournal();
+      if (journal != null)
+        journal.close();
       for (RawDataFile dataFile : currentProject.getRawDataFiles()) {
         dataFile.dispose();
       }
@@ -24,4 +24,15 @@ package io.github.mzmine.modules;
  */
 public interface MZmineProcessingModule extends MZmineRunnableModule {
 
+  /**
+   * Returns true if the module combines all of its inputs, or works on the whole project. In a
+   * batch, such a step waits until the previous steps have processed all inputs. Other steps run
+   * once per input, as soon as the data of that input is available.
+   *
+   * @return true if the module needs all inputs at once.
+   */
+  default boolean combinesInputs() {
+    return false;
+  }
+
 }
@@ -31,6 +31,7 @@ import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
@@ -76,6 +77,8 @@ public class JoinAlignerModule implements MZmineProcessingModule {
         parameters.getParameter(JoinAlignerParameters.requireSameAnnotation).getValue();
     Boolean requireSameCharge =
         parameters.getParameter(JoinAlignerParameters.requireSameCharge).getValue();
+    final Boolean parallelAlignment =
+        parameters.getParameter(JoinAlignerParameters.parallelAlignment).getValue();
     final String featureTableName =
         parameters.getParameter(JoinAlignerParameters.featureTableName).getValue();
 
@@ -104,6 +107,26 @@ public class JoinAlignerModule implements MZmineProcessingModule {
     // Create the data structures
     DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
 
+    // The parallel aligner aligns m/z ranges of all tables on the CPU pool
+    if (parallelAlignment != null && parallelAlignment) {
+      ParallelJoinAlignerMethod method =
+          new ParallelJoinAlignerMethod(featureTables.getMatchingFeatureTables(), dataStore,
+              mzTolerance, rtTolerance, mzWeight, rtWeight, requireSameCharge,
+              requireSameAnnotation, featureTableName,
+              MZmineCore.getTaskExecutor().getCpuExecutor());
+
+      MSDKTask newTask = new MSDKTask("Aligning feature tables", featureTableName, method);
+
+      // Add the feature table to the project
+      newTask.setOnSucceeded(e -> {
+        project.addFeatureTable(method.getResult());
+        removeOldTables(project, featureTables, removeOldTable);
+      });
+
+      tasks.add(newTask);
+      return;
+    }
+
     // New row filter method
     JoinAlignerMethod method = new JoinAlignerMethod(featureTables.getMatchingFeatureTables(),
         dataStore, mzTolerance, rtTolerance, mzWeight, rtWeight, requireSameCharge,
@@ -115,19 +138,30 @@ public class JoinAlignerModule implements MZmineProcessingModule {
     newTask.setOnSucceeded(e -> {
       FeatureTable newFeatureTable = method.getResult();
       project.addFeatureTable(newFeatureTable);
-
-      // If selected, remove old feature table
-      if (removeOldTable != null && removeOldTable) {
-        for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
-          project.removeFeatureTable(featureTable);
-        }
-      }
+      removeOldTables(project, featureTables, removeOldTable);
     });
 
     // Add the task to the queue
     tasks.add(newTask);
   }
 
+  @Override
+  public boolean combinesInputs() {
+    return true;
+  }
+
+  /**
+   * If selected, removes the aligned feature tables from the project.
+   */
+  private static void removeOldTables(@Nonnull MZmineProject project,
+      @Nonnull FeatureTablesSelection featureTables, Boolean removeOldTable) {
+    if (removeOldTable != null && removeOldTable) {
+      for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
+        project.removeFeatureTable(featureTable);
+      }
+    }
+  }
+
   @Override
   public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
     return JoinAlignerParameters.class;
@@ -61,6 +61,11 @@ public class JoinAlignerParameters extends ParameterSet {
       "Require same charge?", "If checked, only features with the same charge will be aligned.",
       "Algorithm Parameters", false);
 
+  public static final BooleanParameter parallelAlignment = new BooleanParameter(
+      "Parallel alignment?",
+      "If checked, the rows are aligned in m/z ranges on all processor cores and written to a column oriented feature table. The m/z range is only split where no row can match across the gap, so dense data with a wide m/z tolerance may give few ranges and little speedup.",
+      "Algorithm Parameters", true);
+
   public static final StringParameter featureTableName = new StringParameter("Feature table name",
       "Name of the aligned feature table.", "Output", "Aligned Feature Table");
 
@@ -73,7 +78,7 @@ public class JoinAlignerParameters extends ParameterSet {
    */
   public JoinAlignerParameters() {
     super(featureTables, mzTolerance, rtTolerance, mzWeight, rtWeight, requireSameAnnotation,
-        requireSameCharge, featureTableName, removeOldTable);
+        requireSameCharge, parallelAlignment, featureTableName, removeOldTable);
   }
 
 }
@@ -0,0 +1,653 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.alignment.joinaligner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
+import io.github.mzmine.datamodel.ColumnarFeatureTableRow;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+
+/**
+ * Join aligner which aligns the rows of several feature tables in parallel.
+ *
+ * The tables are aligned one after the other, like in the sequential join aligner: every row of a
+ * table is scored against the aligned rows of the previous tables inside its m/z and RT tolerance,
+ * the best scoring pairs are joined first and the remaining rows start new aligned rows. The m/z
+ * and RT of an aligned row are the averages of its rows.
+ *
+ * The rows of all tables are partitioned into m/z slabs which are aligned in parallel. A slab is
+ * only cut where the gap between two neighboring m/z values is wider than the m/z tolerance, so no
+ * row can match an aligned row of another slab and the result does not depend on the partition.
+ * The aligned rows are numbered in the order in which the sequential aligner creates them, and
+ * the feature values are written into a {@link ColumnarFeatureTable}.
+ */
+public class ParallelJoinAlignerMethod implements MSDKMethod<FeatureTable> {
+
+  /** Minimum number of rows of one m/z slab. */
+  private static final int SLAB_ROWS = 4096;
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull List<FeatureTable> featureTables;
+  private final @Nonnull DataPointStore dataStore;
+  private final @Nonnull MzTolerance mzTolerance;
+  private final @Nonnull RTTolerance rtTolerance;
+  private final double mzWeight, rtWeight;
+  private final boolean requireSameCharge, requireSameAnnotation;
+  private final @Nonnull String featureTableName;
+  private final @Nonnull Executor executor;
+  private final int slabRows;
+
+  private TableRows tableRows[];
+  private volatile boolean canceled = false;
+  private final @Nonnull AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows = 0;
+  private int slabCount = 0;
+  private FeatureTable result;
+
+  /**
+   * The rows of an input table and their values.
+   */
+  private static final class TableRows {
+    private final @Nonnull List<FeatureTableRow> rows;
+    private final @Nonnull double mzValues[];
+    private final @Nonnull float rtValues[];
+    private final @Nullable Integer charges[];
+    private final @Nullable List<IonAnnotation> ionAnnotations[];
+
+    @SuppressWarnings("unchecked")
+    private TableRows(@Nonnull FeatureTable featureTable) {
+      rows = featureTable.getRows();
+      mzValues = new double[rows.size()];
+      rtValues = new float[rows.size()];
+      final FeatureTableColumn<Integer> chargeColumn =
+          featureTable.getColumn(ColumnName.CHARGE, null);
+      final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+          featureTable.getColumn(ColumnName.IONANNOTATION, null);
+      charges = chargeColumn != null ? new Integer[rows.size()] : null;
+      ionAnnotations = ionAnnotationColumn != null ? new List[rows.size()] : null;
+      for (int i = 0; i < rows.size(); i++) {
+        final FeatureTableRow row = rows.get(i);
+        final Double mz = row.getMz();
+        final Float rt = row.getRT();
+        mzValues[i] = mz != null ? mz : Double.NaN;
+        rtValues[i] = rt != null ? rt : Float.NaN;
+        if (charges != null)
+          charges[i] = row.getData(chargeColumn);
+        if (ionAnnotations != null)
+          ionAnnotations[i] = row.getData(ionAnnotationColumn);
+      }
+    }
+
+    private boolean isAlignable(int row) {
+      return !Double.isNaN(mzValues[row]) && !Float.isNaN(rtValues[row]);
+    }
+  }
+
+  /**
+   * A row of the aligned table, holding the indexes of its rows in the input tables.
+   */
+  private static final class AlignedRow {
+    private final int firstTable, firstRow;
+    private int tables[] = new int[4], rows[] = new int[4];
+    private int size = 0;
+    private double mzSum = 0, rtSum = 0;
+    private double mz = Double.NaN;
+    private float rt = Float.NaN;
+    private Integer charge;
+    private List<IonAnnotation> ionAnnotations;
+
+    private AlignedRow(int firstTable, int firstRow) {
+      this.firstTable = firstTable;
+      this.firstRow = firstRow;
+    }
+
+    private void add(int table, int row, @Nonnull TableRows tableRows) {
+      if (size == tables.length) {
+        tables = Arrays.copyOf(tables, size * 2);
+        rows = Arrays.copyOf(rows, size * 2);
+      }
+      tables[size] = table;
+      rows[size] = row;
+      size++;
+      mzSum += tableRows.mzValues[row];
+      rtSum += tableRows.rtValues[row];
+      if (charge == null && tableRows.charges != null)
+        charge = tableRows.charges[row];
+      final List<IonAnnotation> rowIonAnnotations =
+          tableRows.ionAnnotations != null ? tableRows.ionAnnotations[row] : null;
+      if (rowIonAnnotations != null) {
+        if (ionAnnotations == null)
+          ionAnnotations = new ArrayList<>();
+        for (IonAnnotation ionAnnotation : rowIonAnnotations) {
+          if (!ionAnnotations.contains(ionAnnotation))
+            ionAnnotations.add(ionAnnotation);
+        }
+      }
+    }
+
+    private void updateAverages() {
+      mz = mzSum / size;
+      rt = (float) (rtSum / size);
+    }
+  }
+
+  /**
+   * <p>
+   * Constructor for ParallelJoinAlignerMethod.
+   * </p>
+   *
+   * @param featureTables the {@link io.github.msdk.datamodel.featuretables.FeatureTable}s to
+   *        align.
+   * @param dataStore the {@link io.github.msdk.datamodel.datastore.DataPointStore} of the result.
+   * @param mzTolerance the m/z tolerance.
+   * @param rtTolerance the RT tolerance.
+   * @param mzWeight the score for perfectly matching m/z values.
+   * @param rtWeight the score for perfectly matching RT values.
+   * @param requireSameCharge if true, only rows with the same charge are aligned.
+   * @param requireSameAnnotation if true, only rows with the same ion annotations (or no
+   *        annotations) are aligned.
+   * @param featureTableName the name of the aligned feature table.
+   * @param executor the {@link java.util.concurrent.Executor} aligning the m/z slabs.
+   */
+  public ParallelJoinAlignerMethod(@Nonnull List<FeatureTable> featureTables,
+      @Nonnull DataPointStore dataStore, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance, double mzWeight, double rtWeight,
+      boolean requireSameCharge, boolean requireSameAnnotation, @Nonnull String featureTableName,
+      @Nonnull Executor executor) {
+    this(featureTables, dataStore, mzTolerance, rtTolerance, mzWeight, rtWeight,
+        requireSameCharge, requireSameAnnotation, featureTableName, executor, SLAB_ROWS);
+  }
+
+  ParallelJoinAlignerMethod(@Nonnull List<FeatureTable> featureTables,
+      @Nonnull DataPointStore dataStore, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance, double mzWeight, double rtWeight,
+      boolean requireSameCharge, boolean requireSameAnnotation, @Nonnull String featureTableName,
+      @Nonnull Executor executor, int slabRows) {
+    Preconditions.checkNotNull(featureTables);
+    Preconditions.checkNotNull(dataStore);
+    Preconditions.checkNotNull(mzTolerance);
+    Preconditions.checkNotNull(rtTolerance);
+    Preconditions.checkNotNull(featureTableName);
+    Preconditions.checkNotNull(executor);
+    Preconditions.checkArgument(slabRows > 0);
+    this.featureTables = new ArrayList<>(featureTables);
+    this.dataStore = dataStore;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.mzWeight = mzWeight;
+    this.rtWeight = rtWeight;
+    this.requireSameCharge = requireSameCharge;
+    this.requireSameAnnotation = requireSameAnnotation;
+    this.featureTableName = featureTableName;
+    this.executor = executor;
+    this.slabRows = slabRows;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FeatureTable execute() throws MSDKException {
+
+    logger.info("Starting parallel join alignment of " + featureTables.size() + " feature tables");
+
+    // Read the row values of all tables
+    final int tableCount = featureTables.size();
+    tableRows = new TableRows[tableCount];
+    runAll(tableCount, t -> tableRows[t] = new TableRows(featureTables.get(t)));
+    for (TableRows rows : tableRows)
+      totalRows += rows.rows.size();
+
+    // Cut the m/z range into slabs and sort the rows of each table by slab, keeping their order
+    final double slabLimits[] = getSlabLimits();
+    slabCount = slabLimits.length + 1;
+    final int slabOrder[][] = new int[tableCount][];
+    final int slabStarts[][] = new int[tableCount][];
+    for (int t = 0; t < tableCount; t++) {
+      final TableRows rows = tableRows[t];
+      final int rowSlabs[] = new int[rows.rows.size()];
+      final int starts[] = new int[slabCount + 1];
+      for (int r = 0; r < rowSlabs.length; r++) {
+        if (!rows.isAlignable(r)) {
+          rowSlabs[r] = -1;
+          continue;
+        }
+        int slab = Arrays.binarySearch(slabLimits, rows.mzValues[r]);
+        rowSlabs[r] = slab >= 0 ? slab + 1 : -slab - 1;
+        starts[rowSlabs[r] + 1]++;
+      }
+      for (int s = 0; s < slabCount; s++)
+        starts[s + 1] += starts[s];
+      final int order[] = new int[starts[slabCount]];
+      final int next[] = Arrays.copyOf(starts, slabCount);
+      for (int r = 0; r < rowSlabs.length; r++) {
+        if (rowSlabs[r] >= 0)
+          order[next[rowSlabs[r]]++] = r;
+      }
+      slabOrder[t] = order;
+      slabStarts[t] = starts;
+    }
+
+    // Align the slabs
+    @SuppressWarnings("unchecked")
+    final List<AlignedRow> slabResults[] = new List[slabCount];
+    runAll(slabCount, s -> slabResults[s] = alignSlab(s, slabOrder, slabStarts));
+    if (canceled)
+      return null;
+
+    // Rows without m/z or RT value are not aligned
+    final List<AlignedRow> alignedRows = new ArrayList<>();
+    for (List<AlignedRow> slabResult : slabResults)
+      alignedRows.addAll(slabResult);
+    for (int t = 0; t < tableCount; t++) {
+      for (int r = 0; r < tableRows[t].rows.size(); r++) {
+        if (tableRows[t].isAlignable(r))
+          continue;
+        final AlignedRow alignedRow = new AlignedRow(t, r);
+        alignedRow.add(t, r, tableRows[t]);
+        alignedRow.updateAverages();
+        alignedRows.add(alignedRow);
+        processedRows.incrementAndGet();
+      }
+    }
+
+    // Number the aligned rows in the order they are created by the sequential aligner
+    alignedRows.sort((a1, a2) -> {
+      if (a1.firstTable != a2.firstTable)
+        return Integer.compare(a1.firstTable, a2.firstTable);
+      return Integer.compare(a1.firstRow, a2.firstRow);
+    });
+
+    final FeatureTable alignedTable = writeAlignedTable(alignedRows);
+    if (canceled)
+      return null;
+
+    result = alignedTable;
+    logger.info("Finished parallel join alignment: " + alignedRows.size() + " aligned rows from "
+        + slabCount + " m/z slabs");
+    return result;
+  }
+
+  /**
+   * Returns the m/z values at which the slabs are cut. Each slab holds at least slabRows rows,
+   * except the last one, and is cut at the first m/z gap which no tolerance range can bridge.
+   */
+  private @Nonnull double[] getSlabLimits() {
+    int count = 0;
+    for (TableRows rows : tableRows) {
+      for (int r = 0; r < rows.rows.size(); r++) {
+        if (rows.isAlignable(r))
+          count++;
+      }
+    }
+    final double mzValues[] = new double[count];
+    count = 0;
+    for (TableRows rows : tableRows) {
+      for (int r = 0; r < rows.rows.size(); r++) {
+        if (rows.isAlignable(r))
+          mzValues[count++] = rows.mzValues[r];
+      }
+    }
+    Arrays.sort(mzValues);
+
+    final List<Double> limits = new ArrayList<>();
+    int slabSize = 1;
+    for (int i = 1; i < mzValues.length; i++, slabSize++) {
+      if (slabSize < slabRows || !isGap(mzValues[i - 1], mzValues[i]))
+        continue;
+      limits.add(mzValues[i]);
+      slabSize = 0;
+    }
+
+    final double slabLimits[] = new double[limits.size()];
+    for (int i = 0; i < slabLimits.length; i++)
+      slabLimits[i] = limits.get(i);
+    return slabLimits;
+  }
+
+  /**
+   * Returns true if no row at or below mz1 can match a row at or above mz2. An aligned row, whose
+   * m/z is an average, stays on the side of its rows up to rounding, which is covered by a margin
+   * of a few ulps.
+   */
+  private boolean isGap(double mz1, double mz2) {
+    final double margin = 4 * Math.ulp(mz2);
+    return mzTolerance.getToleranceRange(mz2).lowerEndpoint() > mz1 + margin
+        && mzTolerance.getToleranceRange(mz1).upperEndpoint() < mz2 - margin;
+  }
+
+  /**
+   * Aligns the rows of one m/z slab, table by table.
+   */
+  private @Nonnull List<AlignedRow> alignSlab(int slab, @Nonnull int slabOrder[][],
+      @Nonnull int slabStarts[][]) {
+    final List<AlignedRow> alignedRows = new ArrayList<>();
+
+    // The aligned rows by m/z. The order of the previous table is kept, so sorting it again after
+    // the averages changed is cheap.
+    final List<Integer> mzOrder = new ArrayList<>();
+
+    for (int t = 0; t < tableRows.length; t++) {
+      if (canceled)
+        return alignedRows;
+      final TableRows rows = tableRows[t];
+      final int from = slabStarts[t][slab], to = slabStarts[t][slab + 1];
+      if (from == to)
+        continue;
+
+      mzOrder.sort((i1, i2) -> Double.compare(alignedRows.get(i1).mz, alignedRows.get(i2).mz));
+      final int alignedCount = mzOrder.size();
+      final double alignedMz[] = new double[alignedCount];
+      for (int j = 0; j < alignedCount; j++)
+        alignedMz[j] = alignedRows.get(mzOrder.get(j)).mz;
+
+      // Score all pairs of rows and aligned rows inside the tolerance ranges
+      double scores[] = new double[16];
+      int scoreRows[] = new int[16], scoreAligned[] = new int[16];
+      int scoreCount = 0;
+      for (int i = from; i < to; i++) {
+        final int row = slabOrder[t][i];
+        final double mz = rows.mzValues[row];
+        final float rt = rows.rtValues[row];
+        final Range<Double> mzRange = mzTolerance.getToleranceRange(mz);
+        final Range<Float> rtRange = rtTolerance.getToleranceRange(rt);
+        final double mzMaxDiff = (mzRange.upperEndpoint() - mzRange.lowerEndpoint()) / 2;
+        final double rtMaxDiff = (rtRange.upperEndpoint() - rtRange.lowerEndpoint()) / 2;
+        for (int j = lowerBound(alignedMz, mzRange.lowerEndpoint()); j < alignedCount
+            && alignedMz[j] <= mzRange.upperEndpoint(); j++) {
+          final int aligned = mzOrder.get(j);
+          final AlignedRow alignedRow = alignedRows.get(aligned);
+          if (!rtRange.contains(alignedRow.rt))
+            continue;
+          if (requireSameCharge
+              && !Objects.equals(rows.charges != null ? rows.charges[row] : null,
+                  alignedRow.charge))
+            continue;
+          if (requireSameAnnotation && !isSameAnnotation(
+              rows.ionAnnotations != null ? rows.ionAnnotations[row] : null,
+              alignedRow.ionAnnotations))
+            continue;
+
+          if (scoreCount == scores.length) {
+            scores = Arrays.copyOf(scores, scoreCount * 2);
+            scoreRows = Arrays.copyOf(scoreRows, scoreCount * 2);
+            scoreAligned = Arrays.copyOf(scoreAligned, scoreCount * 2);
+          }
+          scores[scoreCount] = (1 - Math.abs(mz - alignedRow.mz) / mzMaxDiff) * mzWeight
+              + (1 - Math.abs(rt - alignedRow.rt) / rtMaxDiff) * rtWeight;
+          scoreRows[scoreCount] = i - from;
+          scoreAligned[scoreCount] = aligned;
+          scoreCount++;
+        }
+        processedRows.incrementAndGet();
+      }
+
+      // Join the best scoring pairs first, ties are broken by row and aligned row order
+      final double pairScores[] = scores;
+      final int pairRows[] = scoreRows, pairAligned[] = scoreAligned;
+      final Integer pairs[] = new Integer[scoreCount];
+      for (int k = 0; k < scoreCount; k++)
+        pairs[k] = k;
+      Arrays.sort(pairs, (k1, k2) -> {
+        if (pairScores[k1] != pairScores[k2])
+          return Double.compare(pairScores[k2], pairScores[k1]);
+        if (pairRows[k1] != pairRows[k2])
+          return Integer.compare(pairRows[k1], pairRows[k2]);
+        return Integer.compare(pairAligned[k1], pairAligned[k2]);
+      });
+      final int mapping[] = new int[to - from];
+      Arrays.fill(mapping, -1);
+      final boolean filled[] = new boolean[alignedCount];
+      for (int k : pairs) {
+        if (mapping[pairRows[k]] >= 0 || filled[pairAligned[k]])
+          continue;
+        mapping[pairRows[k]] = pairAligned[k];
+        filled[pairAligned[k]] = true;
+      }
+
+      // Add the rows to their aligned rows, unmatched rows start new aligned rows
+      for (int i = from; i < to; i++) {
+        final int row = slabOrder[t][i];
+        AlignedRow alignedRow;
+        if (mapping[i - from] >= 0) {
+          alignedRow = alignedRows.get(mapping[i - from]);
+        } else {
+          alignedRow = new AlignedRow(t, row);
+          mzOrder.add(alignedRows.size());
+          alignedRows.add(alignedRow);
+        }
+        alignedRow.add(t, row, rows);
+      }
+      for (AlignedRow alignedRow : alignedRows)
+        alignedRow.updateAverages();
+    }
+
+    return alignedRows;
+  }
+
+  /**
+   * Returns true if all ion annotations of the row are also annotations of the aligned row, or if
+   * either has no annotations.
+   */
+  private static boolean isSameAnnotation(@Nullable List<IonAnnotation> rowIonAnnotations,
+      @Nullable List<IonAnnotation> alignedIonAnnotations) {
+    if (rowIonAnnotations == null || alignedIonAnnotations == null)
+      return true;
+    return alignedIonAnnotations.containsAll(rowIonAnnotations);
+  }
+
+  /**
+   * Returns the index of the first value greater or equal to the given value.
+   */
+  private static int lowerBound(@Nonnull double values[], double value) {
+    int low = 0, high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] < value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * Creates the aligned table. The row values are set directly, the feature values of each input
+   * table are copied column by column, in parallel if the tables do not share columns.
+   */
+  @SuppressWarnings("unchecked")
+  private @Nonnull FeatureTable writeAlignedTable(@Nonnull List<AlignedRow> alignedRows)
+      throws MSDKException {
+
+    final ColumnarFeatureTable alignedTable =
+        new ColumnarFeatureTable(featureTableName, dataStore);
+    final FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    final FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    final FeatureTableColumn<Float> rtColumn =
+        MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    alignedTable.addColumn(idColumn);
+    alignedTable.addColumn(mzColumn);
+    alignedTable.addColumn(rtColumn);
+
+    // Common columns of the input tables, the value of the first row having one is kept
+    final Set<String> alignedColumnNames = new HashSet<>(Arrays.asList(ColumnName.ID.getName(),
+        ColumnName.MZ.getName(), ColumnName.RT.getName(), ColumnName.CHARGE.getName(),
+        ColumnName.IONANNOTATION.getName()));
+    FeatureTableColumn<Integer> chargeColumn = null;
+    FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn = null;
+    final List<List<FeatureTableColumn<?>>> commonColumns = new ArrayList<>();
+    final List<List<FeatureTableColumn<?>>> sampleColumns = new ArrayList<>();
+    final Set<FeatureTableColumn<?>> copiedColumns = new HashSet<>();
+    boolean sharedColumns = false;
+    for (int t = 0; t < tableRows.length; t++) {
+      final List<FeatureTableColumn<?>> tableCommonColumns = new ArrayList<>();
+      final List<FeatureTableColumn<?>> tableSampleColumns = new ArrayList<>();
+      for (FeatureTableColumn<?> column : featureTables.get(t).getColumns()) {
+        FeatureTableColumn<?> alignedColumn = alignedTable.getColumn(column.getName(),
+            column.getSample(), column.getDataTypeClass());
+        if (alignedColumn == null) {
+          alignedTable.addColumn(column);
+          alignedColumn = column;
+        }
+        if (column.getSample() != null) {
+          tableSampleColumns.add(alignedColumn);
+          sharedColumns |= !copiedColumns.add(alignedColumn);
+        } else if (column.getName().equals(ColumnName.CHARGE.getName())) {
+          chargeColumn = (FeatureTableColumn<Integer>) alignedColumn;
+        } else if (column.getName().equals(ColumnName.IONANNOTATION.getName())) {
+          ionAnnotationColumn = (FeatureTableColumn<List<IonAnnotation>>) alignedColumn;
+        } else if (!alignedColumnNames.contains(column.getName())) {
+          tableCommonColumns.add(alignedColumn);
+        }
+      }
+      commonColumns.add(tableCommonColumns);
+      sampleColumns.add(tableSampleColumns);
+    }
+
+    // Create the rows
+    final ColumnarFeatureTableRow rows[] = new ColumnarFeatureTableRow[alignedRows.size()];
+    final int alignedRowIndexes[][] = new int[tableRows.length][];
+    for (int t = 0; t < tableRows.length; t++)
+      alignedRowIndexes[t] = new int[tableRows[t].rows.size()];
+    for (int i = 0; i < rows.length; i++) {
+      final AlignedRow alignedRow = alignedRows.get(i);
+      final ColumnarFeatureTableRow row = alignedTable.createRow(i + 1);
+      row.setData(idColumn, i + 1);
+      if (!Double.isNaN(alignedRow.mz))
+        row.setDouble(mzColumn, alignedRow.mz);
+      if (!Float.isNaN(alignedRow.rt))
+        row.setFloat(rtColumn, alignedRow.rt);
+      if (chargeColumn != null && alignedRow.charge != null)
+        row.setData(chargeColumn, alignedRow.charge);
+      if (ionAnnotationColumn != null && alignedRow.ionAnnotations != null)
+        row.setData(ionAnnotationColumn, alignedRow.ionAnnotations);
+      for (int m = 0; m < alignedRow.size; m++) {
+        final int t = alignedRow.tables[m];
+        final FeatureTableRow sourceRow = tableRows[t].rows.get(alignedRow.rows[m]);
+        alignedRowIndexes[t][alignedRow.rows[m]] = i;
+        for (FeatureTableColumn<?> column : commonColumns.get(t)) {
+          final Object data = sourceRow.getData(column);
+          if (data != null && row.getData(column) == null)
+            row.setData(column, data);
+        }
+      }
+      alignedTable.addRow(row);
+      rows[i] = row;
+    }
+
+    // Copy the feature values of each table
+    runAll(tableRows.length, t -> {
+      final List<FeatureTableRow> sourceRows = tableRows[t].rows;
+      for (FeatureTableColumn<?> column : sampleColumns.get(t)) {
+        if (canceled)
+          return;
+        for (int r = 0; r < sourceRows.size(); r++) {
+          final Object data = sourceRows.get(r).getData(column);
+          if (data != null)
+            rows[alignedRowIndexes[t][r]].setData(column, data);
+        }
+      }
+      processedRows.addAndGet(sourceRows.size());
+    }, sharedColumns ? Runnable::run : executor);
+
+    return alignedTable;
+  }
+
+  /**
+   * Runs a job for each index from 0 to count - 1 on the executor and waits for all of them.
+   */
+  private void runAll(int count, @Nonnull IndexJob job) throws MSDKException {
+    runAll(count, job, executor);
+  }
+
+  private void runAll(int count, @Nonnull IndexJob job, @Nonnull Executor jobExecutor)
+      throws MSDKException {
+    final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      jobs.add(CompletableFuture.runAsync(() -> {
+        if (!canceled)
+          job.run(index);
+      }, jobExecutor));
+    }
+    try {
+      CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      cancel();
+      throw new MSDKException(e.getCause());
+    }
+  }
+
+  @FunctionalInterface
+  private interface IndexJob {
+    void run(int index);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getFinishedPercentage() {
+    return totalRows == 0 ? 0f : Math.min(1f, processedRows.get() / (2f * totalRows));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FeatureTable getResult() {
+    return result;
+  }
+
+  /**
+   * Returns the number of m/z slabs which were aligned in parallel. Dense data without m/z gaps
+   * wider than the tolerance may give a single slab.
+   *
+   * @return the number of slabs, or 0 if the alignment has not run yet.
+   */
+  public int getSlabCount() {
+    return slabCount;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    this.canceled = true;
+  }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.alignment.joinaligner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.alignment.joinaligner.JoinAlignerMethod;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.SimpleSample;
+
+public class ParallelJoinAlignerMethodTest {
+
+  private static FeatureTable createFeatureTable(String sampleName, double mzValues[],
+      float rtValues[]) {
+    FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable(sampleName,
+        DataPointStoreFactory.getMemoryDataStore());
+    Sample sample = new SimpleSample(sampleName);
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Float> rtColumn = MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    FeatureTableColumn<Double> sampleMzColumn =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.MZ, sample);
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    featureTable.addColumn(sampleMzColumn);
+    for (int i = 0; i < mzValues.length; i++) {
+      FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, i + 1);
+      row.setData(idColumn, i + 1);
+      row.setData(mzColumn, mzValues[i]);
+      row.setData(rtColumn, rtValues[i]);
+      row.setData(sampleMzColumn, mzValues[i]);
+      featureTable.addRow(row);
+    }
+    return featureTable;
+  }
+
+  private static ParallelJoinAlignerMethod align(List<FeatureTable> featureTables,
+      Executor executor, int slabRows) throws MSDKException {
+    ParallelJoinAlignerMethod method = new ParallelJoinAlignerMethod(featureTables,
+        DataPointStoreFactory.getMemoryDataStore(), new MaximumMzTolerance(0.001, 5.0),
+        new RTTolerance(5, true), 10, 10, false, false, "Aligned", executor, slabRows);
+    Assert.assertNotNull(method.execute());
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+    return method;
+  }
+
+  /**
+   * Features of the same compounds in several samples, with m/z and RT deviations.
+   */
+  private static List<FeatureTable> createRandomFeatureTables() {
+    Random random = new Random(7);
+    double compoundMz[] = new double[400];
+    float compoundRt[] = new float[compoundMz.length];
+    for (int c = 0; c < compoundMz.length; c++) {
+      compoundMz[c] = 100 + random.nextDouble() * 900;
+      compoundRt[c] = random.nextFloat() * 1200;
+    }
+    List<FeatureTable> featureTables = new ArrayList<>();
+    for (int t = 0; t < 6; t++) {
+      double mzValues[] = new double[300];
+      float rtValues[] = new float[mzValues.length];
+      for (int i = 0; i < mzValues.length; i++) {
+        int c = random.nextInt(compoundMz.length);
+        mzValues[i] = compoundMz[c] + (random.nextDouble() - 0.5) * 0.003;
+        rtValues[i] = compoundRt[c] + (random.nextFloat() - 0.5f) * 8;
+      }
+      featureTables.add(createFeatureTable("Sample " + t, mzValues, rtValues));
+    }
+    return featureTables;
+  }
+
+  /**
+   * Returns the m/z values of the samples of each aligned row, sorted, so tables which group the
+   * same features can be compared regardless of the row order.
+   */
+  private static List<String> getAlignedFeatures(FeatureTable alignedTable,
+      List<FeatureTable> featureTables) {
+    List<FeatureTableColumn<Double>> columns = new ArrayList<>();
+    for (FeatureTable featureTable : featureTables)
+      columns.add(alignedTable.getColumn(ColumnName.MZ, featureTable.getSamples().get(0)));
+    List<String> alignedFeatures = new ArrayList<>();
+    for (FeatureTableRow row : alignedTable.getRows()) {
+      StringBuilder features = new StringBuilder();
+      for (FeatureTableColumn<Double> column : columns)
+        features.append(column == null ? null : row.getData(column)).append(';');
+      alignedFeatures.add(features.toString());
+    }
+    Collections.sort(alignedFeatures);
+    return alignedFeatures;
+  }
+
+  @Test
+  public void testAlignment() throws MSDKException {
+    List<FeatureTable> featureTables = new ArrayList<>();
+    featureTables.add(createFeatureTable("Sample 1", new double[] {100.0, 200.0, 300.0},
+        new float[] {60f, 120f, 180f}));
+    featureTables.add(createFeatureTable("Sample 2", new double[] {100.0003, 200.0002, 400.0},
+        new float[] {61f, 119f, 300f}));
+    featureTables.add(createFeatureTable("Sample 3", new double[] {250.0, 100.0001},
+        new float[] {10f, 62f}));
+
+    FeatureTable alignedTable = align(featureTables, Runnable::run, 1).getResult();
+    Assert.assertEquals("Aligned", alignedTable.getName());
+    Assert.assertEquals(3, alignedTable.getSamples().size());
+
+    // Aligned rows are numbered in the order of the tables and their rows
+    List<FeatureTableRow> rows = alignedTable.getRows();
+    Assert.assertEquals(5, rows.size());
+    double expectedMz[] = {(100.0 + 100.0003 + 100.0001) / 3, 200.0001, 300.0, 400.0, 250.0};
+    float expectedRt[] = {61f, 119.5f, 180f, 300f, 10f};
+    for (int i = 0; i < rows.size(); i++) {
+      Assert.assertEquals(i + 1, rows.get(i).getId().intValue());
+      Assert.assertEquals(expectedMz[i], rows.get(i).getMz(), 0.000001);
+      Assert.assertEquals(expectedRt[i], rows.get(i).getRT(), 0.0001f);
+    }
+
+    // Feature values of the samples
+    Sample sample3 = featureTables.get(2).getSamples().get(0);
+    FeatureTableColumn<Double> sample3MzColumn = alignedTable.getColumn(ColumnName.MZ, sample3);
+    Assert.assertEquals(100.0001, rows.get(0).getData(sample3MzColumn), 0.000001);
+    Assert.assertNull(rows.get(1).getData(sample3MzColumn));
+    Assert.assertEquals(250.0, rows.get(4).getData(sample3MzColumn), 0.000001);
+  }
+
+  @Test
+  public void testSlabsDoNotChangeResult() throws MSDKException {
+
+    List<FeatureTable> featureTables = createRandomFeatureTables();
+
+    ParallelJoinAlignerMethod sequentialMethod =
+        align(featureTables, Runnable::run, Integer.MAX_VALUE);
+    Assert.assertEquals(1, sequentialMethod.getSlabCount());
+    FeatureTable sequential = sequentialMethod.getResult();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    ParallelJoinAlignerMethod parallelMethod;
+    try {
+      parallelMethod = align(featureTables, executor, 20);
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertTrue(parallelMethod.getSlabCount() > 1);
+    FeatureTable parallel = parallelMethod.getResult();
+
+    List<FeatureTableRow> sequentialRows = sequential.getRows();
+    List<FeatureTableRow> parallelRows = parallel.getRows();
+    Assert.assertTrue(sequentialRows.size() < 6 * 300);
+    Assert.assertEquals(sequentialRows.size(), parallelRows.size());
+    for (int i = 0; i < sequentialRows.size(); i++) {
+      Assert.assertEquals(sequentialRows.get(i).getMz(), parallelRows.get(i).getMz());
+      Assert.assertEquals(sequentialRows.get(i).getRT(), parallelRows.get(i).getRT());
+      for (FeatureTable featureTable : featureTables) {
+        Sample sample = featureTable.getSamples().get(0);
+        FeatureTableColumn<Double> column = parallel.getColumn(ColumnName.MZ, sample);
+        Assert.assertEquals(sequentialRows.get(i).getData(column),
+            parallelRows.get(i).getData(column));
+      }
+    }
+  }
+
+  @Test
+  public void testSameResultAsJoinAlignerMethod() throws MSDKException {
+    List<FeatureTable> featureTables = createRandomFeatureTables();
+
+    JoinAlignerMethod joinAligner = new JoinAlignerMethod(featureTables,
+        DataPointStoreFactory.getMemoryDataStore(), new MaximumMzTolerance(0.001, 5.0),
+        new RTTolerance(5, true), 10, 10, false, false, "Aligned");
+    FeatureTable expected = joinAligner.execute();
+    Assert.assertNotNull(expected);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    FeatureTable parallel;
+    try {
+      parallel = align(featureTables, executor, 20).getResult();
+    } finally {
+      executor.shutdown();
+    }
+
+    // The same features are grouped into aligned rows
+    Assert.assertEquals(expected.getRows().size(), parallel.getRows().size());
+    Assert.assertEquals(getAlignedFeatures(expected, featureTables),
+        getAlignedFeatures(parallel, featureTables));
+  }
+
+}
@@ -93,6 +93,11 @@ public class AuditLogExportModule implements MZmineProcessingModule {
 
   }
 
+  @Override
+  public boolean combinesInputs() {
+    return true;
+  }
+
   @Override
   public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
     return AuditLogExportParameters.class;
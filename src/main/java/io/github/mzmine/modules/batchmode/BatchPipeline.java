@@ -0,0 +1,258 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.batchmode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.MZmineProcessingStep;
+import io.github.mzmine.parameters.Parameter;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.filenames.FileNamesParameter;
+import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesParameter;
+import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelectionType;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.project.auditlog.AuditLogEntry;
+import io.github.mzmine.taskcontrol.TaskGraph;
+import javafx.concurrent.Task;
+
+/**
+ * Runs a sequence of processing steps as a pipeline. The input of the first step (file names, raw
+ * data files or feature tables) is split into lanes. Steps which process each input on its own
+ * run once per lane, as soon as the previous step has produced the data of that lane, so the first
+ * files are already processed further while the next ones are still being imported. Steps which
+ * combine their inputs, such as alignment, wait for all lanes and continue with a single lane.
+ * 
+ * The number of lanes in progress before the first combining step is limited, so intermediate
+ * data of at most that many inputs is held at the same time.
+ */
+public class BatchPipeline {
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private static class BatchStep {
+    private final @Nonnull MZmineProcessingStep<? extends MZmineProcessingModule> step;
+    private final boolean combineInputs;
+
+    private BatchStep(@Nonnull MZmineProcessingStep<? extends MZmineProcessingModule> step,
+        boolean combineInputs) {
+      this.step = step;
+      this.combineInputs = combineInputs;
+    }
+  }
+
+  private final @Nonnull MZmineProject project;
+  private final int maxLanesInProgress;
+  private final List<BatchStep> steps = new ArrayList<>();
+
+  /**
+   * Creates a pipeline which keeps up to twice as many lanes in progress as there are task
+   * threads.
+   */
+  public BatchPipeline(@Nonnull MZmineProject project) {
+    this(project, 2 * MZmineCore.getTaskExecutor().getNumberOfThreads());
+  }
+
+  public BatchPipeline(@Nonnull MZmineProject project, int maxLanesInProgress) {
+    Preconditions.checkNotNull(project);
+    Preconditions.checkArgument(maxLanesInProgress > 0);
+    this.project = project;
+    this.maxLanesInProgress = maxLanesInProgress;
+  }
+
+  /**
+   * Adds a step, which combines its inputs if the module says so.
+   *
+   * @see MZmineProcessingModule#combinesInputs()
+   */
+  public void addStep(@Nonnull MZmineProcessingStep<? extends MZmineProcessingModule> step) {
+    addStep(step, step.getModule().combinesInputs());
+  }
+
+  /**
+   * Adds a step.
+   *
+   * @param step the module and its parameters.
+   * @param combineInputs true if the step needs the results of all lanes at once.
+   */
+  public void addStep(@Nonnull MZmineProcessingStep<? extends MZmineProcessingModule> step,
+      boolean combineInputs) {
+    Preconditions.checkNotNull(step);
+    steps.add(new BatchStep(step, combineInputs));
+  }
+
+  /**
+   * Builds the task graph of the pipeline and starts it.
+   *
+   * @return the running {@link TaskGraph}, which can be used to wait for or cancel the pipeline.
+   */
+  public @Nonnull TaskGraph start() {
+    Preconditions.checkState(!steps.isEmpty(), "The pipeline has no steps");
+
+    final TaskGraph graph = new TaskGraph();
+    final int maxRunning = MZmineCore.getTaskExecutor().getNumberOfThreads();
+    final List<Object> initialInputs = getInputs(steps.get(0).step.getParameterSet());
+
+    List<TaskGraph.Node> lanes = new ArrayList<>();
+    List<TaskGraph.Node> firstNodes = Collections.emptyList();
+    List<TaskGraph.Node> lastNodes = null;
+
+    for (BatchStep batchStep : steps) {
+      final TaskGraph.Stage stage = graph.addStage(batchStep.step.getModule().getName(),
+          batchStep.combineInputs ? 1 : maxRunning);
+      final List<TaskGraph.Node> newLanes = new ArrayList<>();
+
+      if (lanes.isEmpty() && !batchStep.combineInputs && !initialInputs.isEmpty()) {
+        // First step, one lane per input
+        for (int i = 0; i < initialInputs.size(); i++) {
+          final List<Object> input = Collections.singletonList(initialInputs.get(i));
+          newLanes.add(graph.addNode(stage, i, Collections.emptyList(),
+              dependencyResults -> runStep(batchStep, input)));
+        }
+        firstNodes = newLanes;
+      } else if (lanes.isEmpty()) {
+        // First step working on all inputs, or on the data selected by its own parameters
+        newLanes.add(graph.addNode(stage, 0, Collections.emptyList(),
+            dependencyResults -> runStep(batchStep, initialInputs)));
+      } else if (!batchStep.combineInputs) {
+        for (TaskGraph.Node lane : lanes) {
+          newLanes.add(graph.addNode(stage, lane.getLane(), Collections.singletonList(lane),
+              dependencyResults -> runNextStep(batchStep, dependencyResults)));
+        }
+      } else {
+        if (lastNodes == null)
+          lastNodes = lanes;
+        newLanes.add(graph.addNode(stage, 0, lanes,
+            dependencyResults -> runNextStep(batchStep, dependencyResults)));
+      }
+
+      lanes = newLanes;
+    }
+    if (lastNodes == null)
+      lastNodes = lanes;
+
+    // Back-pressure: a lane only starts when an earlier lane has left the per-input steps
+    if (!firstNodes.isEmpty()) {
+      for (int i = maxLanesInProgress; i < firstNodes.size(); i++)
+        firstNodes.get(i).runAfter(lastNodes.get(i - maxLanesInProgress));
+    }
+
+    logger.info("Starting batch pipeline of " + steps.size() + " steps and "
+        + initialInputs.size() + " inputs");
+    graph.start();
+    return graph;
+  }
+
+  /**
+   * Runs a step on the results of the previous step.
+   */
+  private @Nonnull Collection<Task<?>> runNextStep(@Nonnull BatchStep batchStep,
+      @Nonnull List<Object> inputs) {
+    if (inputs.isEmpty())
+      throw new IllegalStateException(
+          "No input data for " + batchStep.step.getModule().getName());
+    return runStep(batchStep, inputs);
+  }
+
+  /**
+   * Runs a step on the given inputs. If there are no inputs, the data selected by the parameters
+   * of the step is used.
+   */
+  private @Nonnull Collection<Task<?>> runStep(@Nonnull BatchStep batchStep,
+      @Nonnull List<Object> inputs) {
+    final MZmineProcessingModule module = batchStep.step.getModule();
+    final ParameterSet parameters = batchStep.step.getParameterSet().clone();
+    setInputs(parameters, inputs);
+
+    final List<Task<?>> tasks = new ArrayList<>();
+    module.runModule(project, parameters, tasks);
+    project.logProcessingStep(new AuditLogEntry(module, parameters, tasks));
+    if (tasks.isEmpty())
+      logger.warn("Batch step " + module.getName() + " did not start any tasks");
+    return tasks;
+  }
+
+  /**
+   * Returns the data selected by the input parameter of the given parameter set.
+   */
+  private static @Nonnull List<Object> getInputs(@Nonnull ParameterSet parameters) {
+    for (Parameter<?> parameter : parameters) {
+      if (parameter instanceof FileNamesParameter) {
+        final List<File> files = ((FileNamesParameter) parameter).getValue();
+        if (files != null)
+          return new ArrayList<>(files);
+      } else if (parameter instanceof RawDataFilesParameter) {
+        final RawDataFilesSelection selection = ((RawDataFilesParameter) parameter).getValue();
+        if (selection != null)
+          return new ArrayList<>(selection.getMatchingRawDataFiles());
+      } else if (parameter instanceof FeatureTablesParameter) {
+        final FeatureTablesSelection selection = ((FeatureTablesParameter) parameter).getValue();
+        if (selection != null)
+          return new ArrayList<>(selection.getMatchingFeatureTables());
+      }
+    }
+    return new ArrayList<>();
+  }
+
+  /**
+   * Points the input parameters of the given parameter set to the given data.
+   */
+  private static void setInputs(@Nonnull ParameterSet parameters, @Nonnull List<Object> inputs) {
+    final List<File> files = new ArrayList<>();
+    final List<RawDataFile> rawDataFiles = new ArrayList<>();
+    final List<FeatureTable> featureTables = new ArrayList<>();
+    for (Object input : inputs) {
+      if (input instanceof File)
+        files.add((File) input);
+      else if (input instanceof RawDataFile)
+        rawDataFiles.add((RawDataFile) input);
+      else if (input instanceof FeatureTable)
+        featureTables.add((FeatureTable) input);
+    }
+
+    for (Parameter<?> parameter : parameters) {
+      if (parameter instanceof FileNamesParameter && !files.isEmpty())
+        parameter.setValue(files);
+      else if (parameter instanceof RawDataFilesParameter && !rawDataFiles.isEmpty())
+        parameter.setValue(new RawDataFilesSelection(rawDataFiles));
+      else if (parameter instanceof FeatureTablesParameter && !featureTables.isEmpty())
+        parameter.setValue(new FeatureTablesSelection(
+            FeatureTablesSelectionType.SPECIFIC_FEATURE_TABLES, featureTables, null));
+    }
+  }
+
+}
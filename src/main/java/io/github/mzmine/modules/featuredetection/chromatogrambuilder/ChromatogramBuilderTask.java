@@ -32,12 +32,14 @@ import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.featdet.chromatogrambuilder.ChromatogramBuilderMethod;
-import io.github.msdk.featdet.chromatogramtofeaturetable.ChromatogramToFeatureTableMethod;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.taskcontrol.MZmineTask;
+import io.github.mzmine.taskcontrol.TaskMetrics;
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
@@ -65,9 +67,10 @@ public class ChromatogramBuilderTask extends Task<Object> implements MZmineTask
     this.title = title;
     this.message = message;
 
-    // Chromatogram builder method
-    chromatogramBuilderMethod = new ChromatogramBuilderMethod(dataStore, rawDataFile, noiseLevel,
-        minDuration, minHeight, mzTolerance);
+    // Chromatogram builder method, the blocks of scans are processed in parallel
+    chromatogramBuilderMethod = new ParallelChromatogramBuilderMethod(dataStore, rawDataFile,
+        noiseLevel, minDuration, minHeight, mzTolerance,
+        MZmineCore.getTaskExecutor().getCpuExecutor());
 
     refreshStatus();
 
@@ -84,6 +87,10 @@ public class ChromatogramBuilderTask extends Task<Object> implements MZmineTask
   @Override
   public void refreshStatus() {
 
+    // Status updates need the JavaFX toolkit
+    if (MZmineCore.isHeadless())
+      return;
+
     // Progress
     Float finishedPercent = 0f;
 
@@ -101,39 +108,40 @@ public class ChromatogramBuilderTask extends Task<Object> implements MZmineTask
 
     // Title and message
     updateTitle(title);
-    updateMessage(message);
+    updateMessage(
+        TaskMetrics.appendToMessage(message, MZmineCore.getTaskExecutor().getMetrics(this)));
   }
 
   @Override
   protected Object call() throws Exception {
     try {
-      List<Chromatogram> detectedChromatograms =
-          (List<Chromatogram>) chromatogramBuilderMethod.execute();
-
-      // Create a new feature table
-      featureTable =
-          MSDKObjectBuilder.getFeatureTable(rawDataFile.getName() + nameSuffix, dataStore);
-
-      // Create a new sample
-      Sample sample = MSDKObjectBuilder.getSample(rawDataFile.getName());
-
-      // Add the chromatograms to the feature table
-      this.chromatogramToFeatureTableMethod =
-          new ChromatogramToFeatureTableMethod(detectedChromatograms, featureTable, sample);
-
-      // Run method
-      try {
-        chromatogramToFeatureTableMethod.execute();
-      } catch (Throwable e) {
-        final String msg = "Error executing task " + title + ": " + e.getMessage();
-        logger.error(msg, e);
-        MZmineGUI.displayMessage(msg);
-      }
+      execute();
     } catch (Throwable e) {
       final String msg = "Error executing task " + title + ": " + e.getMessage();
       logger.error(msg, e);
       MZmineGUI.displayMessage(msg);
     }
+    return featureTable;
+  }
+
+  @Override
+  public Object execute() throws Exception {
+    List<Chromatogram> detectedChromatograms =
+        (List<Chromatogram>) chromatogramBuilderMethod.execute();
+
+    // Create a new feature table, its rows keep the numeric values unboxed
+    featureTable = new ColumnarFeatureTable(rawDataFile.getName() + nameSuffix, dataStore);
+
+    // Create a new sample
+    Sample sample = MSDKObjectBuilder.getSample(rawDataFile.getName());
+
+    // Add the chromatograms to the feature table, the rows are created in parallel
+    this.chromatogramToFeatureTableMethod = new ChromatogramToFeatureTableMethod(
+        detectedChromatograms, featureTable, sample,
+        MZmineCore.getTaskExecutor().getCpuExecutor());
+
+    // Run method
+    chromatogramToFeatureTableMethod.execute();
 
     return featureTable;
   }
@@ -0,0 +1,500 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.chromatograms.ChromatogramType;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.impl.SimpleChromatogram;
+import io.github.msdk.datamodel.rawdata.ChromatographyInfo;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.mzmine.util.ScanIndex;
+
+/**
+ * Builds the chromatograms of the MS1 scans of a raw data file. The data points of each scan
+ * above the noise level are connected, highest first, to the chromatogram whose last m/z is
+ * closest within the m/z tolerance. Chromatograms which get no data point in a scan are finished.
+ *
+ * The scans are split into blocks of consecutive scans, which are processed in parallel. A data
+ * point only depends on the last data points of the chromatograms of the previous scan, so the
+ * chromatograms starting at the first scan of a block are stitched to the chromatograms reaching
+ * the last scan of the previous block by the same rule, and the result does not depend on the
+ * block size. The minimum duration and height are applied after stitching. Chromatograms which
+ * are finished inside a block are filtered right away, and the data points of the kept ones are
+ * moved to the data store until the result is created.
+ *
+ * The connection rule differs from the MSDK ChromatogramBuilderMethod, which allows a scan to
+ * depend on all previous scans and therefore cannot be split into blocks:
+ * <ul>
+ * <li>MSDK connects a data point to the chromatogram with the highest last data point within the
+ * m/z tolerance, and drops the data point if that chromatogram is already connected. Here the
+ * closest chromatogram which is not connected yet is used, and a new chromatogram is started if
+ * there is none.</li>
+ * <li>MSDK keeps a chromatogram after a scan without data point once it has a segment of the
+ * minimum duration, so one chromatogram can contain several separated segments. Here a
+ * chromatogram ends at the first scan without data point.</li>
+ * </ul>
+ * Both builders detect the same chromatograms for peaks which are separated by more than the m/z
+ * tolerance and have a data point in every scan. In crowded m/z regions and for peaks with missing
+ * data points, the detected chromatograms differ.
+ */
+public class ParallelChromatogramBuilderMethod implements MSDKMethod<List<Chromatogram>> {
+
+  /** Number of scans processed by one job. */
+  static final int BLOCK_SIZE = 256;
+
+  private final @Nonnull DataPointStore dataStore;
+  private final @Nonnull RawDataFile rawDataFile;
+  private final double noiseLevel;
+  private final double minDuration;
+  private final double minHeight;
+  private final @Nonnull MzTolerance mzTolerance;
+  private final @Nonnull Executor blockExecutor;
+  private final int blockSize;
+
+  private volatile boolean canceled = false;
+  private final @Nonnull AtomicInteger processedScans = new AtomicInteger();
+  private volatile int totalScans = 0;
+  private @Nullable List<Chromatogram> result;
+
+  /**
+   * <p>
+   * Constructor for ParallelChromatogramBuilderMethod. The blocks of scans are processed by the
+   * given executor.
+   * </p>
+   *
+   * @param dataStore a {@link io.github.msdk.datamodel.datastore.DataPointStore} holding the
+   *        data points of the finished chromatograms while the scans are processed.
+   * @param rawDataFile a {@link io.github.msdk.datamodel.rawdata.RawDataFile} object.
+   * @param noiseLevel the minimum intensity of the connected data points.
+   * @param minDuration the minimum retention time span of a chromatogram.
+   * @param minHeight the minimum intensity of the highest data point of a chromatogram.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface.
+   * @param blockExecutor a {@link java.util.concurrent.Executor} processing the blocks of scans.
+   */
+  public ParallelChromatogramBuilderMethod(@Nonnull DataPointStore dataStore,
+      @Nonnull RawDataFile rawDataFile, double noiseLevel, double minDuration, double minHeight,
+      @Nonnull MzTolerance mzTolerance, @Nonnull Executor blockExecutor) {
+    this(dataStore, rawDataFile, noiseLevel, minDuration, minHeight, mzTolerance, blockExecutor,
+        BLOCK_SIZE);
+  }
+
+  ParallelChromatogramBuilderMethod(@Nonnull DataPointStore dataStore,
+      @Nonnull RawDataFile rawDataFile, double noiseLevel, double minDuration, double minHeight,
+      @Nonnull MzTolerance mzTolerance, @Nonnull Executor blockExecutor, int blockSize) {
+    Preconditions.checkNotNull(dataStore);
+    Preconditions.checkNotNull(rawDataFile);
+    Preconditions.checkNotNull(mzTolerance);
+    Preconditions.checkNotNull(blockExecutor);
+    Preconditions.checkArgument(blockSize > 0);
+    this.dataStore = dataStore;
+    this.rawDataFile = rawDataFile;
+    this.noiseLevel = noiseLevel;
+    this.minDuration = minDuration;
+    this.minHeight = minHeight;
+    this.mzTolerance = mzTolerance;
+    this.blockExecutor = blockExecutor;
+    this.blockSize = blockSize;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Chromatogram> execute() throws MSDKException {
+
+    // MS1 scans with a retention time, in file order
+    final List<MsScan> scans = new ArrayList<>();
+    for (MsScan scan : ScanIndex.forFile(rawDataFile).getMatchingScans(null, null, null, null, 1,
+        null)) {
+      final ChromatographyInfo chromatographyInfo = scan.getChromatographyInfo();
+      if (chromatographyInfo != null && chromatographyInfo.getRetentionTime() != null)
+        scans.add(scan);
+    }
+    totalScans = scans.size();
+
+    // Build the chromatograms of each block of scans
+    final List<CompletableFuture<List<BuildingChromatogram>>> jobs = new ArrayList<>();
+    for (int start = 0; start < scans.size(); start += blockSize) {
+      final int blockStart = start, blockEnd = Math.min(start + blockSize, scans.size());
+      jobs.add(CompletableFuture.supplyAsync(() -> buildBlock(scans, blockStart, blockEnd),
+          blockExecutor));
+    }
+    final List<List<BuildingChromatogram>> blocks = new ArrayList<>(jobs.size());
+    try {
+      CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+      for (CompletableFuture<List<BuildingChromatogram>> job : jobs)
+        blocks.add(job.join());
+    } catch (CompletionException e) {
+      cancel();
+      if (e.getCause() instanceof MSDKException)
+        throw (MSDKException) e.getCause();
+      throw new MSDKException(e.getCause());
+    }
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    // Stitch the chromatograms across the block boundaries, then apply the minimum duration and
+    // height to the chromatograms which were not filtered inside their block
+    final List<Chromatogram> chromatograms = new ArrayList<>();
+    for (BuildingChromatogram chromatogram : stitchBlocks(blocks)) {
+      if (chromatogram.isStored() || isKept(chromatogram))
+        chromatograms.add(chromatogram.toChromatogram(chromatograms.size() + 1));
+    }
+
+    result = chromatograms;
+    return result;
+  }
+
+  /**
+   * Builds the chromatograms of the scans from start to end, exclusive, in the order they were
+   * started. The chromatograms started at the first scan come first, highest first.
+   *
+   * Chromatograms which start after the first scan and are finished before the last scan of the
+   * block cannot be stitched, so they are filtered when they are finished, and the data points of
+   * the kept ones are moved to the data store.
+   */
+  private @Nonnull List<BuildingChromatogram> buildBlock(@Nonnull List<MsScan> scans, int start,
+      int end) {
+    final List<BuildingChromatogram> chromatograms = new ArrayList<>();
+    List<BuildingChromatogram> building = new ArrayList<>();
+    for (int i = start; i < end && !canceled; i++) {
+      final MsScan scan = scans.get(i);
+      final float rt = scan.getChromatographyInfo().getRetentionTime();
+      final double mzValues[] = scan.getMzValues();
+      final float intensityValues[] = scan.getIntensityValues();
+      final int size = scan.getNumberOfDataPoints();
+
+      // Data points above the noise level, highest first
+      final List<Integer> dataPoints = new ArrayList<>();
+      for (int j = 0; j < size; j++) {
+        if (intensityValues[j] >= noiseLevel)
+          dataPoints.add(j);
+      }
+      dataPoints.sort(Comparator.comparing((Integer j) -> intensityValues[j]).reversed());
+
+      final MzIndex index = new MzIndex(building);
+      final List<BuildingChromatogram> connected = new ArrayList<>(dataPoints.size());
+      for (int j : dataPoints) {
+        BuildingChromatogram chromatogram = index.connect(mzValues[j]);
+        if (chromatogram == null) {
+          chromatogram = new BuildingChromatogram(i);
+          chromatograms.add(chromatogram);
+        }
+        chromatogram.add(i, rt, mzValues[j], intensityValues[j]);
+        connected.add(chromatogram);
+      }
+
+      // Chromatograms which were not connected are finished
+      for (BuildingChromatogram chromatogram : building) {
+        if (chromatogram.lastScan == i - 1 && chromatogram.firstScan > start) {
+          if (isKept(chromatogram))
+            chromatogram.store();
+          else
+            chromatogram.discard();
+        }
+      }
+
+      building = connected;
+      processedScans.incrementAndGet();
+    }
+
+    final List<BuildingChromatogram> result = new ArrayList<>(chromatograms.size());
+    for (BuildingChromatogram chromatogram : chromatograms) {
+      if (!chromatogram.isDiscarded())
+        result.add(chromatogram);
+    }
+    return result;
+  }
+
+  private boolean isKept(@Nonnull BuildingChromatogram chromatogram) {
+    return chromatogram.getDuration() >= minDuration && chromatogram.maxIntensity >= minHeight;
+  }
+
+  /**
+   * Connects the chromatograms starting at the first scan of each block to the chromatograms
+   * reaching the last scan of the previous block, in the same way the data points of a scan are
+   * connected.
+   */
+  private @Nonnull List<BuildingChromatogram> stitchBlocks(
+      @Nonnull List<List<BuildingChromatogram>> blocks) {
+    final List<BuildingChromatogram> chromatograms = new ArrayList<>();
+    List<BuildingChromatogram> open = new ArrayList<>();
+    for (int b = 0; b < blocks.size(); b++) {
+      final int blockStart = b * blockSize;
+      final int blockEnd = Math.min(blockStart + blockSize, totalScans);
+      final MzIndex index = new MzIndex(open);
+      final List<BuildingChromatogram> nextOpen = new ArrayList<>();
+      for (BuildingChromatogram chromatogram : blocks.get(b)) {
+        BuildingChromatogram target = null;
+        if (chromatogram.firstScan == blockStart)
+          target = index.connect(chromatogram.getFirstMz());
+        if (target == null) {
+          target = chromatogram;
+          chromatograms.add(chromatogram);
+        } else {
+          target.append(chromatogram);
+        }
+        if (target.lastScan == blockEnd - 1)
+          nextOpen.add(target);
+      }
+      open = nextOpen;
+    }
+    return chromatograms;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getFinishedPercentage() {
+    if (totalScans == 0)
+      return null;
+    return (float) processedScans.get() / totalScans;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public List<Chromatogram> getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * The chromatograms of the previous scan, sorted by their last m/z. Each chromatogram can be
+   * connected to one data point.
+   */
+  private class MzIndex {
+
+    private final @Nonnull BuildingChromatogram chromatograms[];
+    private final @Nonnull double lastMzValues[];
+    private final @Nonnull boolean connected[];
+
+    MzIndex(@Nonnull List<BuildingChromatogram> building) {
+      chromatograms = building.toArray(new BuildingChromatogram[0]);
+      Arrays.sort(chromatograms, Comparator.comparingDouble(BuildingChromatogram::getLastMz));
+      lastMzValues = new double[chromatograms.length];
+      for (int i = 0; i < chromatograms.length; i++)
+        lastMzValues[i] = chromatograms[i].getLastMz();
+      connected = new boolean[chromatograms.length];
+    }
+
+    /**
+     * Returns the chromatogram which is not connected yet and whose last m/z is closest to the
+     * given m/z within the m/z tolerance, or null, and marks it as connected.
+     */
+    @Nullable
+    BuildingChromatogram connect(double mz) {
+      final Range<Double> toleranceRange = mzTolerance.getToleranceRange(mz);
+      int i = Arrays.binarySearch(lastMzValues, toleranceRange.lowerEndpoint());
+      if (i < 0)
+        i = -i - 1;
+      while (i > 0 && lastMzValues[i - 1] == toleranceRange.lowerEndpoint())
+        i--;
+
+      int closest = -1;
+      for (; i < lastMzValues.length && lastMzValues[i] <= toleranceRange.upperEndpoint(); i++) {
+        if (!connected[i] && (closest < 0
+            || Math.abs(lastMzValues[i] - mz) < Math.abs(lastMzValues[closest] - mz)))
+          closest = i;
+      }
+      if (closest < 0)
+        return null;
+      connected[closest] = true;
+      return chromatograms[closest];
+    }
+
+  }
+
+  /**
+   * Data points of a chromatogram which is being built, one per scan. The data points of a
+   * finished chromatogram can be moved to the data store.
+   */
+  private class BuildingChromatogram {
+
+    private final int firstScan;
+    private int lastScan;
+    private float rtValues[] = new float[16];
+    private double mzValues[] = new double[16];
+    private float intensityValues[] = new float[16];
+    private int size = 0;
+    private float firstRt, lastRt;
+    private double firstMz, lastMz;
+    private float maxIntensity = 0f;
+    private boolean discarded = false;
+
+    // Storage IDs of the data points in the data store, null if they are in the arrays
+    private @Nullable Object rtId, mzId, intensityId;
+
+    BuildingChromatogram(int firstScan) {
+      this.firstScan = firstScan;
+      this.lastScan = firstScan;
+    }
+
+    void add(int scan, float rt, double mz, float intensity) {
+      ensureCapacity(size + 1);
+      rtValues[size] = rt;
+      mzValues[size] = mz;
+      intensityValues[size] = intensity;
+      if (size == 0) {
+        firstRt = rt;
+        firstMz = mz;
+      }
+      size++;
+      lastScan = scan;
+      lastRt = rt;
+      lastMz = mz;
+      maxIntensity = Math.max(maxIntensity, intensity);
+    }
+
+    /**
+     * Appends the data points of the given chromatogram, which starts at the scan following the
+     * last scan of this chromatogram.
+     */
+    void append(@Nonnull BuildingChromatogram next) {
+      ensureCapacity(size + next.size);
+      System.arraycopy(next.rtValues, 0, rtValues, size, next.size);
+      System.arraycopy(next.mzValues, 0, mzValues, size, next.size);
+      System.arraycopy(next.intensityValues, 0, intensityValues, size, next.size);
+      size += next.size;
+      lastScan = next.lastScan;
+      lastRt = next.lastRt;
+      lastMz = next.lastMz;
+      maxIntensity = Math.max(maxIntensity, next.maxIntensity);
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity <= rtValues.length)
+        return;
+      final int newLength = Math.max(capacity, rtValues.length * 2);
+      rtValues = Arrays.copyOf(rtValues, newLength);
+      mzValues = Arrays.copyOf(mzValues, newLength);
+      intensityValues = Arrays.copyOf(intensityValues, newLength);
+    }
+
+    double getFirstMz() {
+      return firstMz;
+    }
+
+    double getLastMz() {
+      return lastMz;
+    }
+
+    float getDuration() {
+      return lastRt - firstRt;
+    }
+
+    /**
+     * Moves the data points of this finished chromatogram to the data store.
+     */
+    void store() {
+      // The data store is shared by the blocks
+      synchronized (dataStore) {
+        rtId = dataStore.storeData(rtValues, size);
+        mzId = dataStore.storeData(mzValues, size);
+        intensityId = dataStore.storeData(intensityValues, size);
+      }
+      rtValues = null;
+      mzValues = null;
+      intensityValues = null;
+    }
+
+    boolean isStored() {
+      return rtId != null;
+    }
+
+    /**
+     * Releases the data points of this finished chromatogram, which is not part of the result.
+     */
+    void discard() {
+      discarded = true;
+      rtValues = null;
+      mzValues = null;
+      intensityValues = null;
+    }
+
+    boolean isDiscarded() {
+      return discarded;
+    }
+
+    /**
+     * Creates the chromatogram, with the intensity weighted average m/z of the data points. The
+     * data points are copied to arrays of their exact size and removed from the data store.
+     */
+    @Nonnull
+    Chromatogram toChromatogram(int chromatogramNumber) {
+      final float rtValues[] = new float[size];
+      final double mzValues[] = new double[size];
+      final float intensityValues[] = new float[size];
+      if (isStored()) {
+        synchronized (dataStore) {
+          dataStore.loadData(rtId, rtValues);
+          dataStore.loadData(mzId, mzValues);
+          dataStore.loadData(intensityId, intensityValues);
+          dataStore.removeData(rtId);
+          dataStore.removeData(mzId);
+          dataStore.removeData(intensityId);
+        }
+      } else {
+        System.arraycopy(this.rtValues, 0, rtValues, 0, size);
+        System.arraycopy(this.mzValues, 0, mzValues, 0, size);
+        System.arraycopy(this.intensityValues, 0, intensityValues, 0, size);
+      }
+
+      double mzSum = 0, intensitySum = 0;
+      for (int i = 0; i < size; i++) {
+        mzSum += mzValues[i] * intensityValues[i];
+        intensitySum += intensityValues[i];
+      }
+
+      final SimpleChromatogram chromatogram = new SimpleChromatogram();
+      chromatogram.setChromatogramNumber(chromatogramNumber);
+      chromatogram.setChromatogramType(ChromatogramType.XIC);
+      chromatogram.setMz(intensitySum > 0 ? mzSum / intensitySum : mzValues[0]);
+      chromatogram.setDataPoints(rtValues, mzValues, intensityValues, size);
+      return chromatogram;
+    }
+
+  }
+
+}
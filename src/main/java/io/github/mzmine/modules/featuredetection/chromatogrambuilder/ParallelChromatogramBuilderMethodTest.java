@@ -0,0 +1,208 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.featdet.chromatogrambuilder.ChromatogramBuilderMethod;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.mzmine.util.RawDataTestUtil;
+
+public class ParallelChromatogramBuilderMethodTest {
+
+  private static MsScan createScan(int scanNumber, float rt, double mzValues[],
+      float intensityValues[]) {
+    return RawDataTestUtil.createScan(scanNumber, rt, 1, mzValues, intensityValues);
+  }
+
+  /**
+   * Twenty scans, one second apart. A peak at m/z 100 with a small m/z drift spans all scans, a
+   * peak at m/z 200 spans scans 5 to 14 and a peak at m/z 100.004, which competes with the first
+   * peak, spans scans 9 and 10. A noise data point at m/z 300 is in every scan.
+   */
+  private static RawDataFile createFile() {
+    final List<MsScan> scans = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      final List<Double> mzValues = new ArrayList<>();
+      final List<Float> intensityValues = new ArrayList<>();
+      mzValues.add(100.0 + (i % 3) * 0.001);
+      intensityValues.add(1000f + i * 10f);
+      if (i >= 5 && i < 15) {
+        mzValues.add(200.0);
+        intensityValues.add(500f - Math.abs(i - 10) * 50f);
+      }
+      if (i == 9 || i == 10) {
+        mzValues.add(1, 100.004);
+        intensityValues.add(1, 300f);
+      }
+      mzValues.add(300.0);
+      intensityValues.add(5f);
+
+      final double mzArray[] = new double[mzValues.size()];
+      final float intensityArray[] = new float[intensityValues.size()];
+      for (int j = 0; j < mzArray.length; j++) {
+        mzArray[j] = mzValues.get(j);
+        intensityArray[j] = intensityValues.get(j);
+      }
+      scans.add(createScan(i + 1, i, mzArray, intensityArray));
+    }
+
+    return RawDataTestUtil.createFile(scans);
+  }
+
+  /**
+   * Scans one second apart with separated peaks, each with a data point in every scan of its RT
+   * range, and noise data points at m/z values which do not repeat in neighbouring scans.
+   */
+  private static RawDataFile createSeparatedPeaksFile() {
+    final int scanCount = 300, peakCount = 40;
+    final int peakStarts[] = new int[peakCount], peakEnds[] = new int[peakCount];
+    for (int p = 0; p < peakCount; p++) {
+      peakStarts[p] = (p * 37) % (scanCount - 40);
+      peakEnds[p] = peakStarts[p] + 8 + (p * 13) % 30;
+    }
+
+    final List<MsScan> scans = new ArrayList<>();
+    for (int i = 0; i < scanCount; i++) {
+      final List<Double> mzValues = new ArrayList<>();
+      final List<Float> intensityValues = new ArrayList<>();
+      for (int p = 0; p < peakCount; p++) {
+        if (i < peakStarts[p] || i > peakEnds[p])
+          continue;
+        final float center = (peakStarts[p] + peakEnds[p]) / 2f;
+        mzValues.add(100.0 + p * 5.0 + ((i + p) % 3) * 0.001);
+        intensityValues.add(1000f + 5000f / (1f + Math.abs(i - center)));
+      }
+      mzValues.add(500.0 + (i % 50) * 1.7);
+      intensityValues.add(200f);
+      mzValues.add(700.0 + i * 0.5);
+      intensityValues.add(5f);
+
+      final double mzArray[] = new double[mzValues.size()];
+      final float intensityArray[] = new float[intensityValues.size()];
+      for (int j = 0; j < mzArray.length; j++) {
+        mzArray[j] = mzValues.get(j);
+        intensityArray[j] = intensityValues.get(j);
+      }
+      scans.add(createScan(i + 1, i, mzArray, intensityArray));
+    }
+    return RawDataTestUtil.createFile(scans);
+  }
+
+  private static List<Chromatogram> buildChromatograms(RawDataFile file, double minDuration,
+      int blockSize) throws MSDKException {
+    final ParallelChromatogramBuilderMethod method = new ParallelChromatogramBuilderMethod(
+        DataPointStoreFactory.getMemoryDataStore(), file, 10.0, minDuration, 100.0,
+        new MaximumMzTolerance(0.005, 10.0), Runnable::run, blockSize);
+    final List<Chromatogram> chromatograms = method.execute();
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+    Assert.assertSame(chromatograms, method.getResult());
+    return chromatograms;
+  }
+
+  @Test
+  public void testBuildChromatograms() throws MSDKException {
+    final List<Chromatogram> chromatograms = buildChromatograms(createFile(), 0.0, 1000);
+
+    // The noise data points are not connected, the short peak is kept without minimum duration
+    Assert.assertEquals(3, chromatograms.size());
+    Assert.assertEquals(20, chromatograms.get(0).getNumberOfDataPoints());
+    Assert.assertEquals(100.0, chromatograms.get(0).getMz(), 0.002);
+    Assert.assertEquals(1, (int) chromatograms.get(0).getChromatogramNumber());
+    Assert.assertEquals(10, chromatograms.get(1).getNumberOfDataPoints());
+    Assert.assertEquals(200.0, chromatograms.get(1).getMz(), 0.0001);
+    Assert.assertEquals(5f, chromatograms.get(1).getRetentionTimes()[0], 0.0001);
+    Assert.assertEquals(2, chromatograms.get(2).getNumberOfDataPoints());
+    Assert.assertEquals(100.004, chromatograms.get(2).getMz(), 0.0001);
+
+    // The short peak is removed by the minimum duration
+    Assert.assertEquals(2, buildChromatograms(createFile(), 5.0, 1000).size());
+  }
+
+  @Test
+  public void testBlocksAreStitched() throws MSDKException {
+    final RawDataFile file = createFile();
+    final List<Chromatogram> expected = buildChromatograms(file, 0.0, 1000);
+
+    // Block boundaries inside all peaks, including between the two scans of the short peak
+    for (int blockSize : new int[] {1, 2, 3, 7, 10}) {
+      final List<Chromatogram> chromatograms = buildChromatograms(file, 0.0, blockSize);
+      Assert.assertEquals(expected.size(), chromatograms.size());
+      for (int i = 0; i < expected.size(); i++) {
+        final int size = expected.get(i).getNumberOfDataPoints();
+        Assert.assertEquals(size, chromatograms.get(i).getNumberOfDataPoints());
+        Assert.assertArrayEquals(Arrays.copyOf(expected.get(i).getRetentionTimes(), size),
+            Arrays.copyOf(chromatograms.get(i).getRetentionTimes(), size), 0f);
+        Assert.assertArrayEquals(Arrays.copyOf(expected.get(i).getMzValues(), size),
+            Arrays.copyOf(chromatograms.get(i).getMzValues(), size), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testSameChromatogramsAsMsdk() throws MSDKException {
+    final RawDataFile file = createSeparatedPeaksFile();
+    final MaximumMzTolerance mzTolerance = new MaximumMzTolerance(0.005, 10.0);
+
+    final List<Chromatogram> msdkChromatograms = new ChromatogramBuilderMethod(
+        DataPointStoreFactory.getMemoryDataStore(), file, 10.0, 5.0, 500.0, mzTolerance)
+            .execute();
+
+    // Block boundaries inside the peaks, processed in parallel
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final List<Chromatogram> chromatograms;
+    try {
+      chromatograms = new ParallelChromatogramBuilderMethod(
+          DataPointStoreFactory.getMemoryDataStore(), file, 10.0, 5.0, 500.0, mzTolerance,
+          executor, 7).execute();
+    } finally {
+      executor.shutdown();
+    }
+
+    // The peaks are found in both results, the noise is removed by the minimum duration or height
+    Assert.assertEquals(40, msdkChromatograms.size());
+    Assert.assertEquals(msdkChromatograms.size(), chromatograms.size());
+    final List<Chromatogram> expected = new ArrayList<>(msdkChromatograms);
+    expected.sort(Comparator.comparingDouble(Chromatogram::getMz));
+    chromatograms.sort(Comparator.comparingDouble(Chromatogram::getMz));
+    for (int i = 0; i < expected.size(); i++) {
+      final int size = expected.get(i).getNumberOfDataPoints();
+      Assert.assertEquals(size, chromatograms.get(i).getNumberOfDataPoints());
+      Assert.assertArrayEquals(Arrays.copyOf(expected.get(i).getRetentionTimes(), size),
+          chromatograms.get(i).getRetentionTimes(), 0f);
+      Assert.assertArrayEquals(Arrays.copyOf(expected.get(i).getIntensityValues(), size),
+          chromatograms.get(i).getIntensityValues(), 0f);
+      Assert.assertEquals(expected.get(i).getMz(), chromatograms.get(i).getMz(), 0.002);
+    }
+  }
+
+}
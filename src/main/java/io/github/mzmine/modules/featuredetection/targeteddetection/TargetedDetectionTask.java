@@ -33,13 +33,16 @@ import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.featdet.chromatogramtofeaturetable.ChromatogramToFeatureTableMethod;
 import io.github.msdk.featdet.targeteddetection.TargetedDetectionMethod;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.taskcontrol.MZmineTask;
+import io.github.mzmine.taskcontrol.TaskMetrics;
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
@@ -97,6 +100,10 @@ public class TargetedDetectionTask extends Task<Object> implements MZmineTask {
   @Override
   public void refreshStatus() {
 
+    // Status updates need the JavaFX toolkit
+    if (MZmineCore.isHeadless())
+      return;
+
     // Progress
     Float finishedPercent = 0f;
 
@@ -114,39 +121,40 @@ public class TargetedDetectionTask extends Task<Object> implements MZmineTask {
 
     // Title and message
     updateTitle(title);
-    updateMessage(message);
+    updateMessage(
+        TaskMetrics.appendToMessage(message, MZmineCore.getTaskExecutor().getMetrics(this)));
   }
 
   @Override
   protected Object call() throws Exception {
     try {
-      List<Chromatogram> detectedChromatograms = targetedDetectionMethod.execute();
-
-      // Create a new feature table
-      featureTable =
-          MSDKObjectBuilder.getFeatureTable(rawDataFile.getName() + nameSuffix, dataStore);
-
-      // Create a new sample
-      Sample sample = MSDKObjectBuilder.getSample(rawDataFile.getName());
-      sample.setRawDataFile(rawDataFile);
-
-      // Add the chromatograms to the feature table
-      this.chromatogramToFeatureTableMethod =
-          new ChromatogramToFeatureTableMethod(detectedChromatograms, featureTable, sample);
-
-      // Run method
-      try {
-        chromatogramToFeatureTableMethod.execute();
-      } catch (Throwable e) {
-        final String msg = "Error executing task " + title + ": " + e.getMessage();
-        logger.error(msg, e);
-        MZmineGUI.displayMessage(msg);
-      }
+      execute();
     } catch (Throwable e) {
       final String msg = "Error executing task " + title + ": " + e.getMessage();
       logger.error(msg, e);
       MZmineGUI.displayMessage(msg);
     }
+    return featureTable;
+  }
+
+  @Override
+  public Object execute() throws Exception {
+    List<Chromatogram> detectedChromatograms = targetedDetectionMethod.execute();
+
+    // Create a new feature table, its rows keep the numeric values unboxed
+    featureTable = new ColumnarFeatureTable(rawDataFile.getName() + nameSuffix, dataStore);
+
+    // Create a new sample
+    Sample sample = MSDKObjectBuilder.getSample(rawDataFile.getName());
+    sample.setRawDataFile(rawDataFile);
+
+    // Add the chromatograms to the feature table, the rows are created in parallel
+    this.chromatogramToFeatureTableMethod = new ChromatogramToFeatureTableMethod(
+        detectedChromatograms, featureTable, sample,
+        MZmineCore.getTaskExecutor().getCpuExecutor());
+
+    // Run method
+    chromatogramToFeatureTableMethod.execute();
 
     return featureTable;
   }
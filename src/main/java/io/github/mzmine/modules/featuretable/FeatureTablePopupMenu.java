@@ -18,8 +18,12 @@
 
 package io.github.mzmine.modules.featuretable;
 
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.mzmine.datamodel.FilteredFeatureTable;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.project.MZmineProject;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -74,6 +78,14 @@ public class FeatureTablePopupMenu extends ContextMenu {
     deleteItem.setOnAction(handleClick("Delete"));
     getItems().addAll(deleteItem);
 
+    // Copy the values of a view, so it no longer depends on its parent table
+    if (featureTable instanceof FilteredFeatureTable) {
+      MenuItem materializeItem = new MenuItem("Make independent copy of the table");
+      materializeItem.setOnAction(handleClick("Materialize"));
+      getItems().addAll(new SeparatorMenuItem());
+      getItems().addAll(materializeItem);
+    }
+
   }
 
   private EventHandler<ActionEvent> handleClick(String item) {
@@ -135,9 +147,21 @@ public class FeatureTablePopupMenu extends ContextMenu {
                 parent.getChildren().remove(row);
               }
               treeTable.getSelectionModel().clearSelection();
+              MZmineCore.getCurrentProject().featureTableChanged(featureTable);
             }
             break;
 
+          case "Materialize":
+            FilteredFeatureTable view = (FilteredFeatureTable) featureTable;
+            FeatureTable newFeatureTable =
+                view.materialize(view.getName(), DataPointStoreFactory.getMemoryDataStore());
+
+            // Replace the view in the project
+            MZmineProject project = MZmineCore.getCurrentProject();
+            project.removeFeatureTable(featureTable);
+            project.addFeatureTable(newFeatureTable);
+            break;
+
         }
       }
     };
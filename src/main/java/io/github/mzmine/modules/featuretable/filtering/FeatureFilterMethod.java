@@ -13,6 +13,11 @@
 
 package io.github.mzmine.modules.featuretable.filtering;
 
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -22,12 +27,12 @@ import io.github.msdk.MSDKException;
 import io.github.msdk.MSDKMethod;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
-import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
 import io.github.msdk.datamodel.featuretables.FeatureTableRow;
 import io.github.msdk.datamodel.featuretables.Sample;
-import io.github.msdk.util.FeatureTableUtil;
 import io.github.mzmine.datamodel.ColumnName;
-import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.FeatureTableFilterPlan;
+import io.github.mzmine.datamodel.FilteredFeatureTable;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * This class creates a filtered feature table based on a feature table and a set of feature
@@ -57,7 +62,7 @@ public class FeatureFilterMethod implements MSDKMethod<FeatureTable> {
   private final @Nonnull FeatureTable featureTable;
   private final @Nonnull String nameSuffix;
   private final @Nonnull DataPointStore dataStore;
-  private final @Nonnull FeatureTable result;
+  private @Nullable FeatureTable result;
   private boolean canceled = false;
   private int processedFeatures = 0, totalFeatures = 0;
 
@@ -109,34 +114,39 @@ public class FeatureFilterMethod implements MSDKMethod<FeatureTable> {
     this.tailingFactorRange = tailingFactorRange;
     this.asymmetryFactorRange = asymmetryFactorRange;
     this.nameSuffix = nameSuffix;
-
-    // Make a new feature table
-    result = MSDKObjectBuilder.getFeatureTable(featureTable.getName() + nameSuffix, dataStore);
   }
 
   /** {@inheritDoc} */
   @Override
   public FeatureTable execute() throws MSDKException {
-    // Total features
-    totalFeatures = featureTable.getRows().size() * featureTable.getSamples().size();
+    final List<FeatureTableRow> rows = featureTable.getRows();
+    final List<Sample> samples = featureTable.getSamples();
 
-    // Add columns
-    for (FeatureTableColumn<?> column : featureTable.getColumns()) {
-      result.addColumn(column);
-    }
+    // Total features
+    totalFeatures = rows.size() * samples.size();
 
-    // Loop through all features
-    for (FeatureTableRow row : featureTable.getRows()) {
+    // The conditions are checked column by column for each sample
+    final FeatureTableFilterPlan plan = createFilterPlan();
 
-      // Find samples which should keep the feature
-      boolean[] keepFeature = checkFeature(row);
+    // Find the rows which keep the feature of each sample. A row is kept if at least one sample
+    // keeps its feature.
+    final Map<Sample, BitSet> featureMasks = new HashMap<>();
+    final BitSet rowMask = new BitSet(rows.size());
+    for (Sample sample : samples) {
+      final BitSet keepFeatures = plan.evaluateFeatures(featureTable, rows, sample);
+      featureMasks.put(sample, keepFeatures);
+      rowMask.or(keepFeatures);
+      processedFeatures += rows.size();
 
-      // Add the feature row to the table if it is not null
-      FeatureTableRow newRow = copyRow(row, keepFeature, result);
-      if (newRow != null)
-        result.addRow(newRow);
+      if (canceled)
+        return null;
     }
 
+    // The result is a view of the kept rows and features, the feature table is not copied. The
+    // view keeps its values if the feature table is modified later.
+    result = new FilteredFeatureTable(featureTable.getName() + nameSuffix, dataStore,
+        featureTable, rows, rowMask, featureMasks);
+
     // Re-calculate average row m/z and RT values
     FeatureTableUtil.recalculateAverages(result);
 
@@ -145,144 +155,27 @@ public class FeatureFilterMethod implements MSDKMethod<FeatureTable> {
   }
 
   /**
-   * Helper function to check which samples should keep the feature.
+   * Helper function to create the filter plan of the selected filters. A feature which has no value
+   * for a filter passes the filter, but a feature without m/z value is not present in the sample.
    */
-  private boolean[] checkFeature(FeatureTableRow row) {
-
-    // Values for keeping track of features for a sample
-    boolean[] keepFeature = new boolean[featureTable.getSamples().size()];
-    int i = 0;
-
-    // Loop through all samples for the feature
-    for (Sample sample : featureTable.getSamples()) {
-
-      FeatureTableColumn<Object> column;
-      keepFeature[i] = true;
-
-      // Check Duration
-      if (filterByDuration && durationRange != null && keepFeature[i] != false)
-        keepFeature[i] = checkDoubleValue(durationRange, ColumnName.DURATION, sample, row);
-
-      // Check Area
-      if (filterByArea && areaRange != null && keepFeature[i] != false)
-        keepFeature[i] = checkDoubleValue(areaRange, ColumnName.AREA, sample, row);
-
-      // Check Height
-      if (filterByHeight && heightRange != null && keepFeature[i] != false)
-        keepFeature[i] = checkFloatValue(heightRange, ColumnName.HEIGHT, sample, row);
-
-      // Check FWHM
-      if (filterByFWHM && fwhmRange != null && keepFeature[i] != false)
-        keepFeature[i] = checkDoubleValue(fwhmRange, ColumnName.FWHM, sample, row);
-
-      // Check Tailing Factor
-      if (filterByTailingFactor && tailingFactorRange != null && keepFeature[i] != false)
-        keepFeature[i] =
-            checkDoubleValue(tailingFactorRange, ColumnName.TAILINGFACTOR, sample, row);
-
-      // Check Asymmetry Factor
-      if (filterByAsymmetryFactor && asymmetryFactorRange != null && keepFeature[i] != false)
-        keepFeature[i] =
-            checkDoubleValue(asymmetryFactorRange, ColumnName.ASYMMETRYFACTOR, sample, row);
-
-      // Check # Data Points
-      if (filterByDataPoints && dataPointsRange != null) {
-        column = featureTable.getColumn(ColumnName.NUMBEROFDATAPOINTS, sample);
-        if (column != null) {
-          if (row.getData(column) != null) {
-            final Integer peakDataPoints = (Integer) row.getData(column);
-            if (!dataPointsRange.contains(peakDataPoints))
-              keepFeature[i] = false;
-          }
-        }
-      }
-
-      // If no value is found in the m/z column for the sample then
-      // the feature is not present for this sample
-      column = featureTable.getColumn(ColumnName.MZ, sample);
-      if (row.getData(column) == null) {
-        keepFeature[i] = false;
-      }
-
-      i++;
-      processedFeatures++;
-
-      if (canceled)
-        return null;
-    }
-
-    return keepFeature;
-  }
-
-  /**
-   * Helper function to check if a specific double value from a sample is within a given range.
-   */
-  private boolean checkDoubleValue(Range<Double> range, ColumnName columnName, Sample sample,
-      FeatureTableRow row) {
-
-    FeatureTableColumn<Double> column = featureTable.getColumn(columnName, sample);
-    if (column != null) {
-      if (row.getData(column) != null) {
-        final Double value = (Double) row.getData(column);
-        if (!range.contains(value))
-          return false;
-      }
-    }
-
-    return true;
-  }
-
-  /**
-   * Helper function to check if a specific float value from a sample is within a given range.
-   */
-  private boolean checkFloatValue(Range<Double> range, ColumnName columnName, Sample sample,
-      FeatureTableRow row) {
-
-    FeatureTableColumn<Float> column = featureTable.getColumn(columnName, sample);
-    if (column != null) {
-      if (row.getData(column) != null) {
-        final Float value = (Float) row.getData(column);
-        final Double doubleValue = (double) value;
-        if (!range.contains(doubleValue))
-          return false;
-      }
-    }
-
-    return true;
-  }
-
-  /**
-   * Create a copy of a peak list row.
-   */
-  private static FeatureTableRow copyRow(@Nonnull FeatureTableRow row,
-      @Nonnull boolean[] keepFeatures, @Nonnull FeatureTable result) {
-
-    // Return null if no sample has data for the feature
-    boolean noSamples = true;
-    for (boolean value : keepFeatures) {
-      if (value)
-        noSamples = false;
-    }
-    if (noSamples)
-      return null;
-
-    // Create a new row with the common feature data
-    final FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(result, row.getId());
-    FeatureTableUtil.copyCommonValues(row, newRow, false);
-
-    // Copy the feature data for the samples
-    int i = 0;
-    for (Sample sample : row.getFeatureTable().getSamples()) {
-
-      // Only keep feature data if it fulfills the filter criteria
-      if (keepFeatures[i]) {
-        FeatureTableUtil.copyFeatureValues(row, newRow, sample);
-      }
-      i++;
-
-    }
-
-    return newRow;
+  private @Nonnull FeatureTableFilterPlan createFilterPlan() {
+    final FeatureTableFilterPlan plan = new FeatureTableFilterPlan();
+    if (filterByDuration && durationRange != null)
+      plan.addFeatureRange(ColumnName.DURATION, durationRange);
+    if (filterByArea && areaRange != null)
+      plan.addFeatureRange(ColumnName.AREA, areaRange);
+    if (filterByHeight && heightRange != null)
+      plan.addFeatureRange(ColumnName.HEIGHT, heightRange);
+    if (filterByFWHM && fwhmRange != null)
+      plan.addFeatureRange(ColumnName.FWHM, fwhmRange);
+    if (filterByTailingFactor && tailingFactorRange != null)
+      plan.addFeatureRange(ColumnName.TAILINGFACTOR, tailingFactorRange);
+    if (filterByAsymmetryFactor && asymmetryFactorRange != null)
+      plan.addFeatureRange(ColumnName.ASYMMETRYFACTOR, asymmetryFactorRange);
+    if (filterByDataPoints && dataPointsRange != null)
+      plan.addFeatureRange(ColumnName.NUMBEROFDATAPOINTS, dataPointsRange);
+    plan.requireFeatureValue(ColumnName.MZ);
+    return plan;
   }
 
   /** {@inheritDoc} */
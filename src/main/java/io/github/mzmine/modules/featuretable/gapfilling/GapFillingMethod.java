@@ -14,8 +14,14 @@
 package io.github.mzmine.modules.featuretable.gapfilling;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -34,12 +40,13 @@ import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.featdet.chromatogramtofeaturetable.ChromatogramToFeatureTableMethod;
 import io.github.msdk.featdet.targeteddetection.TargetedDetectionMethod;
-import io.github.msdk.util.FeatureTableUtil;
 import io.github.msdk.util.tolerances.MzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
 import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.FilteredFeatureTable;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * This class fills in the missing gaps in a FeatureTable.
@@ -57,9 +64,12 @@ public class GapFillingMethod implements MSDKMethod<FeatureTable> {
   private final @Nonnull String nameSuffix;
 
   // Helper variables
-  private boolean canceled = false;
-  private int processedGaps = 0, totalGaps = 0;
-  private final @Nonnull FeatureTable result;
+  private final @Nonnull Executor sampleExecutor;
+  private volatile boolean canceled = false;
+  private volatile int totalGaps = 0;
+  private volatile List<SampleGapFiller> sampleGapFillers = new ArrayList<>();
+  private final @Nonnull FilteredFeatureTable view;
+  private volatile @Nullable FeatureTable result;
 
   /**
    * <p>
@@ -77,84 +87,111 @@ public class GapFillingMethod implements MSDKMethod<FeatureTable> {
   public GapFillingMethod(@Nonnull FeatureTable featureTable, @Nonnull DataPointStore dataStore,
       @Nonnull MzTolerance mzTolerance, @Nonnull RTTolerance rtTolerance,
       @Nonnull Double intensityTolerance, @Nonnull String nameSuffix) {
+    this(featureTable, dataStore, mzTolerance, rtTolerance, intensityTolerance, nameSuffix,
+        Runnable::run);
+  }
+
+  /**
+   * <p>
+   * Constructor for GapFillingMethod which fills the gaps of the samples in parallel. One job per
+   * sample is submitted to the given executor.
+   * </p>
+   *
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param dataStore a {@link io.github.msdk.datamodel.datastore.DataPointStore} object.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object.
+   * @param intensityTolerance a {@link java.lang.Double} object.
+   * @param nameSuffix a {@link java.lang.String} object.
+   * @param sampleExecutor a {@link java.util.concurrent.Executor} running the sample jobs.
+   */
+  public GapFillingMethod(@Nonnull FeatureTable featureTable, @Nonnull DataPointStore dataStore,
+      @Nonnull MzTolerance mzTolerance, @Nonnull RTTolerance rtTolerance,
+      @Nonnull Double intensityTolerance, @Nonnull String nameSuffix,
+      @Nonnull Executor sampleExecutor) {
     this.featureTable = featureTable;
     this.dataStore = dataStore;
     this.mzTolerance = mzTolerance;
     this.rtTolerance = rtTolerance;
     this.intensityTolerance = intensityTolerance;
     this.nameSuffix = nameSuffix;
+    this.sampleExecutor = sampleExecutor;
 
-    // Make a copy of the input feature table
-    result = FeatureTableUtil.clone(dataStore, featureTable, featureTable.getName() + nameSuffix);
-
-    // Copy ID values
-    FeatureTableUtil.copyIdValues(featureTable, result);
-
+    // The gaps are filled into a view of the input feature table, only the filled values are
+    // stored in it. The view keeps the values it shows when the input table is modified later.
+    view = new FilteredFeatureTable(featureTable.getName() + nameSuffix, dataStore, featureTable);
   }
 
   /** {@inheritDoc} */
   @Override
   public FeatureTable execute() throws MSDKException {
-    List<FeatureTableRow> gapRow = new ArrayList<FeatureTableRow>();
-    List<Sample> gapSample = new ArrayList<Sample>();
 
-    // Total gaps
-    for (FeatureTableRow row : result.getRows()) {
-      for (Sample sample : result.getSamples()) {
-        FeatureTableColumn<Double> areaColumn = result.getColumn(ColumnName.AREA, sample);
+    final FeatureTableColumn<Float> rtColumn =
+        view.getColumn(ColumnName.RT.getName(), null, Float.class);
+
+    // Group the gaps by sample, so each raw data file is only read once. The sample columns are
+    // added to the view here, so the sample jobs do not modify the columns of the table.
+    final List<SampleGapFiller> fillers = new ArrayList<>();
+    int gaps = 0;
+    for (Sample sample : view.getSamples()) {
+      FeatureTableColumn<Double> areaColumn = view.getColumn(ColumnName.AREA, sample);
+      List<FeatureTableRow> sampleGapRows = new ArrayList<>();
+      for (FeatureTableRow row : view.getRows()) {
         Double area = row.getData(areaColumn);
 
-        // Add the gap to arrays
-        if (area == null) {
-          gapRow.add(row);
-          gapSample.add(sample);
-        }
+        // Add the gap to the sample
+        if (area == null)
+          sampleGapRows.add(row);
       }
-    }
+      if (sampleGapRows.isEmpty())
+        continue;
+      gaps += sampleGapRows.size();
 
-    totalGaps = gapRow.size();
-    logger.info("Started gap filling " + totalGaps + " gap(s) in '" + featureTable.getName() + "'");
-
-    if (totalGaps == 0)
-      return result;
-
-    // Iterate over all the gaps
-    for (int i = 0; i < totalGaps; i++) {
-      FeatureTableRow row = gapRow.get(i);
-      Sample sample = gapSample.get(i);
-      RawDataFile rawFile = sample.getRawDataFile();
-
-      // Create an ion annotation
-      SimpleIonAnnotation ion = new SimpleIonAnnotation();
-      ion.setAnnotationId(row.getId().toString());
-      FeatureTableColumn<Float> column =
-          result.getColumn(ColumnName.RT.getName(), null, Float.class);
-      ion.setExpectedMz(row.getMz());
-      ion.setExpectedRetentionTime(row.getData(column));
-      List<IonAnnotation> ionAnnotations = new ArrayList<IonAnnotation>();
-      ionAnnotations.add(ion);
-
-      TargetedDetectionMethod chromBuilder = new TargetedDetectionMethod(ionAnnotations, rawFile,
-          dataStore, mzTolerance, rtTolerance, intensityTolerance, 0.0);
-      final List<Chromatogram> chromatograms = chromBuilder.execute();
+      if (sample.getRawDataFile() == null) {
+        logger.warn("Cannot fill gaps of sample " + sample.getName() + ", it has no raw data file");
+        continue;
+      }
 
-      // Add the data to the feature table row
-      Chromatogram chromatogram = chromatograms.get(0);
-      // chromatogram.setIonAnnotation(null);
       Map<ColumnName, FeatureTableColumn<Object>> tableColumns =
-          ChromatogramToFeatureTableMethod.addSampleColumns(result, sample);
-      ChromatogramToFeatureTableMethod.addDataToRow(row, chromatogram, tableColumns);
+          ChromatogramToFeatureTableMethod.addSampleColumns(view, sample);
+      fillers.add(new SampleGapFiller(sample, sampleGapRows, rtColumn, tableColumns));
+    }
+    totalGaps = gaps;
+    sampleGapFillers = fillers;
 
-      processedGaps++;
+    logger.info("Started gap filling " + totalGaps + " gap(s) in " + fillers.size()
+        + " sample(s) of '" + featureTable.getName() + "'");
 
-      // Cancel?
-      if (canceled)
-        return null;
+    if (totalGaps == 0) {
+      result = view;
+      return result;
     }
 
-    // Recalculate average values
-    FeatureTableUtil.recalculateAverages(result);
+    // Fill the gaps of all samples
+    final List<CompletableFuture<Void>> sampleJobs = new ArrayList<>(fillers.size());
+    for (SampleGapFiller filler : fillers)
+      sampleJobs.add(CompletableFuture.runAsync(filler, sampleExecutor));
+    try {
+      CompletableFuture.allOf(sampleJobs.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      cancel();
+      if (e.getCause() instanceof MSDKException)
+        throw (MSDKException) e.getCause();
+      throw new MSDKException(e.getCause());
+    }
 
+    // Cancel?
+    if (canceled)
+      return null;
+
+    // Recalculate average values of the rows which had gaps, the other rows did not change
+    final Set<FeatureTableRow> gapRows = new LinkedHashSet<>();
+    for (SampleGapFiller filler : fillers)
+      gapRows.addAll(filler.rows);
+    FeatureTableUtil.recalculateAverages(view, new ArrayList<>(gapRows), sampleExecutor);
+
+    result = view;
     return result;
   }
 
@@ -162,7 +199,29 @@ public class GapFillingMethod implements MSDKMethod<FeatureTable> {
   @Override
   @Nullable
   public Float getFinishedPercentage() {
-    return totalGaps == 0 ? null : (float) processedGaps / totalGaps;
+    if (totalGaps == 0)
+      return null;
+
+    // Sum up the progress of the samples, weighted by their number of gaps
+    float processed = totalGaps;
+    for (SampleGapFiller filler : sampleGapFillers)
+      processed -= (1f - filler.getFinishedPercentage()) * filler.rows.size();
+    return processed / totalGaps;
+  }
+
+  /**
+   * Returns the progress of filling the gaps of the given sample.
+   *
+   * @param sample a {@link io.github.msdk.datamodel.featuretables.Sample} object.
+   * @return the finished percentage, or null if the sample has no gaps to be filled.
+   */
+  @Nullable
+  public Float getFinishedPercentage(@Nonnull Sample sample) {
+    for (SampleGapFiller filler : sampleGapFillers) {
+      if (filler.sample == sample)
+        return filler.getFinishedPercentage();
+    }
+    return null;
   }
 
   /** {@inheritDoc} */
@@ -176,6 +235,98 @@ public class GapFillingMethod implements MSDKMethod<FeatureTable> {
   @Override
   public void cancel() {
     canceled = true;
+    for (SampleGapFiller filler : sampleGapFillers)
+      filler.cancel();
+  }
+
+  /**
+   * Fills the gaps of one sample. The chromatograms of all gaps are extracted in a single pass
+   * over the raw data file of the sample. Several samples can be filled at the same time, the
+   * rows are locked while their values are set.
+   */
+  private class SampleGapFiller implements Runnable {
+
+    private final @Nonnull Sample sample;
+    private final @Nonnull List<FeatureTableRow> rows;
+    private final @Nonnull FeatureTableColumn<Float> rtColumn;
+    private final @Nonnull Map<ColumnName, FeatureTableColumn<Object>> tableColumns;
+
+    private volatile TargetedDetectionMethod chromBuilder;
+    private volatile boolean finished = false;
+
+    SampleGapFiller(@Nonnull Sample sample, @Nonnull List<FeatureTableRow> rows,
+        @Nonnull FeatureTableColumn<Float> rtColumn,
+        @Nonnull Map<ColumnName, FeatureTableColumn<Object>> tableColumns) {
+      this.sample = sample;
+      this.rows = rows;
+      this.rtColumn = rtColumn;
+      this.tableColumns = tableColumns;
+    }
+
+    @Override
+    public void run() {
+      try {
+        fillGaps();
+      } catch (MSDKException e) {
+        throw new CompletionException(e);
+      } finally {
+        chromBuilder = null;
+        finished = true;
+      }
+    }
+
+    private void fillGaps() throws MSDKException {
+      if (canceled)
+        return;
+
+      // Create an ion annotation for each gap, identified by the row id
+      final List<IonAnnotation> ionAnnotations = new ArrayList<IonAnnotation>(rows.size());
+      final Map<String, FeatureTableRow> rowsByAnnotationId = new HashMap<>();
+      for (FeatureTableRow row : rows) {
+        SimpleIonAnnotation ion = new SimpleIonAnnotation();
+        ion.setAnnotationId(row.getId().toString());
+        ion.setExpectedMz(row.getMz());
+        ion.setExpectedRetentionTime(row.getData(rtColumn));
+        ionAnnotations.add(ion);
+        rowsByAnnotationId.put(ion.getAnnotationId(), row);
+      }
+
+      chromBuilder = new TargetedDetectionMethod(ionAnnotations, sample.getRawDataFile(),
+          dataStore, mzTolerance, rtTolerance, intensityTolerance, 0.0);
+      if (canceled)
+        return;
+      final List<Chromatogram> chromatograms = chromBuilder.execute();
+      if (chromatograms == null || canceled)
+        return;
+
+      // Add the data to the feature table rows. Other samples may set values of the same rows.
+      for (Chromatogram chromatogram : chromatograms) {
+        IonAnnotation ion = chromatogram.getIonAnnotation();
+        FeatureTableRow row = ion == null ? null : rowsByAnnotationId.get(ion.getAnnotationId());
+        if (row == null)
+          continue;
+        synchronized (row) {
+          ChromatogramToFeatureTableMethod.addDataToRow(row, chromatogram, tableColumns);
+        }
+      }
+    }
+
+    float getFinishedPercentage() {
+      if (finished)
+        return 1f;
+      TargetedDetectionMethod currentChromBuilder = chromBuilder;
+      if (currentChromBuilder == null)
+        return 0f;
+      Float builderProgress = currentChromBuilder.getFinishedPercentage();
+      return builderProgress == null ? 0f : builderProgress;
+    }
+
+    void cancel() {
+      TargetedDetectionMethod currentChromBuilder = chromBuilder;
+      if (currentChromBuilder != null)
+        currentChromBuilder.cancel();
+    }
+
   }
 
 }
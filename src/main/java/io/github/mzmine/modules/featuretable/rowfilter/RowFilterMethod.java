@@ -14,7 +14,14 @@
 package io.github.mzmine.modules.featuretable.rowfilter;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -27,12 +34,12 @@ import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
 import io.github.msdk.datamodel.featuretables.FeatureTableRow;
-import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
-import io.github.msdk.util.FeatureTableUtil;
 import io.github.msdk.util.tolerances.MzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
 import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.FeatureTableFilterPlan;
+import io.github.mzmine.datamodel.FilteredFeatureTable;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
 
 /**
@@ -67,7 +74,7 @@ public class RowFilterMethod implements MSDKMethod<FeatureTable> {
   private final @Nonnull FeatureTable featureTable;
   private final @Nonnull String nameSuffix;
   private final @Nonnull DataPointStore dataStore;
-  private final @Nonnull FeatureTable result;
+  private @Nullable FeatureTable result;
   private boolean canceled = false;
   private int processedRows = 0, totalRows = 0;
 
@@ -126,63 +133,31 @@ public class RowFilterMethod implements MSDKMethod<FeatureTable> {
     this.duplicateMzTolerance = duplicateMzTolerance;
     this.duplicateRtTolerance = duplicateRtTolerance;
     this.duplicateRequireSameID = duplicateRequireSameID;
-
-    // Make a new feature table
-    result = MSDKObjectBuilder.getFeatureTable(featureTable.getName() + nameSuffix, dataStore);
   }
 
   /** {@inheritDoc} */
   @Override
   public FeatureTable execute() throws MSDKException {
     // Total features
-    totalRows = featureTable.getRows().size();
+    final List<FeatureTableRow> rows = featureTable.getRows();
+    totalRows = rows.size();
 
     // If remove duplicates is selected, the features will looped twice
     if (removeDuplicates)
       totalRows = totalRows * 2;
 
-    // Add columns
-    for (FeatureTableColumn<?> column : featureTable.getColumns()) {
-      result.addColumn(column);
-    }
+    // Check the numeric filters column by column
+    final BitSet rowMask = createFilterPlan().evaluateRows(featureTable, rows);
+    processedRows += rows.size() - rowMask.cardinality();
 
-    // Loop through all features
-    for (FeatureTableRow row : featureTable.getRows()) {
-      FeatureTableColumn<Object> column;
+    // Loop through the remaining rows
+    final List<FeatureTableRow> filteredRows = new ArrayList<FeatureTableRow>();
+    final BitSet keptRows = new BitSet(rows.size());
+    for (int rowIndex = rowMask.nextSetBit(0); rowIndex >= 0; rowIndex =
+        rowMask.nextSetBit(rowIndex + 1)) {
+      final FeatureTableRow row = rows.get(rowIndex);
       processedRows++;
 
-      // Check m/z
-      if (filterByMz && mzRange != null) {
-        final Double mz = row.getMz();
-        if ((mz == null) || (!mzRange.contains(mz)))
-          continue;
-      }
-
-      // Check RT
-      if (filterByRt && rtRange != null) {
-        Float rowRT = row.getRT();
-        if (rowRT!=null) {
-          if (!rtRange.contains(rowRT))
-            continue;
-        }
-      }
-
-      // Check duration
-      if (filterByDuration && durationRange != null) {
-        final Double averageDuration = FeatureTableUtil.getAverageFeatureDuration(row);
-        if (averageDuration == null)
-          continue;
-        if (!durationRange.contains(averageDuration))
-          continue;
-      }
-
-      // Check count
-      if (filterByCount && minCount != null) {
-        final int rowCount = FeatureTableUtil.getRowCount(row);
-        if (!(rowCount >= minCount))
-          continue;
-      }
-
       // Check isotopes
       if (filterByIsotopes) {
         /*
@@ -230,91 +205,168 @@ public class RowFilterMethod implements MSDKMethod<FeatureTable> {
           continue;
       }
 
-      // Add row if all filters are fulfilled
-      result.addRow(copyRow(row, result));
+      // Keep row if all filters are fulfilled
+      filteredRows.add(row);
+      keptRows.set(rowIndex);
 
       if (canceled)
         return null;
     }
 
     // Remove duplicate features?
+    Set<FeatureTableRow> duplicateRows = Collections.emptySet();
     if (removeDuplicates && duplicateMzTolerance != null) {
 
-      final int rowCount = result.getRows().size();
-      List<FeatureTableRow> rows = result.getRows();
-      List<FeatureTableRow> removeRows = new ArrayList<FeatureTableRow>();
-
       // Recalculate the remaining rows in the result feature table
-      totalRows = totalRows / 2 + rowCount;
+      totalRows = totalRows / 2 + filteredRows.size();
 
-      // Loop through all rows
-      for (int firstRowIndex = 0; firstRowIndex < rowCount; firstRowIndex++) {
-        FeatureTableRow firstRow = rows.get(firstRowIndex);
-        final Double mz = firstRow.getMz();
-        if (mz == null)
-          continue;
+      duplicateRows = findDuplicateRows(filteredRows);
+      if (duplicateRows == null)
+        return null;
+    }
 
-        // Loop through all the rows below the current
-        for (int secondRowIndex = firstRowIndex + 1; secondRowIndex < rowCount; secondRowIndex++) {
-          FeatureTableRow secondRow = rows.get(secondRowIndex);
-          if (removeRows.contains(secondRow))
-            continue;
+    // The result is a view of the remaining rows, the feature table is not copied. The view keeps
+    // its values if the feature table is modified later.
+    for (int rowIndex = keptRows.nextSetBit(0); rowIndex >= 0; rowIndex =
+        keptRows.nextSetBit(rowIndex + 1)) {
+      if (duplicateRows.contains(rows.get(rowIndex)))
+        keptRows.clear(rowIndex);
+    }
+    result = new FilteredFeatureTable(featureTable.getName() + nameSuffix, dataStore,
+        featureTable, rows, keptRows, null);
 
-          // Compare m/z
-          final boolean sameMz =
-              duplicateMzTolerance.getToleranceRange(mz).contains(secondRow.getMz());
-
-          // Compare retention time
-          Float rt1 = firstRow.getRT();
-          Float rt2 = secondRow.getRT();
-          boolean sameRt = duplicateRtTolerance.getToleranceRange(rt1)
-                .contains(rt2);
-
-          // Compare identifications
-          FeatureTableColumn<List<IonAnnotation>> column =
-              result.getColumn(ColumnName.IONANNOTATION, null);
-          List<IonAnnotation> ionAnnotation1 = (List<IonAnnotation>) firstRow.getData(column);
-          List<IonAnnotation> ionAnnotation2 = (List<IonAnnotation>) secondRow.getData(column);
-          final boolean sameId = !duplicateRequireSameID || ionAnnotation1.equals(ionAnnotation2);
-
-          // Duplicate peaks?
-          if (sameMz && sameRt && sameId) {
-            if (!removeRows.contains(secondRow))
-              removeRows.add(secondRow);
-          }
+    // Return the new feature table
+    return result;
+  }
 
-          if (canceled)
-            return null;
-        }
+  /**
+   * Helper function to create the filter plan of the selected m/z, RT, duration and count filters.
+   */
+  private @Nonnull FeatureTableFilterPlan createFilterPlan() {
+    final FeatureTableFilterPlan plan = new FeatureTableFilterPlan();
+    if (filterByMz && mzRange != null)
+      plan.addRowRange(MSDKObjectBuilder.getMzFeatureTableColumn(), mzRange, false);
+    if (filterByRt && rtRange != null)
+      plan.addRowRange(MSDKObjectBuilder.getRetentionTimeFeatureTableColumn(), rtRange, true);
+    if (filterByDuration && durationRange != null)
+      plan.addAverageFeatureRange(ColumnName.DURATION, durationRange);
+    if (filterByCount && minCount != null)
+      plan.setMinFeatureCount(minCount);
+    return plan;
+  }
+
+  /**
+   * Finds the rows which are duplicates of a row above them. A row is a duplicate of an earlier
+   * row if its m/z is inside the m/z tolerance range and its RT is inside the RT tolerance range of
+   * the earlier row and, if required, both rows have the same ion annotations.
+   *
+   * If an RT tolerance is set, the rows inside the tolerance ranges of a row are looked up in the
+   * m/z and RT index of the feature table. Otherwise the rows are sorted by m/z, so only the rows
+   * inside the m/z tolerance range of a row are compared with it.
+   *
+   * @return the duplicate rows, or null if the method was canceled.
+   */
+  private @Nullable Set<FeatureTableRow> findDuplicateRows(@Nonnull List<FeatureTableRow> rows) {
+
+    final int rowCount = rows.size();
+    final FeatureTableColumn<List<IonAnnotation>> ionColumn =
+        featureTable.getColumn(ColumnName.IONANNOTATION, null);
+
+    // Read the row values once. Rows without m/z are never duplicates.
+    final Map<FeatureTableRow, Integer> rowIndexes = new IdentityHashMap<>(rowCount);
+    final Double mzValues[] = new Double[rowCount];
+    final Float rtValues[] = new Float[rowCount];
+    final List<Integer> mzOrder = new ArrayList<>();
+    for (int i = 0; i < rowCount; i++) {
+      FeatureTableRow row = rows.get(i);
+      rowIndexes.put(row, i);
+      mzValues[i] = row.getMz();
+      rtValues[i] = row.getRT();
+      if (mzValues[i] != null && duplicateRtTolerance == null)
+        mzOrder.add(i);
+    }
+    mzOrder.sort((i1, i2) -> Double.compare(mzValues[i1], mzValues[i2]));
+    final double sortedMz[] = new double[mzOrder.size()];
+    for (int k = 0; k < sortedMz.length; k++)
+      sortedMz[k] = mzValues[mzOrder.get(k)];
 
-        processedRows++;
+    final Set<FeatureTableRow> duplicateRows = new HashSet<FeatureTableRow>();
+
+    // Loop through all rows
+    for (int firstRowIndex = 0; firstRowIndex < rowCount; firstRowIndex++) {
+      processedRows++;
 
+      final Double mz = mzValues[firstRowIndex];
+      if (mz == null)
+        continue;
+
+      final Range<Double> mzRange = duplicateMzTolerance.getToleranceRange(mz);
+      final Float rt1 = rtValues[firstRowIndex];
+      final List<IonAnnotation> ionAnnotation1 =
+          duplicateRequireSameID ? getIonAnnotations(rows.get(firstRowIndex), ionColumn) : null;
+
+      // Find the rows inside the tolerance ranges which are below the current
+      final List<Integer> candidates = new ArrayList<>();
+      if (duplicateRtTolerance != null) {
+        // Rows without RT are only compared if no RT tolerance is set
+        if (rt1 != null) {
+          final Range<Float> rtRange = duplicateRtTolerance.getToleranceRange(rt1);
+          for (FeatureTableRow secondRow : featureTable.getRowsInsideRange(rtRange, mzRange)) {
+            final Integer secondRowIndex = rowIndexes.get(secondRow);
+            if (secondRowIndex != null && secondRowIndex > firstRowIndex)
+              candidates.add(secondRowIndex);
+          }
+        }
+      } else {
+        int k = mzRange.hasLowerBound() ? lowerBound(sortedMz, mzRange.lowerEndpoint()) : 0;
+        for (; k < sortedMz.length; k++) {
+          if (mzRange.hasUpperBound() && sortedMz[k] > mzRange.upperEndpoint())
+            break;
+          final int secondRowIndex = mzOrder.get(k);
+          if (secondRowIndex > firstRowIndex && mzRange.contains(sortedMz[k]))
+            candidates.add(secondRowIndex);
+        }
       }
 
-      // Remove rows
-      for (FeatureTableRow row : removeRows) {
-        result.removeRow(row);
+      for (int secondRowIndex : candidates) {
+        FeatureTableRow secondRow = rows.get(secondRowIndex);
+        if (duplicateRows.contains(secondRow))
+          continue;
+
+        // Compare identifications
+        if (duplicateRequireSameID
+            && !Objects.equals(ionAnnotation1, getIonAnnotations(secondRow, ionColumn)))
+          continue;
+
+        // Duplicate peaks
+        duplicateRows.add(secondRow);
       }
 
+      if (canceled)
+        return null;
     }
 
-    // Return the new feature table
-    return result;
+    return duplicateRows;
   }
 
-  private static FeatureTableRow copyRow(@Nonnull FeatureTableRow row,
-      @Nonnull FeatureTable result) {
-
-    // Create a new row with the common feature data
-    final FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(result, row.getId());
-    FeatureTableUtil.copyCommonValues(row, newRow, false);
+  private static @Nullable List<IonAnnotation> getIonAnnotations(@Nonnull FeatureTableRow row,
+      @Nullable FeatureTableColumn<List<IonAnnotation>> ionColumn) {
+    return ionColumn == null ? null : row.getData(ionColumn);
+  }
 
-    // Copy the feature data for the samples
-    for (Sample sample : row.getFeatureTable().getSamples()) {
-      FeatureTableUtil.copyFeatureValues(row, newRow, sample);
+  /**
+   * Returns the index of the first value greater or equal to the given m/z.
+   */
+  private static int lowerBound(@Nonnull double sortedMz[], double mz) {
+    int low = 0, high = sortedMz.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedMz[mid] < mz)
+        low = mid + 1;
+      else
+        high = mid;
     }
-
-    return newRow;
+    return low;
   }
 
   /** {@inheritDoc} */
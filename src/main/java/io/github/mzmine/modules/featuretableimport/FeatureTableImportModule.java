@@ -42,6 +42,7 @@ import io.github.mzmine.modules.rawdata.rawdataimport.RawDataImportParameters;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.project.MZmineProject;
 import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
 import javafx.concurrent.Task;
 
 /**
@@ -107,8 +108,8 @@ public class FeatureTableImportModule implements MZmineProcessingModule {
       }
       final MSDKMethod<?> finalMethod = method;
 
-      MSDKTask newTask =
-          new MSDKTask("Importing feature table file", fileName.getName(), finalMethod);
+      MSDKTask newTask = new MSDKTask("Importing feature table file", fileName.getName(),
+          finalMethod, TaskType.IO);
       newTask.setOnSucceeded(e -> {
         FeatureTable featureTable = (FeatureTable) finalMethod.getResult();
         if (featureTable == null)
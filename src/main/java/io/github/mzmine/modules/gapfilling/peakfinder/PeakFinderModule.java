@@ -30,6 +30,7 @@ import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.modules.featuretable.gapfilling.GapFillingMethod;
 import io.github.mzmine.parameters.ParameterSet;
@@ -95,9 +96,10 @@ public class PeakFinderModule implements MZmineProcessingModule {
       if (isIntensityTolSet == null || !isIntensityTolSet)
         intensityTolerance = Double.MAX_VALUE;
 
-      // New feature filter task
+      // New feature filter task, the samples are processed in parallel
       GapFillingMethod method = new GapFillingMethod(featureTable, dataStore, mzTolerance,
-          rtTolerance, intensityTolerance, nameSuffix);
+          rtTolerance, intensityTolerance, nameSuffix,
+          MZmineCore.getTaskExecutor().getCpuExecutor());
 
       MSDKTask newTask = new MSDKTask("Gap filling feature table", featureTable.getName(), method);
 
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.compoundlibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonType;
+import io.github.msdk.util.IonTypeUtil;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.modules.identification.ms.localdatabasesearch.IonAnnotationDatabase;
+
+/**
+ * Compound library file, compiled by {@link CompoundLibraryCompileMethod}. The file is mapped
+ * into memory, so opening a library does not read its content. A search looks up the m/z window of
+ * a feature by binary search on the sorted entries, and only creates the annotations of the
+ * matching entries. A library can be searched by several threads.
+ */
+public class CompoundLibrary {
+
+  private final @Nonnull File libraryFile;
+  private final @Nonnull ByteBuffer buffer;
+  private final int entryCount, compoundCount;
+  private final int compoundsStart, heapStart;
+  private final @Nonnull IonType ionTypes[];
+
+  private CompoundLibrary(@Nonnull File libraryFile, @Nonnull ByteBuffer buffer, int entryCount,
+      int compoundCount, int ionTypeCount) throws IOException {
+    this.libraryFile = libraryFile;
+    this.buffer = buffer;
+    this.entryCount = entryCount;
+    this.compoundCount = compoundCount;
+    this.compoundsStart =
+        CompoundLibraryFormat.HEADER_SIZE + entryCount * CompoundLibraryFormat.ENTRY_SIZE;
+    final int ionTypesStart = compoundsStart + compoundCount * CompoundLibraryFormat.COMPOUND_SIZE;
+    this.heapStart = ionTypesStart + ionTypeCount * CompoundLibraryFormat.ION_TYPE_SIZE;
+
+    // The ion types are shared by all annotations
+    ionTypes = new IonType[ionTypeCount];
+    for (int i = 0; i < ionTypeCount; i++) {
+      final String name =
+          getString(buffer.getInt(ionTypesStart + i * CompoundLibraryFormat.ION_TYPE_SIZE));
+      ionTypes[i] = name == null ? null : IonTypeUtil.createIonType(name);
+    }
+  }
+
+  /**
+   * Opens a compound library file.
+   *
+   * @param libraryFile the library file.
+   * @return the {@link CompoundLibrary}.
+   * @throws IOException if the file cannot be read or is not a compound library file.
+   */
+  public static @Nonnull CompoundLibrary open(@Nonnull File libraryFile) throws IOException {
+    Preconditions.checkNotNull(libraryFile);
+
+    final ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(libraryFile.toPath(), StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size < CompoundLibraryFormat.HEADER_SIZE || size > Integer.MAX_VALUE)
+        throw new IOException(libraryFile + " is not a compound library file");
+      // The mapping stays valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    if (buffer.getLong(0) != CompoundLibraryFormat.MAGIC)
+      throw new IOException(libraryFile + " is not a compound library file");
+    final int version = buffer.getInt(8);
+    if (version != CompoundLibraryFormat.VERSION)
+      throw new IOException("Unsupported compound library version " + version);
+    final int entryCount = buffer.getInt(12);
+    final int compoundCount = buffer.getInt(16);
+    final int ionTypeCount = buffer.getInt(20);
+    final long heapStart = CompoundLibraryFormat.HEADER_SIZE
+        + (long) entryCount * CompoundLibraryFormat.ENTRY_SIZE
+        + (long) compoundCount * CompoundLibraryFormat.COMPOUND_SIZE
+        + (long) ionTypeCount * CompoundLibraryFormat.ION_TYPE_SIZE;
+    if (entryCount < 0 || compoundCount < 0 || ionTypeCount < 0 || heapStart > buffer.capacity())
+      throw new IOException(libraryFile + " is truncated");
+
+    try {
+      return new CompoundLibrary(libraryFile, buffer, entryCount, compoundCount, ionTypeCount);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException(libraryFile + " is truncated");
+    }
+  }
+
+  /**
+   * Returns the library file.
+   */
+  public @Nonnull File getLibraryFile() {
+    return libraryFile;
+  }
+
+  /**
+   * Returns the number of ions in the library.
+   */
+  public int size() {
+    return entryCount;
+  }
+
+  /**
+   * Returns the number of compounds in the library.
+   */
+  public int getCompoundCount() {
+    return compoundCount;
+  }
+
+  /**
+   * Returns a database which searches this library. An ion matches a feature if the m/z and RT of
+   * the feature are inside the tolerance ranges around the m/z and RT of the ion. Ions without RT
+   * match features at any RT.
+   *
+   * @param mzTolerance the m/z tolerance.
+   * @param rtTolerance the RT tolerance.
+   * @return the {@link IonAnnotationDatabase}.
+   */
+  public @Nonnull IonAnnotationDatabase search(@Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance) {
+    Preconditions.checkNotNull(mzTolerance);
+    Preconditions.checkNotNull(rtTolerance);
+
+    // The tolerance range grows with the m/z value, so the range of the largest m/z in the library
+    // bounds the distance of all matches. It is widened by a few ulps, so rounding never excludes
+    // an ion at the edge of its tolerance range.
+    double maxMzDistance = 0;
+    if (entryCount > 0) {
+      final double maxMz = Math.max(Math.abs(getMz(0)), Math.abs(getMz(entryCount - 1)));
+      final Range<Double> maxRange = mzTolerance.getToleranceRange(maxMz);
+      maxMzDistance = Math.max(maxMz - maxRange.lowerEndpoint(), maxRange.upperEndpoint() - maxMz)
+          + 4 * Math.ulp(maxMz);
+    }
+    final double mzDistance = maxMzDistance;
+
+    return (mz, rt) -> {
+      final List<IonAnnotation> result = new ArrayList<>();
+      if (Double.isNaN(mz) || Float.isNaN(rt))
+        return result;
+
+      int matches[] = null;
+      int matchCount = 0;
+      for (int i = lowerBound(mz - mzDistance); i < entryCount; i++) {
+        final double entryMz = getMz(i);
+        if (entryMz > mz + mzDistance)
+          break;
+        if (!mzTolerance.getToleranceRange(entryMz).contains(mz))
+          continue;
+        final float entryRt = getRt(i);
+        if (!Float.isNaN(entryRt) && !rtTolerance.getToleranceRange(entryRt).contains(rt))
+          continue;
+        if (matches == null)
+          matches = new int[4];
+        else if (matchCount == matches.length)
+          matches = Arrays.copyOf(matches, matchCount * 2);
+        matches[matchCount++] = i;
+      }
+
+      // Return the matches in the order of the source file
+      if (matchCount == 0)
+        return result;
+      final Integer sorted[] = new Integer[matchCount];
+      for (int k = 0; k < matchCount; k++)
+        sorted[k] = matches[k];
+      Arrays.sort(sorted, (i1, i2) -> {
+        final int compare = Integer.compare(getCompound(i1), getCompound(i2));
+        return compare != 0 ? compare : Integer.compare(i1, i2);
+      });
+      for (int i : sorted)
+        result.add(createIonAnnotation(i));
+      return result;
+    };
+  }
+
+  private double getMz(int entry) {
+    return buffer.getDouble(CompoundLibraryFormat.HEADER_SIZE
+        + entry * CompoundLibraryFormat.ENTRY_SIZE);
+  }
+
+  private float getRt(int entry) {
+    return buffer.getFloat(CompoundLibraryFormat.HEADER_SIZE
+        + entry * CompoundLibraryFormat.ENTRY_SIZE + 8);
+  }
+
+  private int getCompound(int entry) {
+    return buffer.getInt(CompoundLibraryFormat.HEADER_SIZE
+        + entry * CompoundLibraryFormat.ENTRY_SIZE + 12);
+  }
+
+  private int getIonType(int entry) {
+    return buffer.getInt(CompoundLibraryFormat.HEADER_SIZE
+        + entry * CompoundLibraryFormat.ENTRY_SIZE + 16);
+  }
+
+  /**
+   * Returns the index of the first entry with m/z greater or equal to the given value.
+   */
+  private int lowerBound(double mz) {
+    int low = 0, high = entryCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getMz(mid) < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * Creates the annotation of an entry.
+   */
+  private @Nonnull IonAnnotation createIonAnnotation(int entry) {
+    final int compoundStart =
+        compoundsStart + getCompound(entry) * CompoundLibraryFormat.COMPOUND_SIZE;
+
+    final SimpleIonAnnotation ion = new SimpleIonAnnotation();
+    ion.setAnnotationId(getString(buffer.getInt(compoundStart)));
+    ion.setExpectedMz(getMz(entry));
+    final float rt = getRt(entry);
+    if (!Float.isNaN(rt))
+      ion.setExpectedRetentionTime(rt);
+    ion.setDescription(getString(buffer.getInt(compoundStart + 4)));
+
+    final String formula = getString(buffer.getInt(compoundStart + 8));
+    if (formula != null) {
+      IMolecularFormula molecularFormula = MolecularFormulaManipulator
+          .getMolecularFormula(formula, DefaultChemObjectBuilder.getInstance());
+      if (molecularFormula != null)
+        ion.setFormula(molecularFormula);
+    }
+
+    final int ionType = getIonType(entry);
+    if (ionType >= 0 && ionTypes[ionType] != null)
+      ion.setIonType(ionTypes[ionType]);
+
+    return ion;
+  }
+
+  /**
+   * Returns the string at the given offset of the heap, or null if the offset is
+   * {@link CompoundLibraryFormat#NO_STRING}.
+   */
+  private @Nullable String getString(int offset) {
+    if (offset == CompoundLibraryFormat.NO_STRING)
+      return null;
+    final int position = heapStart + offset;
+    final byte bytes[] = new byte[buffer.getInt(position)];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = buffer.get(position + 4 + i);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
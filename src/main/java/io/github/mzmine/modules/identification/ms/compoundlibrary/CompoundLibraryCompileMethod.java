@@ -0,0 +1,426 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.compoundlibrary;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+
+/**
+ * Compiles a compound library from a CSV or SDF file into a library file, see
+ * {@link CompoundLibraryFormat}. The m/z values of the ions are calculated from the formulas of
+ * the compounds once, so searching the library does not parse any formulas.
+ *
+ * Each line of a CSV file starting with a digit contains the fields id, m/z, retention time in
+ * minutes, compound name and optionally formula and adduct, separated by the given regular
+ * expression. The m/z and retention time may be empty. The records of an SDF file are separated
+ * by $$$$ lines, the title line is used as compound name and the data items ID, MZ, RT, FORMULA and
+ * ADDUCT are read if present.
+ *
+ * If an entry has no m/z value, the m/z is calculated from the formula for the adduct of the entry
+ * or, if it has none, for each of the given default adducts.
+ */
+public class CompoundLibraryCompileMethod implements MSDKMethod<File> {
+
+  private static final double ELECTRON_MASS = 0.00054858;
+
+  // Adducts such as [M+H]+, [2M+Na]+, [M-H2O+H]+ or [M+2H]2+
+  private static final Pattern ADDUCT_PATTERN =
+      Pattern.compile("\\[(\\d*)M((?:[+-]\\d*[A-Z][A-Za-z0-9]*)*)\\](\\d*)([+-])");
+  private static final Pattern ADDUCT_PART_PATTERN =
+      Pattern.compile("([+-])(\\d*)([A-Z][A-Za-z0-9]*)");
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull File sourceFile;
+  private final @Nonnull String separator;
+  private final @Nonnull List<String> defaultAdducts;
+  private final @Nonnull File targetFile;
+
+  private final @Nonnull List<Entry> entries = new ArrayList<>();
+  private final @Nonnull List<String[]> compounds = new ArrayList<>();
+  private final @Nonnull Map<String, Integer> ionTypes = new LinkedHashMap<>();
+  private final @Nonnull Map<String, Double> adductPartMasses = new HashMap<>();
+
+  private long readBytes = 0, totalBytes = 0, heapSize = 0;
+  private boolean canceled = false;
+  private File result;
+
+  private static final class Entry {
+    private final double mz;
+    private final float rt;
+    private final int compound, ionType;
+
+    private Entry(double mz, float rt, int compound, int ionType) {
+      this.mz = mz;
+      this.rt = rt;
+      this.compound = compound;
+      this.ionType = ionType;
+    }
+  }
+
+  /**
+   * <p>
+   * Constructor for CompoundLibraryCompileMethod.
+   * </p>
+   *
+   * @param sourceFile the CSV or SDF file to compile. Files with the extension .sdf are read as
+   *        SDF files, all other files as CSV files.
+   * @param separator the field separator of CSV files, a regular expression.
+   * @param defaultAdducts the adducts of the entries which have a formula but neither m/z value
+   *        nor adduct.
+   * @param targetFile the library file to write.
+   */
+  public CompoundLibraryCompileMethod(@Nonnull File sourceFile, @Nonnull String separator,
+      @Nonnull List<String> defaultAdducts, @Nonnull File targetFile) {
+    Preconditions.checkNotNull(sourceFile);
+    Preconditions.checkNotNull(separator);
+    Preconditions.checkNotNull(defaultAdducts);
+    Preconditions.checkNotNull(targetFile);
+    this.sourceFile = sourceFile;
+    this.separator = separator;
+    this.defaultAdducts = new ArrayList<>(defaultAdducts);
+    this.targetFile = targetFile;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public File execute() throws MSDKException {
+
+    logger.info("Started compiling compound library " + sourceFile + " to " + targetFile);
+
+    if (!sourceFile.canRead())
+      throw new MSDKException("Cannot read file " + sourceFile);
+    totalBytes = sourceFile.length();
+
+    try (BufferedReader reader =
+        Files.newBufferedReader(sourceFile.toPath(), StandardCharsets.UTF_8)) {
+      final boolean completed = sourceFile.getName().toLowerCase().endsWith(".sdf")
+          ? readSdf(reader) : readCsv(reader);
+      if (!completed)
+        return null;
+    } catch (IOException e) {
+      throw new MSDKException(e);
+    }
+
+    // Sort by m/z, keeping the file order for equal values
+    entries.sort((e1, e2) -> Double.compare(e1.mz, e2.mz));
+
+    final File absoluteTarget = targetFile.getAbsoluteFile();
+    File tmpFile = null;
+    try {
+      tmpFile = File.createTempFile(absoluteTarget.getName(), ".tmp",
+          absoluteTarget.getParentFile());
+      writeLibrary(tmpFile);
+
+      try {
+        Files.move(tmpFile.toPath(), absoluteTarget.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpFile.toPath(), absoluteTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tmpFile = null;
+
+    } catch (IOException e) {
+      throw new MSDKException(e);
+    } finally {
+      if (tmpFile != null && !tmpFile.delete())
+        logger.warn("Cannot delete temporary file " + tmpFile);
+    }
+
+    result = targetFile;
+    logger.info("Finished compiling compound library " + sourceFile + ": " + compounds.size()
+        + " compounds, " + entries.size() + " ions");
+    return result;
+  }
+
+  /**
+   * Reads the compounds of a CSV file. Returns false if the method was canceled.
+   */
+  private boolean readCsv(@Nonnull BufferedReader reader) throws IOException, MSDKException {
+    final Pattern separatorPattern = Pattern.compile(separator);
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      if (canceled)
+        return false;
+      lineNumber++;
+      readBytes += line.length() + 1;
+
+      // Only process lines which start with an integer
+      if (line.isEmpty() || Character.digit(line.charAt(0), 10) < 0)
+        continue;
+      final String lineArray[] = separatorPattern.split(line);
+      if (lineArray.length < 4)
+        throw new MSDKException("Missing fields in line " + lineNumber + " of " + sourceFile);
+
+      addCompound(lineArray[0], lineArray[1], lineArray[2], lineArray[3],
+          lineArray.length > 4 ? lineArray[4] : null, lineArray.length > 5 ? lineArray[5] : null,
+          "line " + lineNumber);
+    }
+    return true;
+  }
+
+  /**
+   * Reads the compounds of an SDF file. Returns false if the method was canceled.
+   */
+  private boolean readSdf(@Nonnull BufferedReader reader) throws IOException, MSDKException {
+    final Map<String, String> dataItems = new HashMap<>();
+    String title = null, dataItem = null;
+    String line;
+    int record = 0;
+    while ((line = reader.readLine()) != null) {
+      if (canceled)
+        return false;
+      readBytes += line.length() + 1;
+
+      if (line.startsWith("$$$$")) {
+        record++;
+        addCompound(dataItems.getOrDefault("ID", String.valueOf(record)), dataItems.get("MZ"),
+            dataItems.get("RT"), title != null ? title.trim() : "", dataItems.get("FORMULA"),
+            dataItems.get("ADDUCT"), "record " + record);
+        dataItems.clear();
+        title = null;
+        dataItem = null;
+        continue;
+      }
+
+      if (title == null) {
+        title = line;
+      } else if (line.startsWith(">")) {
+        // Data header such as > <FORMULA> or > 1 <FORMULA> (1)
+        final int start = line.indexOf('<'), end = line.indexOf('>', start + 1);
+        dataItem = start >= 0 && end > start
+            ? line.substring(start + 1, end).trim().toUpperCase() : null;
+      } else if (dataItem != null) {
+        // The value of a data item is the first line after its header
+        if (!line.trim().isEmpty())
+          dataItems.putIfAbsent(dataItem, line.trim());
+        dataItem = null;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds a compound and its ions. The compound is skipped if none of its ions has an m/z value.
+   */
+  private void addCompound(@Nonnull String id, @Nullable String mzText, @Nullable String rtText,
+      @Nonnull String name, @Nullable String formulaText, @Nullable String adductText,
+      @Nonnull String position) throws MSDKException {
+
+    final int compound = compounds.size();
+    final float rt;
+    try {
+      rt = isEmpty(rtText) ? Float.NaN : Float.parseFloat(rtText.trim()) * 60;
+    } catch (NumberFormatException e) {
+      throw new MSDKException("Invalid retention time in " + position + " of " + sourceFile);
+    }
+
+    final int entryCount = entries.size();
+    if (!isEmpty(mzText)) {
+      final double mz;
+      try {
+        mz = Double.parseDouble(mzText.trim());
+      } catch (NumberFormatException e) {
+        throw new MSDKException("Invalid m/z value in " + position + " of " + sourceFile);
+      }
+      entries.add(new Entry(mz, rt, compound, getIonType(adductText)));
+    } else if (!isEmpty(formulaText)) {
+      final IMolecularFormula formula = MolecularFormulaManipulator
+          .getMolecularFormula(formulaText.trim(), DefaultChemObjectBuilder.getInstance());
+      if (formula != null) {
+        final double mass = MolecularFormulaManipulator.getMajorIsotopeMass(formula);
+        final List<String> adducts =
+            isEmpty(adductText) ? defaultAdducts : Collections.singletonList(adductText);
+        for (String adduct : adducts) {
+          final Double mz = getIonMz(mass, adduct);
+          if (mz == null)
+            logger.warn("Cannot calculate the m/z of adduct " + adduct + " in " + position);
+          else
+            entries.add(new Entry(mz, rt, compound, getIonType(adduct)));
+        }
+      }
+    }
+
+    if (entries.size() == entryCount) {
+      logger.warn("Skipping compound " + id + " in " + position + " of " + sourceFile
+          + ", it has neither m/z value nor formula");
+      return;
+    }
+    compounds.add(new String[] {id.trim(), name, isEmpty(formulaText) ? null : formulaText.trim()});
+  }
+
+  /**
+   * Returns the index of the ion type with the given name, or -1 if no adduct is given.
+   */
+  private int getIonType(@Nullable String adduct) {
+    if (isEmpty(adduct))
+      return -1;
+    return ionTypes.computeIfAbsent(adduct.trim(), name -> ionTypes.size());
+  }
+
+  /**
+   * Returns the m/z of an ion of a compound with the given neutral mass, or null if the adduct
+   * cannot be parsed.
+   */
+  @Nullable
+  private Double getIonMz(double mass, @Nonnull String adduct) {
+    final Matcher matcher = ADDUCT_PATTERN.matcher(adduct.trim());
+    if (!matcher.matches())
+      return null;
+    final int molecules = matcher.group(1).isEmpty() ? 1 : Integer.parseInt(matcher.group(1));
+    final int charge = matcher.group(3).isEmpty() ? 1 : Integer.parseInt(matcher.group(3));
+    final int sign = matcher.group(4).equals("+") ? 1 : -1;
+    if (molecules == 0 || charge == 0)
+      return null;
+
+    double ionMass = molecules * mass;
+    final Matcher part = ADDUCT_PART_PATTERN.matcher(matcher.group(2));
+    while (part.find()) {
+      final int count = part.group(2).isEmpty() ? 1 : Integer.parseInt(part.group(2));
+      final double partMass = adductPartMasses.computeIfAbsent(part.group(3),
+          formula -> MolecularFormulaManipulator.getMajorIsotopeMass(MolecularFormulaManipulator
+              .getMolecularFormula(formula, DefaultChemObjectBuilder.getInstance())));
+      ionMass += (part.group(1).equals("+") ? count : -count) * partMass;
+    }
+
+    // The adduct formulas are neutral, a positive ion lost electrons and a negative one gained
+    ionMass -= sign * charge * ELECTRON_MASS;
+    return ionMass / charge;
+  }
+
+  /**
+   * Writes the entries, compounds, ion types and string heap to the given file.
+   */
+  private void writeLibrary(@Nonnull File file) throws IOException, MSDKException {
+
+    // Offsets of the strings in the heap, equal strings are stored once
+    final Map<String, Integer> heap = new LinkedHashMap<>();
+    heapSize = 0;
+    final int compoundOffsets[] = new int[compounds.size() * 3];
+    for (int i = 0; i < compoundOffsets.length; i++)
+      compoundOffsets[i] = addString(heap, compounds.get(i / 3)[i % 3]);
+    final int ionTypeOffsets[] = new int[ionTypes.size()];
+    int ionType = 0;
+    for (String name : ionTypes.keySet())
+      ionTypeOffsets[ionType++] = addString(heap, name);
+
+    final long fileSize = CompoundLibraryFormat.HEADER_SIZE
+        + (long) entries.size() * CompoundLibraryFormat.ENTRY_SIZE
+        + (long) compounds.size() * CompoundLibraryFormat.COMPOUND_SIZE
+        + (long) ionTypes.size() * CompoundLibraryFormat.ION_TYPE_SIZE + heapSize;
+    if (fileSize > Integer.MAX_VALUE)
+      throw new MSDKException("The compound library is too large");
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+      out.writeLong(CompoundLibraryFormat.MAGIC);
+      out.writeInt(CompoundLibraryFormat.VERSION);
+      out.writeInt(entries.size());
+      out.writeInt(compounds.size());
+      out.writeInt(ionTypes.size());
+      for (Entry entry : entries) {
+        out.writeDouble(entry.mz);
+        out.writeFloat(entry.rt);
+        out.writeInt(entry.compound);
+        out.writeInt(entry.ionType);
+      }
+      for (int offset : compoundOffsets)
+        out.writeInt(offset);
+      for (int offset : ionTypeOffsets)
+        out.writeInt(offset);
+      for (String string : heap.keySet()) {
+        final byte bytes[] = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+  }
+
+  /**
+   * Adds a string to the heap unless it is already stored, and returns its offset.
+   */
+  private int addString(@Nonnull Map<String, Integer> heap, @Nullable String string)
+      throws MSDKException {
+    if (string == null)
+      return CompoundLibraryFormat.NO_STRING;
+    Integer offset = heap.get(string);
+    if (offset == null) {
+      if (heapSize > Integer.MAX_VALUE)
+        throw new MSDKException("The compound library is too large");
+      offset = (int) heapSize;
+      heapSize += 4 + string.getBytes(StandardCharsets.UTF_8).length;
+      heap.put(string, offset);
+    }
+    return offset;
+  }
+
+  private static boolean isEmpty(@Nullable String value) {
+    return value == null || value.trim().isEmpty();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getFinishedPercentage() {
+    return totalBytes == 0 ? null : Math.min(1f, (float) readBytes / totalBytes);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public File getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    this.canceled = true;
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.identification.ms.compoundlibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.modules.identification.ms.localdatabasesearch.IonAnnotationDatabase;
+
+public class CompoundLibraryCompileMethodTest {
+
+  private static CompoundLibrary compile(String content, String suffix) throws IOException,
+      MSDKException {
+    File sourceFile = File.createTempFile("MZmine_TestFile_", suffix);
+    File libraryFile = File.createTempFile("MZmine_TestFile_", ".mzlib");
+    sourceFile.deleteOnExit();
+    libraryFile.deleteOnExit();
+    Files.write(sourceFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+    CompoundLibraryCompileMethod method = new CompoundLibraryCompileMethod(sourceFile, ",",
+        Arrays.asList("[M+H]+", "[M+Na]+"), libraryFile);
+    Assert.assertEquals(libraryFile, method.execute());
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+    return CompoundLibrary.open(libraryFile);
+  }
+
+  @Test
+  public void testCsvLibrary() throws IOException, MSDKException {
+
+    // Retention times in minutes, the feature table uses seconds
+    String content = "id,m/z,rt,name,formula,adduct\n" + "1,332.56,12.88,Compound A\n"
+        + "2,,,Glucose,C6H12O6\n" + "3,,14.5,Caffeine,C8H10N4O2,[M-H]-\n"
+        + "4,,,No mass\n" + "5,332.561,,Compound C\n";
+    CompoundLibrary library = compile(content, ".csv");
+    Assert.assertEquals(4, library.getCompoundCount());
+    Assert.assertEquals(5, library.size());
+
+    IonAnnotationDatabase database =
+        library.search(new MaximumMzTolerance(0.003, 5.0), new RTTolerance(3, true));
+
+    // Compound A matches at its RT only, compound C at any RT
+    List<IonAnnotation> matches = database.getMatchingAnnotations(332.5605, 773.5f);
+    Assert.assertEquals(2, matches.size());
+    Assert.assertEquals("1", matches.get(0).getAnnotationId());
+    Assert.assertEquals("Compound A", matches.get(0).getDescription());
+    Assert.assertEquals(772.8f, matches.get(0).getExpectedRetentionTime(), 0.001f);
+    Assert.assertEquals("5", matches.get(1).getAnnotationId());
+    matches = database.getMatchingAnnotations(332.5605, 100f);
+    Assert.assertEquals(1, matches.size());
+    Assert.assertEquals("5", matches.get(0).getAnnotationId());
+
+    // Adduct m/z values calculated from the formulas
+    matches = database.getMatchingAnnotations(181.0707, 100f);
+    Assert.assertEquals(1, matches.size());
+    Assert.assertEquals("Glucose", matches.get(0).getDescription());
+    Assert.assertEquals(181.070665, matches.get(0).getExpectedMz(), 0.00001);
+    Assert.assertNotNull(matches.get(0).getFormula());
+    Assert.assertEquals("[M+H]+", matches.get(0).getIonType().getName());
+    matches = database.getMatchingAnnotations(203.0526, 100f);
+    Assert.assertEquals(1, matches.size());
+    Assert.assertEquals("[M+Na]+", matches.get(0).getIonType().getName());
+    matches = database.getMatchingAnnotations(193.0729, 870f);
+    Assert.assertEquals(1, matches.size());
+    Assert.assertEquals("Caffeine", matches.get(0).getDescription());
+    Assert.assertEquals(193.073100, matches.get(0).getExpectedMz(), 0.00001);
+
+    Assert.assertTrue(database.getMatchingAnnotations(400.0, 100f).isEmpty());
+  }
+
+  @Test
+  public void testSdfLibrary() throws IOException, MSDKException {
+
+    String content = "Glucose\n  -MOL-\n\n  0  0  0  0  0  0            999 V2000\nM  END\n"
+        + "> <ID>\nHMDB0000122\n\n> <FORMULA>\nC6H12O6\n\n$$$$\n" + "Compound A\n\n\nM  END\n"
+        + "> <MZ>\n332.56\n\n> <RT>\n12.88\n\n$$$$\n";
+    CompoundLibrary library = compile(content, ".sdf");
+    Assert.assertEquals(2, library.getCompoundCount());
+    Assert.assertEquals(3, library.size());
+
+    IonAnnotationDatabase database =
+        library.search(new MaximumMzTolerance(0.003, 5.0), new RTTolerance(3, true));
+    List<IonAnnotation> matches = database.getMatchingAnnotations(181.0707, 100f);
+    Assert.assertEquals(1, matches.size());
+    Assert.assertEquals("HMDB0000122", matches.get(0).getAnnotationId());
+    Assert.assertEquals("Glucose", matches.get(0).getDescription());
+    matches = database.getMatchingAnnotations(332.56, 772f);
+    Assert.assertEquals(1, matches.size());
+    Assert.assertEquals("2", matches.get(0).getAnnotationId());
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidFile() throws IOException {
+    File file = File.createTempFile("MZmine_TestFile_", ".mzlib");
+    file.deleteOnExit();
+    Files.write(file.toPath(), new byte[64]);
+    CompoundLibrary.open(file);
+  }
+
+}
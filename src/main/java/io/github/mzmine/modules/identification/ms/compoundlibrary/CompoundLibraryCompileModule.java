@@ -0,0 +1,94 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.compoundlibrary;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
+import javafx.concurrent.Task;
+
+/**
+ * Compound library compile module
+ */
+public class CompoundLibraryCompileModule implements MZmineProcessingModule {
+
+  private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  @Nonnull
+  private static final String MODULE_NAME = "Compile compound library";
+  @Nonnull
+  private static final String MODULE_DESCRIPTION =
+      "This module compiles a CSV or SDF compound library into a library file for the local database search.";
+
+  @Override
+  public @Nonnull String getName() {
+    return MODULE_NAME;
+  }
+
+  @Override
+  public @Nonnull String getDescription() {
+    return MODULE_DESCRIPTION;
+  }
+
+  @Override
+  public void runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
+      @Nonnull Collection<Task<?>> tasks) {
+
+    final File sourceFile =
+        parameters.getParameter(CompoundLibraryCompileParameters.sourceFile).getValue();
+    final String separator =
+        parameters.getParameter(CompoundLibraryCompileParameters.separator).getValue();
+    final String adducts =
+        parameters.getParameter(CompoundLibraryCompileParameters.adducts).getValue();
+    final File libraryFile =
+        parameters.getParameter(CompoundLibraryCompileParameters.libraryFile).getValue();
+
+    if (sourceFile == null || libraryFile == null) {
+      MZmineGUI.displayMessage("The source file and the library file cannot be empty.");
+      logger.warn("The source file and the library file cannot be empty.");
+      return;
+    }
+
+    CompoundLibraryCompileMethod method = new CompoundLibraryCompileMethod(sourceFile, separator,
+        Arrays.asList(adducts.trim().split("\\s+")), libraryFile);
+
+    MSDKTask newTask =
+        new MSDKTask("Compiling compound library", sourceFile.getName(), method, TaskType.IO);
+
+    tasks.add(newTask);
+  }
+
+  @Override
+  public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+    return CompoundLibraryCompileParameters.class;
+  }
+
+}
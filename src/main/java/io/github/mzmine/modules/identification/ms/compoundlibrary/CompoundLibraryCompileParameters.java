@@ -0,0 +1,63 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.compoundlibrary;
+
+import java.util.Arrays;
+
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.ParameterValidator;
+import io.github.mzmine.parameters.parametertypes.StringParameter;
+import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
+import javafx.stage.FileChooser.ExtensionFilter;
+
+public class CompoundLibraryCompileParameters extends ParameterSet {
+
+  public static final FileNameParameter sourceFile = new FileNameParameter("Source file",
+      "CSV or SDF file of the compound library.\n"
+          + "Each line of a CSV file starting with a number contains the fields\n"
+          + "id, m/z, retention time, compound name, formula, adduct\n"
+          + "The m/z, retention time, formula and adduct may be empty.\n"
+          + "The records of an SDF file may hold the data items ID, MZ, RT, FORMULA and ADDUCT.",
+      "Library", ParameterValidator.createNonEmptyValidator(), FileNameParameter.Type.OPEN,
+      Arrays.asList(new ExtensionFilter("All supported files", "*.csv", "*.txt", "*.sdf"),
+          new ExtensionFilter("CSV files", "*.csv", "*.txt"),
+          new ExtensionFilter("SDF files", "*.sdf")));
+
+  public static final StringParameter separator = new StringParameter("Field separator",
+      "Character(s) used to separate fields in CSV files", "Library",
+      ParameterValidator.createNonEmptyValidator(), ",");
+
+  public static final StringParameter adducts = new StringParameter("Adducts",
+      "Space separated adducts, such as [M+H]+ [M+Na]+, whose m/z values are calculated for\n"
+          + "compounds which have a formula but neither m/z value nor adduct",
+      "Library", ParameterValidator.createNonEmptyValidator(), "[M+H]+");
+
+  public static final FileNameParameter libraryFile = new FileNameParameter("Library file",
+      "Path and name of the compiled library file. If the file already exists, it will be overwritten.",
+      "Library", ParameterValidator.createNonEmptyValidator(), FileNameParameter.Type.SAVE,
+      Arrays.asList(new ExtensionFilter("MZmine compound libraries", "*.mzlib")));
+
+  /**
+   * Create the parameter set.
+   */
+  public CompoundLibraryCompileParameters() {
+    super(sourceFile, separator, adducts, libraryFile);
+  }
+
+}
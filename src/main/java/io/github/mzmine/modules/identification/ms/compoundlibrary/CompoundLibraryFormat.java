@@ -0,0 +1,48 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.compoundlibrary;
+
+/**
+ * Layout of compiled compound library files.
+ *
+ * A library file starts with a header of {@link #HEADER_SIZE} bytes: the magic number, the format
+ * version and the number of entries, compounds and ion types. The header is followed by the
+ * entries, sorted by m/z, each holding the m/z of the ion, the expected retention time in seconds
+ * (NaN if the entry matches any retention time), the index of the compound and the index of the
+ * ion type (-1 if unknown). The compounds follow, each holding the offsets of its id, name and
+ * formula in the string heap (-1 if not set), then the offsets of the ion type names. The file
+ * ends with the string heap, where each string is stored as its length followed by the UTF-8
+ * bytes.
+ */
+final class CompoundLibraryFormat {
+
+  static final long MAGIC = 0x4d5a4d494e45334cL; // "MZMINE3L"
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 24;
+  static final int ENTRY_SIZE = 20;
+  static final int COMPOUND_SIZE = 12;
+  static final int ION_TYPE_SIZE = 4;
+
+  /** Offset of a string which is not set. */
+  static final int NO_STRING = -1;
+
+  private CompoundLibraryFormat() {}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.localdatabasesearch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonType;
+import io.github.msdk.datamodel.rawdata.SeparationType;
+import io.github.msdk.util.IonTypeUtil;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.util.MzRtIndex;
+
+/**
+ * Immutable index of the ion annotations of a local database. The annotations are kept in an
+ * {@link MzRtIndex} whose retention time buckets are as wide as the largest RT tolerance range. A
+ * lookup only visits the buckets around the RT of the feature and the annotations inside the m/z
+ * tolerance window of each bucket, so it does not depend on the size of the database. The index
+ * can be shared by several searches running in parallel.
+ */
+public class LocalDatabase implements IonAnnotationDatabase {
+
+  private final double maxMzDistance;
+  private final float maxRtDistance;
+  private final @Nonnull MzRtIndex index;
+
+  // The annotations with their tolerance ranges, in database order
+  private final @Nonnull double mzLow[], mzHigh[];
+  private final @Nonnull float rtLow[], rtHigh[];
+  private final @Nonnull List<IonAnnotation> ionAnnotations;
+
+  /**
+   * Builds the index of the given ion annotations. An annotation matches a feature if the m/z and
+   * RT of the feature are inside the tolerance ranges around the expected m/z and RT of the
+   * annotation. Annotations without expected m/z or RT are ignored.
+   *
+   * @param ionAnnotations the annotations of the database.
+   * @param mzTolerance the m/z tolerance.
+   * @param rtTolerance the RT tolerance.
+   */
+  public LocalDatabase(@Nonnull List<IonAnnotation> ionAnnotations,
+      @Nonnull MzTolerance mzTolerance, @Nonnull RTTolerance rtTolerance) {
+    Preconditions.checkNotNull(ionAnnotations);
+    Preconditions.checkNotNull(mzTolerance);
+    Preconditions.checkNotNull(rtTolerance);
+
+    // Tolerance ranges of the annotations, in database order
+    final int size = ionAnnotations.size();
+    final double mz[] = new double[size];
+    final float rt[] = new float[size];
+    mzLow = new double[size];
+    mzHigh = new double[size];
+    rtLow = new float[size];
+    rtHigh = new float[size];
+    double maxMz = 0, maxAbsMz = 0;
+    float maxRt = 0, maxAbsRt = 0;
+    for (int i = 0; i < size; i++) {
+      final IonAnnotation ionAnnotation = ionAnnotations.get(i);
+      final Double expectedMz = ionAnnotation.getExpectedMz();
+      final Float expectedRt = ionAnnotation.getExpectedRetentionTime();
+      if (expectedMz == null || expectedRt == null || expectedMz.isNaN() || expectedRt.isNaN()) {
+        mz[i] = Double.NaN;
+        rt[i] = Float.NaN;
+        continue;
+      }
+      final Range<Double> mzRange = mzTolerance.getToleranceRange(expectedMz);
+      final Range<Float> rtRange = rtTolerance.getToleranceRange(expectedRt);
+      mz[i] = expectedMz;
+      mzLow[i] = mzRange.lowerEndpoint();
+      mzHigh[i] = mzRange.upperEndpoint();
+      rt[i] = expectedRt;
+      rtLow[i] = rtRange.lowerEndpoint();
+      rtHigh[i] = rtRange.upperEndpoint();
+      maxMz = Math.max(maxMz, Math.max(mz[i] - mzLow[i], mzHigh[i] - mz[i]));
+      maxRt = Math.max(maxRt, Math.max(rt[i] - rtLow[i], rtHigh[i] - rt[i]));
+      maxAbsMz = Math.max(maxAbsMz, Math.abs(mz[i]));
+      maxAbsRt = Math.max(maxAbsRt, Math.abs(rt[i]));
+    }
+
+    // The windows of a lookup are widened by a few ulps, so rounding never excludes an annotation
+    // at the edge of its tolerance range
+    this.maxMzDistance = maxMz + 4 * Math.ulp(maxAbsMz);
+    this.maxRtDistance = maxRt + 4 * Math.ulp(maxAbsRt);
+    this.ionAnnotations = new ArrayList<>(ionAnnotations);
+
+    // Buckets as wide as the largest RT tolerance range, so a lookup visits at most three buckets
+    this.index = new MzRtIndex(mz, rt, Math.max(2 * maxRt, Float.MIN_NORMAL));
+  }
+
+  /**
+   * Returns the number of indexed annotations.
+   */
+  public int size() {
+    return index.size();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull List<IonAnnotation> getMatchingAnnotations(double mz, float rt) {
+    final List<IonAnnotation> result = new ArrayList<>();
+    if (Double.isNaN(mz) || Float.isNaN(rt))
+      return result;
+
+    // The positions of the index are in database order
+    for (int i : index.getPointsInside(mz - maxMzDistance, mz + maxMzDistance, rt - maxRtDistance,
+        rt + maxRtDistance)) {
+      if (mz < mzLow[i] || mz > mzHigh[i] || rt < rtLow[i] || rt > rtHigh[i])
+        continue;
+      result.add(ionAnnotations.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Parses the annotations of a local database. Each line starting with a digit contains the
+   * fields id, m/z, retention time in minutes, compound name and optionally formula and adduct,
+   * separated by the given regular expression. Other lines are ignored.
+   *
+   * @param annotations the text of the database.
+   * @param separator the field separator, a regular expression.
+   * @return the parsed annotations.
+   */
+  @Nonnull
+  public static List<IonAnnotation> parse(@Nonnull String annotations, @Nonnull String separator) {
+    Preconditions.checkNotNull(annotations);
+    Preconditions.checkNotNull(separator);
+
+    final Pattern separatorPattern = Pattern.compile(separator);
+    final Map<String, IonType> ionTypes = new HashMap<>();
+    final List<IonAnnotation> ionAnnotations = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new StringReader(annotations))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+
+        // Only process lines which start with an integer
+        if (line.isEmpty() || Character.digit(line.charAt(0), 10) < 0)
+          continue;
+        final String lineArray[] = separatorPattern.split(line);
+
+        final SimpleIonAnnotation ion = new SimpleIonAnnotation();
+        ion.setAnnotationId(lineArray[0]);
+        ion.setExpectedMz(Double.parseDouble(lineArray[1]));
+        final float rt = Float.parseFloat(lineArray[2]) * 60;
+        ion.setExpectedRetentionTime(rt);
+        ion.setChromatographyInfo(MSDKObjectBuilder.getChromatographyInfo1D(SeparationType.LC, rt));
+        ion.setDescription(lineArray[3]);
+
+        // If formula column is present then add chemical structure
+        if (lineArray.length > 4 && !lineArray[4].isEmpty()) {
+          IMolecularFormula formula = MolecularFormulaManipulator
+              .getMolecularFormula(lineArray[4], DefaultChemObjectBuilder.getInstance());
+          if (formula != null)
+            ion.setFormula(formula);
+        }
+
+        // If adduct column is present then add ion type, expected string format: [M+2H]2+
+        if (lineArray.length > 5 && !lineArray[5].isEmpty()) {
+          IonType ionType = ionTypes.computeIfAbsent(lineArray[5], IonTypeUtil::createIonType);
+          if (ionType != null)
+            ion.setIonType(ionType);
+        }
+
+        ionAnnotations.add(ion);
+      }
+    } catch (IOException e) {
+      // Reading from a string does not fail
+      throw new UncheckedIOException(e);
+    }
+    return ionAnnotations;
+  }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.localdatabasesearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.FilteredFeatureTable;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+
+/**
+ * Annotates the rows of a feature table with the matching ion annotations of an
+ * {@link IonAnnotationDatabase}. The rows are matched in chunks by the given executor. The input
+ * table is not modified, the annotations are set on a {@link FilteredFeatureTable} view of it,
+ * which is returned as the result.
+ */
+public class LocalDatabaseSearchMethod implements MSDKMethod<FeatureTable> {
+
+  /** Number of rows matched by one job. */
+  private static final int CHUNK_SIZE = 1024;
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull FeatureTable featureTable;
+  private final @Nonnull Supplier<? extends IonAnnotationDatabase> database;
+  private final @Nonnull Executor rowExecutor;
+
+  private volatile boolean canceled = false;
+  private final @Nonnull AtomicInteger processedFeatures = new AtomicInteger();
+  private int totalFeatures = 0;
+  private FeatureTable result;
+
+  /**
+   * <p>
+   * Constructor for LocalDatabaseSearchMethod.
+   * </p>
+   *
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param database the {@link IonAnnotationDatabase} to search.
+   */
+  public LocalDatabaseSearchMethod(@Nonnull FeatureTable featureTable,
+      @Nonnull IonAnnotationDatabase database) {
+    this(featureTable, () -> database, Runnable::run);
+  }
+
+  /**
+   * <p>
+   * Constructor for LocalDatabaseSearchMethod. The database is obtained from the supplier when
+   * the method is executed, so several methods can share a database which is built by the first
+   * one.
+   * </p>
+   *
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param database a {@link java.util.function.Supplier} of the {@link IonAnnotationDatabase}
+   *        to search.
+   * @param rowExecutor a {@link java.util.concurrent.Executor} matching the chunks of rows.
+   */
+  public LocalDatabaseSearchMethod(@Nonnull FeatureTable featureTable,
+      @Nonnull Supplier<? extends IonAnnotationDatabase> database,
+      @Nonnull Executor rowExecutor) {
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkNotNull(database);
+    Preconditions.checkNotNull(rowExecutor);
+    this.featureTable = featureTable;
+    this.database = database;
+    this.rowExecutor = rowExecutor;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FeatureTable execute() throws MSDKException {
+
+    logger.info("Starting local database search of " + featureTable.getName());
+
+    final IonAnnotationDatabase database;
+    try {
+      database = this.database.get();
+    } catch (RuntimeException e) {
+      throw new MSDKException(e);
+    }
+
+    // The view only stores the annotations of the matched rows
+    final FilteredFeatureTable view = new FilteredFeatureTable(featureTable.getName(),
+        DataPointStoreFactory.getMemoryDataStore(), featureTable);
+    final List<FeatureTableRow> rows = view.getRows();
+    totalFeatures = rows.size();
+
+    // Create the ion annotation column if it is not present in the table
+    FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+        view.getColumn(ColumnName.IONANNOTATION, null);
+    if (ionAnnotationColumn == null) {
+      ionAnnotationColumn = MSDKObjectBuilder.getIonAnnotationFeatureTableColumn();
+      view.addColumn(ionAnnotationColumn);
+    }
+    final FeatureTableColumn<List<IonAnnotation>> column = ionAnnotationColumn;
+
+    final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+    for (int start = 0; start < rows.size(); start += CHUNK_SIZE) {
+      final List<FeatureTableRow> chunk =
+          rows.subList(start, Math.min(start + CHUNK_SIZE, rows.size()));
+      jobs.add(CompletableFuture.runAsync(() -> {
+        for (FeatureTableRow row : chunk) {
+          if (canceled)
+            return;
+          annotateRow(row, database, column);
+          processedFeatures.incrementAndGet();
+        }
+      }, rowExecutor));
+    }
+    try {
+      CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      cancel();
+      throw new MSDKException(e.getCause());
+    }
+
+    if (canceled)
+      return null;
+
+    result = view;
+    logger.info("Finished local database search of " + featureTable.getName());
+    return result;
+  }
+
+  /**
+   * Adds the matching annotations of the database to the annotations of the row. An empty
+   * placeholder annotation in the first position is replaced.
+   */
+  private static void annotateRow(@Nonnull FeatureTableRow row,
+      @Nonnull IonAnnotationDatabase database,
+      @Nonnull FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn) {
+    final Double mz = row.getMz();
+    final Float rt = row.getRT();
+    if (mz == null || rt == null)
+      return;
+
+    final List<IonAnnotation> matches = database.getMatchingAnnotations(mz, rt);
+    if (matches.isEmpty())
+      return;
+
+    final List<IonAnnotation> rowIonAnnotations = new ArrayList<>();
+    final List<IonAnnotation> currentIonAnnotations = row.getData(ionAnnotationColumn);
+    if (currentIonAnnotations != null)
+      rowIonAnnotations.addAll(currentIonAnnotations);
+    if (!rowIonAnnotations.isEmpty() && isEmptyAnnotation(rowIonAnnotations.get(0)))
+      rowIonAnnotations.remove(0);
+    rowIonAnnotations.addAll(matches);
+    row.setData(ionAnnotationColumn, rowIonAnnotations);
+  }
+
+  private static boolean isEmptyAnnotation(@Nonnull IonAnnotation ionAnnotation) {
+    return ionAnnotation.getAnnotationId() == null && ionAnnotation.getDescription() == null
+        && ionAnnotation.getExpectedMz() == null && ionAnnotation.getFormula() == null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getFinishedPercentage() {
+    return totalFeatures == 0 ? 0f : (float) processedFeatures.get() / totalFeatures;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nullable FeatureTable getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    this.canceled = true;
+  }
+
+}
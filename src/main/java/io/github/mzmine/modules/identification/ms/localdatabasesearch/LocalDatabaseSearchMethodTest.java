@@ -0,0 +1,160 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+
+package io.github.mzmine.modules.identification.ms.localdatabasesearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+
+public class LocalDatabaseSearchMethodTest {
+
+  private static FeatureTable createFeatureTable(double mzValues[], float rtValues[]) {
+    FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable("Features",
+        DataPointStoreFactory.getMemoryDataStore());
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Float> rtColumn = MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    for (int i = 0; i < mzValues.length; i++) {
+      FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, i + 1);
+      row.setData(idColumn, i + 1);
+      row.setData(mzColumn, mzValues[i]);
+      row.setData(rtColumn, rtValues[i]);
+      featureTable.addRow(row);
+    }
+    return featureTable;
+  }
+
+  @Test
+  public void testSearch() throws MSDKException {
+
+    // Retention times in minutes, the feature table uses seconds
+    String annotations = "id,m/z,rt,name,formula,adduct\n" + "1,332.56,12.88,Compound A\n"
+        + "2,508.004,14.48,Compound B,C6H12O6\n" + "\n" + "3,332.561,12.9,Compound C\n"
+        + "4,362.102,10.72,Compound D\n";
+    List<IonAnnotation> ionAnnotations = LocalDatabase.parse(annotations, ",");
+    Assert.assertEquals(4, ionAnnotations.size());
+    Assert.assertEquals(772.8f, ionAnnotations.get(0).getExpectedRetentionTime(), 0.001f);
+    Assert.assertEquals(772.8f,
+        ionAnnotations.get(0).getChromatographyInfo().getRetentionTime(), 0.001f);
+    Assert.assertNotNull(ionAnnotations.get(1).getFormula());
+
+    LocalDatabase database = new LocalDatabase(ionAnnotations, new MaximumMzTolerance(0.003, 5.0),
+        new RTTolerance(3, true));
+    Assert.assertEquals(4, database.size());
+
+    FeatureTable featureTable = createFeatureTable(new double[] {332.5605, 508.004, 400.0},
+        new float[] {773.5f, 900f, 700f});
+    LocalDatabaseSearchMethod method = new LocalDatabaseSearchMethod(featureTable, database);
+    FeatureTable annotatedTable = method.execute();
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+
+    // The input table is not modified
+    Assert.assertNull(featureTable.getColumn(ColumnName.IONANNOTATION, null));
+
+    FeatureTableColumn<List<IonAnnotation>> ionColumn =
+        annotatedTable.getColumn(ColumnName.IONANNOTATION, null);
+    Assert.assertNotNull(ionColumn);
+    List<FeatureTableRow> rows = annotatedTable.getRows();
+
+    // Both compounds within the tolerances, in database order
+    List<IonAnnotation> rowAnnotations = rows.get(0).getData(ionColumn);
+    Assert.assertEquals(2, rowAnnotations.size());
+    Assert.assertEquals("1", rowAnnotations.get(0).getAnnotationId());
+    Assert.assertEquals("3", rowAnnotations.get(1).getAnnotationId());
+
+    // RT outside of the tolerance, no match
+    Assert.assertNull(rows.get(1).getData(ionColumn));
+    Assert.assertNull(rows.get(2).getData(ionColumn));
+  }
+
+  @Test
+  public void testParallelSearch() throws MSDKException {
+
+    Random random = new Random(1);
+    MaximumMzTolerance mzTolerance = new MaximumMzTolerance(0.002, 5.0);
+    RTTolerance rtTolerance = new RTTolerance(6, true);
+
+    StringBuilder annotations = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      annotations.append(i).append(',').append(100 + random.nextInt(100000) * 0.01).append(',')
+          .append(random.nextInt(3000) / 100f).append(",Compound ").append(i).append('\n');
+    }
+    List<IonAnnotation> ionAnnotations = LocalDatabase.parse(annotations.toString(), ",");
+
+    double mzValues[] = new double[2000];
+    float rtValues[] = new float[2000];
+    for (int i = 0; i < mzValues.length; i++) {
+      IonAnnotation ionAnnotation = ionAnnotations.get(random.nextInt(ionAnnotations.size()));
+      mzValues[i] = ionAnnotation.getExpectedMz() + (random.nextDouble() - 0.5) * 0.006;
+      rtValues[i] = ionAnnotation.getExpectedRetentionTime() + (random.nextFloat() - 0.5f) * 15;
+    }
+    FeatureTable featureTable = createFeatureTable(mzValues, rtValues);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      LocalDatabase database = new LocalDatabase(ionAnnotations, mzTolerance, rtTolerance);
+      LocalDatabaseSearchMethod method =
+          new LocalDatabaseSearchMethod(featureTable, () -> database, executor);
+      featureTable = method.execute();
+    } finally {
+      executor.shutdown();
+    }
+
+    // Compare with matching every row against every annotation
+    FeatureTableColumn<List<IonAnnotation>> ionColumn =
+        featureTable.getColumn(ColumnName.IONANNOTATION, null);
+    int matchedRows = 0;
+    for (FeatureTableRow row : featureTable.getRows()) {
+      List<IonAnnotation> expected = new ArrayList<>();
+      for (IonAnnotation ionAnnotation : ionAnnotations) {
+        Range<Double> mzRange = mzTolerance.getToleranceRange(ionAnnotation.getExpectedMz());
+        Range<Float> rtRange =
+            rtTolerance.getToleranceRange(ionAnnotation.getExpectedRetentionTime());
+        if (mzRange.contains(row.getMz()) && rtRange.contains(row.getRT()))
+          expected.add(ionAnnotation);
+      }
+      List<IonAnnotation> actual = row.getData(ionColumn);
+      if (expected.isEmpty()) {
+        Assert.assertNull(actual);
+      } else {
+        Assert.assertEquals(expected, actual);
+        matchedRows++;
+      }
+    }
+    Assert.assertTrue(matchedRows > 500);
+  }
+
+}
@@ -18,29 +18,25 @@
 
 package io.github.mzmine.modules.identification.ms.localdatabasesearch;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
-import java.util.List;
-import java.util.Scanner;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 
-import org.openscience.cdk.DefaultChemObjectBuilder;
-import org.openscience.cdk.interfaces.IMolecularFormula;
-import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Suppliers;
+
 import io.github.msdk.datamodel.featuretables.FeatureTable;
-import io.github.msdk.datamodel.ionannotations.IonAnnotation;
-import io.github.msdk.datamodel.ionannotations.IonType;
-import io.github.msdk.datamodel.rawdata.SeparationType;
-import io.github.msdk.id.localdatabasesearch.LocalDatabaseSearchMethod;
-import io.github.msdk.util.IonTypeUtil;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
-import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.identification.ms.compoundlibrary.CompoundLibrary;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
 import io.github.mzmine.project.MZmineProject;
@@ -56,7 +52,7 @@ public class LocalDatabaseSearchModule implements MZmineProcessingModule {
 
   private static final String MODULE_NAME = "Local database search";
   private static final String MODULE_DESCRIPTION =
-      "This module searches a local database (CSV or TXT file) using m/z and retention time values.";
+      "This module searches a local database (CSV or TXT file) or a compound library using m/z and retention time values.";
 
   @Override
   public @Nonnull String getName() {
@@ -75,6 +71,9 @@ public class LocalDatabaseSearchModule implements MZmineProcessingModule {
     final FeatureTablesSelection featureTables =
         parameters.getParameter(LocalDatabaseSearchParameters.featureTables).getValue();
 
+    final File compoundLibrary =
+        parameters.getParameter(LocalDatabaseSearchParameters.compoundLibrary).getValue();
+
     final String annotations =
         parameters.getParameter(LocalDatabaseSearchParameters.annotations).getValue();
 
@@ -92,67 +91,41 @@ public class LocalDatabaseSearchModule implements MZmineProcessingModule {
       return;
     }
 
-    // Convert the input annotations into ionAnnotations
-    List<IonAnnotation> ionAnnotations = new ArrayList<IonAnnotation>();
-    Scanner scanner = new Scanner(annotations);
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      if (line != null) {
-
-        // Only process lines which start with an integer
-        char firstChar = line.charAt(0);
-        if (Character.digit(firstChar, 10) >= 0) {
-          String[] lineArray = line.split(separator);
-
-          String annotationId = lineArray[0];
-          Double mz = Double.parseDouble(lineArray[1]);
-          Float rt = Float.parseFloat(lineArray[2]) * 60;
-          String name = lineArray[3];
-
-          // If formula column is present then add chemical structure
-          IMolecularFormula formula = null;
-          if (lineArray.length > 4) {
-            String formulaString = lineArray[4];
-            if (formulaString != null && !formulaString.equals(""))
-              formula = MolecularFormulaManipulator.getMolecularFormula(formulaString,
-                  DefaultChemObjectBuilder.getInstance());
-          }
-
-          // If adduct column is present then add ion type
-          IonType ionType = null;
-
-          if (lineArray.length > 5) {
-            // Expected string format: [M+2H]2+
-            String adductString = lineArray[5];
-            if (adductString != null && !adductString.equals(""))
-              ionType = IonTypeUtil.createIonType(adductString);
-          }
-
-          SimpleIonAnnotation ion = new SimpleIonAnnotation();
-          ion.setAnnotationId(annotationId);
-          ion.setExpectedMz(mz);
-          ion.setDescription(name);
-          ion.setChromatographyInfo(
-              MSDKObjectBuilder.getChromatographyInfo1D(SeparationType.LC, (float) rt));
-          if (ionType != null)
-            ion.setIonType(ionType);
-          if (formula != null)
-            ion.setFormula(formula);
-          ionAnnotations.add(ion);
+    if (compoundLibrary == null && (annotations == null || annotations.trim().isEmpty())) {
+      logger.warn("Local database search module started with no compound library or annotations");
+      return;
+    }
 
+    // The database is opened or parsed and indexed once by the first task, the other tables share
+    // it
+    final Supplier<IonAnnotationDatabase> database;
+    if (compoundLibrary != null) {
+      database = Suppliers.memoize(() -> {
+        try {
+          return CompoundLibrary.open(compoundLibrary).search(mzTolerance, rtTolerance);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
         }
-
-      }
+      });
+    } else {
+      database = Suppliers.memoize(() -> new LocalDatabase(
+          LocalDatabase.parse(annotations, separator), mzTolerance, rtTolerance));
     }
-    scanner.close();
 
-    // Run LocalDatabaseSearchMethod
-    MSDKTask newTask = null;
+    // Run LocalDatabaseSearchMethod, the rows of each table are matched in parallel
     for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
-      LocalDatabaseSearchMethod method =
-          new LocalDatabaseSearchMethod(featureTable, ionAnnotations, mzTolerance, rtTolerance);
-
-      newTask = new MSDKTask("Importing feature table file", featureTable.getName(), method);
+      LocalDatabaseSearchMethod method = new LocalDatabaseSearchMethod(featureTable, database,
+          MZmineCore.getTaskExecutor().getCpuExecutor());
+
+      MSDKTask newTask =
+          new MSDKTask("Searching local database", featureTable.getName(), method);
+
+      // Replace the feature table with the annotated table
+      newTask.setOnSucceeded(e -> {
+        FeatureTable newFeatureTable = method.getResult();
+        project.removeFeatureTable(featureTable);
+        project.addFeatureTable(newFeatureTable);
+      });
 
       tasks.add(newTask);
     }
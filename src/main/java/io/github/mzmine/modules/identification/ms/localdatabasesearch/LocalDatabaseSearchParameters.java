@@ -26,6 +26,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.ParameterValidator;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
 import io.github.mzmine.parameters.parametertypes.TextAreaParameter;
+import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesParameter;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZToleranceParameter;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTToleranceParameter;
@@ -39,6 +40,13 @@ public class LocalDatabaseSearchParameters extends ParameterSet {
       new ExtensionFilter[] {new ExtensionFilter("All supported files", "*.csv", "*.txt"),
           new ExtensionFilter("CSV files", "*.csv"), new ExtensionFilter("TXT files", "*.txt")};
 
+  public static final FileNameParameter compoundLibrary = new FileNameParameter(
+      "Compound library",
+      "Compound library file compiled by the Compile compound library module.\n"
+          + "If set, the library is searched instead of the annotations below.",
+      "Features", null, FileNameParameter.Type.OPEN,
+      Arrays.asList(new ExtensionFilter("MZmine compound libraries", "*.mzlib")));
+
   public static final TextAreaParameter annotations = new TextAreaParameter("Annotations",
       "Annotated features to use for identification. Any line not starting with a number will be ignored.\n"
           + "The following input formats are accepted:\n"
@@ -46,7 +54,7 @@ public class LocalDatabaseSearchParameters extends ParameterSet {
           + "id, m/z, retention time, compound name, formula\n"
           + "id, m/z, retention time, compound name, formula, adduct\n\n"
           + "Optional columns are supported but have to be present after the adduct column.",
-      "Features", ParameterValidator.createNonEmptyValidator(), Arrays.asList(filters));
+      "Features", null, Arrays.asList(filters));
 
   public static final StringParameter separator = new StringParameter("Field separator",
       "Character(s) used to separate fields in the feature list", "Features",
@@ -68,7 +76,7 @@ public class LocalDatabaseSearchParameters extends ParameterSet {
    * Create the parameter set.
    */
   public LocalDatabaseSearchParameters() {
-    super(featureTables, annotations, separator, mzTolerance, rtTolerance);
+    super(featureTables, compoundLibrary, annotations, separator, mzTolerance, rtTolerance);
   }
 
 }
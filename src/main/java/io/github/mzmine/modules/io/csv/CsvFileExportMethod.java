@@ -13,9 +13,21 @@
 
 package io.github.mzmine.modules.io.csv;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -56,25 +68,27 @@ public class CsvFileExportMethod implements MSDKMethod<File> {
   private @Nonnull List<FeatureTableColumn<?>> columns;
   String newLine = System.lineSeparator();
 
-  // Ion Annotation information variables
-  String ionVal1;
-  String ionVal2;
-  String ionVal3;
-  String ionVal4;
-  String ionVal5;
-  String ionVal6;
-  String ionVal7;
-  String ionVal8;
-  String ionVal9;
-  String ionVal10;
-  String ionVal11;
-  String ionVal12;
-  String ionVal13;
-  String ionVal14;
+  // Additional columns written after the ion annotation column
+  private static final String ION_COLUMNS[] = {"Expected m/z value", "Formula", "Ion type",
+      "Reliability", "SMILES", "InChI key", "Taxonomy id", "Species", "Database",
+      "Database version", "SpectraRef", "Search engine", "Best search engine score",
+      "Modifications"};
+
+  // Size of the buffer used when writing the file
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  // Number of rows formatted by one formatting job
+  private static final int ROWS_PER_CHUNK = 512;
+
+  // Maximum number of formatted chunks waiting to be written
+  private static final int MAX_CHUNKS_AHEAD = 32;
+
+  // Executor formatting the chunks of rows
+  private final @Nonnull Executor formatExecutor;
 
   // Other variables
-  private int parsedRows, totalRows = 0;
-  private boolean canceled = false;
+  private volatile int parsedRows, totalRows = 0;
+  private volatile boolean canceled = false;
 
   /**
    * <p>
@@ -91,12 +105,34 @@ public class CsvFileExportMethod implements MSDKMethod<File> {
   public CsvFileExportMethod(@Nonnull FeatureTable featureTable, @Nonnull File csvFile,
       @Nonnull String separator, @Nonnull String itemSeparator, @Nonnull Boolean exportAllIds,
       List<FeatureTableColumn<?>> columns) {
+    this(featureTable, csvFile, separator, itemSeparator, exportAllIds, columns, Runnable::run);
+  }
+
+  /**
+   * <p>
+   * Constructor for CsvFileExportMethod which formats the rows in parallel. The rows are split
+   * into chunks which are formatted by the given executor and written to the file in the table
+   * order.
+   * </p>
+   *
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param csvFile a {@link java.io.File} object.
+   * @param separator a {@link java.lang.String} object.
+   * @param itemSeparator a {@link java.lang.String} object.
+   * @param exportAllIds a {@link java.lang.Boolean} object.
+   * @param columns a {@link java.util.List} object.
+   * @param formatExecutor a {@link java.util.concurrent.Executor} formatting the rows.
+   */
+  public CsvFileExportMethod(@Nonnull FeatureTable featureTable, @Nonnull File csvFile,
+      @Nonnull String separator, @Nonnull String itemSeparator, @Nonnull Boolean exportAllIds,
+      List<FeatureTableColumn<?>> columns, @Nonnull Executor formatExecutor) {
     this.featureTable = featureTable;
     this.csvFile = csvFile;
     this.separator = separator;
     this.itemSeparator = itemSeparator;
     this.exportAllIds = exportAllIds;
     this.columns = columns;
+    this.formatExecutor = formatExecutor;
   }
 
   /** {@inheritDoc} */
@@ -106,37 +142,45 @@ public class CsvFileExportMethod implements MSDKMethod<File> {
     logger.info("Started exporting " + featureTable.getName() + " to " + csvFile);
 
     // Open file
-    FileWriter writer;
+    Writer writer;
     try {
-      writer = new FileWriter(csvFile);
+      FileChannel channel = FileChannel.open(csvFile.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      writer = new BufferedWriter(
+          Channels.newWriter(channel,
+              Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                  .onUnmappableCharacter(CodingErrorAction.REPLACE),
+              -1),
+          WRITE_BUFFER_SIZE);
     } catch (Exception e) {
       logger.info("Could not open file " + csvFile + " for writing.");
       return null;
     }
 
-    // Get number of rows
-    totalRows = featureTable.getRows().size();
-
-    // Write data to CSV file
-    writeData(featureTable, writer);
+    // Get the rows once, the same list is used by all formatting jobs
+    List<FeatureTableRow> rows = featureTable.getRows();
+    totalRows = rows.size();
 
-    // Close file
-    try {
-      writer.close();
-    } catch (Exception e) {
-      logger.info("Could not close file " + csvFile);
+    // Write data to CSV file, the file is closed when done
+    try (Writer fileWriter = writer) {
+      writeData(rows, fileWriter);
+    } catch (IOException e) {
+      logger.info("Could not write to file " + csvFile);
       return null;
     }
 
     return csvFile;
   }
 
-  private void writeData(FeatureTable featureTable, FileWriter writer) {
+  private void writeData(List<FeatureTableRow> rows, Writer writer) throws IOException {
 
     // Buffer for writing
-    StringBuffer line = new StringBuffer();
+    StringBuilder line = new StringBuilder();
 
-    Boolean writeIonAnnotation = false;
+    // Resolve the formatter of each column once
+    final FeatureTableColumn<?> ionAnnotationColumn =
+        featureTable.getColumn(ColumnName.IONANNOTATION, null);
+    final List<ColumnFormatter> formatters = new ArrayList<>(columns.size());
 
     // Write column headers
     for (FeatureTableColumn<?> column : columns) {
@@ -148,286 +192,220 @@ public class CsvFileExportMethod implements MSDKMethod<File> {
         columnName = sample.getName() + " " + columnName;
       }
 
-      line.append(escapeStringForCSV(columnName) + separator);
+      line.append(escapeStringForCSV(columnName)).append(separator);
 
       // Add additional columns related to the IonAnnotation
-      if (column == featureTable.getColumn(ColumnName.IONANNOTATION, null)) {
-        String[] ionColumns = new String[14];
-        ionColumns[0] = "Expected m/z value";
-        ionColumns[1] = "Formula";
-        ionColumns[2] = "Ion type";
-        ionColumns[3] = "Reliability";
-        ionColumns[4] = "SMILES";
-        ionColumns[5] = "InChI key";
-        ionColumns[6] = "Taxonomy id";
-        ionColumns[7] = "Species";
-        ionColumns[8] = "Database";
-        ionColumns[9] = "Database version";
-        ionColumns[10] = "SpectraRef";
-        ionColumns[11] = "Search engine";
-        ionColumns[12] = "Best search engine score";
-        ionColumns[13] = "Modifications";
-
-        for (String s : ionColumns)
-          line.append(escapeStringForCSV(s) + separator);
-
-        writeIonAnnotation = true;
+      if (column == ionAnnotationColumn) {
+        for (String s : ION_COLUMNS)
+          line.append(escapeStringForCSV(s)).append(separator);
+        formatters.add((row, rowLine) -> {
+          Object value = row.getData(column);
+          appendValue(value, rowLine);
+          appendIonAnnotationData(value, rowLine);
+        });
+      } else {
+        formatters.add((row, rowLine) -> appendValue(row.getData(column), rowLine));
       }
     }
 
-    // Remove last separator
-    String stringLine = removeLastCharacter(line.toString());
-
-    // Write the line to the CSV file
-    try {
-      writer.write(stringLine);
-    } catch (Exception e) {
-      logger.info("Could not write to file " + csvFile);
-      return;
-    }
+    // Write the line without the last separator to the CSV file
+    writer.write(removeLastCharacter(line.toString()));
 
     if (canceled)
       return;
 
-    // Write data values
-    List<FeatureTableRow> rows = featureTable.getRows();
-    for (FeatureTableRow row : rows) {
-
-      // Reset the buffer
-      line.setLength(0);
-
-      // Loop through all columns
-      for (FeatureTableColumn<?> column : columns) {
-        Object object = row.getData(column);
-        String strValue = "";
-        ionVal1 = "";
-        ionVal2 = "";
-        ionVal3 = "";
-        ionVal4 = "";
-        ionVal5 = "";
-        ionVal6 = "";
-        ionVal7 = "";
-        ionVal8 = "";
-        ionVal9 = "";
-        ionVal10 = "";
-        ionVal11 = "";
-        ionVal12 = "";
-        ionVal13 = "";
-        ionVal14 = "";
-        Boolean writeIonData = false;
-
-        if (object == null) {
-          strValue = "";
+    // Write data values. The chunks are formatted ahead by the executor and written in the order
+    // of the rows, with a limited number of formatted chunks kept in memory.
+    final Deque<CompletableFuture<String>> pendingChunks = new ArrayDeque<>();
+    final Deque<Integer> pendingChunkSizes = new ArrayDeque<>();
+    int nextRow = 0;
+    try {
+      while (nextRow < rows.size() || !pendingChunks.isEmpty()) {
+
+        while (nextRow < rows.size() && pendingChunks.size() < MAX_CHUNKS_AHEAD) {
+          final int chunkStart = nextRow;
+          final int chunkEnd = Math.min(rows.size(), chunkStart + ROWS_PER_CHUNK);
+          pendingChunks.add(CompletableFuture.supplyAsync(
+              () -> formatRows(rows, chunkStart, chunkEnd, formatters), formatExecutor));
+          pendingChunkSizes.add(chunkEnd - chunkStart);
+          nextRow = chunkEnd;
         }
-        // List
-        else if (object instanceof List<?>) {
-          strValue = "";
-          List<?> list = (List<?>) object;
-          for (Object obj : list) {
-            if (strValue != "")
-              strValue = strValue + itemSeparator;
-
-            // Ion annotations
-            if (obj instanceof IonAnnotation) {
-              IonAnnotation ionAnnotation = (IonAnnotation) obj;
-              if (ionAnnotation.getDescription() != null)
-                strValue = strValue + ionAnnotation.getDescription();
-              else
-                strValue = strValue + ionAnnotation.getAnnotationId();
-
-              // Add additional data related to the IonAnnotation
-              if (writeIonAnnotation) {
-                getAdditionalIonAnnotationData(ionAnnotation);
-                writeIonData = true;
-              }
-
-              if (!exportAllIds)
-                break;
-            } else {
-              strValue = strValue + obj.toString();
-            }
-          }
 
-        }
-        // Everything else
-        else {
-          strValue = object.toString();
-        }
+        String chunk = pendingChunks.poll().join();
+        writer.write(chunk);
+        parsedRows += pendingChunkSizes.poll();
 
-        line.append(strValue + separator);
-
-        if (writeIonData) {
-          line.append(ionVal1 + separator);
-          line.append(ionVal2 + separator);
-          line.append(ionVal3 + separator);
-          line.append(ionVal4 + separator);
-          line.append(ionVal5 + separator);
-          line.append(ionVal6 + separator);
-          line.append(ionVal7 + separator);
-          line.append(ionVal8 + separator);
-          line.append(ionVal9 + separator);
-          line.append(ionVal10 + separator);
-          line.append(ionVal11 + separator);
-          line.append(ionVal12 + separator);
-          line.append(ionVal13 + separator);
-          line.append(ionVal14 + separator);
-        }
+        if (canceled)
+          return;
       }
+    } finally {
+      for (CompletableFuture<String> pendingChunk : pendingChunks)
+        pendingChunk.cancel(false);
+    }
 
-      // Remove last separator
-      stringLine = removeLastCharacter(line.toString());
-
-      // Write the line to the CSV file
-      try {
-        writer.write(newLine + stringLine);
-      } catch (Exception e) {
-        logger.info("Could not write to file " + csvFile);
-        return;
-      }
+  }
+
+  /**
+   * Formats the rows from start (inclusive) to end (exclusive), each one preceded by a new line.
+   */
+  private @Nonnull String formatRows(@Nonnull List<FeatureTableRow> rows, int start, int end,
+      @Nonnull List<ColumnFormatter> formatters) {
+    StringBuilder chunk = new StringBuilder();
+    for (int i = start; i < end; i++) {
+      chunk.append(newLine);
+      int lineStart = chunk.length();
 
-      if (canceled)
-        return;
+      // Loop through all columns
+      for (ColumnFormatter formatter : formatters)
+        formatter.format(rows.get(i), chunk);
 
-      parsedRows++;
+      // Remove last separator
+      if (chunk.length() > lineStart)
+        chunk.setLength(chunk.length() - separator.length());
     }
+    return chunk.toString();
+  }
 
+  /**
+   * Appends the value of a cell followed by the separator.
+   */
+  private void appendValue(@Nullable Object object, @Nonnull StringBuilder line) {
+    // List
+    if (object instanceof List<?>) {
+      boolean firstItem = true;
+      for (Object obj : (List<?>) object) {
+        if (!firstItem)
+          line.append(itemSeparator);
+        firstItem = false;
+
+        // Ion annotations
+        if (obj instanceof IonAnnotation) {
+          IonAnnotation ionAnnotation = (IonAnnotation) obj;
+          if (ionAnnotation.getDescription() != null)
+            line.append(ionAnnotation.getDescription());
+          else
+            line.append(ionAnnotation.getAnnotationId());
+
+          if (!exportAllIds)
+            break;
+        } else {
+          line.append(obj);
+        }
+      }
+    }
+    // Everything else
+    else if (object != null) {
+      line.append(object);
+    }
+
+    line.append(separator);
   }
 
-  private void getAdditionalIonAnnotationData(IonAnnotation ionAnnotation) {
-    // Expected m/z value
-    if (ionVal1 != "")
-      ionVal1 = ionVal1 + itemSeparator;
-    Double expectedMz = ionAnnotation.getExpectedMz();
-    if (expectedMz != null)
-      ionVal1 += expectedMz;
-    else
-      ionVal1 += "";
-
-    // Formula
-    if (ionVal2 != "")
-      ionVal2 = ionVal2 + itemSeparator;
-    IMolecularFormula cdkFormula = ionAnnotation.getFormula();
-    if (cdkFormula != null) {
-      String formula = MolecularFormulaManipulator.getString(cdkFormula);
-      ionVal2 += formula;
-    } else
-      ionVal2 += "";
-
-    // Ion type
-    if (ionVal3 != "")
-      ionVal3 = ionVal3 + itemSeparator;
-    IonType ionType = ionAnnotation.getIonType();
-    if (ionType != null)
-      ionVal3 += ionType.getName();
-    else
-      ionVal3 += "";
-
-    // Reliability
-    if (ionVal4 != "")
-      ionVal4 = ionVal4 + itemSeparator;
-    Integer ionReliability = ionAnnotation.getReliability();
-    if (ionReliability != null)
-      ionVal4 += ionReliability.toString();
-    else
-      ionVal4 += "";
-
-    // Chemical structure = SMILES
-    if (ionVal5 != "")
-      ionVal5 = ionVal5 + itemSeparator;
-    IAtomContainer checmicalStructure = ionAnnotation.getChemicalStructure();
-    SmilesGenerator sg = SmilesGenerator.generic();
-
-    if (checmicalStructure != null) {
-      try {
-        ionVal5 += sg.create(checmicalStructure);
-      } catch (CDKException e) {
-        logger.info("Could not create SMILE for " + ionAnnotation.getDescription());
-        return;
+  /**
+   * Appends the additional ion annotation columns, each followed by the separator. Empty columns
+   * are written if the value holds no ion annotation, so the following columns stay aligned with
+   * the header.
+   */
+  private void appendIonAnnotationData(@Nullable Object object, @Nonnull StringBuilder line) {
+    for (int field = 0; field < ION_COLUMNS.length; field++) {
+      if (object instanceof List<?>) {
+        boolean firstItem = true;
+        for (Object obj : (List<?>) object) {
+          if (!(obj instanceof IonAnnotation))
+            continue;
+          if (!firstItem)
+            line.append(itemSeparator);
+          firstItem = false;
+
+          appendIonAnnotationField(field, (IonAnnotation) obj, line);
+
+          if (!exportAllIds)
+            break;
+        }
       }
-    } else
-      ionVal5 += "";
-
-    // InChI key
-    if (ionVal6 != "")
-      ionVal6 = ionVal6 + itemSeparator;
-    String ionInchiKey = ionAnnotation.getInchiKey();
-    if (ionInchiKey != null)
-      ionVal6 += ionInchiKey;
-    else
-      ionVal6 += "";
-
-    // Taxonomy id
-    if (ionVal7 != "")
-      ionVal7 = ionVal7 + itemSeparator;
-    Integer ionTaxonomyId = ionAnnotation.getTaxId();
-    if (ionTaxonomyId != null)
-      ionVal7 += ionTaxonomyId.toString();
-    else
-      ionVal7 += "";
-
-    // Species
-    if (ionVal8 != "")
-      ionVal8 = ionVal8 + itemSeparator;
-    String ionSpecies = ionAnnotation.getSpecies();
-    if (ionSpecies != null)
-      ionVal8 += ionSpecies;
-    else
-      ionVal8 += "";
-
-    // Database
-    if (ionVal9 != "")
-      ionVal9 = ionVal9 + itemSeparator;
-    String ionDatabase = ionAnnotation.getDatabase();
-    if (ionDatabase != null)
-      ionVal9 += ionDatabase;
-    else
-      ionVal9 += "";
-
-    // Database version
-    if (ionVal10 != "")
-      ionVal10 = ionVal10 + itemSeparator;
-    String ionDatabaseVersion = ionAnnotation.getDatabaseVersion();
-    if (ionDatabaseVersion != null)
-      ionVal10 += ionDatabaseVersion;
-    else
-      ionVal10 += "";
-
-    // Spectra Ref
-    if (ionVal11 != "")
-      ionVal11 = ionVal11 + itemSeparator;
-    String ionSpectraRef = ionAnnotation.getSpectraRef();
-    if (ionSpectraRef != null)
-      ionVal11 += ionSpectraRef;
-    else
-      ionVal11 += "";
-
-    // Search engine
-    if (ionVal12 != "")
-      ionVal12 = ionVal12 + itemSeparator;
-    String ionSearchEngine = ionAnnotation.getSearchEngine();
-    if (ionSearchEngine != null)
-      ionVal12 += ionSearchEngine;
-    else
-      ionVal12 += "";
-
-    // Best search engine score
-    if (ionVal13 != "")
-      ionVal13 = ionVal13 + itemSeparator;
-    Double ionSearchEngineScore = ionAnnotation.getBestSearchEngineScore();
-    if (ionSearchEngineScore != null)
-      ionVal13 += ionSearchEngineScore.toString();
-    else
-      ionVal13 += "";
-
-    // Modifications
-    if (ionVal14 != "")
-      ionVal14 = ionVal14 + itemSeparator;
-    String ionModifications = ionAnnotation.getModifications();
-    if (ionModifications != null)
-      ionVal14 += ionModifications;
-    else
-      ionVal14 += "";
+      line.append(separator);
+    }
+  }
 
+  /**
+   * Appends one of the {@link #ION_COLUMNS} values of the ion annotation, or nothing if the value
+   * is not set.
+   */
+  private void appendIonAnnotationField(int field, @Nonnull IonAnnotation ionAnnotation,
+      @Nonnull StringBuilder line) {
+    Object value = null;
+    switch (field) {
+      case 0:
+        // Expected m/z value
+        value = ionAnnotation.getExpectedMz();
+        break;
+      case 1:
+        // Formula
+        IMolecularFormula cdkFormula = ionAnnotation.getFormula();
+        if (cdkFormula != null)
+          value = MolecularFormulaManipulator.getString(cdkFormula);
+        break;
+      case 2:
+        // Ion type
+        IonType ionType = ionAnnotation.getIonType();
+        if (ionType != null)
+          value = ionType.getName();
+        break;
+      case 3:
+        // Reliability
+        value = ionAnnotation.getReliability();
+        break;
+      case 4:
+        // Chemical structure = SMILES
+        IAtomContainer chemicalStructure = ionAnnotation.getChemicalStructure();
+        if (chemicalStructure != null) {
+          try {
+            value = SmilesGenerator.generic().create(chemicalStructure);
+          } catch (CDKException e) {
+            logger.info("Could not create SMILE for " + ionAnnotation.getDescription());
+          }
+        }
+        break;
+      case 5:
+        // InChI key
+        value = ionAnnotation.getInchiKey();
+        break;
+      case 6:
+        // Taxonomy id
+        value = ionAnnotation.getTaxId();
+        break;
+      case 7:
+        // Species
+        value = ionAnnotation.getSpecies();
+        break;
+      case 8:
+        // Database
+        value = ionAnnotation.getDatabase();
+        break;
+      case 9:
+        // Database version
+        value = ionAnnotation.getDatabaseVersion();
+        break;
+      case 10:
+        // Spectra Ref
+        value = ionAnnotation.getSpectraRef();
+        break;
+      case 11:
+        // Search engine
+        value = ionAnnotation.getSearchEngine();
+        break;
+      case 12:
+        // Best search engine score
+        value = ionAnnotation.getBestSearchEngineScore();
+        break;
+      case 13:
+        // Modifications
+        value = ionAnnotation.getModifications();
+        break;
+    }
+
+    if (value != null)
+      line.append(value);
   }
 
   private String escapeStringForCSV(final String inputString) {
@@ -460,6 +438,15 @@ public class CsvFileExportMethod implements MSDKMethod<File> {
     return str;
   }
 
+  /**
+   * Appends the value(s) of a column in the given row to the line, each followed by the
+   * separator. One formatter is created for each exported column.
+   */
+  @FunctionalInterface
+  private interface ColumnFormatter {
+    void format(@Nonnull FeatureTableRow row, @Nonnull StringBuilder line);
+  }
+
   /** {@inheritDoc} */
   @Override
   @Nullable
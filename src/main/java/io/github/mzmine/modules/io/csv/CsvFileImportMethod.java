@@ -13,9 +13,14 @@
 
 package io.github.mzmine.modules.io.csv;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -30,8 +35,6 @@ import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.io.Files;
-
 import io.github.msdk.MSDKException;
 import io.github.msdk.MSDKMethod;
 import io.github.msdk.datamodel.datastore.DataPointStore;
@@ -41,10 +44,12 @@ import io.github.msdk.datamodel.featuretables.FeatureTableRow;
 import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
-import io.github.msdk.util.FeatureTableUtil;
 import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
+import io.github.mzmine.datamodel.ColumnarFeatureTableRow;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.datamodel.SimpleSample;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * <p>
@@ -55,12 +60,25 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
 
   private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-  private int parsedLines, totalLines = 0;
+  // Size of the buffer used when reading the file
+  private static final int READ_BUFFER_SIZE = 1 << 16;
+
+  // Number of lines between updates of the parsed byte count
+  private static final int PROGRESS_UPDATE_LINES = 1000;
+
+  // Powers of ten which are exact in double and float precision
+  private static final double DOUBLE_POWERS_OF_TEN[] = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+      1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+  private static final float FLOAT_POWERS_OF_TEN[] =
+      {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+  private int parsedLines = 0;
+  private volatile long parsedBytes, totalBytes = 0;
   private int parsedColumns, totalColumns = 0;
 
   private final @Nonnull File sourceFile;
   private final @Nonnull DataPointStore dataStore;
-  private @Nonnull String separator = ",";
+  private char separator = ',';
 
   // Columns maps to keep track of column names and sample names
   private Map<Integer, String> columnNames = new HashMap<Integer, String>();
@@ -68,7 +86,7 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
   private Map<Integer, FeatureTableColumn<?>> columns =
       new HashMap<Integer, FeatureTableColumn<?>>();
 
-  private FeatureTable newFeatureTable;
+  private ColumnarFeatureTable newFeatureTable;
   private final Sample fileSample;
   private boolean canceled = false;
 
@@ -98,168 +116,331 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
     }
 
     String fileName = sourceFile.getName();
-    newFeatureTable = MSDKObjectBuilder.getFeatureTable(fileName, dataStore);
+    newFeatureTable = new ColumnarFeatureTable(fileName, dataStore);
+
+    // Stream the file line by line, so the memory use does not depend on the file size
+    try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+        BufferedReader reader = new BufferedReader(
+            Channels.newReader(channel,
+                Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE),
+                -1),
+            READ_BUFFER_SIZE)) {
+
+      totalBytes = channel.size();
+
+      // The first line contains the column names and sample names
+      String line = reader.readLine();
+      if (line != null) {
+        // Find the separator used in the header
+        separator = findSeparator(line);
+
+        // Extract the column names and sample names from the input
+        String header[] = splitLine(line);
+        findNames(header);
+
+        // Add the columns to the feature table and resolve the parser of each column
+        final CellParser parsers[] = createParsers(header.length);
+
+        int rowId = 0;
+        while ((line = reader.readLine()) != null) {
+
+          // Feature table row
+          rowId++;
+          ColumnarFeatureTableRow row = newFeatureTable.createRow(rowId);
+          newFeatureTable.addRow(row);
+
+          // Loop through all the cells and add them to the row
+          final int lineLength = line.length();
+          int cellStart = 0;
+          for (int i = 0; cellStart <= lineLength && i < parsers.length; i++) {
+            int cellEnd = line.indexOf(separator, cellStart);
+            if (cellEnd < 0)
+              cellEnd = lineLength;
+
+            // Ignore null values
+            final int cellLength = cellEnd - cellStart;
+            if (cellLength > 0 && !(cellLength == 4 && line.startsWith("null", cellStart)))
+              parsers[i].parse(row, line, cellStart, cellEnd);
+
+            cellStart = cellEnd + 1;
+          }
+
+          parsedLines++;
+          if (parsedLines % PROGRESS_UPDATE_LINES == 0)
+            parsedBytes = channel.position();
+
+          // Check if cancel is requested
+          if (canceled)
+            return null;
+        }
+      }
+
+      parsedBytes = totalBytes;
 
-    // Read all lines from the CSV file into an array
-    final List<String> lines;
-    try {
-      lines = Files.asCharSource(sourceFile, Charset.defaultCharset()).readLines();
     } catch (IOException ex) {
       throw new MSDKException(ex);
     }
 
-    // Update total lines
-    totalLines = lines.size();
+    // Update average row m/z and RT values. This will also create the
+    // columns if they are missing.
+    FeatureTableUtil.recalculateAverages(newFeatureTable);
 
-    int rowId = 0;
+    return newFeatureTable;
 
-    boolean firstLine = true;
-    for (String line : lines) {
+  }
 
-      // If first line the extract column names and sample names
-      if (firstLine) {
-        // Find the separator used in the header
-        separator = findSeparator(line);
+  private char findSeparator(String line) {
+    // Default is a comma ","
+    char result = ',';
 
-        // Extract the column names and sample names from the input
-        findNames(line);
+    // Tab
+    if (line.indexOf('\t') >= 0)
+      result = '\t';
 
-        // Add the columns to the feature table
-        for (int i = 0; i < columnNames.size(); i++) {
-          String columnName = columnNames.get(i);
-          Sample sample = sampleNames.get(i);
+    return result;
+  }
 
-          // Remove the sample name from the column name
-          if (sample != null) {
-            columnName = columnName.replace(sample.getName(), "");
-            if (columnName.startsWith(" "))
-              columnName = columnName.substring(1, columnName.length());
-          }
+  /**
+   * Splits the line at the separator. Only used for the header, data lines are tokenized in place.
+   */
+  private @Nonnull String[] splitLine(@Nonnull String line) {
+    List<String> tokens = new ArrayList<String>();
+    int tokenStart = 0;
+    int tokenEnd;
+    while ((tokenEnd = line.indexOf(separator, tokenStart)) >= 0) {
+      tokens.add(line.substring(tokenStart, tokenEnd));
+      tokenStart = tokenEnd + 1;
+    }
+    tokens.add(line.substring(tokenStart));
 
-          // Map the column name to the MSDK ColumnName
-          FeatureTableColumn<?> column = createNewColumn(columnName, sample);
-
-          // Make sure that there is only on ion annotation column
-          FeatureTableColumn<?> ionAnnotationColumn =
-              newFeatureTable.getColumn(ColumnName.IONANNOTATION, null);
-          if (column.getName().equals(ColumnName.IONANNOTATION.getName())) {
-            if (ionAnnotationColumn != null)
-              column = ionAnnotationColumn;
-            else
-              // Add the column to the feature table
-              newFeatureTable.addColumn(column);
-          } else {
-            // Add the column to the feature table
-            newFeatureTable.addColumn(column);
-          }
+    // Ignore empty trailing columns
+    while (!tokens.isEmpty() && tokens.get(tokens.size() - 1).isEmpty())
+      tokens.remove(tokens.size() - 1);
 
-          // Add the column to the map
-          columns.put(i, column);
-        }
+    return tokens.toArray(new String[tokens.size()]);
+  }
 
-        firstLine = false;
+  /**
+   * Adds the columns found in the header to the feature table and returns the parser of each
+   * column, so the data type of a column is only looked up once.
+   */
+  private @Nonnull CellParser[] createParsers(int columnCount) {
 
-      } else {
+    final CellParser parsers[] = new CellParser[columnCount];
 
-        // Feature table row
-        rowId++;
-        FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(newFeatureTable, rowId);
-        newFeatureTable.addRow(row);
-
-        // Split string based on separator
-        String[] data = line.split(separator);
-
-        // Loop through all the data and add it to the row
-        for (int i = 0; i < data.length; i++) {
-          String stringData = data[i];
-
-          // Ignore null values
-          if (stringData.equals("") || stringData.equals("null"))
-            continue;
-
-          Object objectData = null;
-          FeatureTableColumn currentColumn = columns.get(i);
-          Class<?> currentClass = currentColumn.getDataTypeClass();
-
-          if (currentClass.getSimpleName().equals("List")) {
-            FeatureTableColumn<List<SimpleIonAnnotation>> ionAnnotationColumn =
-                newFeatureTable.getColumn(ColumnName.IONANNOTATION, null);
-            List<SimpleIonAnnotation> ionAnnotations = row.getData(ionAnnotationColumn);
-            SimpleIonAnnotation ionAnnotation;
-
-            // Get ion annotation or create a new
-            if (ionAnnotations != null) {
-              ionAnnotation = ionAnnotations.get(0);
-            } else {
-              ionAnnotation = new SimpleIonAnnotation();
-            }
+    for (int i = 0; i < columnCount; i++) {
+      String columnName = columnNames.get(i);
+      Sample sample = sampleNames.get(i);
 
-            switch (columnNames.get(i).toLowerCase()) {
-              case "name":
-                ionAnnotation.setDescription(stringData);
-                break;
-              case "molecular formula":
-                // Create chemical structure
-                IMolecularFormula formula = MolecularFormulaManipulator
-                    .getMolecularFormula(stringData, DefaultChemObjectBuilder.getInstance());
-                ionAnnotation.setFormula(formula);
-                break;
-            }
+      // Remove the sample name from the column name
+      if (sample != null) {
+        columnName = columnName.replace(sample.getName(), "");
+        if (columnName.startsWith(" "))
+          columnName = columnName.substring(1, columnName.length());
+      }
 
-            // Add the data
-            List<IonAnnotation> newIonAnnotations = new ArrayList<IonAnnotation>();
-            newIonAnnotations.add(ionAnnotation);
-            row.setData(currentColumn, newIonAnnotations);
+      // Map the column name to the MSDK ColumnName
+      FeatureTableColumn<?> column = createNewColumn(columnName, sample);
+
+      // Make sure that there is only on ion annotation column
+      FeatureTableColumn<?> ionAnnotationColumn =
+          newFeatureTable.getColumn(ColumnName.IONANNOTATION, null);
+      if (column.getName().equals(ColumnName.IONANNOTATION.getName())) {
+        if (ionAnnotationColumn != null)
+          column = ionAnnotationColumn;
+        else
+          // Add the column to the feature table
+          newFeatureTable.addColumn(column);
+      } else {
+        // Add the column to the feature table
+        newFeatureTable.addColumn(column);
+      }
 
-          } else {
-            switch (currentClass.getSimpleName()) {
-              case "Integer":
-                objectData = Integer.parseInt(stringData);
-                break;
-              case "Double":
-                objectData = Double.parseDouble(stringData);
-                break;
-              case "Float":
-                objectData = Float.parseFloat(stringData);
-                break;
-              default:
-                objectData = stringData;
-                break;
-            }
-            // Add the data
-            row.setData(currentColumn, objectData);
+      // Add the column to the map
+      columns.put(i, column);
 
-          }
+      parsers[i] = createParser(column, columnNames.get(i));
+    }
 
-        }
+    return parsers;
+  }
 
+  @SuppressWarnings("unchecked")
+  private @Nonnull CellParser createParser(@Nonnull FeatureTableColumn<?> column,
+      @Nonnull String columnName) {
+
+    final Class<?> dataType = column.getDataTypeClass();
+
+    if (List.class.equals(dataType)) {
+      final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+          (FeatureTableColumn<List<IonAnnotation>>) column;
+      switch (columnName.toLowerCase()) {
+        case "name":
+          return (row, line, start, end) -> getIonAnnotation(row, ionAnnotationColumn)
+              .setDescription(line.substring(start, end));
+        case "molecular formula":
+          return (row, line, start, end) -> {
+            // Create chemical structure
+            IMolecularFormula formula = MolecularFormulaManipulator.getMolecularFormula(
+                line.substring(start, end), DefaultChemObjectBuilder.getInstance());
+            getIonAnnotation(row, ionAnnotationColumn).setFormula(formula);
+          };
+        default:
+          // Make sure the row has an ion annotation
+          return (row, line, start, end) -> getIonAnnotation(row, ionAnnotationColumn);
       }
+    }
+
+    if (Integer.class.equals(dataType)) {
+      final FeatureTableColumn<Integer> intColumn = (FeatureTableColumn<Integer>) column;
+      return (row, line, start, end) -> row.setData(intColumn, parseInt(line, start, end));
+    }
+    if (Double.class.equals(dataType)) {
+      final FeatureTableColumn<Double> doubleColumn = (FeatureTableColumn<Double>) column;
+      return (row, line, start, end) -> row.setDouble(doubleColumn,
+          parseDecimal(line, start, end, false));
+    }
+    if (Float.class.equals(dataType)) {
+      final FeatureTableColumn<Float> floatColumn = (FeatureTableColumn<Float>) column;
+      return (row, line, start, end) -> row.setFloat(floatColumn,
+          (float) parseDecimal(line, start, end, true));
+    }
 
-      parsedLines++;
+    final FeatureTableColumn<Object> objectColumn = (FeatureTableColumn<Object>) column;
+    return (row, line, start, end) -> row.setData(objectColumn, line.substring(start, end));
+  }
 
-      // Check if cancel is requested
-      if (canceled)
-        return null;
+  /**
+   * Returns the ion annotation of the row, or adds a new one if the row has none.
+   */
+  private @Nonnull SimpleIonAnnotation getIonAnnotation(@Nonnull FeatureTableRow row,
+      @Nonnull FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn) {
+    List<IonAnnotation> ionAnnotations = row.getData(ionAnnotationColumn);
+    if (ionAnnotations != null && !ionAnnotations.isEmpty())
+      return (SimpleIonAnnotation) ionAnnotations.get(0);
+
+    SimpleIonAnnotation ionAnnotation = new SimpleIonAnnotation();
+    List<IonAnnotation> newIonAnnotations = new ArrayList<IonAnnotation>();
+    newIonAnnotations.add(ionAnnotation);
+    row.setData(ionAnnotationColumn, newIonAnnotations);
+    return ionAnnotation;
+  }
 
+  /**
+   * Parses a decimal integer from the given part of the line without creating a substring.
+   */
+  private static int parseInt(@Nonnull String line, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (line.charAt(i) == '-' || line.charAt(i) == '+') {
+      negative = line.charAt(i) == '-';
+      i++;
     }
 
-    // Update average row m/z and RT values. This will also create the
-    // columns if they are missing.
-    FeatureTableUtil.recalculateAverages(newFeatureTable);
-
-    return newFeatureTable;
+    // Leave signs without digits, other characters and possible overflows to Integer.parseInt
+    if (i == end || end - i > 9)
+      return Integer.parseInt(line.substring(start, end));
 
+    int result = 0;
+    for (; i < end; i++) {
+      int digit = line.charAt(i) - '0';
+      if (digit < 0 || digit > 9)
+        return Integer.parseInt(line.substring(start, end));
+      result = result * 10 + digit;
+    }
+    return negative ? -result : result;
   }
 
-  private @Nonnull String findSeparator(String line) {
-    // Default is a comma ","
-    String result = ",";
+  /**
+   * Parses a decimal number such as 123.45 or 1.2345E7 from the given part of the line without
+   * creating a substring. If the digits and the power of ten are both exact in the target type,
+   * one multiplication or division gives the correctly rounded value, the same as
+   * Double.parseDouble or Float.parseFloat. Longer numbers, larger exponents and special values
+   * are left to these methods.
+   *
+   * @param singlePrecision true to return the nearest float value.
+   */
+  static double parseDecimal(@Nonnull String line, int start, int end,
+      boolean singlePrecision) {
+    final int maxDigits = singlePrecision ? 7 : 15;
+    final int maxExponent = singlePrecision ? 10 : 22;
+
+    int i = start;
+    boolean negative = false;
+    if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+      negative = line.charAt(i) == '-';
+      i++;
+    }
 
-    // Tab
-    if (line.contains("\t"))
-      result = "\t";
+    // Digits, ignoring the leading zeros
+    long digits = 0;
+    int digitCount = 0, exponent = 0;
+    boolean decimalPoint = false, hasDigits = false;
+    for (; i < end; i++) {
+      final char c = line.charAt(i);
+      if (c >= '0' && c <= '9') {
+        hasDigits = true;
+        if (digits != 0 || c != '0') {
+          if (++digitCount > maxDigits)
+            return parseDecimalSlow(line, start, end, singlePrecision);
+          digits = digits * 10 + (c - '0');
+        }
+        if (decimalPoint)
+          exponent--;
+      } else if (c == '.' && !decimalPoint) {
+        decimalPoint = true;
+      } else {
+        break;
+      }
+    }
+    if (!hasDigits)
+      return parseDecimalSlow(line, start, end, singlePrecision);
+
+    // Exponent, as written by Double.toString
+    if (i < end) {
+      if (line.charAt(i) != 'e' && line.charAt(i) != 'E')
+        return parseDecimalSlow(line, start, end, singlePrecision);
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+        negativeExponent = line.charAt(i) == '-';
+        i++;
+      }
+      if (i == end || end - i > 3)
+        return parseDecimalSlow(line, start, end, singlePrecision);
+      int writtenExponent = 0;
+      for (; i < end; i++) {
+        final int digit = line.charAt(i) - '0';
+        if (digit < 0 || digit > 9)
+          return parseDecimalSlow(line, start, end, singlePrecision);
+        writtenExponent = writtenExponent * 10 + digit;
+      }
+      exponent += negativeExponent ? -writtenExponent : writtenExponent;
+    }
 
-    return result;
+    if (digits == 0)
+      return negative ? -0.0 : 0.0;
+    if (exponent < -maxExponent || exponent > maxExponent)
+      return parseDecimalSlow(line, start, end, singlePrecision);
+
+    final double value;
+    if (singlePrecision) {
+      final float floatValue = exponent < 0 ? digits / FLOAT_POWERS_OF_TEN[-exponent]
+          : digits * FLOAT_POWERS_OF_TEN[exponent];
+      value = floatValue;
+    } else {
+      value = exponent < 0 ? digits / DOUBLE_POWERS_OF_TEN[-exponent]
+          : digits * DOUBLE_POWERS_OF_TEN[exponent];
+    }
+    return negative ? -value : value;
+  }
+
+  private static double parseDecimalSlow(@Nonnull String line, int start, int end,
+      boolean singlePrecision) {
+    final String value = line.substring(start, end);
+    return singlePrecision ? Float.parseFloat(value) : Double.parseDouble(value);
   }
 
   private FeatureTableColumn<?> createNewColumn(String columnName, Sample sample) {
@@ -317,14 +498,12 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
   // Find the longest possible common ending of the column name which is found
   // multiple times in the column header line and use this as the column name.
   // The remaining part of the name will be the sample name.
-  private void findNames(String firstLine) {
+  private void findNames(String[] columns) {
 
     // Lists for column names and sample names
     List<String> colums = new ArrayList<String>();
     List<String> samples = new ArrayList<String>();
 
-    // Split string based on separator
-    String[] columns = firstLine.split(separator);
     totalColumns = columns.length * 2;
 
     // 1st iteration: Loop through all column names to find sample names.
@@ -552,6 +731,15 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
     }
   }
 
+  /**
+   * Parses the part of a line between start (inclusive) and end (exclusive) and stores the value
+   * in the row. One parser is created for each column.
+   */
+  @FunctionalInterface
+  private interface CellParser {
+    void parse(@Nonnull ColumnarFeatureTableRow row, @Nonnull String line, int start, int end);
+  }
+
   /** {@inheritDoc} */
   @Override
   @Nullable
@@ -562,12 +750,11 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
   /** {@inheritDoc} */
   @Override
   public Float getFinishedPercentage() {
-    if (totalLines == 0)
+    if (totalBytes == 0)
       return 0f;
 
     float columns = 0, lines = 0;
-    if (totalLines != 0)
-      lines = (float) parsedLines / totalLines * 0.2f;
+    lines = (float) parsedBytes / totalBytes * 0.2f;
     if (totalColumns != 0) {
       columns = (float) parsedColumns / totalColumns * 0.8f;
     }
@@ -14,7 +14,11 @@
 package io.github.mzmine.modules.io.csv;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -122,4 +126,28 @@ public class CsvFileImportMethodTest {
 
     featureTable.dispose();
   }
+
+  @Test
+  public void testDecimalParsing() {
+    final Random random = new Random(42);
+    final List<String> values = new ArrayList<>(Arrays.asList("0", "-0.0", "+1.5", "1.", ".25",
+        "0.000123", "123456789012345", "1234567890123456789", "1.2345678E7", "4.9E-324",
+        "1.7976931348623157E308", "3.4028235E38", "1e22", "1e23", "NaN", "-Infinity", " 2.5"));
+    for (int i = 0; i < 1000; i++) {
+      values.add(Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(20) - 10)));
+      values.add(Float.toString(random.nextFloat() * 1000));
+      values.add(String.format(Locale.US, "%.4f", random.nextDouble() * 1000));
+    }
+
+    // The result must be the same as from the JDK methods, also in the middle of a line
+    for (String value : values) {
+      final String line = "a," + value + ",b";
+      final int end = 2 + value.length();
+      Assert.assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+          Double.doubleToLongBits(CsvFileImportMethod.parseDecimal(line, 2, end, false)));
+      Assert.assertEquals(value, Float.floatToIntBits(Float.parseFloat(value)),
+          Float.floatToIntBits((float) CsvFileImportMethod.parseDecimal(line, 2, end, true)));
+    }
+  }
+
 }
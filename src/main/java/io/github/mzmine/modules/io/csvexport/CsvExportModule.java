@@ -32,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
 import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.modules.io.csv.CsvFileExportMethod;
 import io.github.mzmine.parameters.ParameterSet;
@@ -39,6 +40,7 @@ import io.github.mzmine.parameters.parametertypes.selectors.FeatureTableColumnsS
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
 import io.github.mzmine.project.MZmineProject;
 import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
 import javafx.concurrent.Task;
 
 /**
@@ -114,11 +116,12 @@ public class CsvExportModule implements MZmineProcessingModule {
           featureTable.getName());
       File exportFileCSV = new File(newFilename);
 
-      // New feature filter task
+      // New feature filter task, the rows are formatted in parallel
       CsvFileExportMethod method = new CsvFileExportMethod(featureTable, exportFileCSV, separator,
-          itemSeparator, exportAllIds, columns);
+          itemSeparator, exportAllIds, columns, MZmineCore.getTaskExecutor().getCpuExecutor());
 
-      MSDKTask newTask = new MSDKTask("Exporting feature table", featureTable.getName(), method);
+      MSDKTask newTask = new MSDKTask("Exporting feature table", featureTable.getName(), method,
+          TaskType.IO);
 
       // Add the task to the queue
       tasks.add(newTask);
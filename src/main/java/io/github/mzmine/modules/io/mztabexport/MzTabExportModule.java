@@ -35,6 +35,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
 import io.github.mzmine.project.MZmineProject;
 import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
 import javafx.concurrent.Task;
 
 /**
@@ -97,7 +98,8 @@ public class MzTabExportModule implements MZmineProcessingModule {
       MzTabFileExportMethod method =
           new MzTabFileExportMethod(featureTable, exportFile, exportAllFeatures);
 
-      MSDKTask newTask = new MSDKTask("Exporting feature table", featureTable.getName(), method);
+      MSDKTask newTask = new MSDKTask("Exporting feature table", featureTable.getName(), method,
+          TaskType.IO);
 
       // Add the task to the queue
       tasks.add(newTask);
@@ -0,0 +1,150 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.io.project;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+
+/**
+ * Layout of MZmine project files.
+ *
+ * A project file starts with a header of {@link #HEADER_SIZE} bytes: the magic number, the format
+ * version and a reserved int. The header is followed by blocks, each holding the deflated values of
+ * one column for up to {@link #CHUNK_ROWS} rows. The blocks follow each other without padding and
+ * are read with positioned reads. The directory, which describes the samples, feature tables,
+ * columns and the position of each block, is written after the blocks, followed by the processing
+ * steps of the audit log. The file ends with the offset of the directory and the magic number
+ * again.
+ *
+ * Samples are stored with the name and original file of their raw data file, so they can be linked
+ * to the raw data files again when the project is opened. The scans of the raw data files are not
+ * stored in the project file.
+ *
+ * A block starts with the number of rows of the chunk and a bitmap of the rows holding a value.
+ * Only the present values follow, in row order.
+ */
+final class ProjectFileFormat {
+
+  static final long MAGIC = 0x4d5a4d494e453350L; // "MZMINE3P"
+  static final int VERSION = 2;
+
+  /** Oldest version which can still be opened. Version 1 did not store raw data file links. */
+  static final int MIN_VERSION = 1;
+
+  static final int HEADER_SIZE = 16;
+  static final int TRAILER_SIZE = 16;
+
+  /** Number of rows stored in one block. */
+  static final int CHUNK_ROWS = 1 << 16;
+
+  /** Column types. Columns of other data types are not stored. */
+  static final byte DOUBLE = 1, FLOAT = 2, INTEGER = 3, STRING = 4, ION_ANNOTATIONS = 5,
+      CHROMATOGRAMS = 6;
+
+  private ProjectFileFormat() {}
+
+  /**
+   * Returns the type used to store values of the given class, or 0 if such values cannot be
+   * stored.
+   */
+  static byte getColumnType(@Nonnull Class<?> dataTypeClass) {
+    if (dataTypeClass == Double.class)
+      return DOUBLE;
+    if (dataTypeClass == Float.class)
+      return FLOAT;
+    if (dataTypeClass == Integer.class)
+      return INTEGER;
+    if (dataTypeClass == String.class)
+      return STRING;
+    if (List.class.isAssignableFrom(dataTypeClass))
+      return ION_ANNOTATIONS;
+    if (Chromatogram.class.isAssignableFrom(dataTypeClass))
+      return CHROMATOGRAMS;
+    return 0;
+  }
+
+  /**
+   * Position and size of a block in the file.
+   */
+  static final class Block {
+
+    final long offset;
+    final int compressedLength;
+    final int rawLength;
+
+    Block(long offset, int compressedLength, int rawLength) {
+      this.offset = offset;
+      this.compressedLength = compressedLength;
+      this.rawLength = rawLength;
+    }
+
+    void write(@Nonnull DataOutput out) throws IOException {
+      out.writeLong(offset);
+      out.writeInt(compressedLength);
+      out.writeInt(rawLength);
+    }
+
+    static @Nonnull Block read(@Nonnull DataInput in) throws IOException {
+      final long offset = in.readLong();
+      final int compressedLength = in.readInt();
+      final int rawLength = in.readInt();
+      return new Block(offset, compressedLength, rawLength);
+    }
+  }
+
+  /**
+   * Writes a string of any length, or null, as its UTF-8 bytes prefixed by their number.
+   */
+  static void writeString(@Nonnull DataOutput out, @Nullable String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    final byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static @Nullable String readString(@Nonnull DataInput in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0)
+      return null;
+    final byte bytes[] = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns true if the given list can be stored in a column of ion annotations.
+   */
+  static boolean isIonAnnotationList(@Nonnull Object value) {
+    if (!(value instanceof List))
+      return false;
+    for (Object item : (List<?>) value) {
+      if (!(item instanceof IonAnnotation))
+        return false;
+    }
+    return true;
+  }
+
+}
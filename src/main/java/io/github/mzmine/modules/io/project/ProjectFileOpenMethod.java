@@ -0,0 +1,576 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.io.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.chromatograms.ChromatogramType;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.impl.SimpleChromatogram;
+import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.datamodel.rawdata.SeparationType;
+import io.github.msdk.util.IonTypeUtil;
+import io.github.mzmine.datamodel.ColumnStorage;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
+import io.github.mzmine.datamodel.ColumnarFeatureTableRow;
+import io.github.mzmine.datamodel.DoubleColumnStorage;
+import io.github.mzmine.datamodel.FloatColumnStorage;
+import io.github.mzmine.datamodel.IntegerColumnStorage;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.SimpleSample;
+import io.github.mzmine.modules.io.project.ProjectFileFormat.Block;
+import io.github.mzmine.project.auditlog.AuditLogEntry;
+
+/**
+ * Opens an MZmine project file, see {@link ProjectFileFormat}. Only the directory and the row IDs
+ * are read when the file is opened. The file stays open, and the values of a column are read and
+ * decompressed when the column is accessed for the first time. The file is closed once all columns
+ * have been loaded, or when it is released by {@link #release(File)}.
+ *
+ * The samples of the project are linked to the given raw data files which have the same original
+ * file. Samples whose raw data file is not loaded keep the path of its original file, see
+ * {@link Sample#getOriginalFile()}.
+ */
+public class ProjectFileOpenMethod implements MSDKMethod<List<FeatureTable>> {
+
+  // The methods whose file is still open, weakly referenced so they do not keep their tables alive
+  private static final Map<ProjectFileOpenMethod, File> openMethods = new WeakHashMap<>();
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull File sourceFile;
+  private final @Nonnull Collection<RawDataFile> rawDataFiles;
+
+  // Guards the channel, which is null once the file is closed
+  private final @Nonnull ReadWriteLock channelLock = new ReentrantReadWriteLock();
+  private FileChannel channel;
+  private long blocksEnd;
+  private final @Nonnull List<ColumnarFeatureTable> openedTables = new ArrayList<>();
+  private final @Nonnull AtomicInteger unloadedColumns = new AtomicInteger();
+
+  private int processedTables = 0, totalTables = 0;
+  private boolean canceled = false;
+  private List<FeatureTable> result;
+  private List<Sample> samples = Collections.emptyList();
+  private List<AuditLogEntry> auditLog = Collections.emptyList();
+
+  /**
+   * <p>
+   * Constructor for ProjectFileOpenMethod.
+   * </p>
+   *
+   * @param sourceFile a {@link java.io.File} object.
+   */
+  public ProjectFileOpenMethod(@Nonnull File sourceFile) {
+    this(sourceFile, Collections.emptyList());
+  }
+
+  /**
+   * <p>
+   * Constructor for ProjectFileOpenMethod.
+   * </p>
+   *
+   * @param sourceFile a {@link java.io.File} object.
+   * @param rawDataFiles the raw data files to link the samples of the project to.
+   */
+  public ProjectFileOpenMethod(@Nonnull File sourceFile,
+      @Nonnull Collection<RawDataFile> rawDataFiles) {
+    Preconditions.checkNotNull(sourceFile);
+    Preconditions.checkNotNull(rawDataFiles);
+    this.sourceFile = sourceFile;
+    this.rawDataFiles = new ArrayList<>(rawDataFiles);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<FeatureTable> execute() throws MSDKException {
+
+    logger.info("Started opening project " + sourceFile);
+
+    if (!sourceFile.canRead())
+      throw new MSDKException("Cannot read file " + sourceFile);
+
+    final DataInputStream directory;
+    final int version;
+    try {
+      channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+      final long fileSize = channel.size();
+      if (fileSize < ProjectFileFormat.HEADER_SIZE + ProjectFileFormat.TRAILER_SIZE)
+        throw new MSDKException(sourceFile + " is not an MZmine project file");
+
+      final ByteBuffer header = readFully(channel, 0, ProjectFileFormat.HEADER_SIZE);
+      if (header.getLong() != ProjectFileFormat.MAGIC)
+        throw new MSDKException(sourceFile + " is not an MZmine project file");
+      version = header.getInt();
+      if (version < ProjectFileFormat.MIN_VERSION || version > ProjectFileFormat.VERSION)
+        throw new MSDKException("Unsupported project file version " + version);
+
+      final ByteBuffer trailer = readFully(channel,
+          fileSize - ProjectFileFormat.TRAILER_SIZE, ProjectFileFormat.TRAILER_SIZE);
+      final long directoryOffset = trailer.getLong();
+      if (trailer.getLong() != ProjectFileFormat.MAGIC || directoryOffset < 0
+          || directoryOffset > fileSize - ProjectFileFormat.TRAILER_SIZE)
+        throw new MSDKException(sourceFile + " is incomplete");
+
+      final ByteBuffer directoryBuffer = readFully(channel, directoryOffset,
+          (int) (fileSize - ProjectFileFormat.TRAILER_SIZE - directoryOffset));
+      directory = new DataInputStream(new ByteArrayInputStream(directoryBuffer.array()));
+      blocksEnd = directoryOffset;
+
+    } catch (IOException e) {
+      closeChannel();
+      throw new MSDKException(e);
+    } catch (MSDKException e) {
+      closeChannel();
+      throw e;
+    }
+
+    try {
+      final int sampleCount = directory.readInt();
+      final List<Sample> samples = new ArrayList<>(sampleCount);
+      for (int i = 0; i < sampleCount; i++) {
+        final Sample sample = new SimpleSample(ProjectFileFormat.readString(directory));
+        if (version >= 2) {
+          final String rawDataFileName = ProjectFileFormat.readString(directory);
+          final String originalPath = ProjectFileFormat.readString(directory);
+          final File originalFile = originalPath == null ? null : new File(originalPath);
+          sample.setOriginalFile(originalFile);
+          sample.setRawDataFile(findRawDataFile(rawDataFileName, originalFile));
+        }
+        samples.add(sample);
+      }
+
+      totalTables = directory.readInt();
+      final List<FeatureTable> featureTables = new ArrayList<>(totalTables);
+      for (int i = 0; i < totalTables; i++) {
+        if (canceled) {
+          closeChannel();
+          return null;
+        }
+        featureTables.add(readFeatureTable(directory, samples));
+        processedTables++;
+      }
+
+      final List<AuditLogEntry> auditLog = new ArrayList<>();
+      if (version >= 2) {
+        final int stepCount = directory.readInt();
+        for (int i = 0; i < stepCount; i++) {
+          final String moduleClassName = ProjectFileFormat.readString(directory);
+          final String parametersXml = ProjectFileFormat.readString(directory);
+          try {
+            auditLog.add(AuditLogEntry.restore(moduleClassName, parametersXml));
+          } catch (IOException e) {
+            logger.warn("Cannot restore processing step of " + sourceFile, e);
+          }
+        }
+      }
+
+      this.samples = Collections.unmodifiableList(samples);
+      this.auditLog = Collections.unmodifiableList(auditLog);
+      result = featureTables;
+
+    } catch (IOException | ClassNotFoundException e) {
+      closeChannel();
+      throw new MSDKException(e);
+    }
+
+    // Keep the file open until all columns are loaded
+    if (unloadedColumns.get() == 0)
+      closeChannel();
+    else {
+      synchronized (openMethods) {
+        openMethods.put(this, getKey(sourceFile));
+      }
+    }
+
+    logger.info("Finished opening project " + sourceFile);
+    return result;
+  }
+
+  private @Nonnull FeatureTable readFeatureTable(@Nonnull DataInputStream directory,
+      @Nonnull List<Sample> samples) throws IOException, ClassNotFoundException {
+
+    final String name = ProjectFileFormat.readString(directory);
+    final int rowCount = directory.readInt();
+    final ColumnarFeatureTable featureTable =
+        new ColumnarFeatureTable(name, DataPointStoreFactory.getMemoryDataStore());
+
+    // Create the rows, their slots index the stored column values
+    final DataInputStream rowIds = readBlock(Block.read(directory));
+    final int slots[] = new int[rowCount];
+    for (int i = 0; i < rowCount; i++) {
+      final ColumnarFeatureTableRow row = featureTable.createRow(rowIds.readInt());
+      slots[i] = row.getSlot();
+      featureTable.addRow(row);
+    }
+
+    final int columnCount = directory.readInt();
+    for (int i = 0; i < columnCount; i++) {
+      final String columnName = ProjectFileFormat.readString(directory);
+      final byte type = directory.readByte();
+      final Class<?> dataTypeClass = Class.forName(ProjectFileFormat.readString(directory));
+      final int sampleIndex = directory.readInt();
+      final Sample sample = sampleIndex < 0 ? null : samples.get(sampleIndex);
+      final Block blocks[] = new Block[directory.readInt()];
+      for (int j = 0; j < blocks.length; j++)
+        blocks[j] = Block.read(directory);
+
+      final FeatureTableColumn<?> column = createColumn(columnName, dataTypeClass, sample);
+      final AtomicBoolean loaded = new AtomicBoolean();
+      unloadedColumns.incrementAndGet();
+      featureTable.addColumn(column, () -> loadColumn(column, type, blocks, slots, loaded));
+    }
+
+    openedTables.add(featureTable);
+    return featureTable;
+  }
+
+  /**
+   * Loader of a column, see {@link ColumnarFeatureTable#addColumn(FeatureTableColumn, Supplier)}.
+   * The loader may run several times if threads access the column concurrently, so the flag tracks
+   * whether the column was counted as loaded already. Closes the file once all columns are loaded.
+   */
+  private @Nonnull ColumnStorage loadColumn(@Nonnull FeatureTableColumn<?> column, byte type,
+      @Nonnull Block blocks[], @Nonnull int slots[], @Nonnull AtomicBoolean loaded) {
+    final ColumnStorage storage;
+    channelLock.readLock().lock();
+    try {
+      if (channel == null)
+        throw new IOException("The project file was closed");
+      storage = readColumn(column, type, blocks, slots);
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          "Cannot read column " + column.getName() + " from " + sourceFile, e);
+    } finally {
+      channelLock.readLock().unlock();
+    }
+    if (loaded.compareAndSet(false, true) && unloadedColumns.decrementAndGet() == 0)
+      closeChannel();
+    return storage;
+  }
+
+  /**
+   * Loads the remaining columns of all projects opened from the given file and closes the file, so
+   * it can be replaced or deleted.
+   */
+  static void release(@Nonnull File file) {
+    final File key = getKey(file);
+    final List<ProjectFileOpenMethod> methods = new ArrayList<>();
+    synchronized (openMethods) {
+      for (Map.Entry<ProjectFileOpenMethod, File> entry : openMethods.entrySet()) {
+        if (entry.getValue().equals(key))
+          methods.add(entry.getKey());
+      }
+    }
+
+    for (ProjectFileOpenMethod method : methods) {
+      method.channelLock.writeLock().lock();
+      try {
+        for (ColumnarFeatureTable featureTable : method.openedTables)
+          featureTable.loadColumns();
+      } catch (UncheckedIOException e) {
+        method.logger.warn("Cannot load all columns of " + file, e);
+      } finally {
+        method.closeChannel();
+        method.channelLock.writeLock().unlock();
+      }
+    }
+  }
+
+  private void closeChannel() {
+    channelLock.writeLock().lock();
+    try {
+      if (channel == null)
+        return;
+      channel.close();
+    } catch (IOException e) {
+      logger.warn("Cannot close project file " + sourceFile, e);
+    } finally {
+      channel = null;
+      channelLock.writeLock().unlock();
+    }
+    synchronized (openMethods) {
+      openMethods.remove(this);
+    }
+  }
+
+  private static @Nonnull File getKey(@Nonnull File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+
+  /**
+   * Returns the raw data file which the sample with the given raw data file name and original file
+   * was linked to, or null if that raw data file is not loaded.
+   */
+  private @Nullable RawDataFile findRawDataFile(@Nullable String name,
+      @Nullable File originalFile) {
+    if (name == null && originalFile == null)
+      return null;
+    RawDataFile renamedFile = null;
+    for (RawDataFile rawDataFile : rawDataFiles) {
+      final File rawOriginalFile = rawDataFile.getOriginalFile();
+      if (originalFile != null && (rawOriginalFile == null
+          || !rawOriginalFile.getAbsoluteFile().equals(originalFile.getAbsoluteFile())))
+        continue;
+      if (name == null || name.equals(rawDataFile.getName()))
+        return rawDataFile;
+      if (originalFile != null && renamedFile == null)
+        renamedFile = rawDataFile;
+    }
+    return renamedFile;
+  }
+
+  /**
+   * Returns the column to use for the stored column. Common columns are shared by all feature
+   * tables, so the shared instances are used for them.
+   */
+  private static @Nonnull FeatureTableColumn<?> createColumn(@Nonnull String name,
+      @Nonnull Class<?> dataTypeClass, @Nullable Sample sample) {
+    if (sample == null) {
+      final FeatureTableColumn<?> commonColumns[] = {MSDKObjectBuilder.getIdFeatureTableColumn(),
+          MSDKObjectBuilder.getMzFeatureTableColumn(),
+          MSDKObjectBuilder.getRetentionTimeFeatureTableColumn(),
+          MSDKObjectBuilder.getPpmFeatureTableColumn(),
+          MSDKObjectBuilder.getChargeFeatureTableColumn(),
+          MSDKObjectBuilder.getIonAnnotationFeatureTableColumn()};
+      for (FeatureTableColumn<?> commonColumn : commonColumns) {
+        if (commonColumn.getName().equals(name)
+            && commonColumn.getDataTypeClass() == dataTypeClass)
+          return commonColumn;
+      }
+    }
+    return MSDKObjectBuilder.getFeatureTableColumn(name, dataTypeClass, sample);
+  }
+
+  /**
+   * Decompresses the blocks of one column into a new storage.
+   */
+  private @Nonnull ColumnStorage readColumn(@Nonnull FeatureTableColumn<?> column, byte type,
+      @Nonnull Block blocks[], @Nonnull int slots[]) throws IOException {
+
+    final ColumnStorage storage = ColumnStorage.create(column);
+    int firstRow = 0;
+    for (Block block : blocks) {
+      final DataInputStream in = readBlock(block);
+      final int rows = in.readInt();
+      final long words[] = new long[(rows + 63) / 64];
+      for (int i = 0; i < words.length; i++)
+        words[i] = in.readLong();
+      final BitSet present = BitSet.valueOf(words);
+
+      for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+        final int slot = slots[firstRow + i];
+        switch (type) {
+          case ProjectFileFormat.DOUBLE:
+            ((DoubleColumnStorage) storage).setDouble(slot, in.readDouble());
+            break;
+          case ProjectFileFormat.FLOAT:
+            ((FloatColumnStorage) storage).setFloat(slot, in.readFloat());
+            break;
+          case ProjectFileFormat.INTEGER:
+            ((IntegerColumnStorage) storage).setInt(slot, in.readInt());
+            break;
+          case ProjectFileFormat.STRING:
+            storage.set(slot, ProjectFileFormat.readString(in));
+            break;
+          case ProjectFileFormat.ION_ANNOTATIONS:
+            final int count = in.readInt();
+            final List<IonAnnotation> ionAnnotations = new ArrayList<>(count);
+            for (int j = 0; j < count; j++)
+              ionAnnotations.add(readIonAnnotation(in));
+            storage.set(slot, ionAnnotations);
+            break;
+          case ProjectFileFormat.CHROMATOGRAMS:
+            storage.set(slot, readChromatogram(in));
+            break;
+          default:
+            throw new IOException("Unknown column type " + type);
+        }
+      }
+      firstRow += rows;
+    }
+    return storage;
+  }
+
+  private @Nonnull IonAnnotation readIonAnnotation(@Nonnull DataInputStream in)
+      throws IOException {
+    final SimpleIonAnnotation ionAnnotation = new SimpleIonAnnotation();
+    ionAnnotation.setAnnotationId(ProjectFileFormat.readString(in));
+    ionAnnotation.setDescription(ProjectFileFormat.readString(in));
+    if (in.readBoolean())
+      ionAnnotation.setExpectedMz(in.readDouble());
+    if (in.readBoolean())
+      ionAnnotation.setExpectedRetentionTime(in.readFloat());
+
+    final String formula = ProjectFileFormat.readString(in);
+    if (formula != null)
+      ionAnnotation.setFormula(MolecularFormulaManipulator.getMolecularFormula(formula,
+          DefaultChemObjectBuilder.getInstance()));
+
+    final String ionType = ProjectFileFormat.readString(in);
+    if (ionType != null)
+      ionAnnotation.setIonType(IonTypeUtil.createIonType(ionType));
+
+    return ionAnnotation;
+  }
+
+  private @Nonnull SimpleChromatogram readChromatogram(@Nonnull DataInputStream in)
+      throws IOException {
+    final SimpleChromatogram chromatogram = new SimpleChromatogram();
+    if (in.readBoolean())
+      chromatogram.setChromatogramNumber(in.readInt());
+    chromatogram.setChromatogramType(ChromatogramType.valueOf(ProjectFileFormat.readString(in)));
+    final String separationType = ProjectFileFormat.readString(in);
+    if (separationType != null)
+      chromatogram.setSeparationType(SeparationType.valueOf(separationType));
+    if (in.readBoolean())
+      chromatogram.setMz(in.readDouble());
+    if (in.readBoolean())
+      chromatogram.setIonAnnotation(readIonAnnotation(in));
+
+    // Data points
+    final int size = in.readInt();
+    final float rtValues[] = new float[size];
+    final float intensityValues[] = new float[size];
+    for (int i = 0; i < size; i++)
+      rtValues[i] = in.readFloat();
+    for (int i = 0; i < size; i++)
+      intensityValues[i] = in.readFloat();
+    double mzValues[] = null;
+    if (in.readBoolean()) {
+      mzValues = new double[size];
+      for (int i = 0; i < size; i++)
+        mzValues[i] = in.readDouble();
+    }
+    chromatogram.setDataPoints(rtValues, mzValues, intensityValues, size);
+    return chromatogram;
+  }
+
+  /**
+   * Returns a stream of the decompressed content of the given block. Positional reads do not
+   * change the state of the channel, so the column loaders may run in different threads.
+   */
+  private @Nonnull DataInputStream readBlock(@Nonnull Block block) throws IOException {
+    if (block.offset < 0 || block.offset + block.compressedLength > blocksEnd)
+      throw new IOException("Block at " + block.offset + " is outside of the file");
+    final byte compressed[] = readFully(channel, block.offset, block.compressedLength).array();
+
+    final byte raw[] = new byte[block.rawLength];
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      int length = 0;
+      while (length < raw.length && !inflater.finished()) {
+        final int inflated = inflater.inflate(raw, length, raw.length - length);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        length += inflated;
+      }
+      if (length != raw.length)
+        throw new IOException("Block at " + block.offset + " is damaged");
+    } catch (DataFormatException e) {
+      throw new IOException("Block at " + block.offset + " is damaged", e);
+    } finally {
+      inflater.end();
+    }
+    return new DataInputStream(new ByteArrayInputStream(raw));
+  }
+
+  private static @Nonnull ByteBuffer readFully(@Nonnull FileChannel channel, long offset,
+      int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0)
+        throw new IOException("Unexpected end of file");
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getFinishedPercentage() {
+    return totalTables == 0 ? 0f : (float) processedTables / totalTables;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nullable List<FeatureTable> getResult() {
+    return result;
+  }
+
+  /**
+   * Returns the samples of the opened project. Samples whose raw data file was not found among the
+   * given raw data files are not linked to a raw data file.
+   */
+  public @Nonnull List<Sample> getSamples() {
+    return samples;
+  }
+
+  /**
+   * Returns the processing steps of the opened project.
+   */
+  public @Nonnull List<AuditLogEntry> getAuditLog() {
+    return auditLog;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    this.canceled = true;
+  }
+
+}
@@ -0,0 +1,461 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.io.project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonType;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.datamodel.rawdata.SeparationType;
+import io.github.mzmine.modules.io.project.ProjectFileFormat.Block;
+import io.github.mzmine.project.auditlog.AuditLogEntry;
+
+/**
+ * Saves feature tables and the audit log to an MZmine project file, see {@link ProjectFileFormat}.
+ * The file is written next to the target file first and then moved in place, so a project which
+ * was opened from the target file is not affected until the new file is complete. Before the move,
+ * the remaining columns of such a project are loaded and the target file is closed, see
+ * {@link ProjectFileOpenMethod#release(File)}, because an open file cannot be replaced on all
+ * platforms.
+ */
+public class ProjectFileSaveMethod implements MSDKMethod<File> {
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull List<FeatureTable> featureTables;
+  private final @Nonnull List<AuditLogEntry> auditLog;
+  private final @Nonnull File targetFile;
+
+  private final @Nonnull Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private final @Nonnull ByteArrayOutputStream rawBytes = new ByteArrayOutputStream();
+  private byte compressBuffer[] = new byte[1 << 16];
+
+  private FileChannel channel;
+  private long position;
+
+  private int processedColumns = 0, totalColumns = 0;
+  private boolean canceled = false;
+  private File result;
+
+  /**
+   * <p>
+   * Constructor for ProjectFileSaveMethod.
+   * </p>
+   *
+   * @param featureTables the {@link io.github.msdk.datamodel.featuretables.FeatureTable}s to save.
+   * @param targetFile a {@link java.io.File} object.
+   */
+  public ProjectFileSaveMethod(@Nonnull List<FeatureTable> featureTables,
+      @Nonnull File targetFile) {
+    this(featureTables, Collections.emptyList(), targetFile);
+  }
+
+  /**
+   * <p>
+   * Constructor for ProjectFileSaveMethod.
+   * </p>
+   *
+   * @param featureTables the {@link io.github.msdk.datamodel.featuretables.FeatureTable}s to save.
+   * @param auditLog the processing steps to save.
+   * @param targetFile a {@link java.io.File} object.
+   */
+  public ProjectFileSaveMethod(@Nonnull List<FeatureTable> featureTables,
+      @Nonnull List<AuditLogEntry> auditLog, @Nonnull File targetFile) {
+    Preconditions.checkNotNull(featureTables);
+    Preconditions.checkNotNull(auditLog);
+    Preconditions.checkNotNull(targetFile);
+    this.featureTables = new ArrayList<>(featureTables);
+    this.auditLog = new ArrayList<>(auditLog);
+    this.targetFile = targetFile;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public File execute() throws MSDKException {
+
+    logger.info("Started saving project to " + targetFile);
+
+    for (FeatureTable featureTable : featureTables)
+      totalColumns += featureTable.getColumns().size();
+
+    final File absoluteTarget = targetFile.getAbsoluteFile();
+    File tmpFile = null;
+    try {
+      tmpFile = File.createTempFile(absoluteTarget.getName(), ".tmp",
+          absoluteTarget.getParentFile());
+
+      try (FileChannel fileChannel = FileChannel.open(tmpFile.toPath(),
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        channel = fileChannel;
+        if (!writeProject())
+          return null;
+        channel.force(false);
+      }
+
+      ProjectFileOpenMethod.release(absoluteTarget);
+      try {
+        Files.move(tmpFile.toPath(), absoluteTarget.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpFile.toPath(), absoluteTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tmpFile = null;
+
+    } catch (IOException e) {
+      throw new MSDKException(e);
+    } finally {
+      deflater.end();
+      if (tmpFile != null && !tmpFile.delete())
+        logger.warn("Cannot delete temporary file " + tmpFile);
+    }
+
+    result = targetFile;
+    logger.info("Finished saving project to " + targetFile);
+    return result;
+  }
+
+  /**
+   * Writes the header, the blocks of all tables, the directory and the trailer. Returns false if
+   * the method was canceled.
+   */
+  private boolean writeProject() throws IOException {
+
+    // Header
+    final ByteBuffer header = ByteBuffer.allocate(ProjectFileFormat.HEADER_SIZE);
+    header.putLong(ProjectFileFormat.MAGIC);
+    header.putInt(ProjectFileFormat.VERSION);
+    header.putInt(0);
+    header.flip();
+    writeFully(header);
+    position = ProjectFileFormat.HEADER_SIZE;
+
+    // Samples of all tables
+    final Map<Sample, Integer> samples = new LinkedHashMap<>();
+    for (FeatureTable featureTable : featureTables) {
+      for (Sample sample : featureTable.getSamples()) {
+        if (!samples.containsKey(sample))
+          samples.put(sample, samples.size());
+      }
+    }
+
+    final ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+    final DataOutputStream directory = new DataOutputStream(directoryBytes);
+    directory.writeInt(samples.size());
+    for (Sample sample : samples.keySet()) {
+      final RawDataFile rawDataFile = sample.getRawDataFile();
+      final File originalFile =
+          rawDataFile != null ? rawDataFile.getOriginalFile() : sample.getOriginalFile();
+      ProjectFileFormat.writeString(directory, sample.getName());
+      ProjectFileFormat.writeString(directory,
+          rawDataFile == null ? null : rawDataFile.getName());
+      ProjectFileFormat.writeString(directory,
+          originalFile == null ? null : originalFile.getAbsolutePath());
+    }
+
+    directory.writeInt(featureTables.size());
+    for (FeatureTable featureTable : featureTables) {
+      if (!writeFeatureTable(featureTable, samples, directory))
+        return false;
+    }
+
+    // Processing steps
+    final List<String[]> steps = new ArrayList<>();
+    for (AuditLogEntry auditLogEntry : auditLog) {
+      try {
+        steps.add(new String[] {auditLogEntry.getModule().getClass().getName(),
+            auditLogEntry.getParametersXml()});
+      } catch (IOException e) {
+        logger.warn("Processing step " + auditLogEntry.getModule().getName()
+            + " cannot be saved in a project file", e);
+      }
+    }
+    directory.writeInt(steps.size());
+    for (String step[] : steps) {
+      ProjectFileFormat.writeString(directory, step[0]);
+      ProjectFileFormat.writeString(directory, step[1]);
+    }
+    directory.flush();
+
+    // Directory and trailer
+    final long directoryOffset = position;
+    channel.position(directoryOffset);
+    writeFully(ByteBuffer.wrap(directoryBytes.toByteArray()));
+    final ByteBuffer trailer = ByteBuffer.allocate(ProjectFileFormat.TRAILER_SIZE);
+    trailer.putLong(directoryOffset);
+    trailer.putLong(ProjectFileFormat.MAGIC);
+    trailer.flip();
+    writeFully(trailer);
+
+    return true;
+  }
+
+  private boolean writeFeatureTable(@Nonnull FeatureTable featureTable,
+      @Nonnull Map<Sample, Integer> samples, @Nonnull DataOutputStream directory)
+      throws IOException {
+
+    final List<FeatureTableRow> rows = featureTable.getRows();
+    final int rowCount = rows.size();
+
+    ProjectFileFormat.writeString(directory, featureTable.getName());
+    directory.writeInt(rowCount);
+
+    // Row IDs
+    final DataOutputStream rowIds = startBlock();
+    for (FeatureTableRow row : rows)
+      rowIds.writeInt(row.getId());
+    finishBlock(rowIds).write(directory);
+
+    // Columns which can be stored
+    final List<FeatureTableColumn<?>> columns = new ArrayList<>();
+    for (FeatureTableColumn<?> column : featureTable.getColumns()) {
+      if (ProjectFileFormat.getColumnType(column.getDataTypeClass()) != 0)
+        columns.add(column);
+      else {
+        logger.warn("Column " + column.getName() + " of feature table " + featureTable.getName()
+            + " cannot be saved in a project file");
+        processedColumns++;
+      }
+    }
+
+    directory.writeInt(columns.size());
+    for (FeatureTableColumn<?> column : columns) {
+      if (canceled)
+        return false;
+
+      final byte type = ProjectFileFormat.getColumnType(column.getDataTypeClass());
+      final Sample sample = column.getSample();
+      ProjectFileFormat.writeString(directory, column.getName());
+      directory.writeByte(type);
+      ProjectFileFormat.writeString(directory, column.getDataTypeClass().getName());
+      directory.writeInt(sample == null ? -1 : samples.get(sample));
+
+      final int chunkCount =
+          (rowCount + ProjectFileFormat.CHUNK_ROWS - 1) / ProjectFileFormat.CHUNK_ROWS;
+      directory.writeInt(chunkCount);
+      for (int chunk = 0; chunk < chunkCount; chunk++) {
+        final int from = chunk * ProjectFileFormat.CHUNK_ROWS;
+        final int to = Math.min(rowCount, from + ProjectFileFormat.CHUNK_ROWS);
+        writeChunk(rows.subList(from, to), column, type).write(directory);
+      }
+
+      processedColumns++;
+    }
+
+    return true;
+  }
+
+  /**
+   * Writes the values of the given rows in one column as a block.
+   */
+  private @Nonnull Block writeChunk(@Nonnull List<FeatureTableRow> rows,
+      @Nonnull FeatureTableColumn<?> column, byte type) throws IOException {
+
+    final Object values[] = new Object[rows.size()];
+    final BitSet present = new BitSet(rows.size());
+    for (int i = 0; i < values.length; i++) {
+      final Object value = rows.get(i).getData(column);
+      if (value == null)
+        continue;
+      if (type == ProjectFileFormat.ION_ANNOTATIONS
+          && !ProjectFileFormat.isIonAnnotationList(value))
+        continue;
+      values[i] = value;
+      present.set(i);
+    }
+
+    final DataOutputStream out = startBlock();
+    out.writeInt(values.length);
+    final long words[] = present.toLongArray();
+    final int wordCount = (values.length + 63) / 64;
+    for (int i = 0; i < wordCount; i++)
+      out.writeLong(i < words.length ? words[i] : 0L);
+
+    for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+      switch (type) {
+        case ProjectFileFormat.DOUBLE:
+          out.writeDouble((Double) values[i]);
+          break;
+        case ProjectFileFormat.FLOAT:
+          out.writeFloat((Float) values[i]);
+          break;
+        case ProjectFileFormat.INTEGER:
+          out.writeInt((Integer) values[i]);
+          break;
+        case ProjectFileFormat.STRING:
+          ProjectFileFormat.writeString(out, (String) values[i]);
+          break;
+        case ProjectFileFormat.ION_ANNOTATIONS:
+          final List<?> ionAnnotations = (List<?>) values[i];
+          out.writeInt(ionAnnotations.size());
+          for (Object ionAnnotation : ionAnnotations)
+            writeIonAnnotation(out, (IonAnnotation) ionAnnotation);
+          break;
+        case ProjectFileFormat.CHROMATOGRAMS:
+          writeChromatogram(out, (Chromatogram) values[i]);
+          break;
+      }
+    }
+
+    return finishBlock(out);
+  }
+
+  private void writeIonAnnotation(@Nonnull DataOutputStream out,
+      @Nonnull IonAnnotation ionAnnotation) throws IOException {
+    ProjectFileFormat.writeString(out, ionAnnotation.getAnnotationId());
+    ProjectFileFormat.writeString(out, ionAnnotation.getDescription());
+
+    final Double expectedMz = ionAnnotation.getExpectedMz();
+    out.writeBoolean(expectedMz != null);
+    if (expectedMz != null)
+      out.writeDouble(expectedMz);
+
+    final Float expectedRt = ionAnnotation.getExpectedRetentionTime();
+    out.writeBoolean(expectedRt != null);
+    if (expectedRt != null)
+      out.writeFloat(expectedRt);
+
+    final IMolecularFormula formula = ionAnnotation.getFormula();
+    ProjectFileFormat.writeString(out,
+        formula == null ? null : MolecularFormulaManipulator.getString(formula));
+
+    final IonType ionType = ionAnnotation.getIonType();
+    ProjectFileFormat.writeString(out, ionType == null ? null : ionType.getName());
+  }
+
+  private void writeChromatogram(@Nonnull DataOutputStream out,
+      @Nonnull Chromatogram chromatogram) throws IOException {
+    final Integer chromatogramNumber = chromatogram.getChromatogramNumber();
+    out.writeBoolean(chromatogramNumber != null);
+    if (chromatogramNumber != null)
+      out.writeInt(chromatogramNumber);
+    ProjectFileFormat.writeString(out, chromatogram.getChromatogramType().name());
+    final SeparationType separationType = chromatogram.getSeparationType();
+    ProjectFileFormat.writeString(out, separationType == null ? null : separationType.name());
+
+    final Double mz = chromatogram.getMz();
+    out.writeBoolean(mz != null);
+    if (mz != null)
+      out.writeDouble(mz);
+
+    final IonAnnotation ionAnnotation = chromatogram.getIonAnnotation();
+    out.writeBoolean(ionAnnotation != null);
+    if (ionAnnotation != null)
+      writeIonAnnotation(out, ionAnnotation);
+
+    // Data points
+    final int size = chromatogram.getNumberOfDataPoints();
+    final float rtValues[] = chromatogram.getRetentionTimes();
+    final float intensityValues[] = chromatogram.getIntensityValues();
+    final double mzValues[] = chromatogram.getMzValues();
+    out.writeInt(size);
+    for (int i = 0; i < size; i++)
+      out.writeFloat(rtValues[i]);
+    for (int i = 0; i < size; i++)
+      out.writeFloat(intensityValues[i]);
+    out.writeBoolean(mzValues != null);
+    if (mzValues != null) {
+      for (int i = 0; i < size; i++)
+        out.writeDouble(mzValues[i]);
+    }
+  }
+
+  private @Nonnull DataOutputStream startBlock() {
+    rawBytes.reset();
+    return new DataOutputStream(rawBytes);
+  }
+
+  /**
+   * Compresses the block content and appends it to the file.
+   */
+  private @Nonnull Block finishBlock(@Nonnull DataOutputStream out) throws IOException {
+    out.flush();
+    final byte raw[] = rawBytes.toByteArray();
+
+    deflater.reset();
+    deflater.setInput(raw);
+    deflater.finish();
+    int compressedLength = 0;
+    while (!deflater.finished()) {
+      if (compressedLength == compressBuffer.length)
+        compressBuffer = Arrays.copyOf(compressBuffer, compressBuffer.length * 2);
+      compressedLength += deflater.deflate(compressBuffer, compressedLength,
+          compressBuffer.length - compressedLength);
+    }
+
+    channel.position(position);
+    writeFully(ByteBuffer.wrap(compressBuffer, 0, compressedLength));
+    final Block block = new Block(position, compressedLength, raw.length);
+    position += compressedLength;
+    return block;
+  }
+
+  private void writeFully(@Nonnull ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getFinishedPercentage() {
+    return totalColumns == 0 ? 0f : (float) processedColumns / totalColumns;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nullable File getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    this.canceled = true;
+  }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.io.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.chromatograms.ChromatogramType;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.impl.SimpleChromatogram;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
+import io.github.mzmine.datamodel.SimpleFeatureTableColumn;
+import io.github.mzmine.datamodel.SimpleSample;
+import io.github.mzmine.modules.io.csv.CsvFileImportMethod;
+
+public class ProjectFileSaveMethodTest {
+
+  private static final String TEST_DATA_PATH = "src/test/resources/";
+
+  @Test
+  public void Save_And_Open_Project() throws MSDKException, IOException {
+
+    // Create the data structures
+    DataPointStore dataStore = DataPointStoreFactory.getTmpFileDataStore();
+
+    // Import the file
+    File inputFile = new File(TEST_DATA_PATH + "Sample-2.3.csv");
+    Assert.assertTrue(inputFile.canRead());
+    CsvFileImportMethod importer = new CsvFileImportMethod(inputFile, dataStore);
+    FeatureTable featureTable = importer.execute();
+    Assert.assertNotNull(featureTable);
+
+    // Save the project
+    File projectFile = File.createTempFile("MZmine_TestFile_", ".mzmine");
+    ProjectFileSaveMethod saver =
+        new ProjectFileSaveMethod(Collections.singletonList(featureTable), projectFile);
+    Assert.assertEquals(projectFile, saver.execute());
+    Assert.assertEquals(1.0, saver.getFinishedPercentage(), 0.0001);
+
+    // Open the project
+    ProjectFileOpenMethod opener = new ProjectFileOpenMethod(projectFile);
+    List<FeatureTable> featureTables = opener.execute();
+    Assert.assertNotNull(featureTables);
+    Assert.assertEquals(1, featureTables.size());
+    Assert.assertEquals(1.0, opener.getFinishedPercentage(), 0.0001);
+
+    FeatureTable openedTable = featureTables.get(0);
+    Assert.assertTrue(openedTable instanceof ColumnarFeatureTable);
+    Assert.assertEquals(featureTable.getName(), openedTable.getName());
+    Assert.assertEquals(featureTable.getSamples().size(), openedTable.getSamples().size());
+    Assert.assertEquals(featureTable.getColumns().size(), openedTable.getColumns().size());
+
+    // Columns are loaded on first access
+    ColumnarFeatureTable columnarTable = (ColumnarFeatureTable) openedTable;
+    for (FeatureTableColumn<?> column : openedTable.getColumns())
+      Assert.assertNotNull(columnarTable.getColumnStorage(column));
+
+    // All values are restored
+    List<FeatureTableRow> rows = featureTable.getRows();
+    List<FeatureTableRow> openedRows = openedTable.getRows();
+    Assert.assertEquals(rows.size(), openedRows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      FeatureTableRow row = rows.get(i);
+      FeatureTableRow openedRow = openedRows.get(i);
+      Assert.assertEquals(row.getId(), openedRow.getId());
+      for (FeatureTableColumn<?> column : featureTable.getColumns()) {
+        Sample sample = column.getSample();
+        Sample openedSample = null;
+        for (Sample s : openedTable.getSamples()) {
+          if (sample != null && s.getName().equals(sample.getName()))
+            openedSample = s;
+        }
+        FeatureTableColumn<?> openedColumn =
+            openedTable.getColumn(column.getName(), openedSample, column.getDataTypeClass());
+        Assert.assertNotNull(openedColumn);
+        Object value = row.getData(column);
+        Object openedValue = openedRow.getData(openedColumn);
+        if (value instanceof List) {
+          List<?> ions = (List<?>) value;
+          List<?> openedIons = (List<?>) openedValue;
+          Assert.assertEquals(ions.size(), openedIons.size());
+          for (int j = 0; j < ions.size(); j++) {
+            IonAnnotation ion = (IonAnnotation) ions.get(j);
+            IonAnnotation openedIon = (IonAnnotation) openedIons.get(j);
+            Assert.assertEquals(ion.getAnnotationId(), openedIon.getAnnotationId());
+            Assert.assertEquals(ion.getDescription(), openedIon.getDescription());
+            Assert.assertEquals(ion.getExpectedMz(), openedIon.getExpectedMz());
+          }
+        } else {
+          Assert.assertEquals(value, openedValue);
+        }
+      }
+    }
+
+    // Clean up
+    projectFile.delete();
+    featureTable.dispose();
+    openedTable.dispose();
+  }
+
+  @Test
+  public void Save_Chromatograms_And_Samples() throws MSDKException, IOException {
+
+    // Create a table with a chromatogram column
+    Sample sample = new SimpleSample("sample");
+    File originalFile = new File("sample.mzML").getAbsoluteFile();
+    sample.setOriginalFile(originalFile);
+    ColumnarFeatureTable featureTable =
+        new ColumnarFeatureTable("chromatograms", DataPointStoreFactory.getMemoryDataStore());
+    FeatureTableColumn<Chromatogram> chromatogramColumn =
+        new SimpleFeatureTableColumn<>("Chromatogram", Chromatogram.class, sample);
+    featureTable.addColumn(chromatogramColumn);
+    for (int i = 1; i <= 3; i++) {
+      SimpleChromatogram chromatogram = new SimpleChromatogram();
+      chromatogram.setChromatogramNumber(i);
+      chromatogram.setChromatogramType(ChromatogramType.XIC);
+      chromatogram.setMz(100.0 * i);
+      chromatogram.setDataPoints(new float[] {1f, 2f, 3f}, new double[] {100.0, 100.1, 100.2},
+          new float[] {10f * i, 20f * i, 5f * i}, 3);
+      FeatureTableRow row = featureTable.createRow(i);
+      row.setData(chromatogramColumn, chromatogram);
+      featureTable.addRow(row);
+    }
+
+    // Save and open the project
+    File projectFile = File.createTempFile("MZmine_TestFile_", ".mzmine");
+    new ProjectFileSaveMethod(Collections.singletonList(featureTable), projectFile).execute();
+    ProjectFileOpenMethod opener = new ProjectFileOpenMethod(projectFile);
+    FeatureTable openedTable = opener.execute().get(0);
+
+    // The sample keeps its original file
+    Assert.assertEquals(1, opener.getSamples().size());
+    Sample openedSample = opener.getSamples().get(0);
+    Assert.assertEquals(originalFile, openedSample.getOriginalFile());
+    Assert.assertNull(openedSample.getRawDataFile());
+
+    // The data points are restored
+    FeatureTableColumn<Chromatogram> openedColumn =
+        openedTable.getColumn("Chromatogram", openedSample, Chromatogram.class);
+    Assert.assertNotNull(openedColumn);
+    Chromatogram chromatogram = openedTable.getRows().get(1).getData(openedColumn);
+    Assert.assertEquals(2, (int) chromatogram.getChromatogramNumber());
+    Assert.assertEquals(ChromatogramType.XIC, chromatogram.getChromatogramType());
+    Assert.assertEquals(200.0, chromatogram.getMz(), 0.0001);
+    Assert.assertEquals(3, chromatogram.getNumberOfDataPoints());
+    Assert.assertArrayEquals(new float[] {1f, 2f, 3f}, chromatogram.getRetentionTimes(), 0.0001f);
+    Assert.assertArrayEquals(new float[] {20f, 40f, 10f}, chromatogram.getIntensityValues(),
+        0.0001f);
+    Assert.assertArrayEquals(new double[] {100.0, 100.1, 100.2}, chromatogram.getMzValues(),
+        0.0001);
+
+    // Clean up
+    Assert.assertTrue(projectFile.delete());
+  }
+
+  @Test
+  public void Save_Over_Opened_Project() throws MSDKException, IOException {
+
+    // Create a table with two columns
+    ColumnarFeatureTable featureTable =
+        new ColumnarFeatureTable("table", DataPointStoreFactory.getMemoryDataStore());
+    FeatureTableColumn<Double> areaColumn =
+        new SimpleFeatureTableColumn<>("Area", Double.class, null);
+    FeatureTableColumn<String> commentColumn =
+        new SimpleFeatureTableColumn<>("Comment", String.class, null);
+    featureTable.addColumn(areaColumn);
+    featureTable.addColumn(commentColumn);
+    for (int i = 1; i <= 100; i++) {
+      FeatureTableRow row = featureTable.createRow(i);
+      row.setData(areaColumn, i * 10.0);
+      row.setData(commentColumn, "Row " + i);
+      featureTable.addRow(row);
+    }
+
+    File projectFile = File.createTempFile("MZmine_TestFile_", ".mzmine");
+    new ProjectFileSaveMethod(Collections.singletonList(featureTable), projectFile).execute();
+    FeatureTable openedTable = new ProjectFileOpenMethod(projectFile).execute().get(0);
+
+    // Replace the file while the comments of the opened table are not loaded yet
+    FeatureTableColumn<Double> openedArea = openedTable.getColumn("Area", null, Double.class);
+    FeatureTable areaTable =
+        new ColumnarFeatureTable("areas", DataPointStoreFactory.getMemoryDataStore());
+    areaTable.addColumn(openedArea);
+    for (FeatureTableRow row : openedTable.getRows()) {
+      FeatureTableRow areaRow = ((ColumnarFeatureTable) areaTable).createRow(row.getId());
+      areaRow.setData(openedArea, row.getData(openedArea));
+      areaTable.addRow(areaRow);
+    }
+    new ProjectFileSaveMethod(Collections.singletonList(areaTable), projectFile).execute();
+
+    // The opened table still has its values
+    FeatureTableColumn<String> openedComment =
+        openedTable.getColumn("Comment", null, String.class);
+    FeatureTableRow row = openedTable.getRows().get(41);
+    Assert.assertEquals(420.0, row.getData(openedArea), 0.0001);
+    Assert.assertEquals("Row 42", row.getData(openedComment));
+
+    // The new file holds the new table
+    FeatureTable reopenedTable = new ProjectFileOpenMethod(projectFile).execute().get(0);
+    Assert.assertEquals("areas", reopenedTable.getName());
+    Assert.assertEquals(1, reopenedTable.getColumns().size());
+
+    // Loading the last column closes the file
+    reopenedTable.getRows().get(0).getData(reopenedTable.getColumns().get(0));
+    Assert.assertTrue(projectFile.delete());
+  }
+
+  @Test(expected = MSDKException.class)
+  public void Open_Other_File() throws MSDKException {
+    File inputFile = new File(TEST_DATA_PATH + "Sample-2.3.csv");
+    Assert.assertTrue(inputFile.canRead());
+    new ProjectFileOpenMethod(inputFile).execute();
+  }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.io.RawDataFileImportMethod;
+import io.github.mzmine.datamodel.MappedFileDataPointStore;
+import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.project.auditlog.AuditLogEntry;
+import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
+import io.github.mzmine.util.ScanIndex;
+import javafx.concurrent.Task;
+
+/**
+ * Project open module
+ */
+public class ProjectOpenModule implements MZmineProcessingModule {
+
+  private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  @Nonnull
+  private static final String MODULE_NAME = "Open project";
+  @Nonnull
+  private static final String MODULE_DESCRIPTION =
+      "This module opens the feature tables and processing steps of a project file, and imports "
+          + "the raw data files of its samples.";
+
+  @Override
+  public @Nonnull String getName() {
+    return MODULE_NAME;
+  }
+
+  @Override
+  public @Nonnull String getDescription() {
+    return MODULE_DESCRIPTION;
+  }
+
+  @Override
+  public void runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
+      @Nonnull Collection<Task<?>> tasks) {
+
+    final File projectFile = parameters.getParameter(ProjectOpenParameters.projectFile).getValue();
+
+    if ((projectFile == null) || (!projectFile.canRead())) {
+      MZmineGUI.displayMessage("Cannot read file " + projectFile);
+      logger.warn("Cannot read file " + projectFile);
+      return;
+    }
+
+    ProjectFileOpenMethod method =
+        new ProjectFileOpenMethod(projectFile, project.getRawDataFiles());
+
+    MSDKTask newTask =
+        new MSDKTask("Opening project", projectFile.getName(), method, TaskType.IO);
+    newTask.setOnSucceeded(e -> {
+      List<FeatureTable> featureTables = method.getResult();
+      if (featureTables == null)
+        return;
+      for (FeatureTable featureTable : featureTables)
+        project.addFeatureTable(featureTable);
+      for (AuditLogEntry auditLogEntry : method.getAuditLog())
+        project.logProcessingStep(auditLogEntry);
+      project.setProjectFile(projectFile);
+      importRawDataFiles(project, method.getSamples());
+    });
+
+    tasks.add(newTask);
+  }
+
+  /**
+   * Imports the original files of the samples which are not linked to a loaded raw data file, and
+   * links the samples to the imported raw data files.
+   */
+  private void importRawDataFiles(@Nonnull MZmineProject project, @Nonnull List<Sample> samples) {
+    final Map<File, List<Sample>> unlinkedSamples = new LinkedHashMap<>();
+    for (Sample sample : samples) {
+      final File originalFile = sample.getOriginalFile();
+      if (sample.getRawDataFile() == null && originalFile != null)
+        unlinkedSamples.computeIfAbsent(originalFile, f -> new ArrayList<>()).add(sample);
+    }
+
+    for (Map.Entry<File, List<Sample>> entry : unlinkedSamples.entrySet()) {
+      final File originalFile = entry.getKey();
+      if (!originalFile.canRead()) {
+        logger.warn("Cannot read raw data file " + originalFile);
+        continue;
+      }
+
+      final RawDataFileImportMethod method;
+      try {
+        method = new RawDataFileImportMethod(originalFile, new MappedFileDataPointStore(originalFile));
+      } catch (IOException e) {
+        logger.error("Cannot create temporary file for " + originalFile, e);
+        continue;
+      }
+      MSDKTask newTask =
+          new MSDKTask("Importing raw data file", originalFile.getName(), method, TaskType.IO);
+      newTask.setOnSucceeded(e -> {
+        RawDataFile rawDataFile = method.getResult();
+        if (rawDataFile == null)
+          return;
+        for (Sample sample : entry.getValue())
+          sample.setRawDataFile(rawDataFile);
+        project.addImportedFile(rawDataFile);
+        MZmineCore.getTaskExecutor().getCpuExecutor().execute(() -> ScanIndex.forFile(rawDataFile));
+      });
+      MZmineCore.submitTask(newTask, null);
+    }
+  }
+
+  @Override
+  public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+    return ProjectOpenParameters.class;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.project;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
+import javafx.concurrent.Task;
+
+/**
+ * Project save module
+ */
+public class ProjectSaveModule implements MZmineProcessingModule {
+
+  private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  @Nonnull
+  private static final String MODULE_NAME = "Save project";
+  @Nonnull
+  private static final String MODULE_DESCRIPTION =
+      "This module saves the feature tables and processing steps of the project to a project "
+          + "file.";
+
+  @Override
+  public @Nonnull String getName() {
+    return MODULE_NAME;
+  }
+
+  @Override
+  public @Nonnull String getDescription() {
+    return MODULE_DESCRIPTION;
+  }
+
+  @Override
+  public void runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
+      @Nonnull Collection<Task<?>> tasks) {
+
+    final File projectFile = parameters.getParameter(ProjectSaveParameters.projectFile).getValue();
+
+    if (projectFile == null) {
+      MZmineGUI.displayMessage("The path and name of the project file cannot be empty.");
+      logger.warn("The path and name of the project file cannot be empty.");
+      return;
+    }
+
+    final List<FeatureTable> featureTables = project.getFeatureTables();
+    ProjectFileSaveMethod method =
+        new ProjectFileSaveMethod(featureTables, project.getAuditLog(), projectFile);
+
+    MSDKTask newTask =
+        new MSDKTask("Saving project", projectFile.getName(), method, TaskType.IO);
+    newTask.setOnSucceeded(e -> {
+      if (method.getResult() != null)
+        project.setProjectFile(projectFile);
+    });
+
+    tasks.add(newTask);
+  }
+
+  @Override
+  public boolean combinesInputs() {
+    return true;
+  }
+
+  @Override
+  public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+    return ProjectSaveParameters.class;
+  }
+}
@@ -86,6 +86,7 @@ import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import io.github.mzmine.project.MZmineProject;
 import io.github.mzmine.util.JavaFXUtil;
 import io.github.mzmine.util.MsScanUtils;
+import io.github.mzmine.util.ScanIndex;
 import io.github.mzmine.util.jfreechart.ChartNodeJFreeChart;
 import io.github.mzmine.util.jfreechart.IntelligentItemLabelGenerator;
 import io.github.mzmine.util.jfreechart.JFreeChartUtils;
@@ -421,10 +422,9 @@ public class MsSpectrumPlotWindowController {
       RawDataFile rawFile = scan.getRawDataFile();
       if (rawFile == null)
         return;
-      int scanIndex = rawFile.getScans().indexOf(scan);
-      if (scanIndex <= 0)
+      MsScan prevScan = ScanIndex.forFile(rawFile).getPreviousScan(scan);
+      if (prevScan == null)
         return;
-      MsScan prevScan = rawFile.getScans().get(scanIndex - 1);
       String title = MsScanUtils.createSingleLineMsScanDescription(prevScan);
       dataset.setSpectrum(prevScan, title);
     }
@@ -439,10 +439,9 @@ public class MsSpectrumPlotWindowController {
       RawDataFile rawFile = scan.getRawDataFile();
       if (rawFile == null)
         return;
-      int scanIndex = rawFile.getScans().indexOf(scan);
-      if (scanIndex == rawFile.getScans().size() - 1)
+      MsScan nextScan = ScanIndex.forFile(rawFile).getNextScan(scan);
+      if (nextScan == null)
         return;
-      MsScan nextScan = rawFile.getScans().get(scanIndex + 1);
       String title = MsScanUtils.createSingleLineMsScanDescription(nextScan);
       dataset.setSpectrum(nextScan, title);
     }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.rawdata.centroiding;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.datamodel.MsScan;
+import io.github.msdk.datamodel.RawDataFile;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.spectra.centroiding.MSDKCentroidingAlgorithm;
+import io.github.mzmine.main.MZmineCore;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+
+/**
+ * Centroiding algorithm which processes the scans of a raw data file in parallel. The
+ * MSDKCentroidingMethod asks for the centroided scans one by one in the order of the file, while
+ * the following scans are already being centroided in the computation pool of the task executor.
+ * Every thread uses its own instance of the actual algorithm, and the results are returned in the
+ * scan order, so the new raw data file is identical to the one produced sequentially.
+ */
+public class ParallelCentroidingAlgorithm implements MSDKCentroidingAlgorithm {
+
+  private final @Nonnull List<MsScan> scans;
+  private final @Nonnull Executor executor;
+  private final @Nonnull ThreadLocal<MSDKCentroidingAlgorithm> algorithms;
+  private final int maxScansAhead;
+  private final ArrayDeque<CompletableFuture<MsScan>> pendingScans = new ArrayDeque<>();
+  private int nextScan = 0, submittedScans = 0;
+  private volatile boolean canceled = false;
+
+  /**
+   * @param rawDataFile the file whose scans will be centroided.
+   * @param algorithmFactory creates a new instance of the actual algorithm.
+   */
+  public ParallelCentroidingAlgorithm(@Nonnull RawDataFile rawDataFile,
+      @Nonnull Supplier<MSDKCentroidingAlgorithm> algorithmFactory) {
+    Preconditions.checkNotNull(rawDataFile);
+    Preconditions.checkNotNull(algorithmFactory);
+    this.scans = rawDataFile.getScans();
+    this.executor = MZmineCore.getTaskExecutor().getCpuExecutor();
+    this.algorithms = ThreadLocal.withInitial(algorithmFactory);
+
+    // Limit the number of centroided scans waiting to be added to the new file
+    this.maxScansAhead = 4 * MZmineCore.getTaskExecutor().getNumberOfThreads();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized MsScan centroidScan(@Nonnull MsScan inputScan) {
+
+    // The result of a canceled method is discarded, and the data store may already be disposed
+    if (canceled)
+      return inputScan;
+
+    // Keep the pool busy with the following scans
+    while (submittedScans < scans.size() && submittedScans - nextScan < maxScansAhead) {
+      final MsScan scan = scans.get(submittedScans++);
+      pendingScans.add(CompletableFuture
+          .supplyAsync(() -> canceled ? null : algorithms.get().centroidScan(scan), executor));
+    }
+
+    // Scans requested out of the file order are centroided directly
+    if (pendingScans.isEmpty() || scans.get(nextScan) != inputScan)
+      return algorithms.get().centroidScan(inputScan);
+
+    nextScan++;
+    try {
+      return pendingScans.poll().join();
+    } catch (RuntimeException e) {
+      // Do not leave the following scans running when the method fails
+      cancel();
+      throw e;
+    }
+  }
+
+  /**
+   * Stops centroiding the following scans. The scans which are still waiting in the pool are
+   * skipped, and this method returns once the scans which are already being centroided are
+   * finished, so the data store is no longer written. Scans requested after this method was called
+   * are returned as they are.
+   */
+  public synchronized void cancel() {
+    canceled = true;
+    for (CompletableFuture<MsScan> pendingScan : pendingScans) {
+      try {
+        pendingScan.join();
+      } catch (RuntimeException e) {
+        // The result is discarded anyway
+      }
+    }
+    pendingScans.clear();
+  }
+
+  /**
+   * Cancels this algorithm and disposes the given data store when the given task is canceled or
+   * fails, as the centroided scans are not added to the project then. This is done in the pool,
+   * as waiting for the running scans must not block the JavaFX thread.
+   */
+  public void disposeOnFailure(@Nonnull Task<?> task, @Nonnull DataPointStore dataStore) {
+    Preconditions.checkNotNull(task);
+    Preconditions.checkNotNull(dataStore);
+    task.addEventHandler(WorkerStateEvent.WORKER_STATE_CANCELLED,
+        e -> executor.execute(() -> discard(dataStore)));
+    task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED,
+        e -> executor.execute(() -> discard(dataStore)));
+  }
+
+  private void discard(@Nonnull DataPointStore dataStore) {
+    cancel();
+    dataStore.dispose();
+  }
+
+}
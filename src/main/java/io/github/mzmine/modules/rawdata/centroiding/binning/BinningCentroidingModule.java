@@ -29,8 +29,10 @@ import io.github.msdk.datamodel.RawDataFile;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.spectra.centroiding.BinningCentroidingAlgorithm;
+import io.github.msdk.spectra.centroiding.MSDKCentroidingAlgorithm;
 import io.github.msdk.spectra.centroiding.MSDKCentroidingMethod;
 import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.rawdata.centroiding.ParallelCentroidingAlgorithm;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
 import io.github.mzmine.project.MZmineProject;
@@ -65,6 +67,8 @@ public class BinningCentroidingModule implements MZmineProcessingModule {
         parameters.getParameter(BinningCentroidingParameters.dataFiles).getValue();
     final Double binSize = parameters.getParameter(BinningCentroidingParameters.binSize).getValue();
     final String suffix = parameters.getParameter(BinningCentroidingParameters.suffix).getValue();
+    final Boolean parallel =
+        parameters.getParameter(BinningCentroidingParameters.parallel).getValue();
 
     if (rawDataFiles == null || rawDataFiles.getMatchingRawDataFiles().isEmpty()) {
       logger.warn("Centroiding module started with no raw data files selected");
@@ -77,7 +81,12 @@ public class BinningCentroidingModule implements MZmineProcessingModule {
       DataPointStore dataStore = DataPointStoreFactory.getTmpFileDataStore();
 
       final String newName = rawDataFile.getName() + " " + suffix;
-      BinningCentroidingAlgorithm algorithm = new BinningCentroidingAlgorithm(dataStore, binSize);
+      final MSDKCentroidingAlgorithm algorithm;
+      if (parallel != null && parallel)
+        algorithm = new ParallelCentroidingAlgorithm(rawDataFile,
+            () -> new BinningCentroidingAlgorithm(dataStore, binSize));
+      else
+        algorithm = new BinningCentroidingAlgorithm(dataStore, binSize);
 
       MSDKCentroidingMethod method = new MSDKCentroidingMethod(rawDataFile, algorithm, dataStore);
 
@@ -90,6 +99,10 @@ public class BinningCentroidingModule implements MZmineProcessingModule {
         project.addFile(newRawFile);
       });
 
+      // Stop the scans running in parallel before the data store is disposed
+      if (algorithm instanceof ParallelCentroidingAlgorithm)
+        ((ParallelCentroidingAlgorithm) algorithm).disposeOnFailure(newTask, dataStore);
+
       // Add the task to the queue
       tasks.add(newTask);
 
@@ -20,6 +20,7 @@ package io.github.mzmine.modules.rawdata.centroiding.binning;
 
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.DoubleParameter;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
@@ -34,8 +35,11 @@ public class BinningCentroidingParameters extends ParameterSet {
   public static final StringParameter suffix =
       new StringParameter("Suffix", "Suffix to add to the raw data file name", "centroided");
 
+  public static final BooleanParameter parallel = new BooleanParameter("Parallel processing",
+      "If checked, the scans of each file are centroided in parallel", "", true);
+
   public BinningCentroidingParameters() {
-    super(new Parameter[] {dataFiles, binSize, suffix});
+    super(new Parameter[] {dataFiles, binSize, suffix, parallel});
   }
 
 }
@@ -29,8 +29,10 @@ import io.github.msdk.datamodel.RawDataFile;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.spectra.centroiding.LocalMaximaCentroidingAlgorithm;
+import io.github.msdk.spectra.centroiding.MSDKCentroidingAlgorithm;
 import io.github.msdk.spectra.centroiding.MSDKCentroidingMethod;
 import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.rawdata.centroiding.ParallelCentroidingAlgorithm;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
 import io.github.mzmine.project.MZmineProject;
@@ -64,6 +66,8 @@ public class LocalMaxCentroidingModule implements MZmineProcessingModule {
     final RawDataFilesSelection rawDataFiles =
         parameters.getParameter(LocalMaxCentroidingParameters.dataFiles).getValue();
     final String suffix = parameters.getParameter(LocalMaxCentroidingParameters.suffix).getValue();
+    final Boolean parallel =
+        parameters.getParameter(LocalMaxCentroidingParameters.parallel).getValue();
 
     if (rawDataFiles == null || rawDataFiles.getMatchingRawDataFiles().isEmpty()) {
       logger.warn("Centroiding module started with no raw data files selected");
@@ -76,7 +80,12 @@ public class LocalMaxCentroidingModule implements MZmineProcessingModule {
       DataPointStore dataStore = DataPointStoreFactory.getTmpFileDataStore();
 
       final String newName = rawDataFile.getName() + " " + suffix;
-      LocalMaximaCentroidingAlgorithm algorithm = new LocalMaximaCentroidingAlgorithm(dataStore);
+      final MSDKCentroidingAlgorithm algorithm;
+      if (parallel != null && parallel)
+        algorithm = new ParallelCentroidingAlgorithm(rawDataFile,
+            () -> new LocalMaximaCentroidingAlgorithm(dataStore));
+      else
+        algorithm = new LocalMaximaCentroidingAlgorithm(dataStore);
 
       MSDKCentroidingMethod method = new MSDKCentroidingMethod(rawDataFile, algorithm, dataStore);
 
@@ -90,6 +99,10 @@ public class LocalMaxCentroidingModule implements MZmineProcessingModule {
         project.addFile(newRawFile);
       });
 
+      // Stop the scans running in parallel before the data store is disposed
+      if (algorithm instanceof ParallelCentroidingAlgorithm)
+        ((ParallelCentroidingAlgorithm) algorithm).disposeOnFailure(newTask, dataStore);
+
       // Add the task to the queue
       tasks.add(newTask);
 
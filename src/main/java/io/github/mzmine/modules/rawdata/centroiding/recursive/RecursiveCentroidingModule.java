@@ -30,9 +30,11 @@ import com.google.common.collect.Range;
 import io.github.msdk.datamodel.RawDataFile;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.spectra.centroiding.MSDKCentroidingAlgorithm;
 import io.github.msdk.spectra.centroiding.MSDKCentroidingMethod;
 import io.github.msdk.spectra.centroiding.RecursiveCentroidingAlgorithm;
 import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.rawdata.centroiding.ParallelCentroidingAlgorithm;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
 import io.github.mzmine.project.MZmineProject;
@@ -67,6 +69,8 @@ public class RecursiveCentroidingModule implements MZmineProcessingModule {
         parameters.getParameter(RecursiveCentroidingParameters.dataFiles).getValue();
     final Range<Double> mzPeakWidth = RecursiveCentroidingParameters.mzPeakWidth.getValue();
     final String suffix = parameters.getParameter(RecursiveCentroidingParameters.suffix).getValue();
+    final Boolean parallel =
+        parameters.getParameter(RecursiveCentroidingParameters.parallel).getValue();
 
     if (rawDataFiles == null || rawDataFiles.getMatchingRawDataFiles().isEmpty()) {
       logger.warn("Centroiding module started with no raw data files selected");
@@ -79,8 +83,12 @@ public class RecursiveCentroidingModule implements MZmineProcessingModule {
       DataPointStore dataStore = DataPointStoreFactory.getTmpFileDataStore();
 
       final String newName = rawDataFile.getName() + " " + suffix;
-      RecursiveCentroidingAlgorithm algorithm =
-          new RecursiveCentroidingAlgorithm(dataStore, mzPeakWidth);
+      final MSDKCentroidingAlgorithm algorithm;
+      if (parallel != null && parallel)
+        algorithm = new ParallelCentroidingAlgorithm(rawDataFile,
+            () -> new RecursiveCentroidingAlgorithm(dataStore, mzPeakWidth));
+      else
+        algorithm = new RecursiveCentroidingAlgorithm(dataStore, mzPeakWidth);
 
       MSDKCentroidingMethod method = new MSDKCentroidingMethod(rawDataFile, algorithm, dataStore);
 
@@ -94,6 +102,10 @@ public class RecursiveCentroidingModule implements MZmineProcessingModule {
         project.addFile(newRawFile);
       });
 
+      // Stop the scans running in parallel before the data store is disposed
+      if (algorithm instanceof ParallelCentroidingAlgorithm)
+        ((ParallelCentroidingAlgorithm) algorithm).disposeOnFailure(newTask, dataStore);
+
       // Add the task to the queue
       tasks.add(newTask);
 
@@ -28,9 +28,11 @@ import org.slf4j.LoggerFactory;
 import io.github.msdk.datamodel.RawDataFile;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.spectra.centroiding.MSDKCentroidingAlgorithm;
 import io.github.msdk.spectra.centroiding.MSDKCentroidingMethod;
 import io.github.msdk.spectra.centroiding.WaveletCentroidingAlgorithm;
 import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.rawdata.centroiding.ParallelCentroidingAlgorithm;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
 import io.github.mzmine.project.MZmineProject;
@@ -68,6 +70,8 @@ public class WaveletCentroidingModule implements MZmineProcessingModule {
     final Double waveletWindow =
         parameters.getParameter(WaveletCentroidingParameters.waveletWindow).getValue();
     final String suffix = parameters.getParameter(WaveletCentroidingParameters.suffix).getValue();
+    final Boolean parallel =
+        parameters.getParameter(WaveletCentroidingParameters.parallel).getValue();
 
     if (rawDataFiles == null || rawDataFiles.getMatchingRawDataFiles().isEmpty()) {
       logger.warn("Centroiding module started with no raw data files selected");
@@ -80,8 +84,12 @@ public class WaveletCentroidingModule implements MZmineProcessingModule {
       DataPointStore dataStore = DataPointStoreFactory.getTmpFileDataStore();
 
       final String newName = rawDataFile.getName() + " " + suffix;
-      WaveletCentroidingAlgorithm algorithm =
-          new WaveletCentroidingAlgorithm(dataStore, scaleLevel, waveletWindow);
+      final MSDKCentroidingAlgorithm algorithm;
+      if (parallel != null && parallel)
+        algorithm = new ParallelCentroidingAlgorithm(rawDataFile,
+            () -> new WaveletCentroidingAlgorithm(dataStore, scaleLevel, waveletWindow));
+      else
+        algorithm = new WaveletCentroidingAlgorithm(dataStore, scaleLevel, waveletWindow);
 
       MSDKCentroidingMethod method = new MSDKCentroidingMethod(rawDataFile, algorithm, dataStore);
 
@@ -94,6 +102,10 @@ public class WaveletCentroidingModule implements MZmineProcessingModule {
         project.addFile(newRawFile);
       });
 
+      // Stop the scans running in parallel before the data store is disposed
+      if (algorithm instanceof ParallelCentroidingAlgorithm)
+        ((ParallelCentroidingAlgorithm) algorithm).disposeOnFailure(newTask, dataStore);
+
       // Add the task to the queue
       tasks.add(newTask);
 
@@ -20,6 +20,7 @@ package io.github.mzmine.modules.rawdata.centroiding.wavelet;
 
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.PercentParameter;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
@@ -38,8 +39,11 @@ public class WaveletCentroidingParameters extends ParameterSet {
   public static final StringParameter suffix =
       new StringParameter("Suffix", "Suffix to add to the raw data file name", "centroided");
 
+  public static final BooleanParameter parallel = new BooleanParameter("Parallel processing",
+      "If checked, the scans of each file are centroided in parallel", "", true);
+
   public WaveletCentroidingParameters() {
-    super(new Parameter[] {dataFiles, scaleLevel, waveletWindow, suffix});
+    super(new Parameter[] {dataFiles, scaleLevel, waveletWindow, suffix, parallel});
   }
 
 }
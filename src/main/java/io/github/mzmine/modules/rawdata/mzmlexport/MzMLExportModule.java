@@ -33,6 +33,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
 import io.github.mzmine.project.MZmineProject;
 import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
 import javafx.concurrent.Task;
 
 /**
@@ -78,7 +79,8 @@ public class MzMLExportModule implements MZmineProcessingModule {
 
     MzMLFileExportMethod method = new MzMLFileExportMethod(rawDataFile, fileName);
 
-    MSDKTask newTask = new MSDKTask("mzML export", rawDataFile.getName(), method);
+    MSDKTask newTask =
+        new MSDKTask("mzML export", rawDataFile.getName(), method, TaskType.IO);
 
     // Add the task to the queue
     tasks.add(newTask);
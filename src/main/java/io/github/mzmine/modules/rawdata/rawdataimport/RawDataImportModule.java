@@ -19,10 +19,12 @@
 package io.github.mzmine.modules.rawdata.rawdataimport;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
@@ -34,11 +36,15 @@ import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
 import io.github.msdk.io.RawDataFileImportMethod;
+import io.github.mzmine.datamodel.MappedFileDataPointStore;
 import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.project.MZmineProject;
 import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
+import io.github.mzmine.util.ScanIndex;
 import javafx.concurrent.Task;
 
 /**
@@ -72,6 +78,8 @@ public class RawDataImportModule implements MZmineProcessingModule {
         parameters.getParameter(RawDataImportParameters.removePrefix).getValue();
     final String removeSuffix =
         parameters.getParameter(RawDataImportParameters.removeSuffix).getValue();
+    final RawDataImportMode importMode =
+        parameters.getParameter(RawDataImportParameters.importMode).getValue();
 
     if (fileNames == null) {
       logger.warn("Raw data import module started with no filenames");
@@ -85,10 +93,18 @@ public class RawDataImportModule implements MZmineProcessingModule {
         continue;
       }
 
-      DataPointStore dataStore = DataPointStoreFactory.getTmpFileDataStore();
+      final DataPointStore dataStore;
+      try {
+        dataStore = createDataStore(fileName, importMode);
+      } catch (IOException e) {
+        MZmineGUI.displayMessage("Cannot create temporary file for " + fileName);
+        logger.error("Cannot create temporary file for " + fileName, e);
+        continue;
+      }
 
       RawDataFileImportMethod method = new RawDataFileImportMethod(fileName, dataStore);
-      MSDKTask newTask = new MSDKTask("Importing raw data file", fileName.getName(), method);
+      MSDKTask newTask = new MSDKTask("Importing raw data file", fileName.getName(), method,
+          TaskType.IO);
       newTask.setOnSucceeded(e -> {
         RawDataFile rawDataFile = method.getResult();
         if (rawDataFile == null)
@@ -114,7 +130,10 @@ public class RawDataImportModule implements MZmineProcessingModule {
           rawDataFile.setName(name);
         }
 
-        project.addFile(rawDataFile);
+        project.addImportedFile(rawDataFile);
+
+        // Index the scans in the background, so the first scan selection does not wait for it
+        MZmineCore.getTaskExecutor().getCpuExecutor().execute(() -> ScanIndex.forFile(rawDataFile));
       });
       tasks.add(newTask);
 
@@ -122,6 +141,25 @@ public class RawDataImportModule implements MZmineProcessingModule {
 
   }
 
+  /**
+   * Creates the storage of the data points of one raw data file. The import methods always copy the
+   * data points, so transparent access uses the memory-mapped store too, which pages the data in
+   * from disk on demand.
+   */
+  private static @Nonnull DataPointStore createDataStore(@Nonnull File fileName,
+      @Nullable RawDataImportMode importMode) throws IOException {
+    if (importMode == null)
+      importMode = RawDataImportMode.TRANSPARENT;
+    switch (importMode) {
+      case LOAD_MEMORY:
+        return DataPointStoreFactory.getMemoryDataStore();
+      case LOAD_DISK:
+      case TRANSPARENT:
+      default:
+        return new MappedFileDataPointStore(fileName);
+    }
+  }
+
   @Override
   public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
     return RawDataImportParameters.class;
@@ -18,8 +18,8 @@
 
 package io.github.mzmine.parameters.parametertypes.selectors;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -30,6 +30,7 @@ import io.github.msdk.datamodel.msspectra.MsSpectrumType;
 import io.github.msdk.datamodel.rawdata.MsScan;
 import io.github.msdk.datamodel.rawdata.PolarityType;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.mzmine.util.ScanIndex;
 import io.github.mzmine.util.TextUtils;
 
 @Immutable
@@ -40,7 +41,8 @@ public class ScanSelection {
   private final PolarityType polarity;
   private final MsSpectrumType spectrumType;
   private final Integer msLevel;
-  private String scanDefinition;
+  private final String scanDefinition;
+  private final Pattern scanDefinitionPattern;
 
   public ScanSelection() {
     this(1);
@@ -62,6 +64,8 @@ public class ScanSelection {
     this.spectrumType = spectrumType;
     this.msLevel = msLevel;
     this.scanDefinition = scanDefinition;
+    this.scanDefinitionPattern = Strings.isNullOrEmpty(scanDefinition) ? null
+        : Pattern.compile(TextUtils.createRegexFromWildcards(scanDefinition));
   }
 
   public Range<Integer> getScanNumberRange() {
@@ -88,46 +92,12 @@ public class ScanSelection {
     return scanDefinition;
   }
 
+  /**
+   * Returns the scans of the given file matching this selection, in file order. The scans are
+   * looked up in the {@link ScanIndex} of the file.
+   */
   public List<MsScan> getMatchingScans(RawDataFile dataFile) {
-
-    final List<MsScan> matchingScans = new ArrayList<>();
-
-    for (MsScan scan : dataFile.getScans()) {
-
-      if ((msLevel != null) && (!msLevel.equals(scan.getMsFunction().getMsLevel())))
-        continue;
-
-      if ((polarity != null) && (!polarity.equals(scan.getPolarity())))
-        continue;
-
-      if ((spectrumType != null) && (!spectrumType.equals(scan.getSpectrumType())))
-        continue;
-
-      if ((scanNumberRange != null) && (!scanNumberRange.contains(scan.getScanNumber())))
-        continue;
-
-      if ((scanRTRange != null)
-          && (!scanRTRange.contains(scan.getChromatographyInfo().getRetentionTime().doubleValue())))
-        continue;
-
-      if (!Strings.isNullOrEmpty(scanDefinition)) {
-
-        final String actualScanDefition = scan.getScanDefinition();
-
-        if (Strings.isNullOrEmpty(actualScanDefition))
-          continue;
-
-        final String regex = TextUtils.createRegexFromWildcards(scanDefinition);
-
-        if (!actualScanDefition.matches(regex))
-          continue;
-
-      }
-
-      matchingScans.add(scan);
-    }
-
-    return matchingScans;
-
+    return ScanIndex.forFile(dataFile).getMatchingScans(scanNumberRange, scanRTRange, polarity,
+        spectrumType, msLevel, scanDefinitionPattern);
   }
 }
@@ -20,7 +20,10 @@ package io.github.mzmine.project;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -31,6 +34,7 @@ import io.github.msdk.datamodel.FeatureTable;
 import io.github.msdk.datamodel.RawDataFile;
 import io.github.msdk.datamodel.Sample;
 import io.github.mzmine.project.auditlog.AuditLogEntry;
+import io.github.mzmine.util.ScanIndex;
 
 /**
  * Simple implementation of the MZmineProject interface.
@@ -38,8 +42,10 @@ import io.github.mzmine.project.auditlog.AuditLogEntry;
 public class MZmineProject {
 
   private @Nullable File projectFile;
+  private volatile @Nullable ProjectJournal journal;
 
   private final List<RawDataFile> rawDataFiles = new ArrayList<>();
+  private final Set<RawDataFile> importedFiles = Collections.newSetFromMap(new IdentityHashMap<>());
   private final List<FeatureTable> featureTables = new ArrayList<>();
   private final List<AuditLogEntry> auditLog = new ArrayList<>();
 
@@ -52,6 +58,19 @@ public class MZmineProject {
     this.projectFile = projectFile;
   }
 
+  @Nullable
+  public ProjectJournal getJournal() {
+    return journal;
+  }
+
+  /**
+   * Sets the journal which records the changes of this project for recovery, or null to stop
+   * recording.
+   */
+  public void setJournal(@Nullable ProjectJournal journal) {
+    this.journal = journal;
+  }
+
   @Nonnull
   public List<Sample> getSamples() {
     final ArrayList<Sample> allSamples = new ArrayList<>();
@@ -66,16 +85,38 @@ public class MZmineProject {
     return ImmutableList.copyOf(allSamples);
   }
 
+  /**
+   * Adds a raw data file which was imported from its original file. Unlike raw data files created
+   * by processing, which are added by {@link #addFile(RawDataFile)}, imported files are recorded in
+   * the journal, so they can be imported again to recover the project.
+   */
+  public void addImportedFile(final RawDataFile rawDataFile) {
+    synchronized (rawDataFiles) {
+      importedFiles.add(rawDataFile);
+    }
+    addFile(rawDataFile);
+  }
+
   public void addFile(final RawDataFile rawDataFile) {
+    final boolean imported;
     synchronized (rawDataFiles) {
       rawDataFiles.add(rawDataFile);
+      imported = importedFiles.contains(rawDataFile);
     }
+    final ProjectJournal journal = this.journal;
+    if (journal != null)
+      journal.rawDataFileAdded(rawDataFile, imported);
   }
 
   public void removeFile(final RawDataFile rawDataFile) {
     synchronized (rawDataFiles) {
       rawDataFiles.remove(rawDataFile);
+      importedFiles.remove(rawDataFile);
     }
+    ScanIndex.invalidate(rawDataFile);
+    final ProjectJournal journal = this.journal;
+    if (journal != null)
+      journal.removed(rawDataFile);
   }
 
   public @Nonnull List<RawDataFile> getRawDataFiles() {
@@ -88,12 +129,29 @@ public class MZmineProject {
     synchronized (featureTables) {
       featureTables.add(featureTable);
     }
+    final ProjectJournal journal = this.journal;
+    if (journal != null)
+      journal.featureTableAdded(featureTable);
   }
 
   public void removeFeatureTable(final FeatureTable featureTable) {
     synchronized (featureTables) {
       featureTables.remove(featureTable);
     }
+    final ProjectJournal journal = this.journal;
+    if (journal != null)
+      journal.removed(featureTable);
+  }
+
+  /**
+   * Must be called after a feature table of the project was modified in place, e.g. when rows are
+   * deleted by the user, so the journal records the new content of the table. Modules which
+   * create a new table do not need to call it.
+   */
+  public void featureTableChanged(final FeatureTable featureTable) {
+    final ProjectJournal journal = this.journal;
+    if (journal != null)
+      journal.featureTableChanged(featureTable);
   }
 
   public @Nonnull List<FeatureTable> getFeatureTables() {
@@ -103,10 +161,14 @@ public class MZmineProject {
   }
 
   public void logProcessingStep(final AuditLogEntry auditLog) {
-    synchronized (auditLog) {
-      if (auditLog != null)
-        this.auditLog.add(auditLog);
+    synchronized (this.auditLog) {
+      if (auditLog == null)
+        return;
+      this.auditLog.add(auditLog);
     }
+    final ProjectJournal journal = this.journal;
+    if (journal != null)
+      journal.processingStepLogged(auditLog);
   }
 
   public @Nonnull List<AuditLogEntry> getAuditLog() {
@@ -0,0 +1,659 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.io.RawDataFileImportMethod;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
+import io.github.mzmine.datamodel.MappedFileDataPointStore;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.io.project.ProjectFileOpenMethod;
+import io.github.mzmine.modules.io.project.ProjectFileSaveMethod;
+import io.github.mzmine.project.auditlog.AuditLogEntry;
+import io.github.mzmine.taskcontrol.MSDKTask;
+import io.github.mzmine.taskcontrol.TaskType;
+import io.github.mzmine.util.ScanIndex;
+
+/**
+ * Append-only journal of the changes of a project, used to recover the project after MZmine did
+ * not shut down cleanly.
+ * 
+ * Every feature table, raw data file and processing step added to the project is appended as a
+ * small record to the current journal segment. A feature table which is modified in place is
+ * recorded again when the project is notified of the change. Feature tables are written to their own project
+ * file next to the segments, so the cost of a record only depends on the added object and never on
+ * the size of the project. All writes happen on a single background thread, the calling thread
+ * only encodes the record. Feature tables are copied on the calling thread first, so modules which
+ * keep modifying a table do not race with its serialization. Once enough records belong to removed
+ * objects, the live records are copied to a new segment and the old segments are deleted.
+ * 
+ * Imported raw data files are recorded by the path of their original file and imported again
+ * during recovery. Raw data files created by processing cannot be recovered this way and are not
+ * recorded.
+ *
+ * The journal is only discarded when the user exits MZmine, or when a batch finishes. Otherwise
+ * {@link #close()} keeps the records, so the project is recovered on the next start.
+ */
+public class ProjectJournal {
+
+  public static final File AUTOSAVE_DIR = new File("conf/autosave");
+
+  private static final long MAGIC = 0x4d5a4d494e45334aL; // "MZMINE3J"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12;
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  private static final byte TABLE_ADDED = 1, FILE_ADDED = 2, STEP_LOGGED = 3, REMOVED = 4;
+
+  private static final String SEGMENT_PREFIX = "journal-", SEGMENT_SUFFIX = ".log";
+  private static final String TABLE_PREFIX = "table-", TABLE_SUFFIX = ".mzmine";
+  private static final String LOCK_FILE = "journal.lock";
+
+  // Compact once this many records belong to removed objects and they outnumber the live records
+  private static final int COMPACTION_THRESHOLD = 256;
+
+  private static final Logger logger = LoggerFactory.getLogger(ProjectJournal.class);
+
+  private final @Nonnull File directory;
+  private final @Nonnull FileChannel lockChannel;
+  private final @Nonnull FileLock lock;
+
+  private final @Nonnull ExecutorService writer = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("Project autosave").setDaemon(true).build());
+
+  // Guarded by this, the IDs of the objects which are journaled
+  private final @Nonnull Map<Object, Long> ids = new IdentityHashMap<>();
+  private long nextId = 1;
+
+  // Guarded by this, modified by the writer thread only after open()
+  private final @Nonnull Map<Long, byte[]> liveRecords = new LinkedHashMap<>();
+  private int deadRecords = 0;
+  private int segmentNumber = 0;
+  private FileChannel segment;
+
+  private ProjectJournal(@Nonnull File directory, @Nonnull FileChannel lockChannel,
+      @Nonnull FileLock lock) {
+    this.directory = directory;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+  }
+
+  /**
+   * Opens the journal in the given directory, reading the records left by a previous session.
+   * Call {@link #replay(MZmineProject)} to add the recorded objects to a project.
+   *
+   * @throws IOException if the directory cannot be used, or is used by another MZmine instance.
+   */
+  public static @Nonnull ProjectJournal open(@Nonnull File directory) throws IOException {
+    Preconditions.checkNotNull(directory);
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException("Cannot create directory " + directory);
+
+    final FileChannel lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock;
+    try {
+      lock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock == null) {
+      lockChannel.close();
+      throw new IOException(directory + " is used by another MZmine instance");
+    }
+
+    final ProjectJournal journal = new ProjectJournal(directory, lockChannel, lock);
+    try {
+      journal.readSegments();
+      journal.compact();
+    } catch (IOException e) {
+      journal.closeFiles();
+      throw e;
+    }
+    return journal;
+  }
+
+  /**
+   * Returns true if no records were left by a previous session.
+   */
+  public boolean isEmpty() {
+    synchronized (this) {
+      return liveRecords.isEmpty();
+    }
+  }
+
+  /**
+   * Adds the objects recorded by a previous session to the given project. Feature tables and
+   * processing steps are added immediately, raw data files are imported again by tasks. Records
+   * which cannot be replayed are dropped from the journal.
+   */
+  public void replay(@Nonnull MZmineProject project) {
+    final List<Map.Entry<Long, byte[]>> records;
+    synchronized (this) {
+      records = new ArrayList<>(liveRecords.entrySet());
+    }
+
+    logger.info("Recovering " + records.size() + " objects of the previous session");
+
+    for (Map.Entry<Long, byte[]> record : records) {
+      final long id = record.getKey();
+      try {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getValue()));
+        final byte type = in.readByte();
+        in.readLong();
+        switch (type) {
+          case TABLE_ADDED:
+            replayFeatureTable(project, id, new File(directory, readString(in)));
+            break;
+          case FILE_ADDED:
+            replayRawDataFile(project, id, readString(in), new File(readString(in)));
+            break;
+          case STEP_LOGGED:
+            replayProcessingStep(project, id, readString(in), readString(in));
+            break;
+        }
+      } catch (Exception e) {
+        logger.warn("Cannot recover journal record " + id + ": " + e);
+        dropRecord(id);
+      }
+    }
+  }
+
+  private void replayFeatureTable(@Nonnull MZmineProject project, long id, @Nonnull File file)
+      throws MSDKException {
+    final List<FeatureTable> featureTables = new ProjectFileOpenMethod(file).execute();
+    for (FeatureTable featureTable : featureTables) {
+      bind(featureTable, id);
+      project.addFeatureTable(featureTable);
+    }
+  }
+
+  private void replayRawDataFile(@Nonnull MZmineProject project, long id, @Nonnull String name,
+      @Nonnull File originalFile) throws IOException {
+    if (!originalFile.canRead())
+      throw new IOException("Cannot read file " + originalFile);
+
+    final RawDataFileImportMethod method =
+        new RawDataFileImportMethod(originalFile, new MappedFileDataPointStore(originalFile));
+    final MSDKTask task =
+        new MSDKTask("Recovering raw data file", originalFile.getName(), method, TaskType.IO);
+    task.setOnSucceeded(e -> {
+      final RawDataFile rawDataFile = method.getResult();
+      if (rawDataFile == null) {
+        dropRecord(id);
+        return;
+      }
+      rawDataFile.setName(name);
+      bind(rawDataFile, id);
+      project.addImportedFile(rawDataFile);
+      MZmineCore.getTaskExecutor().getCpuExecutor().execute(() -> ScanIndex.forFile(rawDataFile));
+    });
+    task.setOnFailed(e -> dropRecord(id));
+    MZmineCore.submitTask(task, null);
+  }
+
+  private void replayProcessingStep(@Nonnull MZmineProject project, long id,
+      @Nonnull String moduleClassName, @Nonnull String parametersXml) throws IOException {
+    final AuditLogEntry auditLogEntry = AuditLogEntry.restore(moduleClassName, parametersXml);
+    bind(auditLogEntry, id);
+    project.logProcessingStep(auditLogEntry);
+  }
+
+  /**
+   * Records a feature table added to the project. The table is copied in the calling thread and
+   * the copy is saved in the background.
+   */
+  void featureTableAdded(@Nonnull FeatureTable featureTable) {
+    final long id = register(featureTable);
+    if (id < 0)
+      return;
+    final FeatureTable snapshot = snapshot(featureTable);
+    writer.execute(() -> {
+      final String fileName = TABLE_PREFIX + id + TABLE_SUFFIX;
+      try {
+        new ProjectFileSaveMethod(Collections.singletonList(snapshot),
+            new File(directory, fileName)).execute();
+        final RecordWriter out = new RecordWriter(TABLE_ADDED, id);
+        writeString(out, fileName);
+        append(id, out.toByteArray());
+      } catch (MSDKException | IOException e) {
+        logger.warn("Cannot autosave feature table " + featureTable.getName(), e);
+      }
+    });
+  }
+
+  /**
+   * Records the new content of a feature table of the project which was modified in place. The
+   * table is copied in the calling thread, and the record of its previous content is only dropped
+   * after the copy is saved. Tables which are not journaled are ignored.
+   */
+  void featureTableChanged(@Nonnull FeatureTable featureTable) {
+    final Long oldId;
+    synchronized (this) {
+      oldId = ids.remove(featureTable);
+    }
+    if (oldId == null)
+      return;
+    featureTableAdded(featureTable);
+    dropRecord(oldId);
+  }
+
+  /**
+   * Returns a copy of the rows and columns of the given table. Lists, e.g. of ion annotations, are
+   * copied as well, other values are shared with the table.
+   */
+  static @Nonnull FeatureTable snapshot(@Nonnull FeatureTable featureTable) {
+    final ColumnarFeatureTable snapshot = new ColumnarFeatureTable(featureTable.getName(),
+        DataPointStoreFactory.getMemoryDataStore());
+    final List<FeatureTableColumn<?>> columns = featureTable.getColumns();
+    for (FeatureTableColumn<?> column : columns)
+      snapshot.addColumn(column);
+    for (FeatureTableRow row : featureTable.getRows()) {
+      final FeatureTableRow snapshotRow = snapshot.createRow(row.getId());
+      for (FeatureTableColumn<?> column : columns) {
+        Object data = row.getData(column);
+        if (data instanceof List)
+          data = new ArrayList<>((List<?>) data);
+        if (data != null)
+          snapshotRow.setData(column, data);
+      }
+      snapshot.addRow(snapshotRow);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Records a raw data file added to the project. Only imported raw data files are recorded, see
+   * {@link MZmineProject#addImportedFile(RawDataFile)}.
+   */
+  void rawDataFileAdded(@Nonnull RawDataFile rawDataFile, boolean imported) {
+    final File originalFile = rawDataFile.getOriginalFile();
+    if (!imported || originalFile == null) {
+      logger.info("Raw data file " + rawDataFile.getName()
+          + " was not imported from a file, it cannot be recovered after a crash");
+      return;
+    }
+    final long id = register(rawDataFile);
+    if (id < 0)
+      return;
+    try {
+      final RecordWriter out = new RecordWriter(FILE_ADDED, id);
+      writeString(out, rawDataFile.getName());
+      writeString(out, originalFile.getAbsolutePath());
+      final byte record[] = out.toByteArray();
+      writer.execute(() -> append(id, record));
+    } catch (IOException e) {
+      logger.warn("Cannot autosave raw data file " + rawDataFile.getName(), e);
+    }
+  }
+
+  /**
+   * Records a processing step. The parameters are encoded immediately, so later changes of the
+   * parameter set do not affect the record.
+   */
+  void processingStepLogged(@Nonnull AuditLogEntry auditLogEntry) {
+    final long id = register(auditLogEntry);
+    if (id < 0)
+      return;
+    try {
+      final RecordWriter out = new RecordWriter(STEP_LOGGED, id);
+      writeString(out, auditLogEntry.getModule().getClass().getName());
+      writeString(out, auditLogEntry.getParametersXml());
+      final byte record[] = out.toByteArray();
+      writer.execute(() -> append(id, record));
+    } catch (IOException e) {
+      logger.warn("Cannot autosave processing step " + auditLogEntry.getModule().getName(), e);
+    }
+  }
+
+  /**
+   * Records the removal of a feature table, raw data file or processing step.
+   */
+  void removed(@Nonnull Object object) {
+    final Long id;
+    synchronized (this) {
+      id = ids.remove(object);
+    }
+    if (id != null)
+      dropRecord(id);
+  }
+
+  /**
+   * Removes all records, e.g. when the project is closed.
+   */
+  public void clear() {
+    synchronized (this) {
+      ids.clear();
+    }
+    writer.execute(() -> {
+      synchronized (this) {
+        liveRecords.clear();
+      }
+      deadRecords = 0;
+      try {
+        compact();
+      } catch (IOException e) {
+        logger.warn("Cannot clear the autosave journal", e);
+      }
+    });
+  }
+
+  /**
+   * Stops the journal after writing the pending records, keeping its files so the project is
+   * recovered on the next start. Called when MZmine is terminated without a confirmed exit.
+   */
+  public void close() {
+    writer.shutdown();
+    try {
+      if (!writer.awaitTermination(10, TimeUnit.SECONDS))
+        logger.warn("Autosave did not finish writing the project");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    closeFiles();
+  }
+
+  /**
+   * Stops the journal and deletes its files. Called when the user exits MZmine or a batch
+   * finishes, so there is nothing to recover on the next start.
+   */
+  public void discard() {
+    writer.shutdownNow();
+    try {
+      writer.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    closeFiles();
+    final File files[] = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!file.delete())
+          logger.debug("Cannot delete autosave file " + file);
+      }
+    }
+  }
+
+  private void closeFiles() {
+    try {
+      if (segment != null)
+        segment.close();
+      lock.release();
+      lockChannel.close();
+    } catch (IOException e) {
+      logger.warn("Cannot close the autosave journal", e);
+    }
+  }
+
+  /**
+   * Assigns an ID to a new object. Returns -1 if the object is already journaled, e.g. because it
+   * was recovered from the journal.
+   */
+  private synchronized long register(@Nonnull Object object) {
+    if (ids.containsKey(object))
+      return -1;
+    final long id = nextId++;
+    ids.put(object, id);
+    return id;
+  }
+
+  private synchronized void bind(@Nonnull Object object, long id) {
+    ids.put(object, id);
+  }
+
+  private void dropRecord(long id) {
+    writer.execute(() -> {
+      try {
+        final boolean live;
+        synchronized (this) {
+          live = liveRecords.containsKey(id);
+        }
+        if (live) {
+          append(-1, new RecordWriter(REMOVED, id).toByteArray());
+          synchronized (this) {
+            liveRecords.remove(id);
+          }
+          deadRecords += 2;
+          final File tableFile = new File(directory, TABLE_PREFIX + id + TABLE_SUFFIX);
+          if (tableFile.exists() && !tableFile.delete())
+            logger.debug("Cannot delete autosave file " + tableFile);
+        }
+        if (deadRecords >= COMPACTION_THRESHOLD && deadRecords > liveRecords.size())
+          compact();
+      } catch (IOException e) {
+        logger.warn("Cannot autosave the removal of object " + id, e);
+      }
+    });
+  }
+
+  /**
+   * Appends a record to the current segment. Records with a non-negative ID become live records.
+   * Called on the writer thread.
+   */
+  private void append(long id, @Nonnull byte record[]) {
+    try {
+      writeRecord(segment, record);
+      segment.force(false);
+      if (id >= 0) {
+        synchronized (this) {
+          liveRecords.put(id, record);
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Cannot write to the autosave journal", e);
+    }
+  }
+
+  /**
+   * Copies the live records to a new segment, then deletes the older segments and the feature
+   * table files which are not referenced anymore.
+   */
+  private void compact() throws IOException {
+    final int newNumber = segmentNumber + 1;
+    final File newFile = segmentFile(newNumber);
+    final FileChannel newSegment = FileChannel.open(newFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putLong(MAGIC);
+    header.putInt(VERSION);
+    header.flip();
+    writeFully(newSegment, header);
+    final List<String> liveFiles = new ArrayList<>();
+    liveFiles.add(LOCK_FILE);
+    liveFiles.add(newFile.getName());
+    synchronized (this) {
+      for (Map.Entry<Long, byte[]> record : liveRecords.entrySet()) {
+        writeRecord(newSegment, record.getValue());
+        if (record.getValue()[0] == TABLE_ADDED)
+          liveFiles.add(TABLE_PREFIX + record.getKey() + TABLE_SUFFIX);
+      }
+    }
+    newSegment.force(true);
+
+    if (segment != null)
+      segment.close();
+    segment = newSegment;
+    segmentNumber = newNumber;
+    deadRecords = 0;
+
+    // Temporary files of interrupted feature table saves are removed as well
+    final File files[] = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!liveFiles.contains(file.getName()) && !file.delete())
+          logger.debug("Cannot delete autosave file " + file);
+      }
+    }
+  }
+
+  /**
+   * Reads all segments in order. A segment ends at the first incomplete or corrupted record, which
+   * is where the previous session stopped writing.
+   */
+  private void readSegments() throws IOException {
+    final File files[] = directory.listFiles(
+        (dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if (files == null)
+      return;
+
+    final List<Integer> numbers = new ArrayList<>();
+    for (File file : files) {
+      final String name = file.getName();
+      try {
+        numbers.add(Integer.parseInt(
+            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+      } catch (NumberFormatException e) {
+        logger.debug("Ignoring file " + file);
+      }
+    }
+    Collections.sort(numbers);
+
+    for (int number : numbers) {
+      segmentNumber = number;
+      final byte content[] = Files.readAllBytes(segmentFile(number).toPath());
+      final ByteBuffer buffer = ByteBuffer.wrap(content);
+      if (buffer.remaining() < HEADER_SIZE || buffer.getLong() != MAGIC
+          || buffer.getInt() != VERSION) {
+        logger.warn("Ignoring invalid autosave segment " + segmentFile(number));
+        continue;
+      }
+
+      while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+        final int length = buffer.getInt();
+        final int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining())
+          break;
+        final byte record[] = new byte[length];
+        buffer.get(record);
+        if (checksum != checksum(record))
+          break;
+
+        final long id = ByteBuffer.wrap(record, 1, 8).getLong();
+        nextId = Math.max(nextId, id + 1);
+        if (record[0] == REMOVED) {
+          liveRecords.remove(id);
+          deadRecords += 2;
+        } else {
+          liveRecords.put(id, record);
+        }
+      }
+    }
+  }
+
+  private @Nonnull File segmentFile(int number) {
+    return new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+  }
+
+  private static void writeRecord(@Nonnull FileChannel channel, @Nonnull byte record[])
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + record.length);
+    buffer.putInt(record.length);
+    buffer.putInt(checksum(record));
+    buffer.put(record);
+    buffer.flip();
+    writeFully(channel, buffer);
+  }
+
+  private static void writeFully(@Nonnull FileChannel channel, @Nonnull ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+  }
+
+  private static int checksum(@Nonnull byte record[]) {
+    final CRC32 crc = new CRC32();
+    crc.update(record, 0, record.length);
+    return (int) crc.getValue();
+  }
+
+  private static void writeString(@Nonnull DataOutputStream out, @Nonnull String value)
+      throws IOException {
+    final byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static @Nonnull String readString(@Nonnull DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0)
+      throw new EOFException();
+    final byte bytes[] = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Encodes one record, which starts with the record type and the ID of the object.
+   */
+  private static class RecordWriter extends DataOutputStream {
+
+    RecordWriter(byte type, long id) throws IOException {
+      super(new ByteArrayOutputStream());
+      writeByte(type);
+      writeLong(id);
+    }
+
+    @Nonnull
+    byte[] toByteArray() throws IOException {
+      flush();
+      return ((ByteArrayOutputStream) out).toByteArray();
+    }
+
+  }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
+import io.github.mzmine.datamodel.SimpleFeatureTableColumn;
+
+public class ProjectJournalTest {
+
+  private static final FeatureTableColumn<Double> MZ_COLUMN =
+      new SimpleFeatureTableColumn<>("m/z", Double.class, null);
+
+  private File directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("MZmine_TestJournal_").toFile();
+  }
+
+  @After
+  public void deleteDirectory() {
+    final File files[] = directory.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void Append_And_Replay() throws IOException {
+
+    // Record a feature table
+    ProjectJournal journal = ProjectJournal.open(directory);
+    Assert.assertTrue(journal.isEmpty());
+    FeatureTable featureTable = createFeatureTable("table", 3);
+    journal.featureTableAdded(featureTable);
+
+    // The table is copied when it is added, later changes are not recorded
+    featureTable.getRows().get(0).setData(MZ_COLUMN, -1.0);
+    journal.close();
+
+    // Replay the table into a new project
+    journal = ProjectJournal.open(directory);
+    Assert.assertFalse(journal.isEmpty());
+    MZmineProject project = new MZmineProject();
+    journal.replay(project);
+    List<FeatureTable> featureTables = project.getFeatureTables();
+    Assert.assertEquals(1, featureTables.size());
+    FeatureTable recovered = featureTables.get(0);
+    Assert.assertEquals("table", recovered.getName());
+    Assert.assertEquals(3, recovered.getRows().size());
+    FeatureTableColumn<Double> column = recovered.getColumn("m/z", null, Double.class);
+    Assert.assertNotNull(column);
+    Assert.assertEquals(100.0, recovered.getRows().get(0).getData(column), 0.0001);
+
+    // The replayed table is not recorded twice
+    project.setJournal(journal);
+    project.addFeatureTable(recovered);
+    journal.close();
+    journal = ProjectJournal.open(directory);
+    project = new MZmineProject();
+    journal.replay(project);
+    Assert.assertEquals(1, project.getFeatureTables().size());
+    journal.close();
+  }
+
+  @Test
+  public void Record_Changed_Table() throws IOException {
+
+    ProjectJournal journal = ProjectJournal.open(directory);
+    MZmineProject project = new MZmineProject();
+    project.setJournal(journal);
+    FeatureTable featureTable = createFeatureTable("table", 3);
+    project.addFeatureTable(featureTable);
+
+    // Changes made in place are recorded when the project is notified
+    featureTable.getRows().get(0).setData(MZ_COLUMN, -1.0);
+    featureTable.removeRow(featureTable.getRows().get(2));
+    project.featureTableChanged(featureTable);
+    journal.close();
+
+    // Only the changed table is recovered
+    Assert.assertEquals(1, directory.listFiles((dir, name) -> name.endsWith(".mzmine")).length);
+    journal = ProjectJournal.open(directory);
+    project = new MZmineProject();
+    journal.replay(project);
+    Assert.assertEquals(1, project.getFeatureTables().size());
+    FeatureTable recovered = project.getFeatureTables().get(0);
+    Assert.assertEquals(2, recovered.getRows().size());
+    FeatureTableColumn<Double> column = recovered.getColumn("m/z", null, Double.class);
+    Assert.assertEquals(-1.0, recovered.getRows().get(0).getData(column), 0.0001);
+
+    // Tables which are not part of the project are not recorded
+    project.setJournal(journal);
+    project.featureTableChanged(createFeatureTable("other", 1));
+    journal.close();
+    journal = ProjectJournal.open(directory);
+    project = new MZmineProject();
+    journal.replay(project);
+    Assert.assertEquals(1, project.getFeatureTables().size());
+    journal.close();
+  }
+
+  @Test
+  public void Truncate_Corrupted_Record() throws IOException {
+
+    ProjectJournal journal = ProjectJournal.open(directory);
+    journal.featureTableAdded(createFeatureTable("first", 1));
+    journal.featureTableAdded(createFeatureTable("second", 1));
+    journal.close();
+
+    // Damage the last byte of the segment, which belongs to the second record
+    File segment = findSegments().get(0);
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.seek(file.length() - 1);
+      byte last = file.readByte();
+      file.seek(file.length() - 1);
+      file.writeByte(last ^ 0xff);
+    }
+
+    // Only the first record is recovered
+    journal = ProjectJournal.open(directory);
+    MZmineProject project = new MZmineProject();
+    journal.replay(project);
+    Assert.assertEquals(1, project.getFeatureTables().size());
+    Assert.assertEquals("first", project.getFeatureTables().get(0).getName());
+    journal.close();
+  }
+
+  @Test
+  public void Compact_Removed_Records() throws IOException {
+
+    ProjectJournal journal = ProjectJournal.open(directory);
+    FeatureTable kept = createFeatureTable("kept", 1);
+    journal.featureTableAdded(kept);
+    String firstSegment = findSegments().get(0).getName();
+
+    // Enough removed objects start a new segment
+    for (int i = 0; i < 200; i++) {
+      FeatureTable removed = createFeatureTable("removed " + i, 1);
+      journal.featureTableAdded(removed);
+      journal.removed(removed);
+    }
+    journal.close();
+
+    List<File> segments = findSegments();
+    Assert.assertEquals(1, segments.size());
+    Assert.assertFalse(firstSegment.equals(segments.get(0).getName()));
+
+    // Only the files of the kept table and the new segment remain
+    File files[] = directory.listFiles((dir, name) -> name.endsWith(".mzmine"));
+    Assert.assertEquals(1, files.length);
+
+    journal = ProjectJournal.open(directory);
+    MZmineProject project = new MZmineProject();
+    journal.replay(project);
+    Assert.assertEquals(1, project.getFeatureTables().size());
+    Assert.assertEquals("kept", project.getFeatureTables().get(0).getName());
+    journal.close();
+  }
+
+  @Test
+  public void Discard_Journal() throws IOException {
+
+    ProjectJournal journal = ProjectJournal.open(directory);
+    journal.featureTableAdded(createFeatureTable("table", 1));
+    journal.discard();
+
+    journal = ProjectJournal.open(directory);
+    Assert.assertTrue(journal.isEmpty());
+    journal.close();
+  }
+
+  private List<File> findSegments() {
+    List<File> segments = new ArrayList<>();
+    for (File file : directory.listFiles()) {
+      if (file.getName().startsWith("journal-") && file.getName().endsWith(".log"))
+        segments.add(file);
+    }
+    return segments;
+  }
+
+  private static FeatureTable createFeatureTable(String name, int rowCount) {
+    ColumnarFeatureTable featureTable =
+        new ColumnarFeatureTable(name, DataPointStoreFactory.getMemoryDataStore());
+    featureTable.addColumn(MZ_COLUMN);
+    for (int i = 0; i < rowCount; i++) {
+      FeatureTableRow row = featureTable.createRow(i + 1);
+      row.setData(MZ_COLUMN, 100.0 + i);
+      featureTable.addRow(row);
+    }
+    return featureTable;
+  }
+
+}
@@ -18,11 +18,25 @@
 
 package io.github.mzmine.project.auditlog;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineModule;
 import io.github.mzmine.parameters.ParameterSet;
 import javafx.concurrent.Task;
@@ -62,4 +76,51 @@ public class AuditLogEntry {
     return taskRecords;
   }
 
+  /**
+   * Returns the parameter values of this entry in the format of
+   * {@link ParameterSet#saveValuesToXML}, so the entry can be stored and restored by
+   * {@link #restore(String, String)}.
+   */
+  @Nonnull
+  public String getParametersXml() throws IOException {
+    try {
+      final Document document =
+          DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+      final Element parametersElement = document.createElement("parameters");
+      document.appendChild(parametersElement);
+      parameterSet.saveValuesToXML(parametersElement);
+      final StringWriter parametersXml = new StringWriter();
+      final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+      transformer.transform(new DOMSource(document), new StreamResult(parametersXml));
+      return parametersXml.toString();
+    } catch (Exception e) {
+      throw new IOException("Cannot encode the parameters of " + module.getName(), e);
+    }
+  }
+
+  /**
+   * Creates an entry without task records from the class name of the module and the parameters
+   * returned by {@link #getParametersXml()}.
+   */
+  @Nonnull
+  public static AuditLogEntry restore(@Nonnull String moduleClassName,
+      @Nonnull String parametersXml) throws IOException {
+    try {
+      final Class<? extends MZmineModule> moduleClass =
+          Class.forName(moduleClassName).asSubclass(MZmineModule.class);
+      MZmineModule module = MZmineCore.getModuleInstance(moduleClass);
+      if (module == null)
+        module = moduleClass.newInstance();
+
+      final ParameterSet parameters = module.getParameterSetClass().newInstance();
+      final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+          .parse(new InputSource(new StringReader(parametersXml)));
+      parameters.loadValuesFromXML(document.getDocumentElement());
+
+      return new AuditLogEntry(module, parameters, Collections.emptyList());
+    } catch (Exception e) {
+      throw new IOException("Cannot restore the processing step of " + moduleClassName, e);
+    }
+  }
+
 }
@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import io.github.msdk.MSDKMethod;
 import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.main.MZmineCore;
 import javafx.concurrent.Task;
 
 public class MSDKTask extends Task<Object> implements MZmineTask {
@@ -33,11 +34,18 @@ public class MSDKTask extends Task<Object> implements MZmineTask {
 
   private MSDKMethod<?> method;
   private String title, message;
+  private TaskType taskType;
 
   public MSDKTask(String title, @Nullable String message, MSDKMethod<?> method) {
+    this(title, message, method, TaskType.CPU);
+  }
+
+  public MSDKTask(String title, @Nullable String message, MSDKMethod<?> method,
+      TaskType taskType) {
     this.title = title;
     this.message = message;
     this.method = method;
+    this.taskType = taskType;
     refreshStatus();
 
     setOnCancelled(event -> method.cancel());
@@ -46,6 +54,10 @@ public class MSDKTask extends Task<Object> implements MZmineTask {
   @Override
   public void refreshStatus() {
 
+    // Status updates need the JavaFX toolkit
+    if (MZmineCore.isHeadless())
+      return;
+
     // Progress
     final Float finishedPerc = method.getFinishedPercentage();
     if (finishedPerc != null)
@@ -53,20 +65,32 @@ public class MSDKTask extends Task<Object> implements MZmineTask {
 
     // Title and message
     updateTitle(title);
-    updateMessage(message);
+    updateMessage(
+        TaskMetrics.appendToMessage(message, MZmineCore.getTaskExecutor().getMetrics(this)));
+  }
+
+  @Override
+  public TaskType getTaskType() {
+    return taskType;
+  }
+
+  @Override
+  public Object execute() throws Exception {
+    return method.execute();
   }
 
   @Override
   protected Object call() throws Exception {
-    Object result = null;
     try {
-      result = method.execute();
-    } catch (Throwable e) {
+      return execute();
+    } catch (Exception e) {
       final String msg = "Error executing task " + title + ": " + e.getMessage();
       logger.error(msg, e);
       MZmineGUI.displayMessage(msg);
+
+      // Let the task fail, so the completion handler and the tasks depending on it see the error
+      throw e;
     }
-    return result;
   }
 
 }
@@ -25,4 +25,20 @@ public interface MZmineTask {
    */
   void refreshStatus();
 
+  /**
+   * Performs the work of the task in the calling thread, without going through the JavaFX task
+   * life cycle. This is used in headless mode, where the JavaFX toolkit is not available.
+   *
+   * @return the result of the task.
+   * @throws Exception if the processing failed.
+   */
+  Object execute() throws Exception;
+
+  /**
+   * Returns the kind of work this task performs, which decides the thread pool running it.
+   */
+  default TaskType getTaskType() {
+    return TaskType.CPU;
+  }
+
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.taskcontrol;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.github.mzmine.main.MZmineCore;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
+
+/**
+ * Runs MZmine tasks. Computation bound tasks run in a work-stealing pool with one thread per
+ * allowed parallel task, tasks reading or writing files run in a separate, smaller pool so they do
+ * not compete for the disk. Both pools can be resized while tasks are running.
+ */
+public class TaskExecutor {
+
+  /**
+   * Maximum number of tasks reading or writing files at the same time.
+   */
+  public static final int MAX_IO_THREADS = 4;
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final AtomicInteger threadCounter = new AtomicInteger();
+  private final Map<Task<?>, TaskMetrics> taskMetrics =
+      Collections.synchronizedMap(new WeakHashMap<>());
+  private final @Nonnull ThreadPoolExecutor ioPool;
+  private volatile @Nonnull ForkJoinPool cpuPool;
+  private final @Nonnull Executor cpuExecutor = this::executeInCpuPool;
+  private int numberOfThreads;
+
+  public TaskExecutor(int numberOfThreads) {
+    Preconditions.checkArgument(numberOfThreads > 0);
+    this.numberOfThreads = numberOfThreads;
+    cpuPool = createCpuPool(numberOfThreads);
+    final int ioThreads = getIoThreads(numberOfThreads);
+    ioPool = new ThreadPoolExecutor(ioThreads, ioThreads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread =
+              new Thread(runnable, "MZmine I/O task " + threadCounter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /**
+   * Submits the given task for execution.
+   *
+   * @param task the task to run.
+   * @param taskType the kind of work the task performs.
+   */
+  public void execute(@Nonnull Task<?> task, @Nonnull TaskType taskType) {
+    execute(task, taskType, null);
+  }
+
+  /**
+   * Submits the given task for execution. The completion handler is called in the worker thread
+   * after the task has finished, failed or was cancelled, without waiting for the JavaFX
+   * application thread.
+   * 
+   * In headless mode, {@link MZmineTask}s are run through {@link MZmineTask#execute()} and their
+   * succeeded handler is called directly, because the JavaFX task life cycle needs the toolkit.
+   *
+   * @param task the task to run.
+   * @param taskType the kind of work the task performs.
+   * @param completionHandler code to run when the task is done, or null.
+   */
+  public void execute(@Nonnull Task<?> task, @Nonnull TaskType taskType,
+      @Nullable TaskCompletionHandler completionHandler) {
+    final TaskMetrics metrics = new TaskMetrics();
+    taskMetrics.put(task, metrics);
+    final Runnable runnable = () -> {
+      metrics.started();
+      Object result = null;
+      Throwable error = null;
+      try {
+        if (MZmineCore.isHeadless()) {
+          result = executeHeadless(task);
+        } else {
+          task.run();
+          if (completionHandler != null)
+            result = task.get();
+        }
+      } catch (ExecutionException e) {
+        error = e.getCause();
+      } catch (Throwable e) {
+        error = e;
+      } finally {
+        metrics.finished();
+        if (completionHandler != null)
+          completionHandler.taskFinished(result, error);
+      }
+    };
+
+    if (taskType == TaskType.IO)
+      ioPool.execute(runnable);
+    else
+      executeInCpuPool(runnable);
+  }
+
+  /**
+   * Returns the timing information of the given task, or null if the task was not submitted to
+   * this executor.
+   *
+   * @param task the task.
+   * @return a {@link TaskMetrics} object or null.
+   */
+  public @Nullable TaskMetrics getMetrics(@Nonnull Task<?> task) {
+    return taskMetrics.get(task);
+  }
+
+  /**
+   * Returns the work-stealing pool currently running the computation bound tasks. The pool is
+   * replaced when the number of threads changes, so it must not be kept for later submissions, use
+   * {@link #getCpuExecutor()} instead.
+   *
+   * @return the {@link ForkJoinPool}.
+   */
+  public @Nonnull ForkJoinPool getCpuPool() {
+    return cpuPool;
+  }
+
+  /**
+   * Returns an executor running jobs in the current computation pool. Each job is submitted to the
+   * pool which is current at the time of the submission, so the executor stays usable when the
+   * number of threads changes. Tasks should use it to run their own parallel sub-tasks.
+   *
+   * @return the {@link Executor}.
+   */
+  public @Nonnull Executor getCpuExecutor() {
+    return cpuExecutor;
+  }
+
+  public synchronized int getNumberOfThreads() {
+    return numberOfThreads;
+  }
+
+  /**
+   * Changes the number of tasks running in parallel. Running and queued computation tasks are
+   * finished in the previous pool, new tasks go to a new pool of the given size.
+   *
+   * @param numberOfThreads the number of threads.
+   */
+  public synchronized void setNumberOfThreads(int numberOfThreads) {
+    Preconditions.checkArgument(numberOfThreads > 0);
+    if (numberOfThreads == this.numberOfThreads)
+      return;
+
+    logger.debug("Setting the thread pool size to " + numberOfThreads);
+
+    final ForkJoinPool oldPool = cpuPool;
+    cpuPool = createCpuPool(numberOfThreads);
+    oldPool.shutdown();
+
+    // The core size must never exceed the maximum size
+    final int ioThreads = getIoThreads(numberOfThreads);
+    if (ioThreads > ioPool.getMaximumPoolSize()) {
+      ioPool.setMaximumPoolSize(ioThreads);
+      ioPool.setCorePoolSize(ioThreads);
+    } else {
+      ioPool.setCorePoolSize(ioThreads);
+      ioPool.setMaximumPoolSize(ioThreads);
+    }
+
+    this.numberOfThreads = numberOfThreads;
+  }
+
+  /**
+   * Submits the given job to the current computation pool. If the pool is shut down concurrently
+   * because the number of threads changed, the job is submitted to the new pool.
+   */
+  private void executeInCpuPool(@Nonnull Runnable runnable) {
+    while (true) {
+      final ForkJoinPool pool = cpuPool;
+      try {
+        pool.execute(runnable);
+        return;
+      } catch (RejectedExecutionException e) {
+        if (pool == cpuPool)
+          throw e;
+      }
+    }
+  }
+
+  private @Nullable Object executeHeadless(@Nonnull Task<?> task) throws Exception {
+    if (!(task instanceof MZmineTask))
+      throw new IllegalStateException(
+          task.getClass().getSimpleName() + " cannot run without the GUI");
+
+    final Object result;
+    try {
+      result = ((MZmineTask) task).execute();
+    } catch (Exception e) {
+      logger.error("Error executing " + task.getClass().getSimpleName() + ": " + e.getMessage(),
+          e);
+      throw e;
+    }
+
+    // Add the results to the project, as the JavaFX task would do after succeeding
+    final EventHandler<WorkerStateEvent> succeededHandler = task.getOnSucceeded();
+    if (succeededHandler != null)
+      succeededHandler.handle(new WorkerStateEvent(task, WorkerStateEvent.WORKER_STATE_SUCCEEDED));
+    return result;
+  }
+
+  private @Nonnull ForkJoinPool createCpuPool(int parallelism) {
+    return new ForkJoinPool(parallelism, pool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("MZmine task " + threadCounter.incrementAndGet());
+      return thread;
+    }, null, true);
+  }
+
+  private static int getIoThreads(int numberOfThreads) {
+    return Math.min(numberOfThreads, MAX_IO_THREADS);
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.taskcontrol;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TaskExecutorTest {
+
+  @Test
+  public void testCpuExecutorSurvivesResize() {
+    final TaskExecutor taskExecutor = new TaskExecutor(2);
+    final Executor executor = taskExecutor.getCpuExecutor();
+    Assert.assertEquals(Integer.valueOf(1),
+        CompletableFuture.supplyAsync(() -> 1, executor).join());
+
+    // The previous pool is shut down, jobs must go to the new one
+    taskExecutor.setNumberOfThreads(3);
+    Assert.assertEquals(3, taskExecutor.getCpuPool().getParallelism());
+    Assert.assertEquals(Integer.valueOf(2),
+        CompletableFuture.supplyAsync(() -> 2, executor).join());
+  }
+
+}
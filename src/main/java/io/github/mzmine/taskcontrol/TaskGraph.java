@@ -0,0 +1,407 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.taskcontrol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import io.github.mzmine.main.MZmineCore;
+import javafx.concurrent.Task;
+
+/**
+ * Runs tasks which depend on the results of other tasks. Each node of the graph creates its tasks
+ * once all of its dependencies have succeeded, and receives the results of their tasks as input.
+ * If a node fails, the nodes depending on it are skipped while the rest of the graph continues.
+ * 
+ * Nodes belong to stages, and each stage limits how many of its nodes run at the same time. Ready
+ * nodes of later stages are started first, so data flows through the whole graph before new input
+ * is read.
+ */
+public class TaskGraph {
+
+  public enum NodeStatus {
+    WAITING, READY, RUNNING, FINISHED, FAILED, SKIPPED
+  }
+
+  /**
+   * A group of nodes performing the same kind of work, such as one batch step.
+   */
+  public final class Stage {
+
+    private final @Nonnull String name;
+    private final int order, maxRunning;
+    private int running;
+
+    private Stage(@Nonnull String name, int order, int maxRunning) {
+      this.name = name;
+      this.order = order;
+      this.maxRunning = maxRunning;
+    }
+
+    public @Nonnull String getName() {
+      return name;
+    }
+
+    public int getMaxRunning() {
+      return maxRunning;
+    }
+
+  }
+
+  /**
+   * A unit of work, which creates its tasks when all of its dependencies have succeeded.
+   */
+  public final class Node {
+
+    private final int sequence;
+    private final @Nonnull Stage stage;
+    private final int lane;
+    private final @Nonnull Function<List<Object>, Collection<Task<?>>> taskFactory;
+    private final @Nonnull List<Node> dependencies;
+    private final List<Node> dependents = new ArrayList<>();
+    private final List<Node> followers = new ArrayList<>();
+    private final List<Task<?>> tasks = new ArrayList<>();
+    private final List<Object> results = new ArrayList<>();
+    private int pendingDependencies, pendingTasks;
+    private boolean failed;
+    private NodeStatus status = NodeStatus.WAITING;
+
+    private Node(int sequence, @Nonnull Stage stage, int lane, @Nonnull List<Node> dependencies,
+        @Nonnull Function<List<Object>, Collection<Task<?>>> taskFactory) {
+      this.sequence = sequence;
+      this.stage = stage;
+      this.lane = lane;
+      this.dependencies = dependencies;
+      this.taskFactory = taskFactory;
+      this.pendingDependencies = dependencies.size();
+    }
+
+    public @Nonnull Stage getStage() {
+      return stage;
+    }
+
+    public int getLane() {
+      return lane;
+    }
+
+    public @Nonnull NodeStatus getStatus() {
+      synchronized (TaskGraph.this) {
+        return status;
+      }
+    }
+
+    /**
+     * Returns the non-null results of the tasks of this node.
+     */
+    public @Nonnull List<Object> getResults() {
+      synchronized (TaskGraph.this) {
+        return ImmutableList.copyOf(results);
+      }
+    }
+
+    /**
+     * Delays this node until the given node has finished, failed or was skipped. Unlike a
+     * dependency, the results of the given node are not passed to this node. This is used to
+     * limit the amount of data in progress.
+     *
+     * @param predecessor a node of the same graph.
+     */
+    public void runAfter(@Nonnull Node predecessor) {
+      synchronized (TaskGraph.this) {
+        Preconditions.checkState(!started, "The task graph has already been started");
+        Preconditions.checkArgument(nodes.contains(predecessor));
+        predecessor.followers.add(this);
+        pendingDependencies++;
+      }
+    }
+
+  }
+
+  // Ready nodes of later stages first, then in the order of lanes and creation
+  private static final Comparator<Node> readyOrder =
+      Comparator.<Node>comparingInt(node -> -node.stage.order)
+          .thenComparingInt(node -> node.lane).thenComparingInt(node -> node.sequence);
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull BiConsumer<Task<?>, TaskCompletionHandler> taskSubmitter;
+  private final List<Stage> stages = new ArrayList<>();
+  private final List<Node> nodes = new ArrayList<>();
+  private final TreeSet<Node> readyNodes = new TreeSet<>(readyOrder);
+  private boolean started, cancelled;
+  private int unfinishedNodes, failedNodes;
+
+  /**
+   * Creates a graph which submits its tasks through {@link MZmineCore#submitTask}.
+   */
+  public TaskGraph() {
+    this(MZmineCore::submitTask);
+  }
+
+  /**
+   * Creates a graph which submits its tasks through the given function. The function receives the
+   * task and a handler, which must be called with the result once the task is done.
+   */
+  public TaskGraph(@Nonnull BiConsumer<Task<?>, TaskCompletionHandler> taskSubmitter) {
+    Preconditions.checkNotNull(taskSubmitter);
+    this.taskSubmitter = taskSubmitter;
+  }
+
+  /**
+   * Adds a new stage. Stages added later are considered to be further down the pipeline.
+   *
+   * @param name the name of the stage.
+   * @param maxRunning the maximum number of nodes of this stage running at the same time.
+   * @return the new {@link Stage}.
+   */
+  public synchronized @Nonnull Stage addStage(@Nonnull String name, int maxRunning) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkArgument(maxRunning > 0);
+    Preconditions.checkState(!started, "The task graph has already been started");
+    final Stage stage = new Stage(name, stages.size(), maxRunning);
+    stages.add(stage);
+    return stage;
+  }
+
+  /**
+   * Adds a new node.
+   *
+   * @param stage the stage of the node.
+   * @param lane the lane of the node, nodes of lower lanes are started first.
+   * @param dependencies the nodes whose results are the input of this node.
+   * @param taskFactory creates the tasks of the node from the concatenated results of the
+   *        dependencies. It may be called from any thread.
+   * @return the new {@link Node}.
+   */
+  public synchronized @Nonnull Node addNode(@Nonnull Stage stage, int lane,
+      @Nonnull Collection<Node> dependencies,
+      @Nonnull Function<List<Object>, Collection<Task<?>>> taskFactory) {
+    Preconditions.checkArgument(stages.contains(stage));
+    Preconditions.checkArgument(nodes.containsAll(dependencies));
+    Preconditions.checkNotNull(taskFactory);
+    Preconditions.checkState(!started, "The task graph has already been started");
+    final Node node =
+        new Node(nodes.size(), stage, lane, ImmutableList.copyOf(dependencies), taskFactory);
+    for (Node dependency : dependencies)
+      dependency.dependents.add(node);
+    nodes.add(node);
+    return node;
+  }
+
+  /**
+   * Starts all nodes which do not have any dependencies.
+   */
+  public void start() {
+    synchronized (this) {
+      Preconditions.checkState(!started, "The task graph has already been started");
+      started = true;
+      unfinishedNodes = nodes.size();
+      for (Node node : nodes) {
+        if (node.pendingDependencies == 0) {
+          node.status = NodeStatus.READY;
+          readyNodes.add(node);
+        }
+      }
+    }
+    dispatch();
+  }
+
+  /**
+   * Cancels the running tasks and skips all nodes which have not started yet.
+   */
+  public void cancel() {
+    final List<Task<?>> runningTasks = new ArrayList<>();
+    synchronized (this) {
+      cancelled = true;
+      readyNodes.clear();
+      for (Node node : nodes) {
+        if (node.status == NodeStatus.WAITING || node.status == NodeStatus.READY) {
+          node.status = NodeStatus.SKIPPED;
+          unfinishedNodes--;
+        } else if (node.status == NodeStatus.RUNNING) {
+          runningTasks.addAll(node.tasks);
+        }
+      }
+      if (unfinishedNodes == 0)
+        notifyAll();
+    }
+    for (Task<?> task : runningTasks)
+      task.cancel();
+  }
+
+  public synchronized boolean isFinished() {
+    return started && unfinishedNodes == 0;
+  }
+
+  /**
+   * Waits until all nodes have finished, failed or were skipped.
+   *
+   * @return true if all nodes finished successfully.
+   */
+  public synchronized boolean awaitCompletion() throws InterruptedException {
+    Preconditions.checkState(started, "The task graph has not been started");
+    while (unfinishedNodes > 0)
+      wait();
+    return failedNodes == 0 && !cancelled;
+  }
+
+  public synchronized @Nonnull List<Node> getNodes() {
+    return ImmutableList.copyOf(nodes);
+  }
+
+  /**
+   * Starts as many ready nodes as the stage limits allow.
+   */
+  private void dispatch() {
+    final List<Node> nodesToStart = new ArrayList<>();
+    synchronized (this) {
+      for (Node node : readyNodes) {
+        if (node.stage.running >= node.stage.maxRunning)
+          continue;
+        node.stage.running++;
+        node.status = NodeStatus.RUNNING;
+        nodesToStart.add(node);
+      }
+      readyNodes.removeAll(nodesToStart);
+    }
+    for (Node node : nodesToStart)
+      startNode(node);
+  }
+
+  private void startNode(@Nonnull Node node) {
+
+    // The results of finished nodes do not change anymore
+    final List<Object> input = new ArrayList<>();
+    for (Node dependency : node.dependencies)
+      input.addAll(dependency.results);
+
+    Collection<Task<?>> tasks;
+    try {
+      tasks = node.taskFactory.apply(Collections.unmodifiableList(input));
+    } catch (Exception e) {
+      logger.error("Could not start " + node.stage.name + ": " + e.getMessage(), e);
+      tasks = Collections.emptyList();
+      synchronized (this) {
+        node.failed = true;
+      }
+    }
+
+    synchronized (this) {
+      node.tasks.addAll(tasks);
+      node.pendingTasks = tasks.size();
+      if (tasks.isEmpty())
+        finishNode(node);
+    }
+    if (tasks.isEmpty()) {
+      dispatch();
+      return;
+    }
+
+    for (Task<?> task : tasks) {
+      taskSubmitter.accept(task, (result, error) -> taskFinished(node, task, result, error));
+      synchronized (this) {
+        if (cancelled)
+          task.cancel();
+      }
+    }
+  }
+
+  private void taskFinished(@Nonnull Node node, @Nonnull Task<?> task, @Nullable Object result,
+      @Nullable Throwable error) {
+    if (error != null)
+      logger.debug("Task " + task.getTitle() + " of " + node.stage.name + " did not finish: "
+          + error);
+
+    synchronized (this) {
+      if (result != null)
+        node.results.add(result);
+      if (error != null)
+        node.failed = true;
+      node.pendingTasks--;
+      if (node.pendingTasks == 0)
+        finishNode(node);
+    }
+    dispatch();
+  }
+
+  /**
+   * Marks a running node as done and releases the nodes waiting for it. Must be called while
+   * holding the lock.
+   */
+  private void finishNode(@Nonnull Node node) {
+    node.stage.running--;
+    if (node.failed || cancelled) {
+      node.status = NodeStatus.FAILED;
+      failedNodes++;
+    } else {
+      node.status = NodeStatus.FINISHED;
+    }
+    unfinishedNodes--;
+
+    for (Node dependent : node.dependents) {
+      if (node.status == NodeStatus.FINISHED)
+        dependencyFinished(dependent);
+      else
+        skipNode(dependent);
+    }
+    for (Node follower : node.followers)
+      dependencyFinished(follower);
+
+    if (unfinishedNodes == 0)
+      notifyAll();
+  }
+
+  private void dependencyFinished(@Nonnull Node node) {
+    node.pendingDependencies--;
+    if (node.pendingDependencies == 0 && node.status == NodeStatus.WAITING) {
+      node.status = NodeStatus.READY;
+      readyNodes.add(node);
+    }
+  }
+
+  private void skipNode(@Nonnull Node node) {
+    if (node.status != NodeStatus.WAITING)
+      return;
+    logger.info("Skipping " + node.stage.name + " in lane " + node.lane
+        + " because a previous step failed");
+    node.status = NodeStatus.SKIPPED;
+    unfinishedNodes--;
+    for (Node dependent : node.dependents)
+      skipNode(dependent);
+    for (Node follower : node.followers)
+      dependencyFinished(follower);
+  }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.taskcontrol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javafx.concurrent.Task;
+
+public class TaskGraphTest {
+
+  /**
+   * A task which is run through {@link MZmineTask#execute()}, so it does not need the JavaFX
+   * toolkit.
+   */
+  private static class TestTask extends Task<Object> implements MZmineTask {
+
+    private final Callable<Object> work;
+
+    private TestTask(Callable<Object> work) {
+      this.work = work;
+    }
+
+    @Override
+    public void refreshStatus() {}
+
+    @Override
+    public Object execute() throws Exception {
+      return work.call();
+    }
+
+    @Override
+    protected Object call() throws Exception {
+      return execute();
+    }
+
+  }
+
+  // Submitted tasks are queued and run one by one, in the order of submission
+  private final Deque<Runnable> queue = new ArrayDeque<>();
+  private final List<String> log = new ArrayList<>();
+  private TaskGraph graph;
+
+  @Before
+  public void setUp() {
+    queue.clear();
+    log.clear();
+    graph = new TaskGraph((task, handler) -> queue.add(() -> {
+      Object result = null;
+      Throwable error = null;
+      try {
+        result = ((MZmineTask) task).execute();
+      } catch (Exception e) {
+        error = e;
+      }
+      handler.taskFinished(result, error);
+    }));
+  }
+
+  private Collection<Task<?>> logged(String name, Object result) {
+    return Collections.singletonList(new TestTask(() -> {
+      log.add(name);
+      return result;
+    }));
+  }
+
+  private void runQueue() {
+    while (!queue.isEmpty())
+      queue.poll().run();
+  }
+
+  @Test
+  public void testResultsFlowToDependents() throws Exception {
+    final TaskGraph.Stage importStage = graph.addStage("import", 2);
+    final TaskGraph.Stage doubleStage = graph.addStage("double", 2);
+    final TaskGraph.Stage sumStage = graph.addStage("sum", 1);
+
+    final List<TaskGraph.Node> lanes = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      final int value = i + 1;
+      final TaskGraph.Node importNode = graph.addNode(importStage, i, Collections.emptyList(),
+          input -> logged("import " + value, value));
+      lanes.add(graph.addNode(doubleStage, i, Collections.singletonList(importNode),
+          input -> logged("double " + input, 2 * (Integer) input.get(0))));
+    }
+    final TaskGraph.Node sumNode = graph.addNode(sumStage, 0, lanes, input -> {
+      int sum = 0;
+      for (Object value : input)
+        sum += (Integer) value;
+      return logged("sum", sum);
+    });
+
+    graph.start();
+    runQueue();
+
+    Assert.assertTrue(graph.isFinished());
+    Assert.assertTrue(graph.awaitCompletion());
+    Assert.assertEquals(TaskGraph.NodeStatus.FINISHED, sumNode.getStatus());
+    Assert.assertEquals(Collections.singletonList(12), sumNode.getResults());
+  }
+
+  @Test
+  public void testLaterStagesStartFirst() throws Exception {
+    final TaskGraph.Stage importStage = graph.addStage("import", 1);
+    final TaskGraph.Stage processStage = graph.addStage("process", 1);
+    for (int i = 0; i < 3; i++) {
+      final int lane = i;
+      final TaskGraph.Node importNode = graph.addNode(importStage, lane,
+          Collections.emptyList(), input -> logged("import " + lane, lane));
+      graph.addNode(processStage, lane, Collections.singletonList(importNode),
+          input -> logged("process " + input.get(0), input.get(0)));
+    }
+
+    graph.start();
+    runQueue();
+
+    // Each file is processed before the next one is imported
+    Assert.assertTrue(graph.awaitCompletion());
+    Assert.assertEquals(Arrays.asList("import 0", "process 0", "import 1", "process 1",
+        "import 2", "process 2"), log);
+  }
+
+  @Test
+  public void testFailureSkipsDependents() throws Exception {
+    final TaskGraph.Stage importStage = graph.addStage("import", 2);
+    final TaskGraph.Stage processStage = graph.addStage("process", 2);
+    final TaskGraph.Stage alignStage = graph.addStage("align", 1);
+
+    final TaskGraph.Node failedImport = graph.addNode(importStage, 0, Collections.emptyList(),
+        input -> Collections.singletonList(new TestTask(() -> {
+          throw new IllegalStateException("Cannot read file");
+        })));
+    final TaskGraph.Node failedLane = graph.addNode(processStage, 0,
+        Collections.singletonList(failedImport), input -> logged("process 0", 0));
+    final TaskGraph.Node goodImport = graph.addNode(importStage, 1, Collections.emptyList(),
+        input -> logged("import 1", 1));
+    final TaskGraph.Node goodLane = graph.addNode(processStage, 1,
+        Collections.singletonList(goodImport), input -> logged("process 1", 1));
+    final TaskGraph.Node alignNode = graph.addNode(alignStage, 0,
+        Arrays.asList(failedLane, goodLane), input -> logged("align", 0));
+
+    graph.start();
+    runQueue();
+
+    Assert.assertTrue(graph.isFinished());
+    Assert.assertFalse(graph.awaitCompletion());
+    Assert.assertEquals(TaskGraph.NodeStatus.FAILED, failedImport.getStatus());
+    Assert.assertEquals(TaskGraph.NodeStatus.SKIPPED, failedLane.getStatus());
+    Assert.assertEquals(TaskGraph.NodeStatus.SKIPPED, alignNode.getStatus());
+
+    // The other lane is not affected
+    Assert.assertEquals(TaskGraph.NodeStatus.FINISHED, goodLane.getStatus());
+    Assert.assertEquals(Arrays.asList("import 1", "process 1"), log);
+  }
+
+  @Test
+  public void testFailingFactorySkipsDependents() throws Exception {
+    final TaskGraph.Stage importStage = graph.addStage("import", 1);
+    final TaskGraph.Stage processStage = graph.addStage("process", 1);
+    final TaskGraph.Node importNode =
+        graph.addNode(importStage, 0, Collections.emptyList(), input -> {
+          throw new IllegalStateException("No input data");
+        });
+    final TaskGraph.Node processNode = graph.addNode(processStage, 0,
+        Collections.singletonList(importNode), input -> logged("process", 0));
+
+    graph.start();
+    runQueue();
+
+    Assert.assertFalse(graph.awaitCompletion());
+    Assert.assertEquals(TaskGraph.NodeStatus.FAILED, importNode.getStatus());
+    Assert.assertEquals(TaskGraph.NodeStatus.SKIPPED, processNode.getStatus());
+    Assert.assertTrue(log.isEmpty());
+  }
+
+}
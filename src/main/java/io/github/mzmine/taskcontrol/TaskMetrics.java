@@ -0,0 +1,87 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.taskcontrol;
+
+import javax.annotation.Nullable;
+
+/**
+ * Timing information of a task submitted to the {@link TaskExecutor}.
+ */
+public class TaskMetrics {
+
+  private final long submitTime;
+  private volatile long startTime, endTime;
+
+  TaskMetrics() {
+    submitTime = System.nanoTime();
+  }
+
+  void started() {
+    startTime = System.nanoTime();
+  }
+
+  void finished() {
+    endTime = System.nanoTime();
+  }
+
+  /**
+   * Returns the time the task has been waiting in the queue, in milliseconds.
+   */
+  public long getQueueWaitTime() {
+    final long start = startTime;
+    final long end = start == 0 ? System.nanoTime() : start;
+    return (end - submitTime) / 1000000;
+  }
+
+  /**
+   * Returns the time the task has been running, in milliseconds, or 0 if it has not started yet.
+   */
+  public long getRunTime() {
+    final long start = startTime;
+    if (start == 0)
+      return 0;
+    final long end = endTime;
+    return ((end == 0 ? System.nanoTime() : end) - start) / 1000000;
+  }
+
+  /**
+   * Appends the timing information to the given task message, for display in the task table.
+   *
+   * @param message the task message.
+   * @param metrics the metrics of the task, or null if the task has not been submitted.
+   * @return the message including the timing information.
+   */
+  public static String appendToMessage(@Nullable String message, @Nullable TaskMetrics metrics) {
+    if (metrics == null)
+      return message;
+    final String timing = metrics.toString();
+    if (message == null || message.isEmpty())
+      return timing;
+    return message + " (" + timing + ")";
+  }
+
+  @Override
+  public String toString() {
+    if (startTime == 0)
+      return String.format("queued %.1f s", getQueueWaitTime() / 1000.0);
+    return String.format("queued %.1f s, running %.1f s", getQueueWaitTime() / 1000.0,
+        getRunTime() / 1000.0);
+  }
+
+}
@@ -13,11 +13,17 @@ package io.github.mzmine.util;
  */
 
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Range;
 
 import io.github.msdk.datamodel.datastore.DataPointStore;
@@ -38,6 +44,9 @@ import io.github.mzmine.datamodel.MSDKObjectBuilder;
  */
 public class FeatureTableUtil {
 
+  /** Number of rows processed by one job of the parallel average calculation. */
+  private static final int AVERAGES_CHUNK_SIZE = 1024;
+
   /**
    * Re-calculates the average m/z and RT values for a feature table
    *
@@ -45,89 +54,136 @@ public class FeatureTableUtil {
    *        the recalculation on.
    */
   public static void recalculateAverages(@Nonnull FeatureTable featureTable) {
+    recalculateAverages(featureTable, featureTable.getRows(), Runnable::run);
+  }
 
-    List<FeatureTableRow> rows = featureTable.getRows();
-    Double mz;
-    Float rt;
-    double totalMz;
-    float totalRt;
-    int mzCount, rtCount;
+  /**
+   * Re-calculates the average m/z and RT values of the given rows of a feature table, for example
+   * only the rows which were changed by a processing step. The columns are looked up once, then
+   * the rows are processed in chunks by the given executor.
+   *
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} to apply
+   *        the recalculation on.
+   * @param rows the rows of the feature table to update.
+   * @param executor the {@link java.util.concurrent.Executor} running the chunks of rows.
+   */
+  public static void recalculateAverages(@Nonnull FeatureTable featureTable,
+      @Nonnull List<FeatureTableRow> rows, @Nonnull Executor executor) {
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkNotNull(rows);
+    Preconditions.checkNotNull(executor);
 
     // Create row m/z and RT columns is they are missing in the table
-    FeatureTableColumn<?> column;
-    if (featureTable.getColumn(ColumnName.MZ, null) == null) {
-      column = MSDKObjectBuilder.getMzFeatureTableColumn();
-      featureTable.addColumn(column);
+    if (featureTable.getColumn(ColumnName.MZ, null) == null)
+      featureTable.addColumn(MSDKObjectBuilder.getMzFeatureTableColumn());
+    if (featureTable.getColumn(ColumnName.RT, null) == null)
+      featureTable.addColumn(MSDKObjectBuilder.getRetentionTimeFeatureTableColumn());
+
+    final AveragesColumns columns = new AveragesColumns(featureTable);
+    if (rows.size() <= AVERAGES_CHUNK_SIZE) {
+      for (FeatureTableRow row : rows)
+        columns.recalculate(row);
+      return;
+    }
+
+    final List<CompletableFuture<Void>> jobs = new ArrayList<>();
+    for (int start = 0; start < rows.size(); start += AVERAGES_CHUNK_SIZE) {
+      final List<FeatureTableRow> chunk =
+          rows.subList(start, Math.min(start + AVERAGES_CHUNK_SIZE, rows.size()));
+      jobs.add(CompletableFuture.runAsync(() -> {
+        for (FeatureTableRow row : chunk)
+          columns.recalculate(row);
+      }, executor));
     }
-    if (featureTable.getColumn(ColumnName.RT.getName(), null, Float.class) == null) {
-      column = MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
-      featureTable.addColumn(column);
+    try {
+      CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
     }
+  }
 
-    for (FeatureTableRow row : rows) {
-      List<Sample> samples = featureTable.getSamples();
-
-      totalMz = 0;
-      totalRt = 0;
-      mzCount = 0;
-      rtCount = 0;
-      for (Sample sample : samples) {
-        FeatureTableColumn<Double> mzColumn = featureTable.getColumn(ColumnName.MZ, sample);
-        if (mzColumn != null) {
-          mz = row.getData(mzColumn);
-          if (mz != null) {
-            totalMz += mz;
-            mzCount++;
-          }
-        }
+  /**
+   * Columns used to re-calculate the average values, looked up once per feature table.
+   */
+  private static class AveragesColumns {
+
+    private final @Nonnull List<FeatureTableColumn<Double>> mzColumns = new ArrayList<>();
+    private final @Nonnull List<FeatureTableColumn<Float>> rtColumns = new ArrayList<>();
+    private final @Nonnull FeatureTableColumn<Double> mzColumn;
+    private final @Nonnull FeatureTableColumn<Float> rtColumn;
+    private final @Nullable FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn;
+    private final @Nullable FeatureTableColumn<Double> ppmColumn;
+
+    AveragesColumns(@Nonnull FeatureTable featureTable) {
+      for (Sample sample : featureTable.getSamples()) {
+        FeatureTableColumn<Double> sampleMzColumn = featureTable.getColumn(ColumnName.MZ, sample);
+        if (sampleMzColumn != null)
+          mzColumns.add(sampleMzColumn);
+        FeatureTableColumn<Float> sampleRtColumn = featureTable.getColumn(ColumnName.RT, sample);
+        if (sampleRtColumn != null)
+          rtColumns.add(sampleRtColumn);
+      }
+      mzColumn = featureTable.getColumn(ColumnName.MZ, null);
+      rtColumn = featureTable.getColumn(ColumnName.RT, null);
+      ionAnnotationColumn = featureTable.getColumn(ColumnName.IONANNOTATION, null);
+      ppmColumn = featureTable.getColumn(ColumnName.PPM, null);
+    }
 
-        FeatureTableColumn<Float> rtColumn =
-            featureTable.getColumn(ColumnName.RT, sample);
-        if (rtColumn != null) {
-            rt = row.getData(rtColumn);
-            if (rt != null) {
-              totalRt += rt;
-              rtCount++;
-            }
-          }
+    void recalculate(@Nonnull FeatureTableRow row) {
+
+      double totalMz = 0;
+      int mzCount = 0;
+      for (FeatureTableColumn<Double> sampleMzColumn : mzColumns) {
+        Double mz = row.getData(sampleMzColumn);
+        if (mz != null) {
+          totalMz += mz;
+          mzCount++;
+        }
       }
 
-      // Update m/z
-      FeatureTableColumn<Double> mzColumn = featureTable.getColumn(ColumnName.MZ, null);
-      Double newMz = totalMz / mzCount;
-      row.setData(mzColumn, newMz);
-
-      // Update ppm
-      FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
-          featureTable.getColumn(ColumnName.IONANNOTATION, null);
-      if (ionAnnotationColumn != null) {
-        List<IonAnnotation> ionAnnotations = row.getData(ionAnnotationColumn);
-        if (ionAnnotations != null) {
-          Double totalIonMz = 0d;
-          Integer counter = 0;
-          for (IonAnnotation ionAnnotation : ionAnnotations) {
-            if (ionAnnotation != null) {
-              Double ionMz = ionAnnotation.getExpectedMz();
-              if (ionMz != null) {
-                totalIonMz = totalIonMz + ionMz;
-                counter++;
-              }
-            }
-          }
-          if (counter > 0) {
-            Double ionMz = totalIonMz / counter;
-            FeatureTableColumn<Double> ppmColumn = featureTable.getColumn(ColumnName.PPM, null);
-            Double diff = Math.abs(newMz - ionMz);
-            row.setData(ppmColumn, (diff / ionMz) * 1000000);
-          }
+      float totalRt = 0;
+      int rtCount = 0;
+      for (FeatureTableColumn<Float> sampleRtColumn : rtColumns) {
+        Float rt = row.getData(sampleRtColumn);
+        if (rt != null) {
+          totalRt += rt;
+          rtCount++;
         }
       }
 
+      // Update m/z and ppm, rows without any feature keep their values
+      if (mzCount > 0) {
+        final double newMz = totalMz / mzCount;
+        row.setData(mzColumn, newMz);
+        if (ionAnnotationColumn != null && ppmColumn != null)
+          updatePpm(row, newMz);
+      }
+
       // Update RT
-      FeatureTableColumn<Float> rtColumn  =
-          featureTable.getColumn("RetentionTime", null, Float.class);
-      if (rtColumn != null) {
+      if (rtCount > 0)
         row.setData(rtColumn, totalRt / rtCount);
+    }
+
+    private void updatePpm(@Nonnull FeatureTableRow row, double newMz) {
+      List<IonAnnotation> ionAnnotations = row.getData(ionAnnotationColumn);
+      if (ionAnnotations == null)
+        return;
+      double totalIonMz = 0;
+      int counter = 0;
+      for (IonAnnotation ionAnnotation : ionAnnotations) {
+        if (ionAnnotation != null) {
+          Double ionMz = ionAnnotation.getExpectedMz();
+          if (ionMz != null) {
+            totalIonMz += ionMz;
+            counter++;
+          }
+        }
+      }
+      if (counter > 0) {
+        double ionMz = totalIonMz / counter;
+        double diff = Math.abs(newMz - ionMz);
+        row.setData(ppmColumn, (diff / ionMz) * 1000000);
       }
     }
   }
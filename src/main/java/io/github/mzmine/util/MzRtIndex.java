@@ -0,0 +1,285 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Immutable index of points by m/z and retention time. The points are grouped into retention time
+ * buckets of a fixed width and sorted by m/z inside each bucket, so a window query only visits the
+ * buckets overlapping the RT window and the points inside the m/z window of each bucket.
+ *
+ * Points are identified by their position in the arrays the index was built from, and queries
+ * return these positions. Points with NaN m/z or RT are not indexed.
+ */
+@Immutable
+public class MzRtIndex {
+
+  // Upper limit of the number of RT buckets, for bucket widths which are very small compared to
+  // the RT range of the points
+  private static final int MAX_BUCKETS = 1 << 16;
+
+  private final float minRt, bucketWidth;
+  private final @Nonnull int bucketStarts[];
+
+  // The points in bucket and m/z order, with their original positions
+  private final @Nonnull double mzValues[];
+  private final @Nonnull float rtValues[];
+  private final @Nonnull int positions[];
+
+  /**
+   * Builds the index of the given points.
+   *
+   * @param mz the m/z values of the points.
+   * @param rt the retention times of the points, same length as mz.
+   * @param bucketWidth the width of the RT buckets. If it is not positive, all points are put in
+   *        one bucket.
+   */
+  public MzRtIndex(@Nonnull double mz[], @Nonnull float rt[], float bucketWidth) {
+    Preconditions.checkNotNull(mz);
+    Preconditions.checkNotNull(rt);
+    Preconditions.checkArgument(mz.length == rt.length);
+
+    final List<Integer> indexed = new ArrayList<>(mz.length);
+    float minRt = Float.POSITIVE_INFINITY, maxRt = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < mz.length; i++) {
+      if (Double.isNaN(mz[i]) || Float.isNaN(rt[i]))
+        continue;
+      minRt = Math.min(minRt, rt[i]);
+      maxRt = Math.max(maxRt, rt[i]);
+      indexed.add(i);
+    }
+    if (indexed.isEmpty()) {
+      minRt = 0f;
+      maxRt = 0f;
+    }
+    this.minRt = minRt;
+
+    final float rtSpan = maxRt - minRt;
+    float width = bucketWidth;
+    if (!(width > 0))
+      width = Float.POSITIVE_INFINITY;
+    if (rtSpan / width >= MAX_BUCKETS)
+      width = Math.max(rtSpan / (MAX_BUCKETS - 1), Float.MIN_NORMAL);
+    this.bucketWidth = width;
+    final int bucketCount = bucket(maxRt) + 1;
+
+    // Sort by bucket, then m/z, then position
+    final int bucketOf[] = new int[mz.length];
+    for (int i : indexed)
+      bucketOf[i] = bucket(rt[i]);
+    indexed.sort((i1, i2) -> {
+      if (bucketOf[i1] != bucketOf[i2])
+        return Integer.compare(bucketOf[i1], bucketOf[i2]);
+      return Double.compare(mz[i1], mz[i2]);
+    });
+
+    final int count = indexed.size();
+    mzValues = new double[count];
+    rtValues = new float[count];
+    positions = new int[count];
+    bucketStarts = new int[bucketCount + 1];
+    for (int j = 0; j < count; j++) {
+      final int i = indexed.get(j);
+      mzValues[j] = mz[i];
+      rtValues[j] = rt[i];
+      positions[j] = i;
+      bucketStarts[bucketOf[i] + 1] = j + 1;
+    }
+    for (int b = 1; b < bucketStarts.length; b++)
+      bucketStarts[b] = Math.max(bucketStarts[b], bucketStarts[b - 1]);
+  }
+
+  /**
+   * Returns the number of indexed points.
+   */
+  public int size() {
+    return positions.length;
+  }
+
+  /**
+   * Returns the positions of the points inside the given closed m/z and RT windows, in ascending
+   * order.
+   *
+   * @param mzMin the lower m/z bound.
+   * @param mzMax the upper m/z bound.
+   * @param rtMin the lower RT bound.
+   * @param rtMax the upper RT bound.
+   * @return the positions of the matching points.
+   */
+  public @Nonnull int[] getPointsInside(double mzMin, double mzMax, float rtMin, float rtMax) {
+    if (positions.length == 0 || !(mzMin <= mzMax) || !(rtMin <= rtMax))
+      return new int[0];
+
+    int matches[] = new int[8];
+    int matchCount = 0;
+    final int firstBucket = Math.max(0, bucket(rtMin));
+    final int lastBucket = Math.min(bucketStarts.length - 2, bucket(rtMax));
+    for (int b = firstBucket; b <= lastBucket; b++) {
+      final int end = bucketStarts[b + 1];
+      for (int j = lowerBound(bucketStarts[b], end, mzMin); j < end; j++) {
+        if (mzValues[j] > mzMax)
+          break;
+        if (rtValues[j] < rtMin || rtValues[j] > rtMax)
+          continue;
+        if (matchCount == matches.length)
+          matches = Arrays.copyOf(matches, matchCount * 2);
+        matches[matchCount++] = positions[j];
+      }
+    }
+
+    final int result[] = Arrays.copyOf(matches, matchCount);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Returns the positions of up to k points closest to the given m/z and RT, nearest first. The
+   * distance is the euclidean distance after dividing the m/z and RT differences by the given
+   * scales. Points at the same distance are returned in ascending position order.
+   *
+   * @param mz the m/z value.
+   * @param rt the retention time.
+   * @param k the maximum number of points to return.
+   * @param mzScale the scale of m/z differences.
+   * @param rtScale the scale of RT differences.
+   * @param excluded positions which must not be returned, or null.
+   * @return the positions of the nearest points.
+   */
+  public @Nonnull int[] getNearestPoints(double mz, float rt, int k, double mzScale,
+      float rtScale, @Nullable IntPredicate excluded) {
+    Preconditions.checkArgument(k >= 0);
+    Preconditions.checkArgument(mzScale > 0 && rtScale > 0);
+
+    final int bucketCount = bucketStarts.length - 1;
+    if (k == 0 || positions.length == 0 || Double.isNaN(mz) || Float.isNaN(rt))
+      return new int[0];
+
+    // Max-heap of the best candidates as {distance, position} pairs
+    final PriorityQueue<double[]> best = new PriorityQueue<>(k, (c1, c2) -> {
+      final int cmp = Double.compare(c2[0], c1[0]);
+      return cmp != 0 ? cmp : Double.compare(c2[1], c1[1]);
+    });
+
+    // Visit the buckets in order of their RT distance, starting with the bucket of the query RT,
+    // until the RT distance alone exceeds the distance of the k-th best candidate
+    final int startBucket = Math.max(0, Math.min(bucketCount - 1, bucket(rt)));
+    int left = startBucket - 1, right = startBucket + 1;
+    int b = startBucket;
+    while (b >= 0) {
+      final double bucketRtDist = bucketRtDistance(b, rt) / rtScale;
+      final double bucketRtDist2 = bucketRtDist * bucketRtDist;
+      if (best.size() == k && bucketRtDist2 > best.peek()[0])
+        break;
+
+      // Walk outwards from the query m/z in both directions. A direction is finished when its m/z
+      // difference exceeds the distance of the k-th best candidate.
+      final int start = bucketStarts[b], end = bucketStarts[b + 1];
+      int up = lowerBound(start, end, mz);
+      int down = up - 1;
+      while (up < end || down >= start) {
+        final double upMzDist = up < end ? (mzValues[up] - mz) / mzScale : Double.POSITIVE_INFINITY;
+        final double downMzDist =
+            down >= start ? (mz - mzValues[down]) / mzScale : Double.POSITIVE_INFINITY;
+        final boolean goUp = upMzDist <= downMzDist;
+        final double mzDist = goUp ? upMzDist : downMzDist;
+        if (best.size() == k && mzDist * mzDist + bucketRtDist2 > best.peek()[0])
+          break;
+
+        final int j = goUp ? up++ : down--;
+        if (excluded != null && excluded.test(positions[j]))
+          continue;
+        final double rtDist = (rtValues[j] - rt) / rtScale;
+        final double candidate[] = {mzDist * mzDist + rtDist * rtDist, positions[j]};
+        if (best.size() < k) {
+          best.add(candidate);
+        } else if (best.comparator().compare(candidate, best.peek()) > 0) {
+          best.poll();
+          best.add(candidate);
+        }
+      }
+
+      // Continue with the closer of the two neighbouring buckets
+      final double leftDist = left >= 0 ? bucketRtDistance(left, rt) : Double.POSITIVE_INFINITY;
+      final double rightDist =
+          right < bucketCount ? bucketRtDistance(right, rt) : Double.POSITIVE_INFINITY;
+      if (left < 0 && right >= bucketCount)
+        b = -1;
+      else if (leftDist <= rightDist)
+        b = left--;
+      else
+        b = right++;
+    }
+
+    final int result[] = new int[best.size()];
+    for (int j = result.length - 1; j >= 0; j--)
+      result[j] = (int) best.poll()[1];
+    return result;
+  }
+
+  /**
+   * Returns a lower bound of the RT difference between the given RT and the points of the given
+   * bucket. The bucket edges are widened by a few ulps, as the bucket of a point is computed in
+   * float precision.
+   */
+  private double bucketRtDistance(int b, float rt) {
+    final double low = (double) minRt + (double) b * bucketWidth;
+    final double high = low + bucketWidth;
+    final double slack = 4 * Math.ulp((float) (Math.abs(low) + Math.abs(high) + Math.abs(rt)));
+    if (rt < low)
+      return Math.max(0.0, low - rt - slack);
+    if (rt > high)
+      return Math.max(0.0, rt - high - slack);
+    return 0.0;
+  }
+
+  private int bucket(float rt) {
+    final float bucket = (rt - minRt) / bucketWidth;
+    if (bucket < 0)
+      return -1;
+    return bucket >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) bucket;
+  }
+
+  /**
+   * Returns the index of the first point between from and to with m/z greater or equal to the
+   * given value.
+   */
+  private int lowerBound(int from, int to, double mz) {
+    int low = from, high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (mzValues[mid] < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
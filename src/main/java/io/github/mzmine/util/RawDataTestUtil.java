@@ -0,0 +1,95 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import io.github.msdk.datamodel.msspectra.MsSpectrumType;
+import io.github.msdk.datamodel.rawdata.ChromatographyInfo;
+import io.github.msdk.datamodel.rawdata.MsFunction;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.PolarityType;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+
+/**
+ * Creates raw data files and scans for tests, without reading a file.
+ */
+public class RawDataTestUtil {
+
+  /**
+   * Creates an object of the given interface which returns the given values by method name, and
+   * null for all other methods.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T createObject(@Nonnull Class<T> type, @Nonnull Map<String, Object> values) {
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "equals":
+              return proxy == args[0];
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "toString":
+              return type.getSimpleName() + values;
+            default:
+              return values.get(method.getName());
+          }
+        });
+  }
+
+  /**
+   * Creates a positive, centroided scan with the given data points.
+   */
+  public static @Nonnull MsScan createScan(int scanNumber, float rt, int msLevel,
+      @Nonnull double mzValues[], @Nonnull float intensityValues[]) {
+    final Map<String, Object> functionValues = new HashMap<>();
+    functionValues.put("getMsLevel", msLevel);
+    final Map<String, Object> chromatographyValues = new HashMap<>();
+    chromatographyValues.put("getRetentionTime", rt);
+
+    final Map<String, Object> scanValues = new HashMap<>();
+    scanValues.put("getScanNumber", scanNumber);
+    scanValues.put("getMsFunction", createObject(MsFunction.class, functionValues));
+    scanValues.put("getChromatographyInfo",
+        createObject(ChromatographyInfo.class, chromatographyValues));
+    scanValues.put("getPolarity", PolarityType.POSITIVE);
+    scanValues.put("getSpectrumType", MsSpectrumType.CENTROIDED);
+    scanValues.put("getMzValues", mzValues);
+    scanValues.put("getIntensityValues", intensityValues);
+    scanValues.put("getNumberOfDataPoints", mzValues.length);
+    return createObject(MsScan.class, scanValues);
+  }
+
+  /**
+   * Creates a raw data file with the given scans. The list is not copied, so tests can change the
+   * scans of the file.
+   */
+  public static @Nonnull RawDataFile createFile(@Nonnull List<MsScan> scans) {
+    final Map<String, Object> fileValues = new HashMap<>();
+    fileValues.put("getName", "test");
+    fileValues.put("getScans", scans);
+    return createObject(RawDataFile.class, fileValues);
+  }
+
+}
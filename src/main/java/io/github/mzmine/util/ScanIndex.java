@@ -0,0 +1,402 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.msspectra.MsSpectrumType;
+import io.github.msdk.datamodel.rawdata.ChromatographyInfo;
+import io.github.msdk.datamodel.rawdata.MsFunction;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.PolarityType;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+
+/**
+ * Index of the scans of one raw data file. The scan metadata is read once, and the scans are
+ * grouped by MS level, polarity and spectrum type and sorted by retention time and scan number
+ * inside each group, so scan selections and scan navigation do not walk through the whole file.
+ *
+ * Use {@link #forFile(RawDataFile)} to get the index of a file. Indexes are cached per file and
+ * rebuilt if scans were added to, removed from or replaced in the file. The indexed scans refer to
+ * their file, so the cache only keeps soft references to the indexes, which the garbage collector
+ * clears when memory runs low. The index of a file should still be removed by
+ * {@link #invalidate(RawDataFile)} when the file is removed or disposed.
+ */
+@Immutable
+public class ScanIndex {
+
+  private static final Map<RawDataFile, SoftReference<ScanIndex>> indexes = new WeakHashMap<>();
+
+  private final @Nonnull ImmutableList<MsScan> scans;
+  private final @Nonnull Map<MsScan, Integer> scanPositions;
+  private final @Nonnull double rtValues[];
+  private final @Nonnull List<ScanGroup> groups;
+
+  /**
+   * Returns the index of the given raw data file, building it if needed.
+   *
+   * @param dataFile a {@link io.github.msdk.datamodel.rawdata.RawDataFile} object.
+   * @return the {@link ScanIndex} of the file.
+   */
+  public static @Nonnull ScanIndex forFile(@Nonnull RawDataFile dataFile) {
+    Preconditions.checkNotNull(dataFile);
+    final List<MsScan> fileScans = dataFile.getScans();
+    final SoftReference<ScanIndex> cachedIndex;
+    synchronized (indexes) {
+      cachedIndex = indexes.get(dataFile);
+    }
+    if (cachedIndex != null) {
+      final ScanIndex index = cachedIndex.get();
+      if (index != null && index.isIndexOf(fileScans))
+        return index;
+    }
+    final ScanIndex index = new ScanIndex(fileScans);
+    synchronized (indexes) {
+      indexes.put(dataFile, new SoftReference<>(index));
+    }
+    return index;
+  }
+
+  /**
+   * Removes the cached index of the given raw data file.
+   *
+   * @param dataFile a {@link io.github.msdk.datamodel.rawdata.RawDataFile} object.
+   */
+  public static void invalidate(@Nonnull RawDataFile dataFile) {
+    synchronized (indexes) {
+      indexes.remove(dataFile);
+    }
+  }
+
+  private ScanIndex(@Nonnull List<MsScan> fileScans) {
+    this.scans = ImmutableList.copyOf(fileScans);
+    this.scanPositions = new IdentityHashMap<>(scans.size());
+
+    // Read the metadata of each scan once and group the scans
+    final Map<GroupKey, List<Integer>> groupPositions = new LinkedHashMap<>();
+    this.rtValues = new double[scans.size()];
+    final int scanNumbers[] = new int[scans.size()];
+    for (int i = 0; i < scans.size(); i++) {
+      final MsScan scan = scans.get(i);
+      scanPositions.put(scan, i);
+
+      final MsFunction msFunction = scan.getMsFunction();
+      final Integer msLevel = msFunction == null ? null : msFunction.getMsLevel();
+      final GroupKey key = new GroupKey(msLevel, scan.getPolarity(), scan.getSpectrumType());
+      groupPositions.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+
+      final ChromatographyInfo chromatographyInfo = scan.getChromatographyInfo();
+      final Float rt = chromatographyInfo == null ? null : chromatographyInfo.getRetentionTime();
+      rtValues[i] = rt == null ? Double.NaN : rt.doubleValue();
+      final Integer scanNumber = scan.getScanNumber();
+      scanNumbers[i] = scanNumber == null ? Integer.MAX_VALUE : scanNumber;
+    }
+
+    final List<ScanGroup> groupList = new ArrayList<>(groupPositions.size());
+    for (Map.Entry<GroupKey, List<Integer>> entry : groupPositions.entrySet())
+      groupList.add(new ScanGroup(entry.getKey(), entry.getValue(), rtValues, scanNumbers));
+    this.groups = Collections.unmodifiableList(groupList);
+  }
+
+  /**
+   * Returns true if the index contains exactly the given scans, in the same order. Comparing the
+   * references is much cheaper than reading the metadata of the scans again.
+   */
+  private boolean isIndexOf(@Nonnull List<MsScan> fileScans) {
+    if (fileScans.size() != scans.size())
+      return false;
+    int i = 0;
+    for (MsScan scan : fileScans) {
+      if (scan != scans.get(i++))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns all scans of the file, in file order.
+   *
+   * @return an immutable list of {@link io.github.msdk.datamodel.rawdata.MsScan} objects.
+   */
+  public @Nonnull List<MsScan> getScans() {
+    return scans;
+  }
+
+  /**
+   * Returns the scans matching all given restrictions, in file order. A null restriction matches
+   * any scan.
+   *
+   * @param scanNumberRange range of scan numbers.
+   * @param scanRTRange range of retention times.
+   * @param polarity the polarity.
+   * @param spectrumType the spectrum type.
+   * @param msLevel the MS level.
+   * @param scanDefinitionPattern pattern which must match the whole scan definition.
+   * @return a list of {@link io.github.msdk.datamodel.rawdata.MsScan} objects.
+   */
+  public @Nonnull List<MsScan> getMatchingScans(@Nullable Range<Integer> scanNumberRange,
+      @Nullable Range<Double> scanRTRange, @Nullable PolarityType polarity,
+      @Nullable MsSpectrumType spectrumType, @Nullable Integer msLevel,
+      @Nullable Pattern scanDefinitionPattern) {
+
+    // Collect the positions of the candidates, using the sort order of the groups to skip the
+    // scans outside the RT or scan number range
+    int positions[] = new int[16];
+    int count = 0;
+    for (ScanGroup group : groups) {
+      if (!group.matches(msLevel, polarity, spectrumType))
+        continue;
+      final int range[] = group.getCandidates(scanNumberRange, scanRTRange);
+      final int byScanNumber = range[2];
+      for (int j = range[0]; j < range[1]; j++) {
+        final int position =
+            byScanNumber == 1 ? group.positionsByScanNumber[j] : group.positionsByRt[j];
+        final MsScan scan = scans.get(position);
+        if (scanNumberRange != null) {
+          final Integer scanNumber = scan.getScanNumber();
+          if (scanNumber == null || !scanNumberRange.contains(scanNumber))
+            continue;
+        }
+        if (scanRTRange != null) {
+          final double rt = rtValues[position];
+          if (Double.isNaN(rt) || !scanRTRange.contains(rt))
+            continue;
+        }
+        if (scanDefinitionPattern != null) {
+          final String scanDefinition = scan.getScanDefinition();
+          if (Strings.isNullOrEmpty(scanDefinition)
+              || !scanDefinitionPattern.matcher(scanDefinition).matches())
+            continue;
+        }
+        if (count == positions.length)
+          positions = Arrays.copyOf(positions, count * 2);
+        positions[count++] = position;
+      }
+    }
+
+    // Return the scans in file order
+    Arrays.sort(positions, 0, count);
+    final List<MsScan> matchingScans = new ArrayList<>(count);
+    for (int i = 0; i < count; i++)
+      matchingScans.add(scans.get(positions[i]));
+    return matchingScans;
+  }
+
+  /**
+   * Returns the scan following the given scan in the file, or null if the given scan is the last
+   * one or does not belong to the file.
+   *
+   * @param scan a {@link io.github.msdk.datamodel.rawdata.MsScan} object.
+   * @return the next scan or null.
+   */
+  public @Nullable MsScan getNextScan(@Nonnull MsScan scan) {
+    final Integer position = scanPositions.get(scan);
+    if (position == null || position == scans.size() - 1)
+      return null;
+    return scans.get(position + 1);
+  }
+
+  /**
+   * Returns the scan preceding the given scan in the file, or null if the given scan is the first
+   * one or does not belong to the file.
+   *
+   * @param scan a {@link io.github.msdk.datamodel.rawdata.MsScan} object.
+   * @return the previous scan or null.
+   */
+  public @Nullable MsScan getPreviousScan(@Nonnull MsScan scan) {
+    final Integer position = scanPositions.get(scan);
+    if (position == null || position == 0)
+      return null;
+    return scans.get(position - 1);
+  }
+
+  private static class GroupKey {
+
+    private final @Nullable Integer msLevel;
+    private final @Nullable PolarityType polarity;
+    private final @Nullable MsSpectrumType spectrumType;
+
+    GroupKey(@Nullable Integer msLevel, @Nullable PolarityType polarity,
+        @Nullable MsSpectrumType spectrumType) {
+      this.msLevel = msLevel;
+      this.polarity = polarity;
+      this.spectrumType = spectrumType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof GroupKey))
+        return false;
+      final GroupKey other = (GroupKey) o;
+      return Objects.equals(msLevel, other.msLevel) && polarity == other.polarity
+          && spectrumType == other.spectrumType;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(msLevel, polarity, spectrumType);
+    }
+  }
+
+  /**
+   * Scans sharing the same MS level, polarity and spectrum type. The positions of the scans in the
+   * file are kept twice, sorted by retention time and sorted by scan number. Scans without
+   * retention time or scan number are sorted last.
+   */
+  private static class ScanGroup {
+
+    private final @Nonnull GroupKey key;
+    private final @Nonnull int positionsByRt[];
+    private final @Nonnull double sortedRt[];
+    private final @Nonnull int positionsByScanNumber[];
+    private final @Nonnull int sortedScanNumbers[];
+
+    ScanGroup(@Nonnull GroupKey key, @Nonnull List<Integer> positions,
+        @Nonnull double rtValues[], @Nonnull int scanNumbers[]) {
+      this.key = key;
+
+      final Integer byRt[] = positions.toArray(new Integer[positions.size()]);
+      Arrays.sort(byRt, (p1, p2) -> Double.compare(rtValues[p1], rtValues[p2]));
+      positionsByRt = new int[byRt.length];
+      sortedRt = new double[byRt.length];
+      for (int i = 0; i < byRt.length; i++) {
+        positionsByRt[i] = byRt[i];
+        sortedRt[i] = rtValues[byRt[i]];
+      }
+
+      final Integer byScanNumber[] = positions.toArray(new Integer[positions.size()]);
+      Arrays.sort(byScanNumber, (p1, p2) -> Integer.compare(scanNumbers[p1], scanNumbers[p2]));
+      positionsByScanNumber = new int[byScanNumber.length];
+      sortedScanNumbers = new int[byScanNumber.length];
+      for (int i = 0; i < byScanNumber.length; i++) {
+        positionsByScanNumber[i] = byScanNumber[i];
+        sortedScanNumbers[i] = scanNumbers[byScanNumber[i]];
+      }
+    }
+
+    boolean matches(@Nullable Integer msLevel, @Nullable PolarityType polarity,
+        @Nullable MsSpectrumType spectrumType) {
+      if (msLevel != null && !msLevel.equals(key.msLevel))
+        return false;
+      if (polarity != null && !polarity.equals(key.polarity))
+        return false;
+      if (spectrumType != null && !spectrumType.equals(key.spectrumType))
+        return false;
+      return true;
+    }
+
+    /**
+     * Returns {from, to, byScanNumber}: the slice of one of the sorted position arrays which may
+     * contain matching scans. The scan number order is used if it gives the narrower slice.
+     */
+    @Nonnull
+    int[] getCandidates(@Nullable Range<Integer> scanNumberRange,
+        @Nullable Range<Double> scanRTRange) {
+      int rtFrom = 0, rtTo = sortedRt.length;
+      if (scanRTRange != null) {
+        if (scanRTRange.hasLowerBound())
+          rtFrom = lowerBound(sortedRt, scanRTRange.lowerEndpoint());
+        if (scanRTRange.hasUpperBound())
+          rtTo = upperBound(sortedRt, scanRTRange.upperEndpoint());
+      }
+      int numFrom = 0, numTo = sortedScanNumbers.length;
+      if (scanNumberRange != null) {
+        if (scanNumberRange.hasLowerBound())
+          numFrom = lowerBound(sortedScanNumbers, scanNumberRange.lowerEndpoint());
+        if (scanNumberRange.hasUpperBound())
+          numTo = upperBound(sortedScanNumbers, scanNumberRange.upperEndpoint());
+      }
+      if (numTo - numFrom < rtTo - rtFrom)
+        return new int[] {numFrom, Math.max(numFrom, numTo), 1};
+      return new int[] {rtFrom, Math.max(rtFrom, rtTo), 0};
+    }
+
+    /** Returns the index of the first value greater or equal to the given value. */
+    private static int lowerBound(@Nonnull double values[], double value) {
+      int low = 0, high = values.length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (Double.compare(values[mid], value) < 0)
+          low = mid + 1;
+        else
+          high = mid;
+      }
+      return low;
+    }
+
+    /** Returns the index of the first value greater than the given value. */
+    private static int upperBound(@Nonnull double values[], double value) {
+      int low = 0, high = values.length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (Double.compare(values[mid], value) <= 0)
+          low = mid + 1;
+        else
+          high = mid;
+      }
+      return low;
+    }
+
+    /** Returns the index of the first value greater or equal to the given value. */
+    private static int lowerBound(@Nonnull int values[], int value) {
+      int low = 0, high = values.length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (values[mid] < value)
+          low = mid + 1;
+        else
+          high = mid;
+      }
+      return low;
+    }
+
+    /** Returns the index of the first value greater than the given value. */
+    private static int upperBound(@Nonnull int values[], int value) {
+      int low = 0, high = values.length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (values[mid] <= value)
+          low = mid + 1;
+        else
+          high = mid;
+      }
+      return low;
+    }
+  }
+
+}
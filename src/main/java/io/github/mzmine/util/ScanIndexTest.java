@@ -0,0 +1,110 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.msspectra.MsSpectrumType;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.PolarityType;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+
+public class ScanIndexTest {
+
+  private static MsScan createScan(int scanNumber, float rt, int msLevel) {
+    return RawDataTestUtil.createScan(scanNumber, rt, msLevel, new double[0], new float[0]);
+  }
+
+  private static RawDataFile createFile(List<MsScan> scans) {
+    return RawDataTestUtil.createFile(scans);
+  }
+
+  /**
+   * Ten scans, alternating MS1 and MS2, with retention times out of order at the end.
+   */
+  private static List<MsScan> createScans() {
+    final List<MsScan> scans = new ArrayList<>();
+    for (int i = 1; i <= 8; i++)
+      scans.add(createScan(i, i * 10f, i % 2 == 1 ? 1 : 2));
+    scans.add(createScan(9, 45f, 1));
+    scans.add(createScan(10, 46f, 2));
+    return scans;
+  }
+
+  @Test
+  public void testMatchingScans() {
+    final List<MsScan> scans = createScans();
+    final ScanIndex index = ScanIndex.forFile(createFile(scans));
+
+    Assert.assertEquals(scans, index.getScans());
+    Assert.assertEquals(Arrays.asList(scans.get(4), scans.get(8)),
+        index.getMatchingScans(null, Range.closed(45.0, 55.0), null, null, 1, null));
+    Assert.assertEquals(Arrays.asList(scans.get(1), scans.get(3)),
+        index.getMatchingScans(Range.closed(2, 5), null, null, null, 2, null));
+    Assert.assertEquals(Arrays.asList(scans.get(3), scans.get(4), scans.get(8), scans.get(9)),
+        index.getMatchingScans(null, Range.closed(40.0, 50.0), PolarityType.POSITIVE,
+            MsSpectrumType.CENTROIDED, null, null));
+    Assert.assertTrue(index.getMatchingScans(null, null, PolarityType.NEGATIVE, null, null, null)
+        .isEmpty());
+  }
+
+  @Test
+  public void testNavigation() {
+    final List<MsScan> scans = createScans();
+    final ScanIndex index = ScanIndex.forFile(createFile(scans));
+
+    Assert.assertEquals(scans.get(1), index.getNextScan(scans.get(0)));
+    Assert.assertEquals(scans.get(8), index.getPreviousScan(scans.get(9)));
+    Assert.assertNull(index.getPreviousScan(scans.get(0)));
+    Assert.assertNull(index.getNextScan(scans.get(9)));
+    Assert.assertNull(index.getNextScan(createScan(1, 10f, 1)));
+  }
+
+  @Test
+  public void testIndexIsCachedUntilScansChange() {
+    final List<MsScan> scans = createScans();
+    final RawDataFile file = createFile(scans);
+    final ScanIndex index = ScanIndex.forFile(file);
+    Assert.assertSame(index, ScanIndex.forFile(file));
+
+    // Replacing a scan does not change the number of scans
+    final MsScan newScan = createScan(5, 51f, 1);
+    scans.set(4, newScan);
+    final ScanIndex newIndex = ScanIndex.forFile(file);
+    Assert.assertNotSame(index, newIndex);
+    Assert.assertEquals(Arrays.asList(newScan, scans.get(8)),
+        newIndex.getMatchingScans(null, Range.closed(45.0, 55.0), null, null, 1, null));
+
+    scans.add(createScan(11, 110f, 1));
+    final ScanIndex grownIndex = ScanIndex.forFile(file);
+    Assert.assertEquals(11, grownIndex.getScans().size());
+    Assert.assertSame(grownIndex, ScanIndex.forFile(file));
+
+    ScanIndex.invalidate(file);
+    Assert.assertNotSame(grownIndex, ScanIndex.forFile(file));
+  }
+
+}